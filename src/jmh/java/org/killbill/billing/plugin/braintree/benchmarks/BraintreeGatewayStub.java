@@ -0,0 +1,229 @@
+/*
+ * Copyright 2021 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.braintree.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.braintreegateway.BraintreeGateway;
+import com.braintreegateway.Environment;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * In-process stand-in for the Braintree gateway, speaking just enough of its XML API for the benchmarks:
+ * sale, submit for settlement, find, refund, void and customer lookup. Responses are canned and always
+ * successful, so the benchmarks measure the plugin (serialization, DAO, bookkeeping) rather than the network.
+ */
+public class BraintreeGatewayStub {
+
+    public static final String MERCHANT_ID = "benchmark_merchant";
+    public static final String CUSTOMER_ID = "benchmark_customer";
+
+    private static final Pattern TRANSACTION_ACTION = Pattern.compile("/merchants/[^/]+/transactions/([^/]+)/(submit_for_settlement|refund|void)");
+    private static final Pattern TRANSACTION = Pattern.compile("/merchants/[^/]+/transactions/([^/]+)");
+    private static final Pattern TRANSACTIONS = Pattern.compile("/merchants/[^/]+/transactions");
+    private static final Pattern CUSTOMER = Pattern.compile("/merchants/[^/]+/customers/([^/]+)");
+    private static final Pattern AMOUNT = Pattern.compile("<amount>([^<]+)</amount>");
+    private static final Pattern ORDER_ID = Pattern.compile("<orderId>([^<]+)</orderId>");
+    private static final Pattern PAYMENT_METHOD_TOKEN = Pattern.compile("<paymentMethodToken>([^<]+)</paymentMethodToken>");
+    private static final Pattern SUBMIT_FOR_SETTLEMENT = Pattern.compile("<submitForSettlement>true</submitForSettlement>");
+
+    private static final String DEFAULT_AMOUNT = "10.00";
+    private static final String TIMESTAMP = "2026-10-16T09:00:00Z";
+
+    private final int paymentMethodsPerCustomer;
+
+    private HttpServer server;
+    private ExecutorService executor;
+
+    public BraintreeGatewayStub(final int paymentMethodsPerCustomer) {
+        this.paymentMethodsPerCustomer = paymentMethodsPerCustomer;
+    }
+
+    public void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                try {
+                    respond(exchange, route(exchange.getRequestMethod(), exchange.getRequestURI().getPath(), readBody(exchange.getRequestBody())));
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    public void stop() {
+        if (server != null) {
+            server.stop(0);
+        }
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    public BraintreeGateway buildGateway() {
+        final String baseURL = "http://127.0.0.1:" + server.getAddress().getPort();
+        final BraintreeGateway gateway = new BraintreeGateway(new Environment(baseURL, baseURL, new String[]{}, "development"),
+                                                              MERCHANT_ID,
+                                                              "benchmark_public_key",
+                                                              "benchmark_private_key");
+        // The SDK logs every request at INFO, which would otherwise dominate the allocation profile
+        gateway.getConfiguration().getLogger().setLevel(Level.WARNING);
+        return gateway;
+    }
+
+    public static String paymentMethodToken(final int index) {
+        return "benchmark_token_" + index;
+    }
+
+    String route(final String method, final String path, final String body) {
+        Matcher matcher = TRANSACTION_ACTION.matcher(path);
+        if (matcher.matches()) {
+            final String action = matcher.group(2);
+            if ("refund".equals(action)) {
+                return transaction(UUID.randomUUID().toString(), "credit", "submitted_for_settlement", find(AMOUNT, body, DEFAULT_AMOUNT), null, paymentMethodToken(0));
+            } else if ("void".equals(action)) {
+                return transaction(matcher.group(1), "sale", "voided", DEFAULT_AMOUNT, null, paymentMethodToken(0));
+            } else {
+                return transaction(matcher.group(1), "sale", "submitted_for_settlement", find(AMOUNT, body, DEFAULT_AMOUNT), null, paymentMethodToken(0));
+            }
+        }
+
+        matcher = TRANSACTION.matcher(path);
+        if (matcher.matches() && "GET".equals(method)) {
+            // Settled, so that refunds go through Braintree's refund (rather than void) endpoint
+            return transaction(matcher.group(1), "sale", "settled", DEFAULT_AMOUNT, null, paymentMethodToken(0));
+        }
+
+        if (TRANSACTIONS.matcher(path).matches() && "POST".equals(method)) {
+            final String status = SUBMIT_FOR_SETTLEMENT.matcher(body).find() ? "submitted_for_settlement" : "authorized";
+            final String type = body.contains("<type>credit</type>") ? "credit" : "sale";
+            return transaction(UUID.randomUUID().toString(), type, status, find(AMOUNT, body, DEFAULT_AMOUNT), find(ORDER_ID, body, null), find(PAYMENT_METHOD_TOKEN, body, paymentMethodToken(0)));
+        }
+
+        matcher = CUSTOMER.matcher(path);
+        if (matcher.matches() && "GET".equals(method)) {
+            return customer(matcher.group(1));
+        }
+
+        return null;
+    }
+
+    private String transaction(final String id, final String type, final String status, final String amount, final String orderId, final String token) {
+        final StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<transaction>")
+                .append("<id>").append(id).append("</id>")
+                .append("<type>").append(type).append("</type>")
+                .append("<status>").append(status).append("</status>")
+                .append("<amount>").append(amount).append("</amount>")
+                .append("<currency-iso-code>USD</currency-iso-code>")
+                .append("<merchant-account-id>").append(MERCHANT_ID).append("</merchant-account-id>");
+        if (orderId != null) {
+            xml.append("<order-id>").append(orderId).append("</order-id>");
+        }
+        return xml.append("<created-at type=\"datetime\">").append(TIMESTAMP).append("</created-at>")
+                  .append("<updated-at type=\"datetime\">").append(TIMESTAMP).append("</updated-at>")
+                  .append("<payment-instrument-type>credit_card</payment-instrument-type>")
+                  .append("<processor-response-code>1000</processor-response-code>")
+                  .append("<processor-response-text>Approved</processor-response-text>")
+                  .append("<customer><id>").append(CUSTOMER_ID).append("</id></customer>")
+                  .append(creditCard(token, true))
+                  .append("<status-history type=\"array\"><status-event>")
+                  .append("<status>").append(status).append("</status>")
+                  .append("<amount>").append(amount).append("</amount>")
+                  .append("<timestamp type=\"datetime\">").append(TIMESTAMP).append("</timestamp>")
+                  .append("</status-event></status-history>")
+                  .append("</transaction>")
+                  .toString();
+    }
+
+    private String customer(final String id) {
+        final StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<customer>")
+                .append("<id>").append(id).append("</id>")
+                .append("<created-at type=\"datetime\">").append(TIMESTAMP).append("</created-at>")
+                .append("<updated-at type=\"datetime\">").append(TIMESTAMP).append("</updated-at>")
+                .append("<credit-cards type=\"array\">");
+        for (int i = 0; i < paymentMethodsPerCustomer; i++) {
+            xml.append(creditCard(paymentMethodToken(i), i == 0));
+        }
+        return xml.append("</credit-cards>")
+                  .append("<paypal-accounts type=\"array\"/>")
+                  .append("</customer>")
+                  .toString();
+    }
+
+    private static String creditCard(final String token, final boolean isDefault) {
+        return "<credit-card>" +
+               "<token>" + token + "</token>" +
+               "<customer-id>" + CUSTOMER_ID + "</customer-id>" +
+               "<bin>411111</bin>" +
+               "<last-4>1111</last-4>" +
+               "<card-type>Visa</card-type>" +
+               "<cardholder-name>Benchmark</cardholder-name>" +
+               "<expiration-month>12</expiration-month>" +
+               "<expiration-year>2030</expiration-year>" +
+               "<default type=\"boolean\">" + isDefault + "</default>" +
+               "<created-at type=\"datetime\">" + TIMESTAMP + "</created-at>" +
+               "<updated-at type=\"datetime\">" + TIMESTAMP + "</updated-at>" +
+               "</credit-card>";
+    }
+
+    private static String find(final Pattern pattern, final String body, final String defaultValue) {
+        final Matcher matcher = pattern.matcher(body);
+        return matcher.find() ? matcher.group(1) : defaultValue;
+    }
+
+    private static void respond(final HttpExchange exchange, final String xml) throws IOException {
+        if (xml == null) {
+            exchange.sendResponseHeaders(404, -1);
+            return;
+        }
+
+        final byte[] bytes = xml.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/xml; charset=utf-8");
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (final OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static String readBody(final InputStream in) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
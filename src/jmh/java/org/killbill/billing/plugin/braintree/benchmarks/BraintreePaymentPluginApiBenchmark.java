@@ -0,0 +1,220 @@
+/*
+ * Copyright 2021 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.braintree.benchmarks;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.killbill.billing.ObjectType;
+import org.killbill.billing.account.api.Account;
+import org.killbill.billing.account.api.AccountUserApi;
+import org.killbill.billing.catalog.api.Currency;
+import org.killbill.billing.osgi.libs.killbill.OSGIConfigPropertiesService;
+import org.killbill.billing.osgi.libs.killbill.OSGIKillbillAPI;
+import org.killbill.billing.payment.api.PluginProperty;
+import org.killbill.billing.payment.plugin.api.PaymentMethodInfoPlugin;
+import org.killbill.billing.payment.plugin.api.PaymentPluginApiException;
+import org.killbill.billing.payment.plugin.api.PaymentTransactionInfoPlugin;
+import org.killbill.billing.plugin.api.core.PluginCustomField;
+import org.killbill.billing.plugin.braintree.EmbeddedDbHelper;
+import org.killbill.billing.plugin.braintree.api.BraintreePaymentPluginApi;
+import org.killbill.billing.plugin.braintree.client.BraintreeClient;
+import org.killbill.billing.plugin.braintree.client.BraintreeClientImpl;
+import org.killbill.billing.plugin.braintree.core.BraintreeActivator;
+import org.killbill.billing.plugin.braintree.core.BraintreeConfigProperties;
+import org.killbill.billing.plugin.braintree.core.BraintreeConfigPropertiesConfigurationHandler;
+import org.killbill.billing.plugin.braintree.core.BraintreePluginProperties;
+import org.killbill.billing.plugin.braintree.dao.BraintreeDao;
+import org.killbill.billing.util.api.CustomFieldUserApi;
+import org.killbill.billing.util.callcontext.CallContext;
+import org.killbill.billing.util.callcontext.TenantContext;
+import org.killbill.billing.util.customfield.CustomField;
+import org.killbill.clock.ClockMock;
+import org.mockito.Mockito;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * End-to-end benchmarks of the plugin hot paths: BraintreePaymentPluginApi and BraintreeDao against an embedded
+ * database, with Braintree replaced by {@link BraintreeGatewayStub}.
+ * <p>
+ * Throughput mode reports operations per millisecond, sample time mode the latency percentiles (p0.99 included),
+ * and the gc profiler (enabled by the jmh Maven profile) the allocation rate (gc.alloc.rate.norm is bytes per operation).
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class BraintreePaymentPluginApiBenchmark {
+
+    private static final int NB_PAYMENT_METHODS = 5;
+    private static final BigDecimal AMOUNT = new BigDecimal("10.00");
+    private static final Iterable<PluginProperty> NO_PROPERTIES = ImmutableList.<PluginProperty>of();
+
+    @State(Scope.Benchmark)
+    public static class Plugin {
+
+        BraintreeGatewayStub stub;
+        BraintreePaymentPluginApi api;
+        CallContext context;
+        UUID kbAccountId;
+        UUID kbPaymentMethodId;
+        UUID settledKbPaymentId;
+
+        @Setup(Level.Trial)
+        public void setUp() throws Exception {
+            stub = new BraintreeGatewayStub(NB_PAYMENT_METHODS);
+            stub.start();
+            final BraintreeClient braintreeClient = new BraintreeClientImpl(stub.buildGateway());
+
+            EmbeddedDbHelper.instance().startDb();
+            EmbeddedDbHelper.instance().resetDB();
+            final BraintreeDao dao = EmbeddedDbHelper.instance().getBraintreeDao();
+
+            final ClockMock clock = new ClockMock();
+            final UUID kbTenantId = UUID.randomUUID();
+            // Stub-only mocks: regular mocks would record every invocation and leak over a long run
+            context = Mockito.mock(CallContext.class, Mockito.withSettings().stubOnly());
+            Mockito.when(context.getTenantId()).thenReturn(kbTenantId);
+
+            kbAccountId = UUID.randomUUID();
+            final Account account = Mockito.mock(Account.class, Mockito.withSettings().stubOnly());
+            Mockito.when(account.getId()).thenReturn(kbAccountId);
+            Mockito.when(account.getCurrency()).thenReturn(Currency.USD);
+            final OSGIKillbillAPI killbillApi = Mockito.mock(OSGIKillbillAPI.class, Mockito.withSettings().stubOnly());
+            final AccountUserApi accountUserApi = Mockito.mock(AccountUserApi.class, Mockito.withSettings().stubOnly());
+            Mockito.when(accountUserApi.getAccountById(Mockito.eq(kbAccountId), Mockito.any(TenantContext.class))).thenReturn(account);
+            Mockito.when(killbillApi.getAccountUserApi()).thenReturn(accountUserApi);
+            final CustomFieldUserApi customFieldUserApi = Mockito.mock(CustomFieldUserApi.class, Mockito.withSettings().stubOnly());
+            Mockito.when(customFieldUserApi.getCustomFieldsForAccountType(Mockito.eq(kbAccountId), Mockito.eq(ObjectType.ACCOUNT), Mockito.any(TenantContext.class)))
+                   .thenReturn(ImmutableList.<CustomField>of(new PluginCustomField(kbAccountId,
+                                                                                   ObjectType.ACCOUNT,
+                                                                                   BraintreePluginProperties.MAGIC_FIELD_BT_CUSTOMER_ID,
+                                                                                   BraintreeGatewayStub.CUSTOMER_ID,
+                                                                                   clock.getUTCNow())));
+            Mockito.when(killbillApi.getCustomFieldUserApi()).thenReturn(customFieldUserApi);
+
+            final BraintreeConfigPropertiesConfigurationHandler configurationHandler = new BraintreeConfigPropertiesConfigurationHandler("", BraintreeActivator.PLUGIN_NAME, killbillApi) {
+                @Override
+                public BraintreeClient getBraintreeClient(final UUID kbTenantId) {
+                    return braintreeClient;
+                }
+            };
+            configurationHandler.setDefaultConfigurable(new BraintreeConfigProperties(new Properties(), ""));
+            api = new BraintreePaymentPluginApi(configurationHandler,
+                                                killbillApi,
+                                                Mockito.mock(OSGIConfigPropertiesService.class, Mockito.withSettings().stubOnly()),
+                                                clock,
+                                                dao);
+
+            // Mirror the customer's payment methods in the stub, so that refreshes are updates in steady state
+            for (int i = 0; i < NB_PAYMENT_METHODS; i++) {
+                final UUID paymentMethodId = UUID.randomUUID();
+                dao.addPaymentMethod(kbAccountId, paymentMethodId, i == 0, ImmutableMap.<String, String>of(), clock.getUTCNow(), kbTenantId);
+                dao.updatePaymentMethod(paymentMethodId, ImmutableMap.<String, Object>of(), BraintreeGatewayStub.paymentMethodToken(i), clock.getUTCNow(), kbTenantId);
+                if (i == 0) {
+                    kbPaymentMethodId = paymentMethodId;
+                }
+            }
+
+            // Payment with an authorization, a capture and a refund, for getPaymentInfo
+            settledKbPaymentId = authorize(this);
+            capture(this, settledKbPaymentId);
+            api.refundPayment(kbAccountId, settledKbPaymentId, UUID.randomUUID(), kbPaymentMethodId, AMOUNT, Currency.USD, NO_PROPERTIES, context);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws Exception {
+            stub.stop();
+            EmbeddedDbHelper.instance().stopDB();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class AuthorizedPayment {
+
+        UUID kbPaymentId;
+
+        @Setup(Level.Invocation)
+        public void setUp(final Plugin plugin) throws PaymentPluginApiException {
+            kbPaymentId = authorize(plugin);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class CapturedPayment {
+
+        UUID kbPaymentId;
+
+        @Setup(Level.Invocation)
+        public void setUp(final Plugin plugin) throws PaymentPluginApiException {
+            kbPaymentId = authorize(plugin);
+            capture(plugin, kbPaymentId);
+        }
+    }
+
+    @Benchmark
+    public PaymentTransactionInfoPlugin authorizePayment(final Plugin plugin) throws PaymentPluginApiException {
+        return plugin.api.authorizePayment(plugin.kbAccountId, UUID.randomUUID(), UUID.randomUUID(), plugin.kbPaymentMethodId, AMOUNT, Currency.USD, NO_PROPERTIES, plugin.context);
+    }
+
+    @Benchmark
+    public PaymentTransactionInfoPlugin capturePayment(final Plugin plugin, final AuthorizedPayment payment) throws PaymentPluginApiException {
+        return plugin.api.capturePayment(plugin.kbAccountId, payment.kbPaymentId, UUID.randomUUID(), plugin.kbPaymentMethodId, AMOUNT, Currency.USD, NO_PROPERTIES, plugin.context);
+    }
+
+    @Benchmark
+    public PaymentTransactionInfoPlugin refundPayment(final Plugin plugin, final CapturedPayment payment) throws PaymentPluginApiException {
+        return plugin.api.refundPayment(plugin.kbAccountId, payment.kbPaymentId, UUID.randomUUID(), plugin.kbPaymentMethodId, AMOUNT, Currency.USD, NO_PROPERTIES, plugin.context);
+    }
+
+    @Benchmark
+    public List<PaymentTransactionInfoPlugin> getPaymentInfo(final Plugin plugin) throws PaymentPluginApiException {
+        return plugin.api.getPaymentInfo(plugin.kbAccountId, plugin.settledKbPaymentId, NO_PROPERTIES, plugin.context);
+    }
+
+    @Benchmark
+    public List<PaymentMethodInfoPlugin> getPaymentMethodsWithRefresh(final Plugin plugin) throws PaymentPluginApiException {
+        return plugin.api.getPaymentMethods(plugin.kbAccountId, true, NO_PROPERTIES, plugin.context);
+    }
+
+    private static UUID authorize(final Plugin plugin) throws PaymentPluginApiException {
+        final UUID kbPaymentId = UUID.randomUUID();
+        plugin.api.authorizePayment(plugin.kbAccountId, kbPaymentId, UUID.randomUUID(), plugin.kbPaymentMethodId, AMOUNT, Currency.USD, NO_PROPERTIES, plugin.context);
+        return kbPaymentId;
+    }
+
+    private static void capture(final Plugin plugin, final UUID kbPaymentId) throws PaymentPluginApiException {
+        plugin.api.capturePayment(plugin.kbAccountId, kbPaymentId, UUID.randomUUID(), plugin.kbPaymentMethodId, AMOUNT, Currency.USD, NO_PROPERTIES, plugin.context);
+    }
+}
@@ -19,17 +19,18 @@ package org.killbill.billing.plugin.braintree.api;
 import java.math.BigDecimal;
 import java.sql.SQLException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
-import com.braintreegateway.BraintreeGateway;
-import com.braintreegateway.Environment;
 import com.braintreegateway.PaymentMethod;
 import com.braintreegateway.Result;
 import com.braintreegateway.Transaction;
 import com.braintreegateway.exceptions.BraintreeException;
+import com.braintreegateway.exceptions.InvalidSignatureException;
 import com.google.common.base.MoreObjects;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import org.joda.time.DateTime;
+import org.jooq.DSLContext;
 import org.killbill.billing.ObjectType;
 import org.killbill.billing.account.api.Account;
 import org.killbill.billing.catalog.api.Currency;
@@ -40,16 +41,21 @@ import org.killbill.billing.payment.api.PaymentMethodPlugin;
 import org.killbill.billing.payment.api.PluginProperty;
 import org.killbill.billing.payment.api.TransactionType;
 import org.killbill.billing.payment.plugin.api.*;
+import org.killbill.billing.plugin.api.PluginCallContext;
 import org.killbill.billing.plugin.api.PluginProperties;
 import org.killbill.billing.plugin.api.core.PluginCustomField;
+import org.killbill.billing.plugin.api.payment.PluginGatewayNotification;
 import org.killbill.billing.plugin.api.payment.PluginPaymentPluginApi;
+import org.killbill.billing.plugin.braintree.client.BraintreeAsyncClient;
+import org.killbill.billing.plugin.braintree.client.BraintreeCircuitOpenException;
 import org.killbill.billing.plugin.braintree.client.BraintreeClient;
-import org.killbill.billing.plugin.braintree.client.BraintreeClientImpl;
 import org.killbill.billing.plugin.braintree.core.BraintreeActivator;
 import org.killbill.billing.plugin.braintree.core.BraintreeConfigProperties;
 import org.killbill.billing.plugin.braintree.core.BraintreeConfigPropertiesConfigurationHandler;
+import org.killbill.billing.plugin.braintree.core.BraintreeCustomerIdCache;
 import org.killbill.billing.plugin.braintree.core.BraintreePluginProperties;
-import org.killbill.billing.plugin.braintree.core.resources.ExpiredPaymentPolicy;
+import org.killbill.billing.plugin.braintree.core.BraintreeSettlementPoller;
+import org.killbill.billing.plugin.braintree.core.BraintreeWebhookProcessor;
 import org.killbill.billing.plugin.braintree.dao.BraintreeDao;
 import org.killbill.billing.plugin.braintree.dao.gen.tables.BraintreePaymentMethods;
 import org.killbill.billing.plugin.braintree.dao.gen.tables.BraintreeResponses;
@@ -70,22 +76,46 @@ public class BraintreePaymentPluginApi extends PluginPaymentPluginApi<BraintreeR
 	private static final Logger logger = LoggerFactory.getLogger(BraintreePaymentPluginApi.class);
 	private final BraintreeDao dao;
 	private final BraintreeConfigPropertiesConfigurationHandler braintreeConfigPropertiesConfigurationHandler;
+	private final BraintreeCustomerIdCache customerIdCache;
+	private final BraintreeWebhookProcessor webhookProcessor;
 
 	public BraintreePaymentPluginApi(final BraintreeConfigPropertiesConfigurationHandler braintreeConfigPropertiesConfigurationHandler,
 									 final OSGIKillbillAPI killbillAPI,
 									 final OSGIConfigPropertiesService configProperties,
 									 final Clock clock,
 									 final BraintreeDao dao) {
+		this(braintreeConfigPropertiesConfigurationHandler, killbillAPI, configProperties, clock, dao, new BraintreeCustomerIdCache());
+	}
+
+	public BraintreePaymentPluginApi(final BraintreeConfigPropertiesConfigurationHandler braintreeConfigPropertiesConfigurationHandler,
+									 final OSGIKillbillAPI killbillAPI,
+									 final OSGIConfigPropertiesService configProperties,
+									 final Clock clock,
+									 final BraintreeDao dao,
+									 final BraintreeCustomerIdCache customerIdCache) {
+		this(braintreeConfigPropertiesConfigurationHandler, killbillAPI, configProperties, clock, dao, customerIdCache,
+			 new BraintreeWebhookProcessor(braintreeConfigPropertiesConfigurationHandler, dao, clock));
+	}
+
+	public BraintreePaymentPluginApi(final BraintreeConfigPropertiesConfigurationHandler braintreeConfigPropertiesConfigurationHandler,
+									 final OSGIKillbillAPI killbillAPI,
+									 final OSGIConfigPropertiesService configProperties,
+									 final Clock clock,
+									 final BraintreeDao dao,
+									 final BraintreeCustomerIdCache customerIdCache,
+									 final BraintreeWebhookProcessor webhookProcessor) {
 		super(killbillAPI, configProperties, clock, dao);
 		this.braintreeConfigPropertiesConfigurationHandler = braintreeConfigPropertiesConfigurationHandler;
 		this.dao = dao;
+		this.customerIdCache = customerIdCache;
+		this.webhookProcessor = webhookProcessor;
 	}
 
 	@Override
 	public PaymentTransactionInfoPlugin authorizePayment(UUID kbAccountId, UUID kbPaymentId, UUID kbTransactionId,
 			UUID kbPaymentMethodId, BigDecimal amount, Currency currency, Iterable<PluginProperty> properties,
 			CallContext context) throws PaymentPluginApiException {
-		return executeInitialTransaction(TransactionType.AUTHORIZE, kbAccountId, kbPaymentId, kbTransactionId, kbPaymentMethodId, amount, currency, properties, context);
+		return executeInitialTransaction(TransactionType.AUTHORIZE, kbAccountId, kbPaymentId, kbTransactionId, kbPaymentMethodId, null, amount, currency, properties, context);
 	}
 
 	@Override
@@ -113,20 +143,20 @@ public class BraintreePaymentPluginApi extends PluginPaymentPluginApi<BraintreeR
 	public PaymentTransactionInfoPlugin purchasePayment(UUID kbAccountId, UUID kbPaymentId, UUID kbTransactionId,
 			UUID kbPaymentMethodId, BigDecimal amount, Currency currency, Iterable<PluginProperty> properties,
 			CallContext context) throws PaymentPluginApiException {
-		final BraintreeResponsesRecord braintreeResponsesRecord;
+		final LocalRecords localRecords;
 		try {
-			braintreeResponsesRecord = dao.updateResponse(kbTransactionId, properties, context.getTenantId());
+			localRecords = updateResponseOrLoadPaymentMethod(kbTransactionId, kbPaymentMethodId, properties, context);
 		} catch (final SQLException e) {
 			throw new PaymentPluginApiException("Encountered a database error while attempting to complete purchase.", e);
 		}
 
-		if (braintreeResponsesRecord == null) {
+		if (localRecords.response == null) {
 			// We don't have any record for that payment: we want to trigger an actual purchase (auto-capture) call
-			return executeInitialTransaction(TransactionType.PURCHASE, kbAccountId, kbPaymentId, kbTransactionId, kbPaymentMethodId, amount, currency, properties, context);
+			return executeInitialTransaction(TransactionType.PURCHASE, kbAccountId, kbPaymentId, kbTransactionId, kbPaymentMethodId, localRecords.paymentMethodsRecord, amount, currency, properties, context);
 		}
 		else {
 			// We already have a record for that payment transaction and we just updated the response row with additional properties
-			return buildPaymentTransactionInfoPlugin(braintreeResponsesRecord);
+			return buildPaymentTransactionInfoPlugin(localRecords.response);
 		}
 	}
 
@@ -156,18 +186,18 @@ public class BraintreePaymentPluginApi extends PluginPaymentPluginApi<BraintreeR
 			UUID kbPaymentMethodId, BigDecimal amount, Currency currency, Iterable<PluginProperty> properties,
 			CallContext context) throws PaymentPluginApiException {
 		//NOTE: Credit transactions are disabled by default in Braintree and require special authorization. Use of refunds is encouraged whenever possible
-		final BraintreeResponsesRecord braintreeResponsesRecord;
+		final LocalRecords localRecords;
 		try {
-			braintreeResponsesRecord = dao.updateResponse(kbTransactionId, properties, context.getTenantId());
+			localRecords = updateResponseOrLoadPaymentMethod(kbTransactionId, kbPaymentMethodId, properties, context);
 		} catch (final SQLException e) {
 			throw new PaymentPluginApiException("Encountered a database error while attempting to credit payment.", e);
 		}
 
-		if (braintreeResponsesRecord == null) {
-			return executeInitialTransaction(TransactionType.CREDIT, kbAccountId, kbPaymentId, kbTransactionId, kbPaymentMethodId, amount, currency, properties, context);
+		if (localRecords.response == null) {
+			return executeInitialTransaction(TransactionType.CREDIT, kbAccountId, kbPaymentId, kbTransactionId, kbPaymentMethodId, localRecords.paymentMethodsRecord, amount, currency, properties, context);
 		}
 		else {
-			return buildPaymentTransactionInfoPlugin(braintreeResponsesRecord);
+			return buildPaymentTransactionInfoPlugin(localRecords.response);
 		}
 	}
 
@@ -195,64 +225,47 @@ public class BraintreePaymentPluginApi extends PluginPaymentPluginApi<BraintreeR
 	@Override
 	public List<PaymentTransactionInfoPlugin> getPaymentInfo(UUID kbAccountId, UUID kbPaymentId,
 			Iterable<PluginProperty> properties, TenantContext context) throws PaymentPluginApiException {
+		// Braintree statuses are refreshed in the background by BraintreeSettlementPoller,
+		// and expired pending payments are canceled by BraintreeExpiredPaymentJanitor
 		final List<PaymentTransactionInfoPlugin> transactions = super.getPaymentInfo(kbAccountId, kbPaymentId, properties, context);
-		if (transactions.isEmpty()) {
-			// We don't know about this payment (maybe it was aborted in a control plugin)
-			return transactions;
-		}
 
-		// Check if a payment needs to be canceled
-		final ExpiredPaymentPolicy expiredPaymentPolicy = new ExpiredPaymentPolicy(clock, braintreeConfigPropertiesConfigurationHandler.getConfigurable(context.getTenantId()));
-		final BraintreePaymentTransactionInfoPlugin transactionToExpire = expiredPaymentPolicy.isExpired(transactions);
-		if (transactionToExpire != null) {
-			logger.info("Canceling expired Braintree transaction {} (created {})", transactionToExpire.getBraintreeResponsesRecord().getBraintreeId(), transactionToExpire.getBraintreeResponsesRecord().getCreatedDate());
-			final Map additionalMetadata = ImmutableMap.builder()
-					.put(BraintreePluginProperties.PROPERTY_OVERRIDDEN_TRANSACTION_STATUS,
-							PaymentPluginStatus.CANCELED.toString())
-					.put("message",
-							"Payment Expired - Cancelled by Janitor")
-					.build();
-			try {
-				dao.updateResponse(transactionToExpire.getBraintreeResponsesRecord(), additionalMetadata);
-			} catch (final SQLException e) {
-				throw new PaymentPluginApiException("Unable to update expired payment", e);
+		// Except for the transactions the poller doesn't cover
+		final BraintreeConfigProperties globalConfig = braintreeConfigPropertiesConfigurationHandler.getConfigurable(null);
+		final boolean pollingDisabled = globalConfig.getSettlementPollingIntervalSeconds() <= 0;
+		final DateTime lookbackStart = clock.getUTCNow().minus(globalConfig.getSettlementPollingLookbackPeriod());
+		final List<BraintreeResponsesRecord> responsesToRefresh = new ArrayList<>();
+		final List<String> braintreeIds = new ArrayList<>();
+		for (final PaymentTransactionInfoPlugin transaction : transactions) {
+			final BraintreeResponsesRecord response = ((BraintreePaymentTransactionInfoPlugin) transaction).getBraintreeResponsesRecord();
+			if (response.getOverriddenTransactionStatus() == null
+					&& BraintreePaymentTransactionInfoPlugin.needsRefresh(response.getBtTransactionStatus())
+					&& (pollingDisabled || transaction.getCreatedDate().isBefore(lookbackStart))) {
+				responsesToRefresh.add(response);
+				braintreeIds.add(response.getBraintreeId());
 			}
-
-			// Reload payment
-			return super.getPaymentInfo(kbAccountId, kbPaymentId, properties, context);
+		}
+		if (responsesToRefresh.isEmpty()) {
+			return transactions;
 		}
 
-		final BraintreeClient braintreeClient = buildBraintreeClient(context);
-
-		// Refresh, if needed
-		boolean wasRefreshed = false;
-		for (final PaymentTransactionInfoPlugin transaction : transactions) {
-			String braintreeStatus = PluginProperties.getValue(BraintreePluginProperties.PROPERTY_BT_TRANSACTION_STATUS,
-					BraintreePluginProperties.PROPERTY_FALLBACK_VALUE,
-					transaction.getProperties());
-
-			if (transaction.getStatus() == PaymentPluginStatus.PENDING || transaction.getStatus() == PaymentPluginStatus.UNDEFINED
-					|| (transaction.getStatus() == PaymentPluginStatus.PROCESSED && !BraintreePaymentTransactionInfoPlugin.isDoneProcessingInBraintree(braintreeStatus))) {
-				String braintreeTransactionId = ((BraintreePaymentTransactionInfoPlugin) transaction).getBraintreeResponsesRecord().getBraintreeId();
-				logger.info("Refreshing kbTransaction: {}, btTransaction {}", transaction.getKbPaymentId(), braintreeTransactionId);
-				try{
-					String updatedStatus = braintreeClient.getTransactionStatus(braintreeTransactionId).toString();
-					Iterable<PluginProperty> updatedProperties = ImmutableList.of(
-						new PluginProperty(BraintreePluginProperties.PROPERTY_BT_TRANSACTION_STATUS, updatedStatus, true)
-					);
-					dao.updateResponse(transaction.getKbTransactionPaymentId(), updatedProperties, context.getTenantId());
-					wasRefreshed = true;
-				}
-				catch(BraintreeException e){
-					throw new PaymentPluginApiException("Error connecting to Braintree", e.getMessage());
-				}
-				catch(SQLException e){
-					throw new PaymentPluginApiException("Could not load payment information from database.", e.getMessage());
-				}
-			}
+		final Map<BraintreeResponsesRecord, Map<String, Object>> updatedStatuses;
+		try {
+			updatedStatuses = BraintreeSettlementPoller.getUpdatedStatuses(responsesToRefresh, buildBraintreeClient(context).getTransactionStatuses(braintreeIds));
+		} catch (final BraintreeException e) {
+			// Serve the local state, the next read tries again
+			logger.warn("Unable to refresh the status of {} Braintree transactions for kbPaymentId {}", braintreeIds.size(), kbPaymentId, e);
+			return transactions;
+		}
+		if (updatedStatuses.isEmpty()) {
+			return transactions;
 		}
 
-		return wasRefreshed ? super.getPaymentInfo(kbAccountId, kbPaymentId, properties, context) : transactions;
+		try {
+			dao.updateResponses(updatedStatuses);
+		} catch (final SQLException e) {
+			throw new PaymentPluginApiException("Could not update payment information in database.", e);
+		}
+		return super.getPaymentInfo(kbAccountId, kbPaymentId, properties, context);
 	}
 
 	@Override
@@ -260,16 +273,12 @@ public class BraintreePaymentPluginApi extends PluginPaymentPluginApi<BraintreeR
 			boolean setDefault, Iterable<PluginProperty> properties, CallContext context)
 			throws PaymentPluginApiException {
 		final BraintreeClient braintreeClient = buildBraintreeClient(context);
-		String braintreeCustomerId = PluginProperties.getValue(BraintreePluginProperties.PROPERTY_BT_CUSTOMER_ID,
-				BraintreePluginProperties.PROPERTY_FALLBACK_VALUE, properties);
-		if(!braintreeCustomerId.equals(BraintreePluginProperties.PROPERTY_FALLBACK_VALUE)){
-			setCustomerIdCustomField(braintreeCustomerId, kbAccountId, context);
-		}
+		final String braintreeCustomerId = resolveCustomerId(kbAccountId, properties, context);
 		if(paymentMethodProps != null && paymentMethodProps.getExternalPaymentMethodId() != null && !paymentMethodProps.getExternalPaymentMethodId().equals(kbPaymentMethodId.toString())){
 			//Payment method was created in Braintree. Synchronize the payment method ID and create in KillBill only
 			try{
 				Result<? extends PaymentMethod> result = braintreeClient.updatePaymentMethod(paymentMethodProps.getExternalPaymentMethodId(),
-						kbPaymentMethodId.toString(), getCustomerIdCustomField(kbAccountId, context));
+						kbPaymentMethodId.toString(), braintreeCustomerId);
 				if(!result.isSuccess()) throw new BraintreeException(result.getMessage());
 			}
 			catch (BraintreeException e){
@@ -286,7 +295,7 @@ public class BraintreePaymentPluginApi extends PluginPaymentPluginApi<BraintreeR
 			logger.info("Creating payment method with nonce={}, paymentMethodId={}, paymentMethodType={}", braintreeNonce, braintreePaymentMethodToken, braintreePaymentMethodType);
 			try{
 				Result<? extends PaymentMethod> result = braintreeClient.createPaymentMethod(
-						getCustomerIdCustomField(kbAccountId, context),
+						braintreeCustomerId,
 						braintreePaymentMethodToken,
 						braintreeNonce,
 						BraintreePluginProperties.PaymentMethodType.valueOf(braintreePaymentMethodType.toUpperCase()));
@@ -369,7 +378,13 @@ public class BraintreePaymentPluginApi extends PluginPaymentPluginApi<BraintreeR
 		// Sync Braintree payment methods (source of truth)
 		try {
 			final List<? extends PaymentMethod> braintreePaymentMethods = buildBraintreeClient(context).getPaymentMethods(braintreeCustomerId);
-			syncPaymentMethods(kbAccountId, braintreePaymentMethods, existingPaymentMethodByBraintreeId, context);
+			final Map<BraintreePaymentMethodsRecord, Map<String, Object>> updatedPaymentMethods = new HashMap<>();
+			final int known = existingPaymentMethodByBraintreeId.size();
+			final int created = syncPaymentMethods(kbAccountId, braintreePaymentMethods, existingPaymentMethodByBraintreeId, updatedPaymentMethods, context);
+			dao.updatePaymentMethods(updatedPaymentMethods, clock.getUTCNow());
+			logger.info("Synced the Braintree payment methods of kbAccountId {}: {} created, {} updated, {} unchanged, {} deleted",
+						kbAccountId, created, updatedPaymentMethods.size(), known - existingPaymentMethodByBraintreeId.size() - updatedPaymentMethods.size(),
+						existingPaymentMethodByBraintreeId.size());
 		} catch (final BraintreeException e) {
 			throw new PaymentPluginApiException("Error connecting to Braintree", e);
 		} catch (final PaymentApiException e) {
@@ -387,6 +402,158 @@ public class BraintreePaymentPluginApi extends PluginPaymentPluginApi<BraintreeR
 		return super.getPaymentMethods(kbAccountId, false, properties, context);
 	}
 
+	/**
+	 * Bulk version of getPaymentMethods(kbAccountId, true, ...) for every account of the tenant with Braintree payment methods:
+	 * accounts are reconciled reconciliationBatchSize at a time, with a single Braintree customer search and a couple of
+	 * database batches per page. The customer search of the next page runs while the current page is synced.
+	 * Accounts whose Braintree customer is unknown (no custom field, or not found in Braintree) are skipped.
+	 *
+	 * @return the number of accounts reconciled and skipped, and of payment methods created, updated, unchanged and deleted
+	 */
+	public Map<String, Integer> reconcilePaymentMethods(final UUID kbTenantId) throws PaymentPluginApiException {
+		final CallContext context = new PluginCallContext(BraintreeActivator.PLUGIN_NAME, clock.getUTCNow(), null, kbTenantId);
+		final int batchSize = braintreeConfigPropertiesConfigurationHandler.getConfigurable(kbTenantId).getReconciliationBatchSize();
+		final BraintreeAsyncClient braintreeAsyncClient = braintreeConfigPropertiesConfigurationHandler.getBraintreeAsyncClient(kbTenantId);
+
+		int accounts = 0;
+		int skipped = 0;
+		int created = 0;
+		int updated = 0;
+		int unchanged = 0;
+		int deleted = 0;
+		ReconciliationPage page = startReconciliationPage(kbTenantId, null, batchSize, braintreeAsyncClient, context);
+		while (page != null) {
+			// A short page is the last one
+			final ReconciliationPage nextPage = page.existingPaymentMethodsByAccount.size() < batchSize ?
+												null :
+												startReconciliationPage(kbTenantId, page.lastKbAccountId, batchSize, braintreeAsyncClient, context);
+
+			final Map<String, List<BraintreePaymentMethodsRecord>> existingPaymentMethodsByAccount = page.existingPaymentMethodsByAccount;
+			final Map<String, String> braintreeCustomerIdByAccount = page.braintreeCustomerIdByAccount;
+			skipped += existingPaymentMethodsByAccount.size() - braintreeCustomerIdByAccount.size();
+			final Map<String, List<? extends PaymentMethod>> braintreePaymentMethodsByCustomer;
+			try {
+				braintreePaymentMethodsByCustomer = BraintreeAsyncClient.await(page.braintreePaymentMethodsByCustomer);
+			} catch (final BraintreeException e) {
+				throw new PaymentPluginApiException("Error connecting to Braintree", e);
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new PaymentPluginApiException("Interrupted while reconciling payment methods", e);
+			}
+
+			final Map<BraintreePaymentMethodsRecord, Map<String, Object>> updatedPaymentMethods = new HashMap<>();
+			final List<BraintreePaymentMethodsRecord> deletedPaymentMethods = new ArrayList<>();
+			// Known payment methods still in Braintree, either updated or unchanged
+			int matched = 0;
+			for (final Map.Entry<String, String> braintreeCustomerId : braintreeCustomerIdByAccount.entrySet()) {
+				final List<? extends PaymentMethod> braintreePaymentMethods = braintreePaymentMethodsByCustomer.get(braintreeCustomerId.getValue());
+				if (braintreePaymentMethods == null) {
+					logger.warn("Braintree customer {} of kbAccountId {} not found, skipping its payment methods", braintreeCustomerId.getValue(), braintreeCustomerId.getKey());
+					skipped++;
+					continue;
+				}
+
+				final Map<String, BraintreePaymentMethodsRecord> existingPaymentMethodByBraintreeId = new HashMap<>();
+				for (final BraintreePaymentMethodsRecord existingPaymentMethodRecord : existingPaymentMethodsByAccount.get(braintreeCustomerId.getKey())) {
+					existingPaymentMethodByBraintreeId.put(existingPaymentMethodRecord.getBraintreeId(), existingPaymentMethodRecord);
+				}
+				matched += existingPaymentMethodByBraintreeId.size();
+				try {
+					created += syncPaymentMethods(UUID.fromString(braintreeCustomerId.getKey()), braintreePaymentMethods, existingPaymentMethodByBraintreeId, updatedPaymentMethods, context);
+				} catch (final PaymentApiException e) {
+					throw new PaymentPluginApiException("Error creating payment method", e);
+				}
+				for (final BraintreePaymentMethodsRecord braintreePaymentMethodsRecord : existingPaymentMethodByBraintreeId.values()) {
+					logger.info("Deactivating local Braintree payment method {} - not found in Braintree", braintreePaymentMethodsRecord.getBraintreeId());
+					deletedPaymentMethods.add(braintreePaymentMethodsRecord);
+				}
+				matched -= existingPaymentMethodByBraintreeId.size();
+				accounts++;
+			}
+
+			try {
+				dao.updatePaymentMethods(updatedPaymentMethods, clock.getUTCNow());
+				dao.deletePaymentMethods(deletedPaymentMethods, clock.getUTCNow());
+			} catch (final SQLException e) {
+				throw new PaymentPluginApiException("Error updating payment methods", e);
+			}
+			updated += updatedPaymentMethods.size();
+			unchanged += matched - updatedPaymentMethods.size();
+			deleted += deletedPaymentMethods.size();
+			page = nextPage;
+		}
+
+		logger.info("Reconciled the Braintree payment methods of {} accounts for kbTenantId {}: {} created, {} updated, {} unchanged, {} deleted, {} accounts skipped",
+					accounts, kbTenantId, created, updated, unchanged, deleted, skipped);
+		return ImmutableMap.<String, Integer>builder()
+						   .put("accounts", accounts)
+						   .put("skipped", skipped)
+						   .put("created", created)
+						   .put("updated", updated)
+						   .put("unchanged", unchanged)
+						   .put("deleted", deleted)
+						   .build();
+	}
+
+	/**
+	 * Reads the next page of accounts and resolves their Braintree customer, then starts the customer search
+	 *
+	 * @return null if there are no more accounts
+	 */
+	@Nullable
+	private ReconciliationPage startReconciliationPage(final UUID kbTenantId,
+													   @Nullable final String afterKbAccountId,
+													   final int batchSize,
+													   final BraintreeAsyncClient braintreeAsyncClient,
+													   final CallContext context) throws PaymentPluginApiException {
+		final Map<String, List<BraintreePaymentMethodsRecord>> existingPaymentMethodsByAccount;
+		try {
+			existingPaymentMethodsByAccount = dao.getPaymentMethodsByAccount(kbTenantId, afterKbAccountId, batchSize);
+		} catch (final SQLException e) {
+			throw new PaymentPluginApiException("Unable to retrieve existing payment methods", e);
+		}
+		if (existingPaymentMethodsByAccount.isEmpty()) {
+			return null;
+		}
+
+		String lastKbAccountId = null;
+		final Map<String, String> braintreeCustomerIdByAccount = new LinkedHashMap<>();
+		for (final String kbAccountId : existingPaymentMethodsByAccount.keySet()) {
+			lastKbAccountId = kbAccountId;
+			final String braintreeCustomerId = getCustomerIdCustomField(UUID.fromString(kbAccountId), context);
+			if (braintreeCustomerId != null) {
+				braintreeCustomerIdByAccount.put(kbAccountId, braintreeCustomerId);
+			}
+		}
+
+		final CompletableFuture<Map<String, List<? extends PaymentMethod>>> braintreePaymentMethodsByCustomer;
+		if (braintreeCustomerIdByAccount.isEmpty()) {
+			braintreePaymentMethodsByCustomer = CompletableFuture.completedFuture(ImmutableMap.<String, List<? extends PaymentMethod>>of());
+		} else {
+			braintreePaymentMethodsByCustomer = braintreeAsyncClient.getPaymentMethodsByCustomer(ImmutableList.copyOf(new LinkedHashSet<>(braintreeCustomerIdByAccount.values())));
+		}
+		return new ReconciliationPage(existingPaymentMethodsByAccount, braintreeCustomerIdByAccount, lastKbAccountId, braintreePaymentMethodsByCustomer);
+	}
+
+	private static final class ReconciliationPage {
+
+		private final Map<String, List<BraintreePaymentMethodsRecord>> existingPaymentMethodsByAccount;
+		// Accounts without a Braintree customer are left out
+		private final Map<String, String> braintreeCustomerIdByAccount;
+		private final String lastKbAccountId;
+		private final CompletableFuture<Map<String, List<? extends PaymentMethod>>> braintreePaymentMethodsByCustomer;
+
+		private ReconciliationPage(final Map<String, List<BraintreePaymentMethodsRecord>> existingPaymentMethodsByAccount,
+								   final Map<String, String> braintreeCustomerIdByAccount,
+								   final String lastKbAccountId,
+								   final CompletableFuture<Map<String, List<? extends PaymentMethod>>> braintreePaymentMethodsByCustomer) {
+			this.existingPaymentMethodsByAccount = existingPaymentMethodsByAccount;
+			this.braintreeCustomerIdByAccount = braintreeCustomerIdByAccount;
+			this.lastKbAccountId = lastKbAccountId;
+			this.braintreePaymentMethodsByCustomer = braintreePaymentMethodsByCustomer;
+		}
+	}
+
 	@Override
 	public HostedPaymentPageFormDescriptor buildFormDescriptor(UUID kbAccountId, Iterable<PluginProperty> customFields,
 			Iterable<PluginProperty> properties, CallContext context) throws PaymentPluginApiException {
@@ -396,7 +563,23 @@ public class BraintreePaymentPluginApi extends PluginPaymentPluginApi<BraintreeR
 	@Override
 	public GatewayNotification processNotification(String notification, Iterable<PluginProperty> properties,
 			CallContext context) throws PaymentPluginApiException {
-		throw new PaymentPluginApiException("INTERNAL", "#processNotification not yet implemented, please contact support@killbill.io");
+		// Braintree posts bt_signature and bt_payload form-encoded, but also accept them as plugin properties
+		final Map<String, String> parameters = BraintreeWebhookProcessor.parseFormBody(notification);
+		final String signature = MoreObjects.firstNonNull(PluginProperties.findPluginPropertyValue(BraintreePluginProperties.PROPERTY_BT_SIGNATURE, properties),
+														  MoreObjects.firstNonNull(parameters.get(BraintreePluginProperties.PROPERTY_BT_SIGNATURE), ""));
+		final String payload = MoreObjects.firstNonNull(PluginProperties.findPluginPropertyValue(BraintreePluginProperties.PROPERTY_BT_PAYLOAD, properties),
+														MoreObjects.firstNonNull(parameters.get(BraintreePluginProperties.PROPERTY_BT_PAYLOAD), ""));
+
+		try {
+			// The notification is applied asynchronously: acknowledge it as soon as it is safely queued
+			webhookProcessor.ingest(signature, payload, context.getTenantId());
+		} catch (final InvalidSignatureException e) {
+			logger.warn("Rejecting Braintree notification with an invalid signature: {}", e.getMessage());
+			return new PluginGatewayNotification(null, 400, e.getMessage(), ImmutableMap.<String, List<String>>of(), ImmutableList.<PluginProperty>of());
+		} catch (final SQLException e) {
+			throw new PaymentPluginApiException("Unable to queue Braintree notification", e);
+		}
+		return new PluginGatewayNotification(null, 200, "OK", ImmutableMap.<String, List<String>>of(), ImmutableList.<PluginProperty>of());
 	}
 
 	//Superclass abstract methods
@@ -423,6 +606,20 @@ public class BraintreePaymentPluginApi extends PluginPaymentPluginApi<BraintreeR
 
 	//Private
 
+	/**
+	 * Local state read by a payment operation before calling Braintree
+	 */
+	private static final class LocalRecords {
+
+		private final BraintreePaymentMethodsRecord paymentMethodsRecord;
+		private final BraintreeResponsesRecord response;
+
+		private LocalRecords(@Nullable final BraintreePaymentMethodsRecord paymentMethodsRecord, @Nullable final BraintreeResponsesRecord response) {
+			this.paymentMethodsRecord = paymentMethodsRecord;
+			this.response = response;
+		}
+	}
+
 	private abstract static class TransactionExecutor<T> {
 
 		public T execute(final Account account, final BraintreePaymentMethodsRecord paymentMethodsRecord) throws BraintreeException {
@@ -448,33 +645,50 @@ public class BraintreePaymentPluginApi extends PluginPaymentPluginApi<BraintreeR
 																   final UUID kbPaymentId,
 																   final UUID kbTransactionId,
 																   final UUID kbPaymentMethodId,
+																   @Nullable final BraintreePaymentMethodsRecord paymentMethodsRecord,
 																   final BigDecimal amount,
 																   final Currency currency,
 																   final Iterable<PluginProperty> properties,
 																   final CallContext context) throws PaymentPluginApiException {
-		final String braintreeCustomerId = PluginProperties.getValue(BraintreePluginProperties.PROPERTY_BT_CUSTOMER_ID,
+		final String braintreeCustomerIdProperty = PluginProperties.getValue(BraintreePluginProperties.PROPERTY_BT_CUSTOMER_ID,
 				BraintreePluginProperties.PROPERTY_FALLBACK_VALUE, properties);
-		if(!braintreeCustomerId.equals(BraintreePluginProperties.PROPERTY_FALLBACK_VALUE)){
-			setCustomerIdCustomField(braintreeCustomerId, kbAccountId, context);
+		if(!braintreeCustomerIdProperty.equals(BraintreePluginProperties.PROPERTY_FALLBACK_VALUE)){
+			setCustomerIdCustomField(braintreeCustomerIdProperty, kbAccountId, context);
 		}
 		return executeInitialTransaction(transactionType,
 				new TransactionExecutor<Result<Transaction>>() {
 					@Override
 					public Result<Transaction> execute(final Account account, final BraintreePaymentMethodsRecord paymentMethodsRecord) {
 						final BraintreeClient braintreeClient = buildBraintreeClient(context);
-						String braintreePaymentMethodNonce = braintreeClient.createNonceFromPaymentMethodToken(paymentMethodsRecord.getBraintreeId());
+						final boolean submitForSettlement = transactionType != TransactionType.AUTHORIZE;
+						final String braintreePaymentMethodNonce = PluginProperties.findPluginPropertyValue(BraintreePluginProperties.PROPERTY_BT_NONCE, properties);
+						if(paymentMethodsRecord.getBraintreeId() != null || braintreePaymentMethodNonce == null){
+							// Vaulted payment method: always charge its token, so Braintree charges the instrument Kill Bill records
+							if(transactionType == TransactionType.CREDIT){
+								return braintreeClient.creditTransactionWithPaymentMethodToken(amount, paymentMethodsRecord.getBraintreeId());
+							}
+							// Make sure to pass the order id to avoid confusing the Braintree duplicate checker
+							return braintreeClient.saleTransactionWithPaymentMethodToken(
+									kbTransactionId.toString(),
+									amount,
+									paymentMethodsRecord.getBraintreeId(),
+									submitForSettlement);
+						}
+
+						// One-time payment with a nonce provided by the client, for payment methods not vaulted by the plugin
+						final String braintreeCustomerId = braintreeCustomerIdProperty.equals(BraintreePluginProperties.PROPERTY_FALLBACK_VALUE) ?
+								getCustomerIdCustomField(kbAccountId, context) : braintreeCustomerIdProperty;
 						if(transactionType == TransactionType.CREDIT){
 							return braintreeClient.creditTransaction(amount,
-									getCustomerIdCustomField(kbAccountId, context),
+									braintreeCustomerId,
 									braintreePaymentMethodNonce);
 						}
 						else{
-							boolean submitForSettlement = transactionType != TransactionType.AUTHORIZE;
 							// Make sure to pass the order id to avoid confusing the Braintree duplicate checker
 							return braintreeClient.saleTransaction(
 									kbTransactionId.toString(),
 									amount,
-									getCustomerIdCustomField(kbAccountId, context),
+									braintreeCustomerId,
 									braintreePaymentMethodNonce,
 									submitForSettlement);
 						}
@@ -484,6 +698,7 @@ public class BraintreePaymentPluginApi extends PluginPaymentPluginApi<BraintreeR
 				kbPaymentId,
 				kbTransactionId,
 				kbPaymentMethodId,
+				paymentMethodsRecord,
 				amount,
 				currency,
 				properties,
@@ -496,17 +711,20 @@ public class BraintreePaymentPluginApi extends PluginPaymentPluginApi<BraintreeR
 																   final UUID kbPaymentId,
 																   final UUID kbTransactionId,
 																   final UUID kbPaymentMethodId,
+																   @Nullable final BraintreePaymentMethodsRecord paymentMethodsRecord,
 																   final BigDecimal amount,
 																   final Currency currency,
 																   final Iterable<PluginProperty> properties,
 																   final TenantContext context) throws PaymentPluginApiException {
 		final Account account = getAccount(kbAccountId, context);
-		final BraintreePaymentMethodsRecord nonNullPaymentMethodsRecord = getBraintreePaymentMethodsRecord(kbPaymentMethodId, context);
+		final BraintreePaymentMethodsRecord nonNullPaymentMethodsRecord = paymentMethodsRecord != null ? paymentMethodsRecord : getBraintreePaymentMethodsRecord(kbPaymentMethodId, context);
 		final DateTime utcNow = clock.getUTCNow();
 
 		Result<Transaction> response;
 		try {
 			response = transactionExecutor.execute(account, nonNullPaymentMethodsRecord);
+		} catch (final BraintreeCircuitOpenException e) {
+			return buildCircuitOpenTransactionInfoPlugin(transactionType, kbPaymentId, kbTransactionId, amount, currency, utcNow, e);
 		} catch (final BraintreeException e) {
 			throw new PaymentPluginApiException("Error connecting to Braintree", e);
 		}
@@ -530,23 +748,33 @@ public class BraintreePaymentPluginApi extends PluginPaymentPluginApi<BraintreeR
 																	final Iterable<PluginProperty> properties,
 																	final TenantContext context) throws PaymentPluginApiException {
 		final Account account = getAccount(kbAccountId, context);
-		final BraintreePaymentMethodsRecord nonNullPaymentMethodsRecord = getBraintreePaymentMethodsRecord(kbPaymentMethodId, context);
 
-		final BraintreeResponsesRecord previousResponse;
+		// Single connection for the reads, released before calling Braintree
+		final LocalRecords localRecords;
 		try {
-			previousResponse = dao.getSuccessfulAuthorizationResponse(kbPaymentId, context.getTenantId());
-			if (previousResponse == null) {
-				throw new PaymentPluginApiException(null, "Unable to retrieve previous payment response for kbTransactionId " + kbTransactionId);
-			}
+			localRecords = dao.inTransaction(new BraintreeDao.UnitOfWork<LocalRecords>() {
+				@Override
+				public LocalRecords execute(final DSLContext dslContext) {
+					return new LocalRecords(getBraintreePaymentMethodsRecord(dslContext, kbPaymentMethodId, context),
+											dao.getSuccessfulAuthorizationResponse(dslContext, kbPaymentId, context.getTenantId()));
+				}
+			});
 		} catch (final SQLException e) {
 			throw new PaymentPluginApiException("Unable to retrieve previous payment response for kbTransactionId " + kbTransactionId, e);
 		}
+		if (localRecords.response == null) {
+			throw new PaymentPluginApiException(null, "Unable to retrieve previous payment response for kbTransactionId " + kbTransactionId);
+		}
+		final BraintreePaymentMethodsRecord nonNullPaymentMethodsRecord = localRecords.paymentMethodsRecord;
+		final BraintreeResponsesRecord previousResponse = localRecords.response;
 
 		final DateTime utcNow = clock.getUTCNow();
 
 		final Result<Transaction> response;
 		try {
 			response = transactionExecutor.execute(account, nonNullPaymentMethodsRecord, previousResponse);
+		} catch (final BraintreeCircuitOpenException e) {
+			return buildCircuitOpenTransactionInfoPlugin(transactionType, kbPaymentId, kbTransactionId, amount, currency, utcNow, e);
 		} catch (final BraintreeException e) {
 			throw new PaymentPluginApiException("Error connecting to Braintree", e);
 		}
@@ -559,7 +787,47 @@ public class BraintreePaymentPluginApi extends PluginPaymentPluginApi<BraintreeR
 		}
 	}
 
-	private void syncPaymentMethods(final UUID kbAccountId, final List<? extends PaymentMethod> braintreePaymentMethods, final Map<String, BraintreePaymentMethodsRecord> existingPaymentMethodByBraintreeId, final CallContext context) throws PaymentApiException, SQLException {
+	/**
+	 * The call was rejected before reaching Braintree: nothing is recorded, and Kill Bill keeps the transaction
+	 * in an unknown state instead of holding the payment thread or failing it outright.
+	 */
+	private PaymentTransactionInfoPlugin buildCircuitOpenTransactionInfoPlugin(final TransactionType transactionType,
+																			   final UUID kbPaymentId,
+																			   final UUID kbTransactionId,
+																			   @Nullable final BigDecimal amount,
+																			   @Nullable final Currency currency,
+																			   final DateTime utcNow,
+																			   final BraintreeCircuitOpenException e) {
+		logger.warn("Not calling Braintree for kbTransactionId {}: {}", kbTransactionId, e.getMessage());
+		return new BraintreePaymentTransactionInfoPlugin(null,
+														 kbPaymentId,
+														 kbTransactionId,
+														 transactionType,
+														 amount,
+														 currency,
+														 PaymentPluginStatus.UNDEFINED,
+														 e.getMessage(),
+														 BraintreePluginProperties.CIRCUIT_OPEN_ERROR_CODE,
+														 null,
+														 null,
+														 utcNow,
+														 utcNow,
+														 ImmutableList.<PluginProperty>of());
+	}
+
+	/**
+	 * Creates the payment methods we don't know about yet. The additional data of the known ones which changed in Braintree
+	 * (according to additional_data_hash) is added to updatedPaymentMethods (for the caller to write in a single batch), the
+	 * unchanged ones are left alone. All known ones are removed from existingPaymentMethodByBraintreeId, leaving the ones to delete.
+	 *
+	 * @return the number of payment methods created
+	 */
+	private int syncPaymentMethods(final UUID kbAccountId,
+								   final List<? extends PaymentMethod> braintreePaymentMethods,
+								   final Map<String, BraintreePaymentMethodsRecord> existingPaymentMethodByBraintreeId,
+								   final Map<BraintreePaymentMethodsRecord, Map<String, Object>> updatedPaymentMethods,
+								   final CallContext context) throws PaymentApiException {
+		int created = 0;
 		for (final PaymentMethod paymentMethod : braintreePaymentMethods) {
 			final Map<String, Object> additionalDataMap = BraintreePluginProperties.toAdditionalDataMap(paymentMethod);
 
@@ -580,15 +848,15 @@ public class BraintreePaymentPluginApi extends PluginPaymentPluginApi<BraintreeR
 						paymentMethodInfo,
 						properties,
 						context);
+				created++;
+			} else if (BraintreeDao.hashAdditionalDataMap(additionalDataMap).equals(existingPaymentMethodRecord.getAdditionalDataHash())) {
+				logger.debug("Existing local Braintree payment method {} is up to date", existingPaymentMethodRecord.getKbPaymentMethodId());
 			} else {
-				logger.info("Updating existing local Braintree payment method {}", existingPaymentMethodRecord.getKbPaymentMethodId());
-				dao.updatePaymentMethod(UUID.fromString(existingPaymentMethodRecord.getKbPaymentMethodId()),
-										additionalDataMap,
-										paymentMethod.getToken(),
-										clock.getUTCNow(),
-										context.getTenantId());
+				logger.debug("Updating existing local Braintree payment method {}", existingPaymentMethodRecord.getKbPaymentMethodId());
+				updatedPaymentMethods.put(existingPaymentMethodRecord, additionalDataMap);
 			}
 		}
+		return created;
 	}
 
 	private void setCustomerIdCustomField(String braintreeCustomerId, UUID kbAccountId, CallContext context) throws PaymentPluginApiException{
@@ -602,6 +870,7 @@ public class BraintreePaymentPluginApi extends PluginPaymentPluginApi<BraintreeR
 						BraintreePluginProperties.MAGIC_FIELD_BT_CUSTOMER_ID,
 						braintreeCustomerId,
 						clock.getUTCNow())), context);
+				customerIdCache.put(context.getTenantId(), kbAccountId, braintreeCustomerId);
 			} catch (CustomFieldApiException e) {
 				throw new PaymentPluginApiException("Unable to add custom field", e);
 			}
@@ -610,7 +879,34 @@ public class BraintreePaymentPluginApi extends PluginPaymentPluginApi<BraintreeR
 		}
 	}
 
-	private String getCustomerIdCustomField(final UUID kbAccountId, final CallContext context) {
+	/**
+	 * @return the Braintree customer id of the account (BRAINTREE_CUSTOMER_ID custom field), null if it has none
+	 */
+	@Nullable
+	public String getBraintreeCustomerId(final UUID kbAccountId, final TenantContext context) {
+		return getCustomerIdCustomField(kbAccountId, context);
+	}
+
+	/**
+	 * Maps the account to the bt_customer_id property, if specified, and returns the Braintree customer id of the account
+	 */
+	@Nullable
+	private String resolveCustomerId(final UUID kbAccountId, final Iterable<PluginProperty> properties, final CallContext context) throws PaymentPluginApiException {
+		final String braintreeCustomerId = PluginProperties.getValue(BraintreePluginProperties.PROPERTY_BT_CUSTOMER_ID,
+				BraintreePluginProperties.PROPERTY_FALLBACK_VALUE, properties);
+		if(braintreeCustomerId.equals(BraintreePluginProperties.PROPERTY_FALLBACK_VALUE)){
+			return getCustomerIdCustomField(kbAccountId, context);
+		}
+		setCustomerIdCustomField(braintreeCustomerId, kbAccountId, context);
+		return braintreeCustomerId;
+	}
+
+	private String getCustomerIdCustomField(final UUID kbAccountId, final TenantContext context) {
+		final String cachedCustomerId = customerIdCache.get(context.getTenantId(), kbAccountId);
+		if (cachedCustomerId != null) {
+			return cachedCustomerId;
+		}
+
 		final List<CustomField> customFields = killbillAPI.getCustomFieldUserApi().getCustomFieldsForAccountType(kbAccountId, ObjectType.ACCOUNT, context);
 		String braintreeCustomerId = null;
 		for (final CustomField customField : customFields) {
@@ -619,6 +915,9 @@ public class BraintreePaymentPluginApi extends PluginPaymentPluginApi<BraintreeR
 				break;
 			}
 		}
+		if (braintreeCustomerId != null) {
+			customerIdCache.put(context.getTenantId(), kbAccountId, braintreeCustomerId);
+		}
 		return braintreeCustomerId;
 	}
 
@@ -636,6 +935,31 @@ public class BraintreePaymentPluginApi extends PluginPaymentPluginApi<BraintreeR
 		return MoreObjects.firstNonNull(paymentMethodsRecord, emptyRecord(kbPaymentMethodId));
 	}
 
+	private BraintreePaymentMethodsRecord getBraintreePaymentMethodsRecord(final DSLContext dslContext, @Nullable final UUID kbPaymentMethodId, final TenantContext context) {
+		final BraintreePaymentMethodsRecord paymentMethodsRecord = kbPaymentMethodId == null ? null : dao.getPaymentMethod(dslContext, kbPaymentMethodId, context.getTenantId());
+		return MoreObjects.firstNonNull(paymentMethodsRecord, emptyRecord(kbPaymentMethodId));
+	}
+
+	/**
+	 * Merges the properties into the existing response of the transaction if any, otherwise loads the payment method to use, on a single connection
+	 */
+	private LocalRecords updateResponseOrLoadPaymentMethod(final UUID kbTransactionId,
+														   @Nullable final UUID kbPaymentMethodId,
+														   final Iterable<PluginProperty> properties,
+														   final TenantContext context) throws SQLException {
+		final Map<String, Object> additionalProperties = PluginProperties.toMap(properties);
+		return dao.inTransaction(new BraintreeDao.UnitOfWork<LocalRecords>() {
+			@Override
+			public LocalRecords execute(final DSLContext dslContext) {
+				final BraintreeResponsesRecord response = dao.updateResponse(dslContext, kbTransactionId, additionalProperties, context.getTenantId());
+				if (response != null) {
+					return new LocalRecords(null, response);
+				}
+				return new LocalRecords(getBraintreePaymentMethodsRecord(dslContext, kbPaymentMethodId, context), null);
+			}
+		});
+	}
+
 	private BraintreePaymentMethodsRecord emptyRecord(@Nullable final UUID kbPaymentMethodId) {
 		final BraintreePaymentMethodsRecord record = new BraintreePaymentMethodsRecord();
 		if (kbPaymentMethodId != null) {
@@ -645,13 +969,6 @@ public class BraintreePaymentPluginApi extends PluginPaymentPluginApi<BraintreeR
 	}
 
 	private BraintreeClient buildBraintreeClient(final TenantContext tenantContext) {
-		final BraintreeConfigProperties config = braintreeConfigPropertiesConfigurationHandler.getConfigurable(tenantContext.getTenantId());
-		final BraintreeGateway braintreeGateway = new BraintreeGateway(
-				Environment.parseEnvironment(config.getBtEnvironment()),
-				config.getBtMerchantId(),
-				config.getBtPublicKey(),
-				config.getBtPrivateKey()
-		);
-		return new BraintreeClientImpl(braintreeGateway);
+		return braintreeConfigPropertiesConfigurationHandler.getBraintreeClient(tenantContext.getTenantId());
 	}
 }
@@ -19,11 +19,11 @@ package org.killbill.billing.plugin.braintree.api;
 import java.math.BigDecimal;
 import java.time.ZoneOffset;
 import java.util.List;
-import java.util.Map;
 import java.util.UUID;
 
 import com.braintreegateway.Transaction;
 import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
 import org.killbill.billing.catalog.api.Currency;
@@ -32,7 +32,6 @@ import org.killbill.billing.payment.api.TransactionType;
 import org.killbill.billing.payment.plugin.api.PaymentPluginStatus;
 import org.killbill.billing.plugin.api.PluginProperties;
 import org.killbill.billing.plugin.api.payment.PluginPaymentTransactionInfoPlugin;
-import org.killbill.billing.plugin.braintree.core.BraintreePluginProperties;
 import org.killbill.billing.plugin.braintree.dao.BraintreeDao;
 import org.killbill.billing.plugin.braintree.dao.gen.tables.records.BraintreeResponsesRecord;
 
@@ -43,11 +42,29 @@ public class BraintreePaymentTransactionInfoPlugin extends PluginPaymentTransact
     // Kill Bill limits the field size to 32
     private static final int ERROR_CODE_MAX_LENGTH = 32;
 
+    private static final List<String> STATUSES_NEEDING_REFRESH;
+    private static final List<String> PENDING_STATUSES;
+
+    static {
+        final ImmutableList.Builder<String> statusesNeedingRefresh = ImmutableList.builder();
+        final ImmutableList.Builder<String> pendingStatuses = ImmutableList.builder();
+        for (final Transaction.Status status : Transaction.Status.values()) {
+            if (needsRefresh(status.toString())) {
+                statusesNeedingRefresh.add(status.toString());
+            }
+            if (getPaymentPluginStatus(status.toString()) == PaymentPluginStatus.PENDING) {
+                pendingStatuses.add(status.toString());
+            }
+        }
+        STATUSES_NEEDING_REFRESH = statusesNeedingRefresh.build();
+        PENDING_STATUSES = pendingStatuses.build();
+    }
+
     private final BraintreeResponsesRecord braintreeResponsesRecord;
 
-    public static BraintreePaymentTransactionInfoPlugin build(final BraintreeResponsesRecord braintreeResponsesRecord) {
-        final Map additionalData = BraintreeDao.mapFromAdditionalDataString(braintreeResponsesRecord.getAdditionalData());
+    private volatile List<PluginProperty> properties;
 
+    public static BraintreePaymentTransactionInfoPlugin build(final BraintreeResponsesRecord braintreeResponsesRecord) {
         final DateTime responseDate = new DateTime(braintreeResponsesRecord.getCreatedDate()
                 .atZone(ZoneOffset.UTC)
                 .toInstant()
@@ -58,14 +75,14 @@ public class BraintreePaymentTransactionInfoPlugin extends PluginPaymentTransact
                 TransactionType.valueOf(braintreeResponsesRecord.getTransactionType()),
                 braintreeResponsesRecord.getAmount(),
                 Strings.isNullOrEmpty(braintreeResponsesRecord.getCurrency()) ? null : Currency.valueOf(braintreeResponsesRecord.getCurrency()),
-                getPaymentPluginStatus(additionalData),
-                getGatewayError(additionalData),
-                truncate(getGatewayErrorCode(additionalData)),
-                getFirstPaymentReferenceID(additionalData),
-                getSecondPaymentReferenceID(additionalData),
+                getPaymentPluginStatus(braintreeResponsesRecord),
+                braintreeResponsesRecord.getBtGatewayErrorMessage(),
+                truncate(braintreeResponsesRecord.getBtGatewayErrorCode()),
+                braintreeResponsesRecord.getBraintreeId(),
+                braintreeResponsesRecord.getBtSecondPaymentReferenceId(),
                 responseDate,
                 responseDate,
-                PluginProperties.buildPluginProperties(additionalData));
+                null);
     }
 
     public BraintreePaymentTransactionInfoPlugin(final BraintreeResponsesRecord braintreeResponsesRecord,
@@ -73,16 +90,28 @@ public class BraintreePaymentTransactionInfoPlugin extends PluginPaymentTransact
                                                  final TransactionType transactionType, final BigDecimal amount, final Currency currency,
                                                  final PaymentPluginStatus pluginStatus, final String gatewayError, final String gatewayErrorCode,
                                                  final String firstPaymentReferenceId, final String secondPaymentReferenceId, final DateTime createdDate,
-                                                 final DateTime effectiveDate, final List<PluginProperty> properties) {
+                                                 final DateTime effectiveDate, @Nullable final List<PluginProperty> properties) {
         super(kbPaymentId, kbTransactionPaymentPaymentId, transactionType, amount, currency, pluginStatus, gatewayError,
                 gatewayErrorCode, firstPaymentReferenceId, secondPaymentReferenceId, createdDate, effectiveDate, properties);
         this.braintreeResponsesRecord = braintreeResponsesRecord;
+        this.properties = properties;
     }
 
     public BraintreeResponsesRecord getBraintreeResponsesRecord() {
         return braintreeResponsesRecord;
     }
 
+    @Override
+    public List<PluginProperty> getProperties() {
+        // Only parse the additional data when the properties are actually needed
+        if (properties == null) {
+            properties = braintreeResponsesRecord == null ?
+                         ImmutableList.<PluginProperty>of() :
+                         PluginProperties.buildPluginProperties(BraintreeDao.mapFromAdditionalDataString(braintreeResponsesRecord.getAdditionalData()));
+        }
+        return properties;
+    }
+
     public static PaymentPluginStatus getPaymentPluginStatus(final String braintreeStatus){
         if(Transaction.Status.SETTLED.toString().equals(braintreeStatus)
                 || Transaction.Status.AUTHORIZING.toString().equals(braintreeStatus)
@@ -112,25 +141,36 @@ public class BraintreePaymentTransactionInfoPlugin extends PluginPaymentTransact
                 || braintreeTransactionStatus.equals(Transaction.Status.VOIDED.toString());
     }
 
-    private static PaymentPluginStatus getPaymentPluginStatus(final Map additionalData) {
-        final String braintreeStatus = (String) additionalData.get(BraintreePluginProperties.PROPERTY_BT_TRANSACTION_STATUS);
-        return getPaymentPluginStatus(braintreeStatus);
+    /**
+     * @return true if the transaction may still change state in Braintree (i.e. it is pending, unknown or not yet settled)
+     */
+    public static boolean needsRefresh(@Nullable final String braintreeTransactionStatus) {
+        final PaymentPluginStatus paymentPluginStatus = getPaymentPluginStatus(braintreeTransactionStatus);
+        return paymentPluginStatus == PaymentPluginStatus.PENDING
+                || paymentPluginStatus == PaymentPluginStatus.UNDEFINED
+                || (paymentPluginStatus == PaymentPluginStatus.PROCESSED && !isDoneProcessingInBraintree(braintreeTransactionStatus));
     }
 
-    private static String getGatewayError(final Map additionalData) {
-        return (String) additionalData.get(BraintreePluginProperties.PROPERTY_BT_GATEWAY_ERROR_MESSAGE);
+    /**
+     * @return the Braintree statuses for which {@link #needsRefresh(String)} is true (a missing status needs a refresh too)
+     */
+    public static List<String> getStatusesNeedingRefresh() {
+        return STATUSES_NEEDING_REFRESH;
     }
 
-    private static String getGatewayErrorCode(final Map additionalData) {
-        return (String) additionalData.get(BraintreePluginProperties.PROPERTY_BT_GATEWAY_ERROR_CODE);
+    /**
+     * @return the Braintree statuses mapped to {@link PaymentPluginStatus#PENDING}
+     */
+    public static List<String> getPendingStatuses() {
+        return PENDING_STATUSES;
     }
 
-    private static String getFirstPaymentReferenceID(final Map additionalData){
-        return (String) additionalData.get(BraintreePluginProperties.PROPERTY_BT_FIRST_PAYMENT_REFERENCE_ID);
-    }
-
-    private static String getSecondPaymentReferenceID(final Map additionalData){
-        return (String) additionalData.get(BraintreePluginProperties.PROPERTY_BT_SECOND_PAYMENT_REFERENCE_ID);
+    private static PaymentPluginStatus getPaymentPluginStatus(final BraintreeResponsesRecord braintreeResponsesRecord) {
+        // E.g. expired transactions, canceled by the plugin
+        if (braintreeResponsesRecord.getOverriddenTransactionStatus() != null) {
+            return PaymentPluginStatus.valueOf(braintreeResponsesRecord.getOverriddenTransactionStatus());
+        }
+        return getPaymentPluginStatus(braintreeResponsesRecord.getBtTransactionStatus());
     }
 
     private static String truncate(@Nullable final String string) {
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2021 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.braintree.client;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import javax.annotation.Nullable;
+
+import com.braintreegateway.PaymentMethod;
+import com.braintreegateway.Result;
+import com.braintreegateway.Transaction;
+import com.google.common.base.Throwables;
+import org.killbill.billing.plugin.braintree.core.BraintreePluginProperties.PaymentMethodType;
+
+/**
+ * Non-blocking variant of {@link BraintreeClient}: each call is started right away and completes its future with the result
+ * (or the BraintreeException) of the blocking call, so that background jobs can overlap several Braintree round trips.
+ */
+public interface BraintreeAsyncClient {
+
+    CompletableFuture<Result<Transaction>> saleTransaction(String orderId, BigDecimal amount, @Nullable String braintreeCustomerId, String braintreePaymentMethodNonce, boolean submitForSettlement);
+
+    CompletableFuture<Result<Transaction>> saleTransactionWithPaymentMethodToken(String orderId, BigDecimal amount, String braintreePaymentMethodToken, boolean submitForSettlement);
+
+    CompletableFuture<Result<Transaction>> submitTransactionForSettlement(String braintreeTransactionId, BigDecimal amount);
+
+    CompletableFuture<Result<Transaction>> voidTransaction(String braintreeTransactionId);
+
+    CompletableFuture<Result<Transaction>> refundTransaction(String braintreeTransactionId, BigDecimal amount);
+
+    CompletableFuture<Result<Transaction>> creditTransaction(BigDecimal amount, @Nullable String braintreeCustomerId, String braintreePaymentMethodNonce);
+
+    CompletableFuture<Result<Transaction>> creditTransactionWithPaymentMethodToken(BigDecimal amount, String braintreePaymentMethodToken);
+
+    CompletableFuture<Result<? extends PaymentMethod>> createPaymentMethod(String braintreeCustomerId, String braintreePaymentMethodToken, String braintreeNonce, PaymentMethodType paymentMethodType);
+
+    CompletableFuture<Result<? extends PaymentMethod>> updatePaymentMethod(String currentBraintreePaymentMethodToken, String newBraintreePaymentMethodToken, String newCustomerId);
+
+    CompletableFuture<List<? extends PaymentMethod>> getPaymentMethods(String braintreeCustomerId);
+
+    CompletableFuture<Map<String, List<? extends PaymentMethod>>> getPaymentMethodsByCustomer(List<String> braintreeCustomerIds);
+
+    CompletableFuture<Result<? extends PaymentMethod>> deletePaymentMethod(String braintreePaymentMethodToken);
+
+    CompletableFuture<String> createNonceFromPaymentMethodToken(String braintreePaymentMethodToken);
+
+    CompletableFuture<String> generateClientToken(@Nullable String braintreeCustomerId);
+
+    CompletableFuture<Transaction.Status> getTransactionStatus(String braintreeTransactionId);
+
+    CompletableFuture<Map<String, Transaction.Status>> getTransactionStatuses(List<String> braintreeTransactionIds);
+
+    CompletableFuture<Transaction> findSaleTransactionByOrderId(String orderId);
+
+    /**
+     * Waits for the call to complete, rethrowing its failure (e.g. a BraintreeException) as is instead of wrapped in an ExecutionException
+     */
+    static <T> T await(final CompletableFuture<T> future) throws InterruptedException {
+        try {
+            return future.get();
+        } catch (final ExecutionException e) {
+            Throwables.throwIfUnchecked(e.getCause());
+            throw new RuntimeException(e.getCause());
+        }
+    }
+}
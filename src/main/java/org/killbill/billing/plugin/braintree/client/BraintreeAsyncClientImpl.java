@@ -0,0 +1,175 @@
+/*
+ * Copyright 2021 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.braintree.client;
+
+import java.lang.reflect.Method;
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import javax.annotation.Nullable;
+
+import com.braintreegateway.PaymentMethod;
+import com.braintreegateway.Result;
+import com.braintreegateway.Transaction;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.killbill.billing.plugin.braintree.core.BraintreePluginProperties.PaymentMethodType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the calls of a (blocking) BraintreeClient on an executor. The client is usually the full tenant client built by
+ * BraintreeClientRegistry, so async calls are metered, retried, rate limited and go through the circuit breaker and bulkhead
+ * like any other call.
+ */
+public class BraintreeAsyncClientImpl implements BraintreeAsyncClient {
+
+    private static final Logger logger = LoggerFactory.getLogger(BraintreeAsyncClientImpl.class);
+
+    private static final long IDLE_THREAD_KEEP_ALIVE_SECONDS = 60;
+
+    private final BraintreeClient delegate;
+    private final Executor executor;
+
+    public BraintreeAsyncClientImpl(final BraintreeClient delegate, final Executor executor) {
+        this.delegate = delegate;
+        this.executor = executor;
+    }
+
+    /**
+     * @return an executor starting a virtual thread per call when the JVM supports them (Java 21+), a pool of at most
+     * maxPlatformThreads daemon threads otherwise
+     */
+    public static ExecutorService newExecutor(final int maxPlatformThreads) {
+        try {
+            // Looked up reflectively, as the plugin is built for older JVMs
+            final Method newVirtualThreadPerTaskExecutor = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            final ExecutorService executor = (ExecutorService) newVirtualThreadPerTaskExecutor.invoke(null);
+            logger.info("Braintree async calls run on virtual threads");
+            return executor;
+        } catch (final ReflectiveOperationException e) {
+            final ThreadPoolExecutor executor = new ThreadPoolExecutor(maxPlatformThreads,
+                                                                       maxPlatformThreads,
+                                                                       IDLE_THREAD_KEEP_ALIVE_SECONDS,
+                                                                       TimeUnit.SECONDS,
+                                                                       new LinkedBlockingQueue<Runnable>(),
+                                                                       new ThreadFactoryBuilder().setNameFormat("braintree-async-%d")
+                                                                                                 .setDaemon(true)
+                                                                                                 .build());
+            executor.allowCoreThreadTimeOut(true);
+            logger.info("Braintree async calls run on up to {} platform threads", maxPlatformThreads);
+            return executor;
+        }
+    }
+
+    private <T> CompletableFuture<T> supply(final Supplier<T> call) {
+        return CompletableFuture.supplyAsync(call, executor);
+    }
+
+    @Override
+    public CompletableFuture<Result<Transaction>> saleTransaction(final String orderId, final BigDecimal amount, @Nullable final String braintreeCustomerId, final String braintreePaymentMethodNonce, final boolean submitForSettlement) {
+        return supply(() -> delegate.saleTransaction(orderId, amount, braintreeCustomerId, braintreePaymentMethodNonce, submitForSettlement));
+    }
+
+    @Override
+    public CompletableFuture<Result<Transaction>> saleTransactionWithPaymentMethodToken(final String orderId, final BigDecimal amount, final String braintreePaymentMethodToken, final boolean submitForSettlement) {
+        return supply(() -> delegate.saleTransactionWithPaymentMethodToken(orderId, amount, braintreePaymentMethodToken, submitForSettlement));
+    }
+
+    @Override
+    public CompletableFuture<Result<Transaction>> submitTransactionForSettlement(final String braintreeTransactionId, final BigDecimal amount) {
+        return supply(() -> delegate.submitTransactionForSettlement(braintreeTransactionId, amount));
+    }
+
+    @Override
+    public CompletableFuture<Result<Transaction>> voidTransaction(final String braintreeTransactionId) {
+        return supply(() -> delegate.voidTransaction(braintreeTransactionId));
+    }
+
+    @Override
+    public CompletableFuture<Result<Transaction>> refundTransaction(final String braintreeTransactionId, final BigDecimal amount) {
+        return supply(() -> delegate.refundTransaction(braintreeTransactionId, amount));
+    }
+
+    @Override
+    public CompletableFuture<Result<Transaction>> creditTransaction(final BigDecimal amount, @Nullable final String braintreeCustomerId, final String braintreePaymentMethodNonce) {
+        return supply(() -> delegate.creditTransaction(amount, braintreeCustomerId, braintreePaymentMethodNonce));
+    }
+
+    @Override
+    public CompletableFuture<Result<Transaction>> creditTransactionWithPaymentMethodToken(final BigDecimal amount, final String braintreePaymentMethodToken) {
+        return supply(() -> delegate.creditTransactionWithPaymentMethodToken(amount, braintreePaymentMethodToken));
+    }
+
+    @Override
+    public CompletableFuture<Result<? extends PaymentMethod>> createPaymentMethod(final String braintreeCustomerId, final String braintreePaymentMethodToken, final String braintreeNonce, final PaymentMethodType paymentMethodType) {
+        return supply(() -> delegate.createPaymentMethod(braintreeCustomerId, braintreePaymentMethodToken, braintreeNonce, paymentMethodType));
+    }
+
+    @Override
+    public CompletableFuture<Result<? extends PaymentMethod>> updatePaymentMethod(final String currentBraintreePaymentMethodToken, final String newBraintreePaymentMethodToken, final String newCustomerId) {
+        return supply(() -> delegate.updatePaymentMethod(currentBraintreePaymentMethodToken, newBraintreePaymentMethodToken, newCustomerId));
+    }
+
+    @Override
+    public CompletableFuture<List<? extends PaymentMethod>> getPaymentMethods(final String braintreeCustomerId) {
+        return supply(() -> delegate.getPaymentMethods(braintreeCustomerId));
+    }
+
+    @Override
+    public CompletableFuture<Map<String, List<? extends PaymentMethod>>> getPaymentMethodsByCustomer(final List<String> braintreeCustomerIds) {
+        return supply(() -> delegate.getPaymentMethodsByCustomer(braintreeCustomerIds));
+    }
+
+    @Override
+    public CompletableFuture<Result<? extends PaymentMethod>> deletePaymentMethod(final String braintreePaymentMethodToken) {
+        return supply(() -> delegate.deletePaymentMethod(braintreePaymentMethodToken));
+    }
+
+    @Override
+    public CompletableFuture<String> createNonceFromPaymentMethodToken(final String braintreePaymentMethodToken) {
+        return supply(() -> delegate.createNonceFromPaymentMethodToken(braintreePaymentMethodToken));
+    }
+
+    @Override
+    public CompletableFuture<String> generateClientToken(@Nullable final String braintreeCustomerId) {
+        return supply(() -> delegate.generateClientToken(braintreeCustomerId));
+    }
+
+    @Override
+    public CompletableFuture<Transaction.Status> getTransactionStatus(final String braintreeTransactionId) {
+        return supply(() -> delegate.getTransactionStatus(braintreeTransactionId));
+    }
+
+    @Override
+    public CompletableFuture<Map<String, Transaction.Status>> getTransactionStatuses(final List<String> braintreeTransactionIds) {
+        return supply(() -> delegate.getTransactionStatuses(braintreeTransactionIds));
+    }
+
+    @Override
+    public CompletableFuture<Transaction> findSaleTransactionByOrderId(final String orderId) {
+        return supply(() -> delegate.findSaleTransactionByOrderId(orderId));
+    }
+}
@@ -25,11 +25,14 @@ import org.killbill.billing.plugin.braintree.core.BraintreePluginProperties.Paym
 import javax.annotation.Nullable;
 import java.math.BigDecimal;
 import java.util.List;
+import java.util.Map;
 
 public interface BraintreeClient {
 
     Result<Transaction> saleTransaction(String orderId, BigDecimal amount, @Nullable String braintreeCustomerId, String braintreePaymentMethodNonce, boolean submitForSettlement) throws BraintreeException;
 
+    Result<Transaction> saleTransactionWithPaymentMethodToken(String orderId, BigDecimal amount, String braintreePaymentMethodToken, boolean submitForSettlement) throws BraintreeException;
+
     Result<Transaction> submitTransactionForSettlement(String braintreeTransactionId, BigDecimal amount) throws BraintreeException;
 
     Result<Transaction> voidTransaction(String braintreeTransactionId) throws BraintreeException;
@@ -38,18 +41,43 @@ public interface BraintreeClient {
 
     Result<Transaction> creditTransaction(BigDecimal amount, @Nullable String braintreeCustomerId, String braintreePaymentMethodNonce) throws BraintreeException;
 
+    Result<Transaction> creditTransactionWithPaymentMethodToken(BigDecimal amount, String braintreePaymentMethodToken) throws BraintreeException;
+
     Result<? extends PaymentMethod> createPaymentMethod(String braintreeCustomerId, String braintreePaymentMethodToken, String braintreeNonce, PaymentMethodType paymentMethodType) throws BraintreeException;
 
     Result<? extends PaymentMethod> updatePaymentMethod(String currentBraintreePaymentMethodToken, String newBraintreePaymentMethodToken, String newCustomerId) throws BraintreeException;
 
     List<? extends PaymentMethod> getPaymentMethods(String braintreeCustomerId) throws BraintreeException;
 
+    /**
+     * Bulk version of {@link #getPaymentMethods(String)}, using the customer search API
+     *
+     * @return the payment methods of each customer found, keyed by Braintree customer id
+     */
+    Map<String, List<? extends PaymentMethod>> getPaymentMethodsByCustomer(List<String> braintreeCustomerIds) throws BraintreeException;
+
     Result<? extends PaymentMethod> deletePaymentMethod(String braintreePaymentMethodToken) throws BraintreeException;
 
     @Nullable String createNonceFromPaymentMethodToken(String braintreePaymentMethodToken);
 
+    /**
+     * @param braintreeCustomerId the customer whose vaulted payment methods the token gives access to, null for an anonymous token
+     * @return a client token, for the Braintree client SDKs (e.g. the Drop-in UI)
+     */
+    String generateClientToken(@Nullable String braintreeCustomerId) throws BraintreeException;
+
     Transaction.Status getTransactionStatus(String braintreeTransactionId);
 
+    /**
+     * @return the current status of each transaction found, keyed by Braintree transaction id
+     */
+    Map<String, Transaction.Status> getTransactionStatuses(List<String> braintreeTransactionIds) throws BraintreeException;
+
+    /**
+     * @return the sale transaction created with this order id (the most recent one if several), null if there is none
+     */
+    @Nullable Transaction findSaleTransactionByOrderId(String orderId) throws BraintreeException;
+
     static Transaction getTransactionInstance(Result<Transaction> result){
         return result.getTransaction() == null? result.getTarget() : result.getTransaction();
     }
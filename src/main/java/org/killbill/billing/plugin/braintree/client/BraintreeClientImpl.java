@@ -23,7 +23,9 @@ import org.killbill.billing.plugin.braintree.core.BraintreePluginProperties.Paym
 
 import javax.annotation.Nullable;
 import java.math.BigDecimal;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class BraintreeClientImpl implements BraintreeClient {
 
@@ -55,6 +57,27 @@ public class BraintreeClientImpl implements BraintreeClient {
         return result;
     }
 
+    @Override
+    public Result<Transaction> saleTransactionWithPaymentMethodToken(String orderId, BigDecimal amount, String braintreePaymentMethodToken, boolean submitForSettlement) throws BraintreeException {
+        Result<Transaction> result;
+        try {
+            // The vaulted token already identifies the customer
+            TransactionRequest request = new TransactionRequest()
+                    .orderId(orderId)
+                    .amount(amount)
+                    .paymentMethodToken(braintreePaymentMethodToken)
+                    .options()
+                        .submitForSettlement(submitForSettlement)
+                        .done();
+
+            result = gateway.transaction().sale(request);
+        }
+        catch(Throwable t){
+            throw new BraintreeException("Could not complete sale transaction with payment method " + braintreePaymentMethodToken, t);
+        }
+        return result;
+    }
+
     @Override
     public Result<Transaction> submitTransactionForSettlement(String braintreeTransactionId, BigDecimal amount) throws BraintreeException {
         Result<Transaction> result;
@@ -122,6 +145,22 @@ public class BraintreeClientImpl implements BraintreeClient {
         return result;
     }
 
+    @Override
+    public Result<Transaction> creditTransactionWithPaymentMethodToken(BigDecimal amount, String braintreePaymentMethodToken) throws BraintreeException {
+        Result<Transaction> result;
+        try {
+            TransactionRequest request = new TransactionRequest()
+                    .amount(amount)
+                    .paymentMethodToken(braintreePaymentMethodToken);
+
+            result = gateway.transaction().credit(request);
+        }
+        catch(Throwable t){
+            throw new BraintreeException("Could not credit transaction in Braintree with payment method " + braintreePaymentMethodToken, t);
+        }
+
+        return result;
+    }
 
     @Override
     public Result<? extends PaymentMethod> createPaymentMethod(String braintreeCustomerId, String braintreePaymentMethodToken, String braintreeNonce, PaymentMethodType paymentMethodType) throws BraintreeException {
@@ -195,6 +234,23 @@ public class BraintreeClientImpl implements BraintreeClient {
         return paymentMethods;
     }
 
+    @Override
+    public Map<String, List<? extends PaymentMethod>> getPaymentMethodsByCustomer(List<String> braintreeCustomerIds) throws BraintreeException {
+        Map<String, List<? extends PaymentMethod>> paymentMethodsByCustomer = new HashMap<>();
+        try{
+            CustomerSearchRequest request = new CustomerSearchRequest()
+                    .ids().in(braintreeCustomerIds);
+            // The SDK fetches the matching customers page by page while iterating
+            for(Customer customer : gateway.customer().search(request)){
+                paymentMethodsByCustomer.put(customer.getId(), customer.getPaymentMethods());
+            }
+        }
+        catch(Throwable t){
+            throw new BraintreeException("Could not search the payment methods of " + braintreeCustomerIds.size() + " Braintree customers", t);
+        }
+        return paymentMethodsByCustomer;
+    }
+
     @Nullable
     @Override
     public String createNonceFromPaymentMethodToken(String braintreePaymentMethodToken) {
@@ -212,6 +268,19 @@ public class BraintreeClientImpl implements BraintreeClient {
         return nonceFromPaymentMethodToken;
     }
 
+    @Override
+    public String generateClientToken(@Nullable String braintreeCustomerId) throws BraintreeException {
+        try {
+            if (braintreeCustomerId == null) {
+                return gateway.clientToken().generate();
+            }
+            return gateway.clientToken().generate(new ClientTokenRequest().customerId(braintreeCustomerId));
+        }
+        catch (Throwable t){
+            throw new BraintreeException("Could not generate Braintree client token" + (braintreeCustomerId == null ? "" : " for customer " + braintreeCustomerId), t);
+        }
+    }
+
     @Override
     public Result<? extends PaymentMethod> deletePaymentMethod(String braintreePaymentMethodToken) throws BraintreeException {
         Result<? extends PaymentMethod> result;
@@ -237,5 +306,40 @@ public class BraintreeClientImpl implements BraintreeClient {
         return transactionStatus;
     }
 
-}
+    @Override
+    public Map<String, Transaction.Status> getTransactionStatuses(List<String> braintreeTransactionIds) throws BraintreeException {
+        Map<String, Transaction.Status> transactionStatuses = new HashMap<>();
+        try{
+            TransactionSearchRequest request = new TransactionSearchRequest()
+                    .ids().in(braintreeTransactionIds);
+            for(Transaction transaction : gateway.transaction().search(request)){
+                transactionStatuses.put(transaction.getId(), transaction.getStatus());
+            }
+        }
+        catch(Throwable t){
+            throw new BraintreeException("Could not search the Braintree status of " + braintreeTransactionIds.size() + " transactions", t);
+        }
+        return transactionStatuses;
+    }
+
+    @Nullable
+    @Override
+    public Transaction findSaleTransactionByOrderId(String orderId) throws BraintreeException {
+        Transaction saleTransaction = null;
+        try{
+            TransactionSearchRequest request = new TransactionSearchRequest()
+                    .orderId().is(orderId)
+                    .type().is(Transaction.Type.SALE);
+            for(Transaction transaction : gateway.transaction().search(request)){
+                if(saleTransaction == null || transaction.getCreatedAt().after(saleTransaction.getCreatedAt())){
+                    saleTransaction = transaction;
+                }
+            }
+        }
+        catch(Throwable t){
+            throw new BraintreeException("Could not search the Braintree sale transaction for order " + orderId, t);
+        }
+        return saleTransaction;
+    }
 
+}
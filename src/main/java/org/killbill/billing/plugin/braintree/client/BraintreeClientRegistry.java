@@ -0,0 +1,329 @@
+/*
+ * Copyright 2021 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.braintree.client;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import javax.annotation.Nullable;
+
+import com.braintreegateway.BraintreeGateway;
+import com.braintreegateway.Environment;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.MoreObjects;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.killbill.billing.plugin.braintree.core.BraintreeConfigProperties;
+
+/**
+ * Keeps one BraintreeGateway (and the BraintreeClient wrapping it) per tenant, so that the SDK
+ * HTTP state (SSL socket factory, keep-alive connections) is reused across calls instead of being
+ * rebuilt on every request.
+ *
+ * Entries are bound to the BraintreeConfigProperties instance they were built from. When the tenant configuration
+ * is reloaded, {@link #refresh(UUID, BraintreeConfigProperties)} swaps in the new entry right away, off the payment path (a lookup
+ * with a configuration the registry hasn't seen yet does it too). In-flight calls drain on the client they started with, an older
+ * configuration never replaces a newer one, and the entry is kept as is (gateway, breaker state, rate limiters) if none of the
+ * settings it was built from changed.
+ *
+ * With {@code btEnvironment=simulator}, the client is a BraintreeSimulatorClient instead: its simulated
+ * account outlives the entries, so reloading the configuration (e.g. to change the injected latency)
+ * doesn't lose the vault and transactions.
+ *
+ * Every client is metered (see MeteredBraintreeClient) into the registry's MetricRegistry, tagged with the
+ * tenant id ({@code default} for the global configuration).
+ *
+ * Each tenant also gets its own bulkhead (ConcurrencyLimitedBraintreeClient, if {@code maxConnections} is set) and circuit
+ * breaker (CircuitBreakingBraintreeClient), so that a degraded merchant account only slows down its own payments.
+ * Calls can also be paced per operation category (RateLimitedBraintreeClient, if a {@code *RateLimit} is set), and transient
+ * failures are retried in front of the breaker (RetryingBraintreeClient, if {@code maxRetries} is set).
+ *
+ * The async clients (see BraintreeAsyncClient) wrap the same per-tenant client, and share a single executor: virtual threads
+ * when available, at most DEFAULT_MAX_ASYNC_THREADS platform threads otherwise. The bulkheads still cap the in-flight calls of each tenant.
+ */
+public class BraintreeClientRegistry {
+
+    public static final long DEFAULT_MAX_TENANTS = 1000;
+    public static final long DEFAULT_EXPIRE_AFTER_ACCESS_MINUTES = 60;
+    public static final int DEFAULT_MAX_ASYNC_THREADS = 32;
+
+    // Guava caches don't allow null keys: the default (global) configuration is stored under this one
+    private static final UUID NULL_TENANT_ID = new UUID(0L, 0L);
+    private static final String NULL_TENANT_METRIC_NAME = "default";
+
+    private final Cache<UUID, Entry> entries;
+    private final MetricRegistry metricRegistry;
+    private final ExecutorService asyncExecutor;
+    private final ConcurrentMap<UUID, BraintreeSimulatorClient.Store> simulatorStores = new ConcurrentHashMap<UUID, BraintreeSimulatorClient.Store>();
+
+    public BraintreeClientRegistry() {
+        this(new MetricRegistry());
+    }
+
+    public BraintreeClientRegistry(final MetricRegistry metricRegistry) {
+        this(DEFAULT_MAX_TENANTS, DEFAULT_EXPIRE_AFTER_ACCESS_MINUTES, metricRegistry);
+    }
+
+    public BraintreeClientRegistry(final long maxTenants, final long expireAfterAccessMinutes) {
+        this(maxTenants, expireAfterAccessMinutes, new MetricRegistry());
+    }
+
+    public BraintreeClientRegistry(final long maxTenants, final long expireAfterAccessMinutes, final MetricRegistry metricRegistry) {
+        this.metricRegistry = metricRegistry;
+        this.entries = CacheBuilder.newBuilder()
+                                   .maximumSize(maxTenants)
+                                   .expireAfterAccess(expireAfterAccessMinutes, TimeUnit.MINUTES)
+                                   .build();
+        this.asyncExecutor = BraintreeAsyncClientImpl.newExecutor(DEFAULT_MAX_ASYNC_THREADS);
+    }
+
+    public BraintreeClient getClient(@Nullable final UUID kbTenantId, final BraintreeConfigProperties config) {
+        return getEntry(kbTenantId, config).client;
+    }
+
+    public BraintreeAsyncClient getAsyncClient(@Nullable final UUID kbTenantId, final BraintreeConfigProperties config) {
+        return getEntry(kbTenantId, config).asyncClient;
+    }
+
+    /**
+     * @return the executor running the async calls, for other background work which shouldn't tie up a platform thread
+     */
+    public Executor getAsyncExecutor() {
+        return asyncExecutor;
+    }
+
+    public BraintreeGateway getGateway(@Nullable final UUID kbTenantId, final BraintreeConfigProperties config) {
+        return getEntry(kbTenantId, config).gateway;
+    }
+
+    /**
+     * @return the tenant circuit breaker, null if disabled
+     */
+    @Nullable
+    public CircuitBreakingBraintreeClient getCircuitBreaker(@Nullable final UUID kbTenantId, final BraintreeConfigProperties config) {
+        return getEntry(kbTenantId, config).circuitBreaker;
+    }
+
+    /**
+     * @return the state of the circuit breakers which aren't closed, keyed by tenant ({@code default} for the global configuration)
+     */
+    public Map<String, CircuitBreakingBraintreeClient.State> getTrippedCircuitBreakers() {
+        final Map<String, CircuitBreakingBraintreeClient.State> tripped = new TreeMap<String, CircuitBreakingBraintreeClient.State>();
+        for (final Map.Entry<UUID, Entry> entry : entries.asMap().entrySet()) {
+            final CircuitBreakingBraintreeClient circuitBreaker = entry.getValue().circuitBreaker;
+            if (circuitBreaker != null && circuitBreaker.getState() != CircuitBreakingBraintreeClient.State.CLOSED) {
+                tripped.put(metricName(entry.getKey()), circuitBreaker.getState());
+            }
+        }
+        return tripped;
+    }
+
+    /**
+     * Swaps the tenant entry, if there is one, for one built from the specified configuration
+     */
+    public void refresh(@Nullable final UUID kbTenantId, final BraintreeConfigProperties config) {
+        entries.asMap().computeIfPresent(key(kbTenantId), (key, existing) -> buildEntry(key, config, existing));
+    }
+
+    /**
+     * Swaps every entry for one built from the current configuration of its tenant (e.g. after a global configuration change)
+     */
+    public void refreshAll(final Function<UUID, BraintreeConfigProperties> configs) {
+        for (final UUID key : entries.asMap().keySet()) {
+            refresh(tenantId(key), configs.apply(tenantId(key)));
+        }
+    }
+
+    public void invalidate(@Nullable final UUID kbTenantId) {
+        entries.invalidate(key(kbTenantId));
+    }
+
+    public void invalidateAll() {
+        entries.invalidateAll();
+    }
+
+    public MetricRegistry getMetricRegistry() {
+        return metricRegistry;
+    }
+
+    /**
+     * Stops the async executor: pending async calls are abandoned
+     */
+    public void close() {
+        asyncExecutor.shutdownNow();
+    }
+
+    public long size() {
+        return entries.size();
+    }
+
+    private Entry getEntry(@Nullable final UUID kbTenantId, final BraintreeConfigProperties config) {
+        final UUID key = key(kbTenantId);
+        final Entry existing = entries.getIfPresent(key);
+        if (existing != null && existing.config == config) {
+            return existing;
+        }
+
+        return entries.asMap().compute(key, (k, current) -> buildEntry(k, config, current));
+    }
+
+    private Entry buildEntry(final UUID key, final BraintreeConfigProperties config, @Nullable final Entry current) {
+        if (current != null && current.config.getGeneration() >= config.getGeneration()) {
+            // The caller read the configuration before it was reloaded: use the current entry
+            return current;
+        }
+        if (current != null && hasSameClientSettings(current.config, config)) {
+            return new Entry(config, current.gateway, current.client, current.asyncClient, current.circuitBreaker);
+        }
+
+        final BraintreeGateway gateway = buildGateway(config);
+        final BraintreeClient limitedClient = buildLimitedClient(key, config, gateway);
+        final CircuitBreakingBraintreeClient circuitBreaker;
+        if (config.getCircuitBreakerFailureThreshold() > 0) {
+            circuitBreaker = new CircuitBreakingBraintreeClient(limitedClient, config.getCircuitBreakerFailureThreshold(), TimeUnit.SECONDS.toMillis(config.getCircuitBreakerOpenSeconds()));
+        } else {
+            circuitBreaker = null;
+        }
+        final BraintreeClient protectedClient = circuitBreaker != null ? circuitBreaker : limitedClient;
+        // Outside of the breaker (being paced isn't a Braintree failure), but every retry waits for its turn
+        final BraintreeClient rateLimitedClient = buildRateLimitedClient(key, config, protectedClient);
+        // Outside of the breaker: it sees every attempt, and retries stop as soon as it opens
+        final BraintreeClient retryingClient = config.getMaxRetries() > 0 ?
+                                               new RetryingBraintreeClient(rateLimitedClient, config.getMaxRetries(), config.getRetryBaseDelayMillis(), config.getRetryMaxDelayMillis(), metricRegistry, metricName(key)) :
+                                               rateLimitedClient;
+        // Outermost, so that the time spent waiting for a connection (or retrying) and the calls rejected by the breaker show up in the metrics
+        final BraintreeClient client = new MeteredBraintreeClient(retryingClient, metricRegistry, metricName(key));
+        return new Entry(config, gateway, client, new BraintreeAsyncClientImpl(client, asyncExecutor), circuitBreaker);
+    }
+
+    private static boolean hasSameClientSettings(final BraintreeConfigProperties previous, final BraintreeConfigProperties config) {
+        if (previous.isSimulator() || config.isSimulator()) {
+            // The simulator reads its settings from the configuration it was built with (its store survives the rebuild)
+            return false;
+        }
+        for (final BraintreeOperation.Category category : BraintreeOperation.Category.values()) {
+            if (previous.getRateLimit(category) != config.getRateLimit(category)) {
+                return false;
+            }
+        }
+        return Objects.equals(previous.getBtEnvironment(), config.getBtEnvironment())
+               && Objects.equals(previous.getBtMerchantId(), config.getBtMerchantId())
+               && Objects.equals(previous.getBtPublicKey(), config.getBtPublicKey())
+               && Objects.equals(previous.getBtPrivateKey(), config.getBtPrivateKey())
+               && previous.getConnectionTimeoutMillis() == config.getConnectionTimeoutMillis()
+               && previous.getReadTimeoutMillis() == config.getReadTimeoutMillis()
+               && Objects.equals(previous.getProxyHost(), config.getProxyHost())
+               && Objects.equals(previous.getProxyPort(), config.getProxyPort())
+               && previous.getMaxConnections() == config.getMaxConnections()
+               && previous.getMaxConnectionsWaitMillis() == config.getMaxConnectionsWaitMillis()
+               && previous.getCircuitBreakerFailureThreshold() == config.getCircuitBreakerFailureThreshold()
+               && previous.getCircuitBreakerOpenSeconds() == config.getCircuitBreakerOpenSeconds()
+               && previous.getMaxRetries() == config.getMaxRetries()
+               && previous.getRetryBaseDelayMillis() == config.getRetryBaseDelayMillis()
+               && previous.getRetryMaxDelayMillis() == config.getRetryMaxDelayMillis()
+               && previous.getRateLimitMaxWaitMillis() == config.getRateLimitMaxWaitMillis();
+    }
+
+    private static BraintreeGateway buildGateway(final BraintreeConfigProperties config) {
+        final BraintreeGateway gateway;
+        if (config.isSimulator()) {
+            // The simulator doesn't talk to Braintree: the gateway is only used locally (e.g. to verify webhook signatures)
+            gateway = new BraintreeGateway(Environment.DEVELOPMENT,
+                                           MoreObjects.firstNonNull(config.getBtMerchantId(), BraintreeSimulatorClient.ENVIRONMENT),
+                                           MoreObjects.firstNonNull(config.getBtPublicKey(), BraintreeSimulatorClient.ENVIRONMENT),
+                                           MoreObjects.firstNonNull(config.getBtPrivateKey(), BraintreeSimulatorClient.ENVIRONMENT));
+        } else {
+            gateway = new BraintreeGateway(
+                    Environment.parseEnvironment(config.getBtEnvironment()),
+                    config.getBtMerchantId(),
+                    config.getBtPublicKey(),
+                    config.getBtPrivateKey()
+            );
+        }
+        gateway.getConfiguration().setConnectTimeout(config.getConnectionTimeoutMillis());
+        gateway.getConfiguration().setTimeout(config.getReadTimeoutMillis());
+        if (config.getProxyHost() != null && config.getProxyPort() != null) {
+            gateway.setProxy(config.getProxyHost(), config.getProxyPort());
+        }
+        return gateway;
+    }
+
+    private BraintreeClient buildLimitedClient(final UUID key, final BraintreeConfigProperties config, final BraintreeGateway gateway) {
+        final BraintreeClient client;
+        if (config.isSimulator()) {
+            client = new BraintreeSimulatorClient(simulatorStores.computeIfAbsent(key, k -> new BraintreeSimulatorClient.Store()), config);
+        } else {
+            client = new BraintreeClientImpl(gateway);
+        }
+        if (config.getMaxConnections() > 0) {
+            return new ConcurrencyLimitedBraintreeClient(client, config.getMaxConnections(), config.getMaxConnectionsWaitMillis());
+        }
+        return client;
+    }
+
+    private BraintreeClient buildRateLimitedClient(final UUID key, final BraintreeConfigProperties config, final BraintreeClient client) {
+        final Map<BraintreeOperation.Category, Double> rateLimits = new EnumMap<BraintreeOperation.Category, Double>(BraintreeOperation.Category.class);
+        for (final BraintreeOperation.Category category : BraintreeOperation.Category.values()) {
+            if (config.getRateLimit(category) > 0) {
+                rateLimits.put(category, config.getRateLimit(category));
+            }
+        }
+        if (rateLimits.isEmpty()) {
+            return client;
+        }
+        return new RateLimitedBraintreeClient(client, rateLimits, config.getRateLimitMaxWaitMillis(), metricRegistry, metricName(key));
+    }
+
+    public static String metricName(@Nullable final UUID kbTenantId) {
+        return kbTenantId == null || NULL_TENANT_ID.equals(kbTenantId) ? NULL_TENANT_METRIC_NAME : kbTenantId.toString();
+    }
+
+    private static UUID key(@Nullable final UUID kbTenantId) {
+        return kbTenantId == null ? NULL_TENANT_ID : kbTenantId;
+    }
+
+    @Nullable
+    private static UUID tenantId(final UUID key) {
+        return NULL_TENANT_ID.equals(key) ? null : key;
+    }
+
+    private static final class Entry {
+
+        private final BraintreeConfigProperties config;
+        private final BraintreeGateway gateway;
+        private final BraintreeClient client;
+        private final BraintreeAsyncClient asyncClient;
+        private final CircuitBreakingBraintreeClient circuitBreaker;
+
+        private Entry(final BraintreeConfigProperties config, final BraintreeGateway gateway, final BraintreeClient client, final BraintreeAsyncClient asyncClient, @Nullable final CircuitBreakingBraintreeClient circuitBreaker) {
+            this.config = config;
+            this.gateway = gateway;
+            this.client = client;
+            this.asyncClient = asyncClient;
+            this.circuitBreaker = circuitBreaker;
+        }
+    }
+}
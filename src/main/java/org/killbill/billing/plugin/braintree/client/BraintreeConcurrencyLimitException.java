@@ -0,0 +1,31 @@
+/*
+ * Copyright 2021 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.braintree.client;
+
+import com.braintreegateway.exceptions.BraintreeException;
+
+/**
+ * Thrown instead of calling Braintree when no connection of the tenant became available in time: the request was never sent.
+ */
+public class BraintreeConcurrencyLimitException extends BraintreeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public BraintreeConcurrencyLimitException(final String message) {
+        super(message);
+    }
+}
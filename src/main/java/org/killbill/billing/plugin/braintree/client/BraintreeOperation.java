@@ -0,0 +1,58 @@
+/*
+ * Copyright 2021 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.braintree.client;
+
+/**
+ * The calls made through {@link BraintreeClient}, used by the decorators to name and classify them.
+ */
+public enum BraintreeOperation {
+
+    SALE(Category.TRANSACTION),
+    SUBMIT_FOR_SETTLEMENT(Category.TRANSACTION),
+    VOID(Category.TRANSACTION),
+    REFUND(Category.TRANSACTION),
+    CREDIT(Category.TRANSACTION),
+    CREATE_PAYMENT_METHOD(Category.VAULT),
+    UPDATE_PAYMENT_METHOD(Category.VAULT),
+    GET_PAYMENT_METHODS(Category.SEARCH),
+    SEARCH_CUSTOMERS(Category.SEARCH),
+    DELETE_PAYMENT_METHOD(Category.VAULT),
+    CREATE_NONCE(Category.VAULT),
+    GENERATE_CLIENT_TOKEN(Category.VAULT),
+    GET_TRANSACTION_STATUS(Category.SEARCH),
+    SEARCH_TRANSACTIONS(Category.SEARCH),
+    FIND_SALE_BY_ORDER_ID(Category.SEARCH);
+
+    public enum Category {
+        // Money movement
+        TRANSACTION,
+        // Read-only lookups
+        SEARCH,
+        // Payment method (vault) management
+        VAULT
+    }
+
+    private final Category category;
+
+    BraintreeOperation(final Category category) {
+        this.category = category;
+    }
+
+    public Category getCategory() {
+        return category;
+    }
+}
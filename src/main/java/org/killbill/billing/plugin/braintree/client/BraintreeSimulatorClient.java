@@ -0,0 +1,729 @@
+/*
+ * Copyright 2021 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.braintree.client;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+import com.braintreegateway.CreditCard;
+import com.braintreegateway.PayPalAccount;
+import com.braintreegateway.PaymentInstrumentType;
+import com.braintreegateway.PaymentMethod;
+import com.braintreegateway.Result;
+import com.braintreegateway.Transaction;
+import com.braintreegateway.UsBankAccount;
+import com.braintreegateway.exceptions.BraintreeException;
+import com.braintreegateway.exceptions.NotFoundException;
+import com.braintreegateway.exceptions.ServiceUnavailableException;
+import com.braintreegateway.util.NodeWrapper;
+import com.braintreegateway.util.NodeWrapperFactory;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.escape.Escaper;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.google.common.xml.XmlEscapers;
+import org.killbill.billing.plugin.braintree.core.BraintreeConfigProperties;
+import org.killbill.billing.plugin.braintree.core.BraintreePluginProperties.PaymentMethodType;
+
+/**
+ * In-memory stand-in for Braintree, selected with {@code btEnvironment=simulator}, for offline integration and load testing.
+ *
+ * Transactions follow the Braintree state machine (authorized, submitted for settlement, settled, voided, refunded) and
+ * settle once the configured settlement delay has elapsed. Like the Braintree sandbox, amounts between 2000.00 and 2999.99
+ * are declined by the processor, 3000.00 fails, and nonces starting with {@code fake-processor-declined} are declined.
+ * On top of that, latency, random processor declines and random gateway errors can be injected.
+ *
+ * Responses are built from the same XML documents the SDK parses, so the plugin sees regular SDK objects.
+ */
+public class BraintreeSimulatorClient implements BraintreeClient {
+
+    public static final String ENVIRONMENT = "simulator";
+
+    // Beyond that, the oldest transactions are forgotten (and then reported as not found)
+    public static final long DEFAULT_MAX_TRANSACTIONS = 1000000;
+
+    private static final BigDecimal PROCESSOR_DECLINED_MIN_AMOUNT = new BigDecimal("2000.00");
+    private static final BigDecimal PROCESSOR_FAILED_AMOUNT = new BigDecimal("3000.00");
+    private static final String DECLINED_NONCE_PREFIX = "fake-processor-declined";
+    private static final String NONCE_PREFIX = "simulator-nonce-";
+    private static final String CLIENT_TOKEN_PREFIX = "simulator-client-token-";
+
+    private static final Escaper XML_ESCAPER = XmlEscapers.xmlContentEscaper();
+
+    private final Store store;
+    private final long latencyMillis;
+    private final long latencyJitterMillis;
+    private final double declineRate;
+    private final double errorRate;
+    private final long settlementDelayMillis;
+
+    public BraintreeSimulatorClient(final Store store, final BraintreeConfigProperties config) {
+        this(store,
+             config.getSimulatorLatencyMillis(),
+             config.getSimulatorLatencyJitterMillis(),
+             config.getSimulatorDeclineRate(),
+             config.getSimulatorErrorRate(),
+             TimeUnit.SECONDS.toMillis(config.getSimulatorSettlementDelaySeconds()));
+    }
+
+    public BraintreeSimulatorClient(final Store store,
+                                    final long latencyMillis,
+                                    final long latencyJitterMillis,
+                                    final double declineRate,
+                                    final double errorRate,
+                                    final long settlementDelayMillis) {
+        this.store = store;
+        this.latencyMillis = latencyMillis;
+        this.latencyJitterMillis = latencyJitterMillis;
+        this.declineRate = declineRate;
+        this.errorRate = errorRate;
+        this.settlementDelayMillis = settlementDelayMillis;
+    }
+
+    @Override
+    public Result<Transaction> saleTransaction(final String orderId, final BigDecimal amount, @Nullable final String braintreeCustomerId, final String braintreePaymentMethodNonce, final boolean submitForSettlement) throws BraintreeException {
+        try {
+            simulateNetwork();
+            return createTransaction(Transaction.Type.SALE, orderId, amount, braintreeCustomerId, braintreePaymentMethodNonce, null, submitForSettlement);
+        } catch (final Throwable t) {
+            throw new BraintreeException("Could not complete sale transaction", t);
+        }
+    }
+
+    @Override
+    public Result<Transaction> saleTransactionWithPaymentMethodToken(final String orderId, final BigDecimal amount, final String braintreePaymentMethodToken, final boolean submitForSettlement) throws BraintreeException {
+        try {
+            simulateNetwork();
+            return createTransaction(Transaction.Type.SALE, orderId, amount, null, null, braintreePaymentMethodToken, submitForSettlement);
+        } catch (final Throwable t) {
+            throw new BraintreeException("Could not complete sale transaction with payment method " + braintreePaymentMethodToken, t);
+        }
+    }
+
+    @Override
+    public Result<Transaction> submitTransactionForSettlement(final String braintreeTransactionId, final BigDecimal amount) throws BraintreeException {
+        try {
+            simulateNetwork();
+            final SimulatedTransaction transaction = findTransaction(braintreeTransactionId);
+            synchronized (transaction) {
+                if (currentStatus(transaction) != Transaction.Status.AUTHORIZED) {
+                    return validationError("Cannot submit for settlement unless status is authorized.");
+                }
+                if (amount != null && amount.compareTo(transaction.amount) > 0) {
+                    return validationError("Settlement amount is too large.");
+                }
+                if (amount != null) {
+                    transaction.amount = amount;
+                }
+                transaction.status = Transaction.Status.SUBMITTED_FOR_SETTLEMENT;
+                transaction.submittedAt = System.currentTimeMillis();
+                return new Result<Transaction>(toTransaction(transaction));
+            }
+        } catch (final Throwable t) {
+            throw new BraintreeException("Could not capture transaction " + braintreeTransactionId, t);
+        }
+    }
+
+    @Override
+    public Result<Transaction> voidTransaction(final String braintreeTransactionId) throws BraintreeException {
+        try {
+            simulateNetwork();
+            return doVoid(findTransaction(braintreeTransactionId));
+        } catch (final Throwable t) {
+            throw new BraintreeException("Could not void transaction " + braintreeTransactionId, t);
+        }
+    }
+
+    @Override
+    public Result<Transaction> refundTransaction(final String braintreeTransactionId, final BigDecimal amount) throws BraintreeException {
+        try {
+            simulateNetwork();
+            final SimulatedTransaction transaction = findTransaction(braintreeTransactionId);
+            synchronized (transaction) {
+                final Transaction.Status status = currentStatus(transaction);
+                if (status == Transaction.Status.SETTLED || status == Transaction.Status.SETTLING) {
+                    return doRefund(transaction, amount);
+                } else if (amount == null || transaction.amount.compareTo(amount) == 0) {
+                    // Same as BraintreeClientImpl: a full refund of an unsettled transaction is a void
+                    return doVoid(transaction);
+                } else {
+                    throw new BraintreeException("Cannot refund transaction that has not yet begun settlement, and partial voids are not supported.");
+                }
+            }
+        } catch (final Throwable t) {
+            throw new BraintreeException("Could not refund transaction " + braintreeTransactionId, t);
+        }
+    }
+
+    @Override
+    public Result<Transaction> creditTransaction(final BigDecimal amount, @Nullable final String braintreeCustomerId, final String braintreePaymentMethodNonce) throws BraintreeException {
+        try {
+            simulateNetwork();
+            return createTransaction(Transaction.Type.CREDIT, null, amount, braintreeCustomerId, braintreePaymentMethodNonce, null, true);
+        } catch (final Throwable t) {
+            throw new BraintreeException("Could not credit transaction in Braintree", t);
+        }
+    }
+
+    @Override
+    public Result<Transaction> creditTransactionWithPaymentMethodToken(final BigDecimal amount, final String braintreePaymentMethodToken) throws BraintreeException {
+        try {
+            simulateNetwork();
+            return createTransaction(Transaction.Type.CREDIT, null, amount, null, null, braintreePaymentMethodToken, true);
+        } catch (final Throwable t) {
+            throw new BraintreeException("Could not credit transaction in Braintree with payment method " + braintreePaymentMethodToken, t);
+        }
+    }
+
+    @Override
+    public Result<? extends PaymentMethod> createPaymentMethod(final String braintreeCustomerId, final String braintreePaymentMethodToken, final String braintreeNonce, final PaymentMethodType paymentMethodType) throws BraintreeException {
+        try {
+            simulateNetwork();
+            if (!consumeNonce(braintreeNonce)) {
+                return validationError("Cannot use a payment_method_nonce more than once.");
+            }
+
+            if (braintreeCustomerId == null) {
+                return validationError("Customer ID is required.");
+            }
+
+            final String token = braintreePaymentMethodToken == null ? UUID.randomUUID().toString() : braintreePaymentMethodToken;
+            final Set<String> customerTokens = store.getCustomerTokens(braintreeCustomerId);
+            final SimulatedPaymentMethod paymentMethod = new SimulatedPaymentMethod(token, braintreeCustomerId, paymentMethodType, customerTokens.isEmpty());
+            if (store.paymentMethods.putIfAbsent(token, paymentMethod) != null) {
+                return validationError("Token has already been taken.");
+            }
+            customerTokens.add(token);
+            return new Result<PaymentMethod>(toPaymentMethod(paymentMethod));
+        } catch (final Throwable t) {
+            throw new BraintreeException("Error creating payment method in Braintree", t);
+        }
+    }
+
+    @Override
+    public Result<? extends PaymentMethod> updatePaymentMethod(final String currentBraintreePaymentMethodToken, final String newBraintreePaymentMethodToken, final String newCustomerId) throws BraintreeException {
+        try {
+            simulateNetwork();
+            final SimulatedPaymentMethod current = findPaymentMethod(currentBraintreePaymentMethodToken);
+            final SimulatedPaymentMethod updated = new SimulatedPaymentMethod(newBraintreePaymentMethodToken, newCustomerId, current.type, current.isDefault);
+            if (!newBraintreePaymentMethodToken.equals(currentBraintreePaymentMethodToken)) {
+                if (store.paymentMethods.putIfAbsent(newBraintreePaymentMethodToken, updated) != null) {
+                    return validationError("Token has already been taken.");
+                }
+                store.paymentMethods.remove(currentBraintreePaymentMethodToken);
+            } else {
+                store.paymentMethods.put(newBraintreePaymentMethodToken, updated);
+            }
+            store.getCustomerTokens(current.customerId).remove(currentBraintreePaymentMethodToken);
+            store.getCustomerTokens(newCustomerId).add(newBraintreePaymentMethodToken);
+            return new Result<PaymentMethod>(toPaymentMethod(updated));
+        } catch (final Throwable t) {
+            throw new BraintreeException("Could not synchronize KillBill payment method " + newBraintreePaymentMethodToken + " with Braintree payment method " + currentBraintreePaymentMethodToken, t);
+        }
+    }
+
+    @Override
+    public List<? extends PaymentMethod> getPaymentMethods(final String braintreeCustomerId) throws BraintreeException {
+        try {
+            simulateNetwork();
+            final Set<String> customerTokens = store.tokensByCustomer.get(braintreeCustomerId);
+            if (customerTokens == null) {
+                throw new NotFoundException("customer with id " + braintreeCustomerId + " not found");
+            }
+
+            final List<PaymentMethod> paymentMethods = new ArrayList<PaymentMethod>();
+            for (final String token : customerTokens) {
+                final SimulatedPaymentMethod paymentMethod = store.paymentMethods.get(token);
+                if (paymentMethod != null) {
+                    paymentMethods.add(toPaymentMethod(paymentMethod));
+                }
+            }
+            return paymentMethods;
+        } catch (final Throwable t) {
+            throw new BraintreeException("Could not fetch payment methods for Braintree customer " + braintreeCustomerId, t);
+        }
+    }
+
+    @Override
+    public Map<String, List<? extends PaymentMethod>> getPaymentMethodsByCustomer(final List<String> braintreeCustomerIds) throws BraintreeException {
+        try {
+            simulateNetwork();
+            final Map<String, List<? extends PaymentMethod>> paymentMethodsByCustomer = new HashMap<String, List<? extends PaymentMethod>>();
+            for (final String braintreeCustomerId : braintreeCustomerIds) {
+                final Set<String> customerTokens = store.tokensByCustomer.get(braintreeCustomerId);
+                if (customerTokens == null) {
+                    continue;
+                }
+                final List<PaymentMethod> paymentMethods = new ArrayList<PaymentMethod>();
+                for (final String token : customerTokens) {
+                    final SimulatedPaymentMethod paymentMethod = store.paymentMethods.get(token);
+                    if (paymentMethod != null) {
+                        paymentMethods.add(toPaymentMethod(paymentMethod));
+                    }
+                }
+                paymentMethodsByCustomer.put(braintreeCustomerId, paymentMethods);
+            }
+            return paymentMethodsByCustomer;
+        } catch (final Throwable t) {
+            throw new BraintreeException("Could not search the payment methods of " + braintreeCustomerIds.size() + " Braintree customers", t);
+        }
+    }
+
+    @Nullable
+    @Override
+    public String createNonceFromPaymentMethodToken(final String braintreePaymentMethodToken) {
+        try {
+            simulateNetwork();
+            if (!store.paymentMethods.containsKey(braintreePaymentMethodToken)) {
+                return null;
+            }
+            final String nonce = NONCE_PREFIX + UUID.randomUUID();
+            store.nonces.put(nonce, braintreePaymentMethodToken);
+            return nonce;
+        } catch (final Throwable t) {
+            throw new BraintreeException("Could not create Braintree nonce from payment method token " + braintreePaymentMethodToken, t);
+        }
+    }
+
+    @Override
+    public String generateClientToken(@Nullable final String braintreeCustomerId) throws BraintreeException {
+        try {
+            simulateNetwork();
+            if (braintreeCustomerId != null && !store.tokensByCustomer.containsKey(braintreeCustomerId)) {
+                // Like Braintree
+                throw new IllegalArgumentException("Customer specified by customer_id does not exist");
+            }
+            return CLIENT_TOKEN_PREFIX + UUID.randomUUID();
+        } catch (final Throwable t) {
+            throw new BraintreeException("Could not generate Braintree client token" + (braintreeCustomerId == null ? "" : " for customer " + braintreeCustomerId), t);
+        }
+    }
+
+    @Override
+    public Result<? extends PaymentMethod> deletePaymentMethod(final String braintreePaymentMethodToken) throws BraintreeException {
+        try {
+            simulateNetwork();
+            final SimulatedPaymentMethod paymentMethod = store.paymentMethods.remove(braintreePaymentMethodToken);
+            if (paymentMethod == null) {
+                throw new NotFoundException();
+            }
+            store.getCustomerTokens(paymentMethod.customerId).remove(braintreePaymentMethodToken);
+            return new Result<PaymentMethod>();
+        } catch (final Throwable t) {
+            throw new BraintreeException("Could not delete payment method in Braintree", t);
+        }
+    }
+
+    @Override
+    public Transaction.Status getTransactionStatus(final String braintreeTransactionId) {
+        try {
+            simulateNetwork();
+            final SimulatedTransaction transaction = findTransaction(braintreeTransactionId);
+            synchronized (transaction) {
+                return currentStatus(transaction);
+            }
+        } catch (final Throwable t) {
+            throw new BraintreeException("Could not obtain the Braintree status for transaction " + braintreeTransactionId, t);
+        }
+    }
+
+    @Override
+    public Map<String, Transaction.Status> getTransactionStatuses(final List<String> braintreeTransactionIds) throws BraintreeException {
+        try {
+            simulateNetwork();
+            final Map<String, Transaction.Status> transactionStatuses = new HashMap<String, Transaction.Status>();
+            for (final String braintreeTransactionId : braintreeTransactionIds) {
+                final SimulatedTransaction transaction = store.transactions.get(braintreeTransactionId);
+                if (transaction != null) {
+                    synchronized (transaction) {
+                        transactionStatuses.put(braintreeTransactionId, currentStatus(transaction));
+                    }
+                }
+            }
+            return transactionStatuses;
+        } catch (final Throwable t) {
+            throw new BraintreeException("Could not search the Braintree status of " + braintreeTransactionIds.size() + " transactions", t);
+        }
+    }
+
+    @Nullable
+    @Override
+    public Transaction findSaleTransactionByOrderId(final String orderId) throws BraintreeException {
+        try {
+            simulateNetwork();
+            final String braintreeTransactionId = store.saleIdsByOrderId.get(orderId);
+            final SimulatedTransaction transaction = braintreeTransactionId == null ? null : store.transactions.get(braintreeTransactionId);
+            if (transaction == null) {
+                return null;
+            }
+            synchronized (transaction) {
+                currentStatus(transaction);
+                return toTransaction(transaction);
+            }
+        } catch (final Throwable t) {
+            throw new BraintreeException("Could not search the Braintree sale transaction for order " + orderId, t);
+        }
+    }
+
+    private Result<Transaction> createTransaction(final Transaction.Type type,
+                                                  @Nullable final String orderId,
+                                                  final BigDecimal amount,
+                                                  @Nullable final String braintreeCustomerId,
+                                                  @Nullable final String braintreePaymentMethodNonce,
+                                                  @Nullable final String braintreePaymentMethodToken,
+                                                  final boolean submitForSettlement) {
+        final SimulatedPaymentMethod paymentMethod;
+        if (braintreePaymentMethodToken != null) {
+            paymentMethod = store.paymentMethods.get(braintreePaymentMethodToken);
+            if (paymentMethod == null) {
+                return validationError("Payment method token is invalid.");
+            }
+        } else {
+            // Nonces from createNonceFromPaymentMethodToken point to a vaulted payment method, other ones are one-time
+            final String vaultedToken = store.nonces.remove(braintreePaymentMethodNonce);
+            if (!consumeNonce(braintreePaymentMethodNonce)) {
+                return validationError("Cannot use a payment_method_nonce more than once.");
+            }
+            paymentMethod = vaultedToken == null ? null : store.paymentMethods.get(vaultedToken);
+        }
+
+        final SimulatedTransaction transaction = new SimulatedTransaction(UUID.randomUUID().toString(), type, amount, orderId);
+        transaction.customerId = paymentMethod == null ? braintreeCustomerId : paymentMethod.customerId;
+        transaction.paymentMethodToken = paymentMethod == null ? null : paymentMethod.token;
+        transaction.paymentInstrumentType = paymentMethod == null ? instrumentTypeFromNonce(braintreePaymentMethodNonce) : instrumentType(paymentMethod.type);
+
+        final boolean success;
+        if (PROCESSOR_FAILED_AMOUNT.compareTo(amount) == 0) {
+            transaction.status = Transaction.Status.FAILED;
+            transaction.processorResponseCode = "3000";
+            transaction.processorResponseText = "Processor Network Unavailable - Try Again";
+            success = false;
+        } else if (isDeclinedAmount(amount)) {
+            transaction.status = Transaction.Status.PROCESSOR_DECLINED;
+            transaction.processorResponseCode = amount.toBigInteger().toString();
+            transaction.processorResponseText = "Processor Declined";
+            success = false;
+        } else if ((braintreePaymentMethodNonce != null && braintreePaymentMethodNonce.startsWith(DECLINED_NONCE_PREFIX)) ||
+                   (declineRate > 0 && ThreadLocalRandom.current().nextDouble() < declineRate)) {
+            transaction.status = Transaction.Status.PROCESSOR_DECLINED;
+            transaction.processorResponseCode = "2000";
+            transaction.processorResponseText = "Do Not Honor";
+            success = false;
+        } else {
+            transaction.status = submitForSettlement ? Transaction.Status.SUBMITTED_FOR_SETTLEMENT : Transaction.Status.AUTHORIZED;
+            transaction.submittedAt = transaction.createdAt;
+            transaction.processorResponseCode = "1000";
+            transaction.processorResponseText = "Approved";
+            success = true;
+        }
+        store.transactions.put(transaction.id, transaction);
+        if (type == Transaction.Type.SALE && orderId != null) {
+            store.saleIdsByOrderId.put(orderId, transaction.id);
+        }
+
+        synchronized (transaction) {
+            return success ? new Result<Transaction>(toTransaction(transaction)) : processorError(transaction);
+        }
+    }
+
+    private Result<Transaction> doVoid(final SimulatedTransaction transaction) {
+        synchronized (transaction) {
+            final Transaction.Status status = currentStatus(transaction);
+            if (status != Transaction.Status.AUTHORIZED && status != Transaction.Status.SUBMITTED_FOR_SETTLEMENT) {
+                return validationError("Transaction can only be voided if status is authorized, submitted_for_settlement, or - for PayPal - settlement_pending.");
+            }
+            transaction.status = Transaction.Status.VOIDED;
+            return new Result<Transaction>(toTransaction(transaction));
+        }
+    }
+
+    // Caller holds the transaction lock
+    private Result<Transaction> doRefund(final SimulatedTransaction transaction, @Nullable final BigDecimal amount) {
+        if (transaction.type != Transaction.Type.SALE) {
+            return validationError("Cannot refund a credit.");
+        }
+
+        final BigDecimal refundAmount = amount == null ? transaction.amount.subtract(transaction.refundedAmount) : amount;
+        if (refundAmount.add(transaction.refundedAmount).compareTo(transaction.amount) > 0) {
+            return validationError("Refund amount is too large.");
+        }
+        transaction.refundedAmount = transaction.refundedAmount.add(refundAmount);
+
+        final SimulatedTransaction refund = new SimulatedTransaction(UUID.randomUUID().toString(), Transaction.Type.CREDIT, refundAmount, transaction.orderId);
+        refund.customerId = transaction.customerId;
+        refund.paymentMethodToken = transaction.paymentMethodToken;
+        refund.paymentInstrumentType = transaction.paymentInstrumentType;
+        refund.refundedTransactionId = transaction.id;
+        refund.status = Transaction.Status.SUBMITTED_FOR_SETTLEMENT;
+        refund.submittedAt = refund.createdAt;
+        refund.processorResponseCode = "1000";
+        refund.processorResponseText = "Approved";
+        store.transactions.put(refund.id, refund);
+
+        synchronized (refund) {
+            return new Result<Transaction>(toTransaction(refund));
+        }
+    }
+
+    // Caller holds the transaction lock
+    private Transaction.Status currentStatus(final SimulatedTransaction transaction) {
+        if (transaction.status == Transaction.Status.SUBMITTED_FOR_SETTLEMENT &&
+            System.currentTimeMillis() - transaction.submittedAt >= settlementDelayMillis) {
+            transaction.status = Transaction.Status.SETTLED;
+        }
+        return transaction.status;
+    }
+
+    private SimulatedTransaction findTransaction(final String braintreeTransactionId) {
+        final SimulatedTransaction transaction = store.transactions.get(braintreeTransactionId);
+        if (transaction == null) {
+            throw new NotFoundException("transaction with id " + braintreeTransactionId + " not found");
+        }
+        return transaction;
+    }
+
+    private SimulatedPaymentMethod findPaymentMethod(final String braintreePaymentMethodToken) {
+        final SimulatedPaymentMethod paymentMethod = store.paymentMethods.get(braintreePaymentMethodToken);
+        if (paymentMethod == null) {
+            throw new NotFoundException("payment method with token " + braintreePaymentMethodToken + " not found");
+        }
+        return paymentMethod;
+    }
+
+    private boolean consumeNonce(@Nullable final String braintreePaymentMethodNonce) {
+        return braintreePaymentMethodNonce == null || store.consumedNonces.add(braintreePaymentMethodNonce);
+    }
+
+    private void simulateNetwork() {
+        final long delayMillis = latencyMillis + (latencyJitterMillis > 0 ? ThreadLocalRandom.current().nextLong(latencyJitterMillis + 1) : 0);
+        if (delayMillis > 0) {
+            Uninterruptibles.sleepUninterruptibly(delayMillis, TimeUnit.MILLISECONDS);
+        }
+        if (errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate) {
+            throw new ServiceUnavailableException();
+        }
+    }
+
+    private static boolean isDeclinedAmount(final BigDecimal amount) {
+        return amount.compareTo(PROCESSOR_DECLINED_MIN_AMOUNT) >= 0 && amount.compareTo(PROCESSOR_FAILED_AMOUNT) < 0;
+    }
+
+    private static String instrumentType(final PaymentMethodType paymentMethodType) {
+        switch (paymentMethodType) {
+            case PAYPAL:
+                return PaymentInstrumentType.PAYPAL_ACCOUNT;
+            case ACH:
+                return PaymentInstrumentType.US_BANK_ACCOUNT;
+            default:
+                return PaymentInstrumentType.CREDIT_CARD;
+        }
+    }
+
+    private static String instrumentTypeFromNonce(@Nullable final String braintreePaymentMethodNonce) {
+        final String nonce = braintreePaymentMethodNonce == null ? "" : braintreePaymentMethodNonce.toLowerCase(Locale.ROOT);
+        if (nonce.contains("paypal")) {
+            return PaymentInstrumentType.PAYPAL_ACCOUNT;
+        } else if (nonce.contains("us-bank-account")) {
+            return PaymentInstrumentType.US_BANK_ACCOUNT;
+        } else {
+            return PaymentInstrumentType.CREDIT_CARD;
+        }
+    }
+
+    private static <T> Result<T> validationError(final String message) {
+        final String xml = "<api-error-response>" +
+                           "<errors><errors type=\"array\"/></errors>" +
+                           "<params/>" +
+                           element("message", message) +
+                           "</api-error-response>";
+        return new Result<T>(parse(xml), null);
+    }
+
+    // Caller holds the transaction lock
+    private static Result<Transaction> processorError(final SimulatedTransaction transaction) {
+        final String xml = "<api-error-response>" +
+                           "<errors><errors type=\"array\"/></errors>" +
+                           "<params/>" +
+                           element("message", transaction.processorResponseText) +
+                           transactionXml(transaction) +
+                           "</api-error-response>";
+        return new Result<Transaction>(parse(xml), Transaction.class);
+    }
+
+    // Caller holds the transaction lock
+    private static Transaction toTransaction(final SimulatedTransaction transaction) {
+        return new Transaction(parse(transactionXml(transaction)));
+    }
+
+    private static String transactionXml(final SimulatedTransaction transaction) {
+        final StringBuilder xml = new StringBuilder("<transaction>")
+                .append(element("id", transaction.id))
+                .append(element("type", transaction.type.name().toLowerCase(Locale.ROOT)))
+                .append(element("status", transaction.status.name().toLowerCase(Locale.ROOT)))
+                .append(element("amount", transaction.amount.toPlainString()))
+                .append(element("currency-iso-code", "USD"))
+                .append(element("order-id", transaction.orderId))
+                .append(element("refunded-transaction-id", transaction.refundedTransactionId))
+                .append(element("payment-instrument-type", transaction.paymentInstrumentType))
+                .append(element("processor-response-code", transaction.processorResponseCode))
+                .append(element("processor-response-text", transaction.processorResponseText))
+                .append(dateElement("created-at", transaction.createdAt))
+                .append(dateElement("updated-at", System.currentTimeMillis()));
+        if (transaction.customerId != null) {
+            xml.append("<customer>").append(element("id", transaction.customerId)).append("</customer>");
+        }
+        if (PaymentInstrumentType.CREDIT_CARD.equals(transaction.paymentInstrumentType)) {
+            xml.append("<credit-card>")
+               .append(element("token", transaction.paymentMethodToken))
+               .append(creditCardDetailsXml())
+               .append("</credit-card>");
+        }
+        return xml.append("</transaction>").toString();
+    }
+
+    private static PaymentMethod toPaymentMethod(final SimulatedPaymentMethod paymentMethod) {
+        final String details = element("token", paymentMethod.token) +
+                               element("customer-id", paymentMethod.customerId) +
+                               "<default type=\"boolean\">" + paymentMethod.isDefault + "</default>" +
+                               dateElement("created-at", paymentMethod.createdAt) +
+                               dateElement("updated-at", paymentMethod.createdAt);
+        switch (paymentMethod.type) {
+            case PAYPAL:
+                return new PayPalAccount(parse("<paypal-account>" + details + element("email", "simulator@example.com") + "</paypal-account>"));
+            case ACH:
+                return new UsBankAccount(parse("<us-bank-account>" + details +
+                                               element("last-4", "1234") +
+                                               element("routing-number", "011000015") +
+                                               element("account-type", "checking") +
+                                               element("bank-name", "Simulator Bank") +
+                                               "<verified type=\"boolean\">true</verified>" +
+                                               "</us-bank-account>"));
+            default:
+                return new CreditCard(parse("<credit-card>" + details + creditCardDetailsXml() + "</credit-card>"));
+        }
+    }
+
+    private static String creditCardDetailsXml() {
+        return element("bin", "411111") +
+               element("last-4", "1111") +
+               element("card-type", "Visa") +
+               element("expiration-month", "12") +
+               element("expiration-year", "2030");
+    }
+
+    private static String element(final String name, @Nullable final String value) {
+        return value == null ? "" : "<" + name + ">" + XML_ESCAPER.escape(value) + "</" + name + ">";
+    }
+
+    private static String dateElement(final String name, final long epochMillis) {
+        return "<" + name + " type=\"datetime\">" + Instant.ofEpochMilli(epochMillis).truncatedTo(ChronoUnit.SECONDS) + "</" + name + ">";
+    }
+
+    private static NodeWrapper parse(final String xml) {
+        return NodeWrapperFactory.instance.create(xml);
+    }
+
+    /**
+     * Simulated Braintree account: vault and transactions. Kept across configuration reloads.
+     */
+    public static final class Store {
+
+        private final ConcurrentMap<String, SimulatedTransaction> transactions;
+        // Most recent sale per order id, for the transaction search
+        private final ConcurrentMap<String, String> saleIdsByOrderId;
+        private final ConcurrentMap<String, SimulatedPaymentMethod> paymentMethods = new ConcurrentHashMap<String, SimulatedPaymentMethod>();
+        // Customers are implicitly created with their first payment method
+        private final ConcurrentMap<String, Set<String>> tokensByCustomer = new ConcurrentHashMap<String, Set<String>>();
+        private final ConcurrentMap<String, String> nonces = new ConcurrentHashMap<String, String>();
+        private final Set<String> consumedNonces = ConcurrentHashMap.newKeySet();
+
+        public Store() {
+            this(DEFAULT_MAX_TRANSACTIONS);
+        }
+
+        public Store(final long maxTransactions) {
+            this.transactions = CacheBuilder.newBuilder()
+                                            .maximumSize(maxTransactions)
+                                            .<String, SimulatedTransaction>build()
+                                            .asMap();
+            this.saleIdsByOrderId = CacheBuilder.newBuilder()
+                                                .maximumSize(maxTransactions)
+                                                .<String, String>build()
+                                                .asMap();
+        }
+
+        private Set<String> getCustomerTokens(final String braintreeCustomerId) {
+            return tokensByCustomer.computeIfAbsent(braintreeCustomerId, k -> ConcurrentHashMap.newKeySet());
+        }
+    }
+
+    private static final class SimulatedTransaction {
+
+        private final String id;
+        private final Transaction.Type type;
+        private final String orderId;
+        private final long createdAt = System.currentTimeMillis();
+
+        // Guarded by this
+        private BigDecimal amount;
+        private BigDecimal refundedAmount = BigDecimal.ZERO;
+        private Transaction.Status status;
+        private long submittedAt;
+        private String customerId;
+        private String paymentMethodToken;
+        private String paymentInstrumentType;
+        private String refundedTransactionId;
+        private String processorResponseCode;
+        private String processorResponseText;
+
+        private SimulatedTransaction(final String id, final Transaction.Type type, final BigDecimal amount, @Nullable final String orderId) {
+            this.id = id;
+            this.type = type;
+            this.amount = amount;
+            this.orderId = orderId;
+        }
+    }
+
+    private static final class SimulatedPaymentMethod {
+
+        private final String token;
+        private final String customerId;
+        private final PaymentMethodType type;
+        private final boolean isDefault;
+        private final long createdAt = System.currentTimeMillis();
+
+        private SimulatedPaymentMethod(final String token, final String customerId, final PaymentMethodType type, final boolean isDefault) {
+            this.token = token;
+            this.customerId = customerId;
+            this.type = type;
+            this.isDefault = isDefault;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2021 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.braintree.client;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import com.braintreegateway.exceptions.BraintreeException;
+import com.google.common.base.Ticker;
+
+/**
+ * Stops calling Braintree for a tenant after {@code failureThreshold} consecutive failures (timeouts, 5xx, saturated
+ * connection limit, ...), so that a degraded merchant account doesn't tie up the payment threads of every tenant.
+ *
+ * While open, calls fail immediately with a BraintreeCircuitOpenException. After {@code openMillis}, a single trial
+ * call is let through (half-open): it closes the breaker if it succeeds, and re-opens it otherwise.
+ *
+ * Declines and validation errors are successful calls as far as the breaker is concerned: only exceptions count, and
+ * not those caused by the request itself (unknown object, bad credentials, transaction not settled yet, ...).
+ */
+public class CircuitBreakingBraintreeClient extends ForwardingBraintreeClient {
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long openNanos;
+    private final Ticker ticker;
+
+    // Guarded by this
+    private State state = State.CLOSED;
+    private int consecutiveFailures = 0;
+    private long openedAtNanos;
+    private boolean trialInFlight = false;
+
+    public CircuitBreakingBraintreeClient(final BraintreeClient delegate, final int failureThreshold, final long openMillis) {
+        this(delegate, failureThreshold, openMillis, Ticker.systemTicker());
+    }
+
+    public CircuitBreakingBraintreeClient(final BraintreeClient delegate, final int failureThreshold, final long openMillis, final Ticker ticker) {
+        super(delegate);
+        this.failureThreshold = failureThreshold;
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+        this.ticker = ticker;
+    }
+
+    @Override
+    protected <T> T invoke(final BraintreeOperation operation, final Supplier<T> call) throws BraintreeException {
+        final boolean trial = acquirePermission(operation);
+
+        boolean failure = true;
+        try {
+            final T value = call.get();
+            failure = false;
+            return value;
+        } catch (final RuntimeException e) {
+            failure = isFailure(e);
+            throw e;
+        } finally {
+            onCompletion(trial, failure);
+        }
+    }
+
+    public synchronized State getState() {
+        // Report the pending transition, even if no call triggered it yet
+        if (state == State.OPEN && ticker.read() - openedAtNanos >= openNanos) {
+            return State.HALF_OPEN;
+        }
+        return state;
+    }
+
+    public synchronized int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    /**
+     * @return whether the call is the half-open trial
+     */
+    private synchronized boolean acquirePermission(final BraintreeOperation operation) throws BraintreeCircuitOpenException {
+        if (state == State.OPEN && ticker.read() - openedAtNanos >= openNanos) {
+            state = State.HALF_OPEN;
+        }
+
+        switch (state) {
+            case CLOSED:
+                return false;
+            case HALF_OPEN:
+                if (!trialInFlight) {
+                    trialInFlight = true;
+                    return true;
+                }
+                // Fall through: other calls wait for the trial outcome
+            default:
+                throw new BraintreeCircuitOpenException("Braintree circuit breaker open after " + consecutiveFailures + " consecutive failures, not calling Braintree (" + operation + ")");
+        }
+    }
+
+    private synchronized void onCompletion(final boolean trial, final boolean failure) {
+        if (trial) {
+            trialInFlight = false;
+        }
+
+        if (!failure) {
+            consecutiveFailures = 0;
+            state = State.CLOSED;
+            return;
+        }
+
+        consecutiveFailures++;
+        if (trial || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+            state = State.OPEN;
+            openedAtNanos = ticker.read();
+        }
+    }
+
+    private static boolean isFailure(final RuntimeException e) {
+        // Only transport errors, timeouts, 5xx, 429 and a saturated connection limit: not the errors caused by the
+        // request itself, e.g. "Cannot refund transaction that has not yet begun settlement" or an unverified ACH account
+        return e instanceof BraintreeConcurrencyLimitException || RetryingBraintreeClient.classify(e) != RetryingBraintreeClient.Failure.PERMANENT;
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2021 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.braintree.client;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import com.braintreegateway.exceptions.BraintreeException;
+
+/**
+ * Caps the number of in-flight Braintree calls for a tenant. Callers wait at most the configured
+ * connection timeout for a slot, so a saturated tenant fails fast instead of piling up payment threads.
+ */
+public class ConcurrencyLimitedBraintreeClient extends ForwardingBraintreeClient {
+
+    private final Semaphore permits;
+    private final int maxConcurrentCalls;
+    private final long maxWaitMillis;
+
+    public ConcurrencyLimitedBraintreeClient(final BraintreeClient delegate, final int maxConcurrentCalls, final long maxWaitMillis) {
+        super(delegate);
+        this.permits = new Semaphore(maxConcurrentCalls, true);
+        this.maxConcurrentCalls = maxConcurrentCalls;
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    @Override
+    protected <T> T invoke(final BraintreeOperation operation, final Supplier<T> call) throws BraintreeException {
+        final boolean acquired;
+        try {
+            acquired = permits.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BraintreeException("Interrupted while waiting to call Braintree (" + operation + ")", e);
+        }
+        if (!acquired) {
+            throw new BraintreeConcurrencyLimitException("Timed out after " + maxWaitMillis + "ms waiting for one of the " + maxConcurrentCalls + " Braintree connections (" + operation + ")");
+        }
+
+        try {
+            return call.get();
+        } finally {
+            permits.release();
+        }
+    }
+
+    public int getAvailablePermits() {
+        return permits.availablePermits();
+    }
+
+    public int getQueueLength() {
+        return permits.getQueueLength();
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2021 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.braintree.client;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import javax.annotation.Nullable;
+
+import com.braintreegateway.PaymentMethod;
+import com.braintreegateway.Result;
+import com.braintreegateway.Transaction;
+import com.braintreegateway.exceptions.BraintreeException;
+import org.killbill.billing.plugin.braintree.core.BraintreePluginProperties.PaymentMethodType;
+
+/**
+ * Base class for BraintreeClient decorators: every call is routed through {@link #invoke(BraintreeOperation, Supplier)}.
+ */
+public abstract class ForwardingBraintreeClient implements BraintreeClient {
+
+    protected final BraintreeClient delegate;
+
+    protected ForwardingBraintreeClient(final BraintreeClient delegate) {
+        this.delegate = delegate;
+    }
+
+    protected abstract <T> T invoke(BraintreeOperation operation, Supplier<T> call) throws BraintreeException;
+
+    @Override
+    public Result<Transaction> saleTransaction(final String orderId, final BigDecimal amount, @Nullable final String braintreeCustomerId, final String braintreePaymentMethodNonce, final boolean submitForSettlement) throws BraintreeException {
+        return invoke(BraintreeOperation.SALE, () -> delegate.saleTransaction(orderId, amount, braintreeCustomerId, braintreePaymentMethodNonce, submitForSettlement));
+    }
+
+    @Override
+    public Result<Transaction> saleTransactionWithPaymentMethodToken(final String orderId, final BigDecimal amount, final String braintreePaymentMethodToken, final boolean submitForSettlement) throws BraintreeException {
+        return invoke(BraintreeOperation.SALE, () -> delegate.saleTransactionWithPaymentMethodToken(orderId, amount, braintreePaymentMethodToken, submitForSettlement));
+    }
+
+    @Override
+    public Result<Transaction> submitTransactionForSettlement(final String braintreeTransactionId, final BigDecimal amount) throws BraintreeException {
+        return invoke(BraintreeOperation.SUBMIT_FOR_SETTLEMENT, () -> delegate.submitTransactionForSettlement(braintreeTransactionId, amount));
+    }
+
+    @Override
+    public Result<Transaction> voidTransaction(final String braintreeTransactionId) throws BraintreeException {
+        return invoke(BraintreeOperation.VOID, () -> delegate.voidTransaction(braintreeTransactionId));
+    }
+
+    @Override
+    public Result<Transaction> refundTransaction(final String braintreeTransactionId, final BigDecimal amount) throws BraintreeException {
+        return invoke(BraintreeOperation.REFUND, () -> delegate.refundTransaction(braintreeTransactionId, amount));
+    }
+
+    @Override
+    public Result<Transaction> creditTransaction(final BigDecimal amount, @Nullable final String braintreeCustomerId, final String braintreePaymentMethodNonce) throws BraintreeException {
+        return invoke(BraintreeOperation.CREDIT, () -> delegate.creditTransaction(amount, braintreeCustomerId, braintreePaymentMethodNonce));
+    }
+
+    @Override
+    public Result<Transaction> creditTransactionWithPaymentMethodToken(final BigDecimal amount, final String braintreePaymentMethodToken) throws BraintreeException {
+        return invoke(BraintreeOperation.CREDIT, () -> delegate.creditTransactionWithPaymentMethodToken(amount, braintreePaymentMethodToken));
+    }
+
+    @Override
+    public Result<? extends PaymentMethod> createPaymentMethod(final String braintreeCustomerId, final String braintreePaymentMethodToken, final String braintreeNonce, final PaymentMethodType paymentMethodType) throws BraintreeException {
+        return invoke(BraintreeOperation.CREATE_PAYMENT_METHOD, () -> delegate.createPaymentMethod(braintreeCustomerId, braintreePaymentMethodToken, braintreeNonce, paymentMethodType));
+    }
+
+    @Override
+    public Result<? extends PaymentMethod> updatePaymentMethod(final String currentBraintreePaymentMethodToken, final String newBraintreePaymentMethodToken, final String newCustomerId) throws BraintreeException {
+        return invoke(BraintreeOperation.UPDATE_PAYMENT_METHOD, () -> delegate.updatePaymentMethod(currentBraintreePaymentMethodToken, newBraintreePaymentMethodToken, newCustomerId));
+    }
+
+    @Override
+    public List<? extends PaymentMethod> getPaymentMethods(final String braintreeCustomerId) throws BraintreeException {
+        return invoke(BraintreeOperation.GET_PAYMENT_METHODS, () -> delegate.getPaymentMethods(braintreeCustomerId));
+    }
+
+    @Override
+    public Map<String, List<? extends PaymentMethod>> getPaymentMethodsByCustomer(final List<String> braintreeCustomerIds) throws BraintreeException {
+        return invoke(BraintreeOperation.SEARCH_CUSTOMERS, () -> delegate.getPaymentMethodsByCustomer(braintreeCustomerIds));
+    }
+
+    @Override
+    public Result<? extends PaymentMethod> deletePaymentMethod(final String braintreePaymentMethodToken) throws BraintreeException {
+        return invoke(BraintreeOperation.DELETE_PAYMENT_METHOD, () -> delegate.deletePaymentMethod(braintreePaymentMethodToken));
+    }
+
+    @Nullable
+    @Override
+    public String createNonceFromPaymentMethodToken(final String braintreePaymentMethodToken) {
+        return invoke(BraintreeOperation.CREATE_NONCE, () -> delegate.createNonceFromPaymentMethodToken(braintreePaymentMethodToken));
+    }
+
+    @Override
+    public String generateClientToken(@Nullable final String braintreeCustomerId) throws BraintreeException {
+        return invoke(BraintreeOperation.GENERATE_CLIENT_TOKEN, () -> delegate.generateClientToken(braintreeCustomerId));
+    }
+
+    @Override
+    public Transaction.Status getTransactionStatus(final String braintreeTransactionId) {
+        return invoke(BraintreeOperation.GET_TRANSACTION_STATUS, () -> delegate.getTransactionStatus(braintreeTransactionId));
+    }
+
+    @Override
+    public Map<String, Transaction.Status> getTransactionStatuses(final List<String> braintreeTransactionIds) throws BraintreeException {
+        return invoke(BraintreeOperation.SEARCH_TRANSACTIONS, () -> delegate.getTransactionStatuses(braintreeTransactionIds));
+    }
+
+    @Nullable
+    @Override
+    public Transaction findSaleTransactionByOrderId(final String orderId) throws BraintreeException {
+        return invoke(BraintreeOperation.FIND_SALE_BY_ORDER_ID, () -> delegate.findSaleTransactionByOrderId(orderId));
+    }
+}
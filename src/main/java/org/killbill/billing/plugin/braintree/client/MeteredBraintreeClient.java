@@ -0,0 +1,118 @@
+/*
+ * Copyright 2021 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.braintree.client;
+
+import java.util.Locale;
+import java.util.function.Supplier;
+
+import com.braintreegateway.Result;
+import com.braintreegateway.Transaction;
+import com.braintreegateway.exceptions.BraintreeException;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+/**
+ * Records the latency and the outcome of every Braintree call for a tenant:
+ * <ul>
+ *     <li>a timer {@code braintree.<tenant>.<operation>} (rates and latency percentiles, e.g. p99)</li>
+ *     <li>a meter {@code braintree.<tenant>.<operation>.<outcome>} per {@link Outcome} (e.g. to alert on decline spikes)</li>
+ * </ul>
+ */
+public class MeteredBraintreeClient extends ForwardingBraintreeClient {
+
+    public static final String METRIC_PREFIX = "braintree";
+
+    public enum Outcome {
+        SUCCESS,
+        PROCESSOR_DECLINED,
+        GATEWAY_REJECTED,
+        SETTLEMENT_DECLINED,
+        FAILED,
+        VALIDATION_ERROR,
+        CIRCUIT_OPEN,
+        EXCEPTION;
+
+        public String metricName() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    private final MetricRegistry metricRegistry;
+    private final String tenant;
+
+    public MeteredBraintreeClient(final BraintreeClient delegate, final MetricRegistry metricRegistry, final String tenant) {
+        super(delegate);
+        this.metricRegistry = metricRegistry;
+        this.tenant = tenant;
+    }
+
+    @Override
+    protected <T> T invoke(final BraintreeOperation operation, final Supplier<T> call) throws BraintreeException {
+        final String operationName = operationName(tenant, operation);
+        final Timer.Context context = metricRegistry.timer(operationName).time();
+        Outcome outcome = Outcome.EXCEPTION;
+        try {
+            final T value = call.get();
+            outcome = outcome(value);
+            return value;
+        } catch (final BraintreeCircuitOpenException e) {
+            outcome = Outcome.CIRCUIT_OPEN;
+            throw e;
+        } finally {
+            context.stop();
+            metricRegistry.meter(MetricRegistry.name(operationName, outcome.metricName())).mark();
+        }
+    }
+
+    public static String operationName(final String tenant, final BraintreeOperation operation) {
+        return MetricRegistry.name(METRIC_PREFIX, tenant, operation.name().toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Classifies a call result the same way BraintreePluginProperties#toAdditionalDataMap picks the gateway error:
+     * from the status of the transaction attached to a failed result, if any.
+     */
+    static Outcome outcome(final Object value) {
+        if (!(value instanceof Result)) {
+            // Lookups (payment methods, statuses, nonces) either return or throw
+            return Outcome.SUCCESS;
+        }
+
+        final Result<?> result = (Result<?>) value;
+        if (result.isSuccess()) {
+            return Outcome.SUCCESS;
+        }
+
+        final Transaction transaction = result.getTransaction() != null ? result.getTransaction() :
+                                        result.getTarget() instanceof Transaction ? (Transaction) result.getTarget() : null;
+        if (transaction == null || transaction.getStatus() == null) {
+            return Outcome.VALIDATION_ERROR;
+        }
+        switch (transaction.getStatus()) {
+            case PROCESSOR_DECLINED:
+                return Outcome.PROCESSOR_DECLINED;
+            case GATEWAY_REJECTED:
+                return Outcome.GATEWAY_REJECTED;
+            case SETTLEMENT_DECLINED:
+                return Outcome.SETTLEMENT_DECLINED;
+            case FAILED:
+                return Outcome.FAILED;
+            default:
+                return Outcome.VALIDATION_ERROR;
+        }
+    }
+}
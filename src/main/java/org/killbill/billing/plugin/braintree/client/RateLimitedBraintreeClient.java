@@ -0,0 +1,103 @@
+/*
+ * Copyright 2021 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.braintree.client;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import com.braintreegateway.exceptions.BraintreeException;
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.util.concurrent.RateLimiter;
+
+/**
+ * Paces the Braintree calls of a tenant (token bucket), to stay below the merchant account limits instead of being
+ * throttled with 429s, e.g. during the month-start billing run. Each {@link BraintreeOperation.Category} has its own
+ * budget, so that vault and search traffic doesn't eat into the payments one.
+ *
+ * Calls beyond the budget wait for their turn, up to {@code maxWaitMillis}: if their turn is further away, they fail
+ * immediately. For each category, the following metrics are recorded:
+ * <ul>
+ *     <li>a counter {@code braintree.<tenant>.rate_limit.<category>.waiting}, the number of calls waiting for their turn</li>
+ *     <li>a timer {@code braintree.<tenant>.rate_limit.<category>.wait}, the time spent waiting</li>
+ *     <li>a meter {@code braintree.<tenant>.rate_limit.<category>.rejected}, the calls which couldn't wait that long</li>
+ * </ul>
+ */
+public class RateLimitedBraintreeClient extends ForwardingBraintreeClient {
+
+    // Categories without a rate limit are missing
+    private final Map<BraintreeOperation.Category, RateLimiter> rateLimiters = new EnumMap<BraintreeOperation.Category, RateLimiter>(BraintreeOperation.Category.class);
+    private final long maxWaitMillis;
+    private final MetricRegistry metricRegistry;
+    private final String tenant;
+
+    /**
+     * @param rateLimits calls per second for each category, missing or 0 if unbounded
+     */
+    public RateLimitedBraintreeClient(final BraintreeClient delegate,
+                                      final Map<BraintreeOperation.Category, Double> rateLimits,
+                                      final long maxWaitMillis,
+                                      final MetricRegistry metricRegistry,
+                                      final String tenant) {
+        super(delegate);
+        for (final Map.Entry<BraintreeOperation.Category, Double> rateLimit : rateLimits.entrySet()) {
+            if (rateLimit.getValue() != null && rateLimit.getValue() > 0) {
+                rateLimiters.put(rateLimit.getKey(), RateLimiter.create(rateLimit.getValue()));
+            }
+        }
+        this.maxWaitMillis = maxWaitMillis;
+        this.metricRegistry = metricRegistry;
+        this.tenant = tenant;
+    }
+
+    @Override
+    protected <T> T invoke(final BraintreeOperation operation, final Supplier<T> call) throws BraintreeException {
+        final RateLimiter rateLimiter = rateLimiters.get(operation.getCategory());
+        if (rateLimiter != null) {
+            acquire(operation, rateLimiter);
+        }
+        return call.get();
+    }
+
+    public static String metricName(final String tenant, final BraintreeOperation.Category category) {
+        return MetricRegistry.name(MeteredBraintreeClient.METRIC_PREFIX, tenant, "rate_limit", category.name().toLowerCase(Locale.ROOT));
+    }
+
+    private void acquire(final BraintreeOperation operation, final RateLimiter rateLimiter) throws BraintreeException {
+        final String metricName = metricName(tenant, operation.getCategory());
+        final Counter waiting = metricRegistry.counter(MetricRegistry.name(metricName, "waiting"));
+        final Timer.Context context = metricRegistry.timer(MetricRegistry.name(metricName, "wait")).time();
+
+        final boolean acquired;
+        waiting.inc();
+        try {
+            acquired = rateLimiter.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS);
+        } finally {
+            waiting.dec();
+            context.stop();
+        }
+
+        if (!acquired) {
+            metricRegistry.meter(MetricRegistry.name(metricName, "rejected")).mark();
+            throw new BraintreeException("More than " + maxWaitMillis + "ms to wait for the Braintree rate limit of " + rateLimiter.getRate() + " calls per second (" + operation + ")");
+        }
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright 2021 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.braintree.client;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.ConnectException;
+import java.net.UnknownHostException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import javax.annotation.Nullable;
+
+import com.braintreegateway.Result;
+import com.braintreegateway.Transaction;
+import com.braintreegateway.exceptions.BraintreeException;
+import com.braintreegateway.exceptions.GatewayTimeoutException;
+import com.braintreegateway.exceptions.RequestTimeoutException;
+import com.braintreegateway.exceptions.ServerException;
+import com.braintreegateway.exceptions.ServiceUnavailableException;
+import com.braintreegateway.exceptions.TimeoutException;
+import com.braintreegateway.exceptions.TooManyRequestsException;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Throwables;
+
+/**
+ * Retries the Braintree calls failing with a transient error (connection reset, timeout, 5xx, 429), with an
+ * exponential backoff and full jitter, so that a network blip doesn't fail the payment.
+ *
+ * Only what can't be applied twice is retried:
+ * <ul>
+ *     <li>calls rejected before reaching Braintree (connection refused, 429, 503) are always retried</li>
+ *     <li>calls which may have been processed (timeout, connection reset, 500, 504) are only retried if they are
+ *     read-only or side-effect free (nonces, client tokens). Sales are never re-submitted then: the transaction is looked
+ *     up by order id (the Kill Bill transaction id) and returned if Braintree did create it, otherwise the original error
+ *     is thrown, as the search may lag behind the sale</li>
+ * </ul>
+ *
+ * Every retry is counted in a meter {@code braintree.<tenant>.<operation>.retries}.
+ */
+public class RetryingBraintreeClient extends ForwardingBraintreeClient {
+
+    enum Failure {
+        // The request never reached Braintree
+        NOT_SENT,
+        // The request may or may not have been processed
+        UNKNOWN,
+        // Retrying wouldn't help (declined, not found, circuit open, ...)
+        PERMANENT
+    }
+
+    private final int maxRetries;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+    private final MetricRegistry metricRegistry;
+    private final String tenant;
+
+    public RetryingBraintreeClient(final BraintreeClient delegate,
+                                   final int maxRetries,
+                                   final long baseDelayMillis,
+                                   final long maxDelayMillis,
+                                   final MetricRegistry metricRegistry,
+                                   final String tenant) {
+        super(delegate);
+        this.maxRetries = maxRetries;
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.metricRegistry = metricRegistry;
+        this.tenant = tenant;
+    }
+
+    @Override
+    public Result<Transaction> saleTransaction(final String orderId, final BigDecimal amount, @Nullable final String braintreeCustomerId, final String braintreePaymentMethodNonce, final boolean submitForSettlement) throws BraintreeException {
+        return invokeSale(orderId, () -> delegate.saleTransaction(orderId, amount, braintreeCustomerId, braintreePaymentMethodNonce, submitForSettlement));
+    }
+
+    @Override
+    public Result<Transaction> saleTransactionWithPaymentMethodToken(final String orderId, final BigDecimal amount, final String braintreePaymentMethodToken, final boolean submitForSettlement) throws BraintreeException {
+        return invokeSale(orderId, () -> delegate.saleTransactionWithPaymentMethodToken(orderId, amount, braintreePaymentMethodToken, submitForSettlement));
+    }
+
+    @Override
+    protected <T> T invoke(final BraintreeOperation operation, final Supplier<T> call) throws BraintreeException {
+        return invoke(operation, call, null);
+    }
+
+    private Result<Transaction> invokeSale(@Nullable final String orderId, final Supplier<Result<Transaction>> call) throws BraintreeException {
+        if (orderId == null) {
+            return invoke(BraintreeOperation.SALE, call, null);
+        }
+        return invoke(BraintreeOperation.SALE, call, () -> {
+            final Transaction transaction = delegate.findSaleTransactionByOrderId(orderId);
+            return transaction == null ? null : new Result<Transaction>(transaction);
+        });
+    }
+
+    /**
+     * @param recovery if set, called instead of retrying a call which may have been processed: a non-null value is
+     *                 returned, otherwise the original error is thrown (the call is never applied twice)
+     */
+    private <T> T invoke(final BraintreeOperation operation, final Supplier<T> call, @Nullable final Supplier<T> recovery) throws BraintreeException {
+        int attempt = 0;
+        while (true) {
+            try {
+                return call.get();
+            } catch (final RuntimeException e) {
+                final Failure failure = classify(e);
+                if (attempt >= maxRetries || !isRetryable(operation, failure, recovery != null)) {
+                    throw e;
+                }
+                attempt++;
+                backoff(attempt, e);
+                metricRegistry.meter(MetricRegistry.name(MeteredBraintreeClient.operationName(tenant, operation), "retries")).mark();
+
+                if (recovery != null && failure == Failure.UNKNOWN) {
+                    final T recovered;
+                    try {
+                        recovered = recovery.get();
+                    } catch (final RuntimeException recoveryFailure) {
+                        e.addSuppressed(recoveryFailure);
+                        throw e;
+                    }
+                    if (recovered == null) {
+                        // Not found (yet?): we still can't tell whether the call went through, don't risk applying it twice
+                        throw e;
+                    }
+                    return recovered;
+                }
+            }
+        }
+    }
+
+    private static boolean isRetryable(final BraintreeOperation operation, final Failure failure, final boolean recoverable) {
+        switch (failure) {
+            case NOT_SENT:
+                return true;
+            case UNKNOWN:
+                return recoverable || operation.getCategory() == BraintreeOperation.Category.SEARCH || operation == BraintreeOperation.CREATE_NONCE || operation == BraintreeOperation.GENERATE_CLIENT_TOKEN;
+            default:
+                return false;
+        }
+    }
+
+    private void backoff(final int attempt, final RuntimeException failure) {
+        // Full jitter: spread the retries of concurrent payments over the whole window
+        final long ceilingMillis = Math.min(maxDelayMillis, baseDelayMillis << Math.min(attempt - 1, 30));
+        if (ceilingMillis <= 0) {
+            return;
+        }
+        try {
+            TimeUnit.MILLISECONDS.sleep(ThreadLocalRandom.current().nextLong(ceilingMillis + 1));
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw failure;
+        }
+    }
+
+    static Failure classify(final RuntimeException e) {
+        if (e instanceof BraintreeCircuitOpenException) {
+            return Failure.PERMANENT;
+        }
+
+        // BraintreeClientImpl wraps the SDK exceptions, which wrap the IO ones
+        Failure failure = Failure.PERMANENT;
+        for (final Throwable cause : Throwables.getCausalChain(e)) {
+            if (cause instanceof TooManyRequestsException ||
+                cause instanceof ServiceUnavailableException ||
+                cause instanceof ConnectException ||
+                cause instanceof UnknownHostException) {
+                return Failure.NOT_SENT;
+            }
+            if (cause instanceof TimeoutException ||
+                cause instanceof RequestTimeoutException ||
+                cause instanceof GatewayTimeoutException ||
+                cause instanceof ServerException ||
+                cause instanceof IOException) {
+                failure = Failure.UNKNOWN;
+            }
+        }
+        return failure;
+    }
+}
@@ -28,21 +28,39 @@ import org.killbill.billing.payment.plugin.api.PaymentPluginApi;
 import org.killbill.billing.plugin.api.notification.PluginConfigurationEventHandler;
 import org.killbill.billing.plugin.braintree.api.BraintreePaymentPluginApi;
 import org.killbill.billing.plugin.braintree.core.resources.BraintreeHealthcheckServlet;
+import org.killbill.billing.plugin.braintree.core.resources.BraintreeMetricsServlet;
+import org.killbill.billing.plugin.braintree.core.resources.BraintreeReconciliationServlet;
 import org.killbill.billing.plugin.braintree.core.resources.BraintreeTokenServlet;
 import org.killbill.billing.plugin.braintree.dao.BraintreeDao;
 import org.killbill.billing.plugin.core.config.PluginEnvironmentConfig;
 import org.killbill.billing.plugin.core.resources.jooby.PluginApp;
 import org.killbill.billing.plugin.core.resources.jooby.PluginAppBuilder;
 import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceReference;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.MetricRegistryListener;
+import com.codahale.metrics.Timer;
+
 public class BraintreeActivator extends KillbillActivatorBase {
 
 	private static final Logger logger = LoggerFactory.getLogger(BraintreePaymentPluginApi.class);
 	public static final String PLUGIN_NAME = "killbill-braintree";
 
 	private BraintreeConfigPropertiesConfigurationHandler braintreeConfigurationHandler;
+	private BraintreeCustomerIdCache customerIdCache;
+	private BraintreeSettlementPoller settlementPoller;
+	private BraintreeExpiredPaymentJanitor expiredPaymentJanitor;
+	private BraintreeWebhookProcessor webhookProcessor;
+	private MetricRegistry metricRegistry;
+	private ServiceReference<?> killbillMetricRegistryReference;
+	private MetricRegistry killbillMetricRegistry;
 
 	@Override
 	public void start(final BundleContext context) throws Exception {
@@ -50,27 +68,47 @@ public class BraintreeActivator extends KillbillActivatorBase {
 		final String region = PluginEnvironmentConfig.getRegion(configProperties.getProperties());
 
 
+		// Braintree call and DAO metrics, also published to the Kill Bill registry when available
+		metricRegistry = new MetricRegistry();
+		registerKillbillMetrics(context);
+
 		// Register an event listener for plugin configuration
-		braintreeConfigurationHandler = new BraintreeConfigPropertiesConfigurationHandler(region, PLUGIN_NAME, killbillAPI);
+		braintreeConfigurationHandler = new BraintreeConfigPropertiesConfigurationHandler(region, PLUGIN_NAME, killbillAPI, metricRegistry);
 		
 		
 		final BraintreeConfigProperties globalConfiguration = braintreeConfigurationHandler
 				.createConfigurable(configProperties.getProperties());
 		braintreeConfigurationHandler.setDefaultConfigurable(globalConfiguration);
 
-		final BraintreeDao braintreeDao = new BraintreeDao(dataSource.getDataSource());
-		final PaymentPluginApi paymentPluginApi = new BraintreePaymentPluginApi(braintreeConfigurationHandler,
-				killbillAPI, configProperties, clock.getClock(), braintreeDao);
+		final BraintreeDao braintreeDao = new BraintreeDao(dataSource.getDataSource(), metricRegistry);
+		customerIdCache = new BraintreeCustomerIdCache();
+		// Applies the queued webhooks in the background
+		webhookProcessor = new BraintreeWebhookProcessor(braintreeConfigurationHandler, braintreeDao, clock.getClock());
+		webhookProcessor.start();
+		final BraintreePaymentPluginApi paymentPluginApi = new BraintreePaymentPluginApi(braintreeConfigurationHandler,
+				killbillAPI, configProperties, clock.getClock(), braintreeDao, customerIdCache, webhookProcessor);
 		registerPaymentPluginApi(context, paymentPluginApi);
 
+		// Keep the status of unsettled transactions up-to-date in the background
+		settlementPoller = new BraintreeSettlementPoller(braintreeConfigurationHandler, braintreeDao, clock.getClock());
+		settlementPoller.start();
+
+		expiredPaymentJanitor = new BraintreeExpiredPaymentJanitor(braintreeConfigurationHandler, braintreeDao, clock.getClock());
+		expiredPaymentJanitor.start();
+
+		// Pre-generates the anonymous client tokens of the checkout pages
+		final BraintreeClientTokenPool clientTokenPool = new BraintreeClientTokenPool(braintreeConfigurationHandler, clock.getClock());
+
 		// Expose a healthcheck, so other plugins can check on the plugin status
 		final Healthcheck healthcheck = new BraintreeHealthcheck(braintreeConfigurationHandler);
 		registerHealthcheck(context, healthcheck);
 
 		// Register a servlet
 		final PluginApp pluginApp = new PluginAppBuilder(PLUGIN_NAME, killbillAPI, dataSource, super.clock, configProperties)
-						.withRouteClass(BraintreeTokenServlet.class)
+						.withRouteClass(BraintreeTokenServlet.class).withService(clientTokenPool)
 						.withRouteClass(BraintreeHealthcheckServlet.class).withService(healthcheck)
+						.withRouteClass(BraintreeMetricsServlet.class).withService(metricRegistry)
+						.withRouteClass(BraintreeReconciliationServlet.class).withService(paymentPluginApi)
 						.withService(braintreeConfigurationHandler)
 						.build();
 		final HttpServlet httpServlet = PluginApp.createServlet(pluginApp);
@@ -81,14 +119,87 @@ public class BraintreeActivator extends KillbillActivatorBase {
 
 	@Override
 	public void stop(final BundleContext context) throws Exception {
+		if (settlementPoller != null) {
+			settlementPoller.stop();
+		}
+		if (expiredPaymentJanitor != null) {
+			expiredPaymentJanitor.stop();
+		}
+		if (webhookProcessor != null) {
+			webhookProcessor.stop();
+		}
+		if (braintreeConfigurationHandler != null) {
+			braintreeConfigurationHandler.close();
+		}
+		unregisterKillbillMetrics(context);
 		super.stop(context);
 	}
 
 	private void registerHandlers() {
 		final PluginConfigurationEventHandler configHandler = new PluginConfigurationEventHandler(
 				braintreeConfigurationHandler);
+		final BraintreeListener braintreeListener = new BraintreeListener(customerIdCache);
+
+		dispatcher.registerEventHandlers(configHandler, braintreeListener);
+	}
+
+	private void registerKillbillMetrics(final BundleContext context) {
+		killbillMetricRegistryReference = context.getServiceReference(MetricRegistry.class.getName());
+		final Object service = killbillMetricRegistryReference == null ? null : context.getService(killbillMetricRegistryReference);
+		// The Kill Bill registry is only usable if it comes from the same metrics-core classes as ours
+		if (!(service instanceof MetricRegistry)) {
+			logger.info("No Kill Bill MetricRegistry available, Braintree metrics are only exposed by the plugin servlet");
+			if (service != null) {
+				context.ungetService(killbillMetricRegistryReference);
+			}
+			killbillMetricRegistryReference = null;
+			return;
+		}
+
+		killbillMetricRegistry = (MetricRegistry) service;
+		metricRegistry.addListener(new MetricRegistryListener.Base() {
+			@Override
+			public void onTimerAdded(final String name, final Timer timer) {
+				registerKillbillMetric(name, timer);
+			}
+
+			@Override
+			public void onMeterAdded(final String name, final Meter meter) {
+				registerKillbillMetric(name, meter);
+			}
+
+			@Override
+			public void onHistogramAdded(final String name, final Histogram histogram) {
+				registerKillbillMetric(name, histogram);
+			}
+
+			@Override
+			public void onCounterAdded(final String name, final Counter counter) {
+				registerKillbillMetric(name, counter);
+			}
+		});
+	}
+
+	// Called synchronously when a metric is first used (e.g. by MeteredBraintreeClient during a payment call): never throw
+	private void registerKillbillMetric(final String name, final Metric metric) {
+		final String killbillName = MetricRegistry.name(PLUGIN_NAME, name);
+		try {
+			// Left over by a previous instance of the bundle which wasn't stopped cleanly
+			killbillMetricRegistry.remove(killbillName);
+			killbillMetricRegistry.register(killbillName, metric);
+		} catch (final IllegalArgumentException e) {
+			logger.warn("Unable to expose the Braintree metric {} in the Kill Bill MetricRegistry", killbillName, e);
+		}
+	}
 
-		dispatcher.registerEventHandlers(configHandler);
+	private void unregisterKillbillMetrics(final BundleContext context) {
+		if (killbillMetricRegistryReference == null) {
+			return;
+		}
+		killbillMetricRegistry.removeMatching((name, metric) -> name.startsWith(PLUGIN_NAME + "."));
+		context.ungetService(killbillMetricRegistryReference);
+		killbillMetricRegistryReference = null;
+		killbillMetricRegistry = null;
 	}
 
 	private void registerServlet(final BundleContext context, final Servlet servlet) {
@@ -0,0 +1,205 @@
+/*
+ * Copyright 2021 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.killbill.billing.plugin.braintree.core;
+
+import java.util.Deque;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.Nullable;
+
+import com.braintreegateway.exceptions.BraintreeException;
+import com.codahale.metrics.MetricRegistry;
+import org.killbill.billing.plugin.braintree.client.BraintreeAsyncClient;
+import org.killbill.billing.plugin.braintree.client.BraintreeClientRegistry;
+import org.killbill.billing.plugin.braintree.client.MeteredBraintreeClient;
+import org.killbill.clock.Clock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Hands out anonymous client tokens generated ahead of time, so that loading a checkout page doesn't wait for Braintree.
+ *
+ * Each tenant with a {@code clientTokenPoolSize} gets its own pool, created on first use and refilled in the background (on the
+ * async executor, through the tenant client) whenever a token is taken. Tokens older than {@code clientTokenTtlSeconds} are
+ * discarded, and the pool of a tenant is dropped when its configuration changes, so tokens of rotated credentials are never handed out.
+ * When the pool is empty, the token is generated on the spot.
+ *
+ * Customer tokens aren't pooled: concurrent requests for the same customer (e.g. a login fan-out, or a burst of page refreshes)
+ * share a single Braintree call instead.
+ *
+ * Hits and misses are counted in the meters {@code braintree.<tenant>.client_token_pool.hit} and {@code .miss}, customer token
+ * requests served by a call already in flight in {@code braintree.<tenant>.client_token_pool.coalesced}.
+ */
+public class BraintreeClientTokenPool implements BraintreeConfigPropertiesConfigurationHandler.ConfigurationChangeListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(BraintreeClientTokenPool.class);
+
+    // ConcurrentHashMap doesn't allow null keys: the pool of the default (global) configuration is stored under this one
+    private static final UUID NULL_TENANT_ID = new UUID(0L, 0L);
+
+    private final BraintreeConfigPropertiesConfigurationHandler braintreeConfigPropertiesConfigurationHandler;
+    private final Clock clock;
+    private final MetricRegistry metricRegistry;
+    private final ConcurrentMap<UUID, TenantPool> pools = new ConcurrentHashMap<UUID, TenantPool>();
+    private final ConcurrentMap<String, CompletableFuture<String>> customerTokensInFlight = new ConcurrentHashMap<String, CompletableFuture<String>>();
+
+    public BraintreeClientTokenPool(final BraintreeConfigPropertiesConfigurationHandler braintreeConfigPropertiesConfigurationHandler, final Clock clock) {
+        this.braintreeConfigPropertiesConfigurationHandler = braintreeConfigPropertiesConfigurationHandler;
+        this.clock = clock;
+        this.metricRegistry = braintreeConfigPropertiesConfigurationHandler.getMetricRegistry();
+        braintreeConfigPropertiesConfigurationHandler.addConfigurationChangeListener(this);
+    }
+
+    /**
+     * @return an anonymous client token for the tenant, from the pool if there is one left
+     */
+    public String getClientToken(@Nullable final UUID kbTenantId) throws BraintreeException {
+        final BraintreeConfigProperties config = braintreeConfigPropertiesConfigurationHandler.getConfigurable(kbTenantId);
+        if (config.getClientTokenPoolSize() <= 0) {
+            return braintreeConfigPropertiesConfigurationHandler.getBraintreeClient(kbTenantId).generateClientToken(null);
+        }
+
+        final TenantPool pool = pools.computeIfAbsent(key(kbTenantId), k -> new TenantPool());
+        final long oldestValidMillis = oldestValidMillis(config);
+        PooledToken token;
+        do {
+            token = pool.tokens.pollFirst();
+        } while (token != null && token.createdAtMillis < oldestValidMillis);
+        refill(kbTenantId, pool, config);
+
+        if (token != null) {
+            metricRegistry.meter(metricName(kbTenantId, "hit")).mark();
+            return token.value;
+        }
+        metricRegistry.meter(metricName(kbTenantId, "miss")).mark();
+        return braintreeConfigPropertiesConfigurationHandler.getBraintreeClient(kbTenantId).generateClientToken(null);
+    }
+
+    /**
+     * @return a client token scoped to the Braintree customer, shared with the concurrent requests for the same customer
+     */
+    public String getCustomerClientToken(@Nullable final UUID kbTenantId, final String braintreeCustomerId) throws BraintreeException, InterruptedException {
+        final String key = key(kbTenantId) + "/" + braintreeCustomerId;
+        final CompletableFuture<String> future = new CompletableFuture<String>();
+        final CompletableFuture<String> inFlight = customerTokensInFlight.putIfAbsent(key, future);
+        if (inFlight != null) {
+            metricRegistry.meter(metricName(kbTenantId, "coalesced")).mark();
+            return BraintreeAsyncClient.await(inFlight);
+        }
+
+        // Only concurrent requests are coalesced: the next one generates a fresh token
+        try {
+            final String token = braintreeConfigPropertiesConfigurationHandler.getBraintreeClient(kbTenantId).generateClientToken(braintreeCustomerId);
+            future.complete(token);
+            return token;
+        } catch (final RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            customerTokensInFlight.remove(key, future);
+        }
+    }
+
+    /**
+     * @return the number of tokens currently pooled for the tenant (expired ones included)
+     */
+    public int size(@Nullable final UUID kbTenantId) {
+        final TenantPool pool = pools.get(key(kbTenantId));
+        return pool == null ? 0 : pool.tokens.size();
+    }
+
+    @Override
+    public void onConfigurationChange(@Nullable final UUID kbTenantId, @Nullable final BraintreeConfigProperties previous, final BraintreeConfigProperties current) {
+        // A refill in progress fills the dropped pool, whose tokens are never handed out
+        if (kbTenantId == null) {
+            pools.clear();
+        } else {
+            pools.remove(key(kbTenantId));
+        }
+    }
+
+    private void refill(@Nullable final UUID kbTenantId, final TenantPool pool, final BraintreeConfigProperties config) {
+        if (!pool.refilling.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            braintreeConfigPropertiesConfigurationHandler.getAsyncExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        final long oldestValidMillis = oldestValidMillis(config);
+                        PooledToken oldest;
+                        while ((oldest = pool.tokens.peekFirst()) != null && oldest.createdAtMillis < oldestValidMillis) {
+                            pool.tokens.remove(oldest);
+                        }
+                        while (pool.tokens.size() < config.getClientTokenPoolSize()) {
+                            final String token = braintreeConfigPropertiesConfigurationHandler.getBraintreeClient(kbTenantId).generateClientToken(null);
+                            pool.tokens.addLast(new PooledToken(token, clock.getUTCNow().getMillis()));
+                        }
+                    } catch (final BraintreeException e) {
+                        // Try again on the next request
+                        logger.warn("Unable to refill the Braintree client token pool for kbTenantId {}", kbTenantId, e);
+                    } finally {
+                        pool.refilling.set(false);
+                    }
+                }
+            });
+        } catch (final RejectedExecutionException e) {
+            // Shutting down
+            pool.refilling.set(false);
+        }
+    }
+
+    private long oldestValidMillis(final BraintreeConfigProperties config) {
+        return clock.getUTCNow().getMillis() - TimeUnit.SECONDS.toMillis(config.getClientTokenTtlSeconds());
+    }
+
+    private static String metricName(@Nullable final UUID kbTenantId, final String name) {
+        return MetricRegistry.name(MeteredBraintreeClient.METRIC_PREFIX, BraintreeClientRegistry.metricName(kbTenantId), "client_token_pool", name);
+    }
+
+    private static UUID key(@Nullable final UUID kbTenantId) {
+        return kbTenantId == null ? NULL_TENANT_ID : kbTenantId;
+    }
+
+    private static final class TenantPool {
+
+        // Oldest first
+        private final Deque<PooledToken> tokens = new ConcurrentLinkedDeque<PooledToken>();
+        private final AtomicBoolean refilling = new AtomicBoolean();
+    }
+
+    private static final class PooledToken {
+
+        private final String value;
+        private final long createdAtMillis;
+
+        private PooledToken(final String value, final long createdAtMillis) {
+            this.value = value;
+            this.createdAtMillis = createdAtMillis;
+        }
+    }
+}
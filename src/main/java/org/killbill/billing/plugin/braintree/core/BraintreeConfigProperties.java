@@ -19,14 +19,28 @@ package org.killbill.billing.plugin.braintree.core;
 import com.google.common.base.Ascii;
 import com.google.common.base.MoreObjects;
 import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
 import org.joda.time.Period;
+import org.killbill.billing.plugin.braintree.client.BraintreeOperation;
+import org.killbill.billing.plugin.braintree.client.BraintreeSimulatorClient;
+import org.killbill.billing.plugin.braintree.core.BraintreePluginProperties.PaymentInstrumentType;
 
 import javax.annotation.Nullable;
+import java.util.EnumMap;
 import java.util.HashMap;
-import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Immutable snapshot of the plugin configuration of a tenant: properties are parsed (and environment fallbacks resolved)
+ * once, when the configuration is loaded. A configuration change builds a new snapshot, which
+ * {@link BraintreeConfigPropertiesConfigurationHandler} publishes in place of the previous one. Snapshots are numbered in
+ * creation order (see {@link #getGeneration()}).
+ */
 public class BraintreeConfigProperties {
 	
 	private static final String PROPERTY_PREFIX = "org.killbill.billing.plugin.braintree.";
@@ -40,63 +54,148 @@ public class BraintreeConfigProperties {
 
 	private static final String ENTRY_DELIMITER = "|";
 	private static final String KEY_VALUE_DELIMITER = "#";
-	private static final String DEFAULT_CONNECTION_TIMEOUT = "30000";
-	private static final String DEFAULT_READ_TIMEOUT = "60000";
+	private static final int DEFAULT_CONNECTION_TIMEOUT = 30000;
+	private static final int DEFAULT_READ_TIMEOUT = 60000;
+	private static final int DEFAULT_MAX_CONNECTIONS = 0;
+	private static final int DEFAULT_CIRCUIT_BREAKER_FAILURE_THRESHOLD = 5;
+	private static final int DEFAULT_CIRCUIT_BREAKER_OPEN_SECONDS = 30;
+	private static final int DEFAULT_MAX_RETRIES = 2;
+	private static final int DEFAULT_RETRY_BASE_DELAY_MILLIS = 100;
+	private static final int DEFAULT_RETRY_MAX_DELAY_MILLIS = 2000;
+	private static final double DEFAULT_RATE_LIMIT = 0;
+	private static final int DEFAULT_SETTLEMENT_POLLING_INTERVAL_SECONDS = 300;
+	private static final String DEFAULT_SETTLEMENT_POLLING_LOOKBACK_PERIOD = "P14d";
+	private static final int DEFAULT_SETTLEMENT_POLLING_BATCH_SIZE = 50;
+	private static final double DEFAULT_SETTLEMENT_POLLING_RATE_LIMIT = 1;
+	private static final int DEFAULT_RECONCILIATION_BATCH_SIZE = 100;
+	private static final int DEFAULT_EXPIRED_PAYMENT_JANITOR_INTERVAL_SECONDS = 300;
+	private static final int DEFAULT_EXPIRED_PAYMENT_JANITOR_BATCH_SIZE = 100;
+	private static final int DEFAULT_CLIENT_TOKEN_POOL_SIZE = 0;
+	private static final String DEFAULT_NOTIFICATION_RETENTION_PERIOD = "P30d";
+	private static final int DEFAULT_CLIENT_TOKEN_TTL_SECONDS = 900;
+
+	private static final AtomicLong GENERATIONS = new AtomicLong();
 	
+	private final long generation;
 	private final String region;
-    private final String btEnvironment;
-    private final String btMerchantId;
-    private final String btPublicKey;
-    private final String btPrivateKey;
+	private final String btEnvironment;
+	private final String btMerchantId;
+	private final String btPublicKey;
+	private final String btPrivateKey;
+	private final boolean simulator;
 	private final String connectionTimeout;
 	private final String readTimeout;
+	private final int connectionTimeoutMillis;
+	private final int readTimeoutMillis;
+	private final int maxConnections;
+	private final int maxConnectionsWaitMillis;
+	private final int circuitBreakerFailureThreshold;
+	private final int circuitBreakerOpenSeconds;
+	private final int maxRetries;
+	private final int retryBaseDelayMillis;
+	private final int retryMaxDelayMillis;
+	private final double transactionRateLimit;
+	private final double searchRateLimit;
+	private final double vaultRateLimit;
+	private final int rateLimitMaxWaitMillis;
+	private final String proxyHost;
+	private final Integer proxyPort;
+	private final int settlementPollingIntervalSeconds;
+	private final boolean settlementPollerEnabled;
+	private final Period settlementPollingLookbackPeriod;
+	private final int settlementPollingBatchSize;
+	private final double settlementPollingRateLimit;
+	private final int reconciliationBatchSize;
+	private final int expiredPaymentJanitorIntervalSeconds;
+	private final int expiredPaymentJanitorBatchSize;
+	private final boolean voidExpiredPayments;
+	private final int clientTokenPoolSize;
+	private final Period notificationRetentionPeriod;
+	private final int clientTokenTtlSeconds;
+	private final long simulatorLatencyMillis;
+	private final long simulatorLatencyJitterMillis;
+	private final double simulatorDeclineRate;
+	private final double simulatorErrorRate;
+	private final int simulatorSettlementDelaySeconds;
 	private final Period pendingPaymentExpirationPeriod;
-	private final Map<String, Period> paymentMethodToExpirationPeriod = new LinkedHashMap<String, Period>();
+	private final Map<PaymentInstrumentType, Period> paymentInstrumentTypeToExpirationPeriod;
 	private final String chargeDescription;
 	private final String chargeStatementDescriptor;
 	
 	public BraintreeConfigProperties(final Properties properties, final String region) {
+		this.generation = GENERATIONS.incrementAndGet();
 		this.region = region;
-		this.btEnvironment = properties.getProperty(PROPERTY_PREFIX + "btEnvironment", "sandbox");
-		this.btMerchantId = properties.getProperty(PROPERTY_PREFIX + "btMerchantId");
-		this.btPublicKey = properties.getProperty(PROPERTY_PREFIX + "btPublicKey");
-		this.btPrivateKey = properties.getProperty(PROPERTY_PREFIX + "btPrivateKey");
-		this.connectionTimeout = properties.getProperty(PROPERTY_PREFIX + "connectionTimeout", DEFAULT_CONNECTION_TIMEOUT);
-		this.readTimeout = properties.getProperty(PROPERTY_PREFIX + "readTimeout", DEFAULT_READ_TIMEOUT);
-		this.pendingPaymentExpirationPeriod = readPendingExpirationProperty(properties);
+		this.btEnvironment = withEnvironmentFallback(properties.getProperty(PROPERTY_PREFIX + "btEnvironment", "sandbox"), BRAINTREE_ENVIRONMENT_KEY);
+		this.btMerchantId = withEnvironmentFallback(properties.getProperty(PROPERTY_PREFIX + "btMerchantId"), BRAINTREE_MERCHANT_ID_KEY);
+		this.btPublicKey = withEnvironmentFallback(properties.getProperty(PROPERTY_PREFIX + "btPublicKey"), BRAINTREE_PUBLIC_KEY);
+		this.btPrivateKey = withEnvironmentFallback(properties.getProperty(PROPERTY_PREFIX + "btPrivateKey"), BRAINTREE_PRIVATE_KEY);
+		this.simulator = BraintreeSimulatorClient.ENVIRONMENT.equalsIgnoreCase(btEnvironment);
+		this.connectionTimeout = properties.getProperty(PROPERTY_PREFIX + "connectionTimeout", String.valueOf(DEFAULT_CONNECTION_TIMEOUT));
+		this.readTimeout = properties.getProperty(PROPERTY_PREFIX + "readTimeout", String.valueOf(DEFAULT_READ_TIMEOUT));
+		this.connectionTimeoutMillis = parseInt(connectionTimeout, DEFAULT_CONNECTION_TIMEOUT);
+		this.readTimeoutMillis = parseInt(readTimeout, DEFAULT_READ_TIMEOUT);
+		this.maxConnections = parseNonNegativeInt(properties.getProperty(PROPERTY_PREFIX + "maxConnections"), DEFAULT_MAX_CONNECTIONS);
+		this.maxConnectionsWaitMillis = parseNonNegativeInt(properties.getProperty(PROPERTY_PREFIX + "maxConnectionsWaitMillis"), connectionTimeoutMillis);
+		this.circuitBreakerFailureThreshold = parseNonNegativeInt(properties.getProperty(PROPERTY_PREFIX + "circuitBreakerFailureThreshold"), DEFAULT_CIRCUIT_BREAKER_FAILURE_THRESHOLD);
+		this.circuitBreakerOpenSeconds = parseNonNegativeInt(properties.getProperty(PROPERTY_PREFIX + "circuitBreakerOpenSeconds"), DEFAULT_CIRCUIT_BREAKER_OPEN_SECONDS);
+		this.maxRetries = parseNonNegativeInt(properties.getProperty(PROPERTY_PREFIX + "maxRetries"), DEFAULT_MAX_RETRIES);
+		this.retryBaseDelayMillis = parseNonNegativeInt(properties.getProperty(PROPERTY_PREFIX + "retryBaseDelayMillis"), DEFAULT_RETRY_BASE_DELAY_MILLIS);
+		this.retryMaxDelayMillis = parseNonNegativeInt(properties.getProperty(PROPERTY_PREFIX + "retryMaxDelayMillis"), DEFAULT_RETRY_MAX_DELAY_MILLIS);
+		this.transactionRateLimit = parseRateLimit(properties.getProperty(PROPERTY_PREFIX + "transactionRateLimit"));
+		this.searchRateLimit = parseRateLimit(properties.getProperty(PROPERTY_PREFIX + "searchRateLimit"));
+		this.vaultRateLimit = parseRateLimit(properties.getProperty(PROPERTY_PREFIX + "vaultRateLimit"));
+		this.rateLimitMaxWaitMillis = parseNonNegativeInt(properties.getProperty(PROPERTY_PREFIX + "rateLimitMaxWaitMillis"), connectionTimeoutMillis);
+		this.proxyHost = Strings.emptyToNull(properties.getProperty(PROPERTY_PREFIX + "proxyHost"));
+		final int port = parseInt(properties.getProperty(PROPERTY_PREFIX + "proxyPort"), -1);
+		this.proxyPort = port > 0 ? port : null;
+		this.settlementPollingIntervalSeconds = parseNonNegativeInt(properties.getProperty(PROPERTY_PREFIX + "settlementPollingIntervalSeconds"), DEFAULT_SETTLEMENT_POLLING_INTERVAL_SECONDS);
+		this.settlementPollerEnabled = Boolean.parseBoolean(properties.getProperty(PROPERTY_PREFIX + "settlementPollerEnabled", "true"));
+		this.settlementPollingLookbackPeriod = parsePeriod(properties.getProperty(PROPERTY_PREFIX + "settlementPollingLookbackPeriod"), DEFAULT_SETTLEMENT_POLLING_LOOKBACK_PERIOD);
+		this.settlementPollingBatchSize = parsePositiveInt(properties.getProperty(PROPERTY_PREFIX + "settlementPollingBatchSize"), DEFAULT_SETTLEMENT_POLLING_BATCH_SIZE);
+		this.settlementPollingRateLimit = parsePositiveDouble(properties.getProperty(PROPERTY_PREFIX + "settlementPollingRateLimit"), DEFAULT_SETTLEMENT_POLLING_RATE_LIMIT);
+		this.reconciliationBatchSize = parsePositiveInt(properties.getProperty(PROPERTY_PREFIX + "reconciliationBatchSize"), DEFAULT_RECONCILIATION_BATCH_SIZE);
+		this.expiredPaymentJanitorIntervalSeconds = parseNonNegativeInt(properties.getProperty(PROPERTY_PREFIX + "expiredPaymentJanitorIntervalSeconds"), DEFAULT_EXPIRED_PAYMENT_JANITOR_INTERVAL_SECONDS);
+		this.expiredPaymentJanitorBatchSize = parsePositiveInt(properties.getProperty(PROPERTY_PREFIX + "expiredPaymentJanitorBatchSize"), DEFAULT_EXPIRED_PAYMENT_JANITOR_BATCH_SIZE);
+		this.voidExpiredPayments = Boolean.parseBoolean(properties.getProperty(PROPERTY_PREFIX + "voidExpiredPayments", "false"));
+		this.notificationRetentionPeriod = parsePeriod(properties.getProperty(PROPERTY_PREFIX + "notificationRetentionPeriod"), DEFAULT_NOTIFICATION_RETENTION_PERIOD);
+		this.clientTokenPoolSize = parseNonNegativeInt(properties.getProperty(PROPERTY_PREFIX + "clientTokenPoolSize"), DEFAULT_CLIENT_TOKEN_POOL_SIZE);
+		this.clientTokenTtlSeconds = parsePositiveInt(properties.getProperty(PROPERTY_PREFIX + "clientTokenTtlSeconds"), DEFAULT_CLIENT_TOKEN_TTL_SECONDS);
+		this.simulatorLatencyMillis = parseNonNegativeInt(properties.getProperty(PROPERTY_PREFIX + "simulatorLatencyMillis"), 0);
+		this.simulatorLatencyJitterMillis = parseNonNegativeInt(properties.getProperty(PROPERTY_PREFIX + "simulatorLatencyJitterMillis"), 0);
+		this.simulatorDeclineRate = parseRate(properties.getProperty(PROPERTY_PREFIX + "simulatorDeclineRate"));
+		this.simulatorErrorRate = parseRate(properties.getProperty(PROPERTY_PREFIX + "simulatorErrorRate"));
+		this.simulatorSettlementDelaySeconds = parseNonNegativeInt(properties.getProperty(PROPERTY_PREFIX + "simulatorSettlementDelaySeconds"), 0);
+		final Map<PaymentInstrumentType, Period> expirationPeriods = new EnumMap<PaymentInstrumentType, Period>(PaymentInstrumentType.class);
+		this.pendingPaymentExpirationPeriod = readPendingExpirationProperty(properties, expirationPeriods);
+		this.paymentInstrumentTypeToExpirationPeriod = Maps.immutableEnumMap(expirationPeriods);
 		this.chargeDescription = Ascii.truncate(MoreObjects.firstNonNull(properties.getProperty(PROPERTY_PREFIX + "chargeDescription"), "Kill Bill charge"), 22, "...");
 		this.chargeStatementDescriptor = Ascii.truncate(MoreObjects.firstNonNull(properties.getProperty(PROPERTY_PREFIX + "chargeStatementDescriptor"), "Kill Bill charge"), 22, "...");
 	}
 
+	/**
+	 * @return the creation sequence number of this snapshot: a configuration loaded later has a higher generation
+	 */
+	public long getGeneration() {
+		return generation;
+	}
+
 	public String getRegion() {
 		return region;
 	}
 
 	public String getBtEnvironment() {
-		if (btEnvironment == null || btEnvironment.isEmpty()) {
-			return getClient(BRAINTREE_ENVIRONMENT_KEY, null);
-		}
 		return btEnvironment;
 	}
 
 	public String getBtMerchantId() {
-		if (btMerchantId == null || btMerchantId.isEmpty()) {
-			return getClient(BRAINTREE_MERCHANT_ID_KEY, null);
-		}
 		return btMerchantId;
 	}
 
 	public String getBtPublicKey() {
-		if (btPublicKey == null || btPublicKey.isEmpty()) {
-			return getClient(BRAINTREE_PUBLIC_KEY, null);
-		}
 		return btPublicKey;
 	}
 
 	public String getBtPrivateKey() {
-		if (btPrivateKey == null || btPrivateKey.isEmpty()) {
-			return getClient(BRAINTREE_PRIVATE_KEY, null);
-		}
 		return btPrivateKey;
 	}
 
@@ -108,6 +207,220 @@ public class BraintreeConfigProperties {
 		return readTimeout;
 	}
 
+	public int getConnectionTimeoutMillis() {
+		return connectionTimeoutMillis;
+	}
+
+	public int getReadTimeoutMillis() {
+		return readTimeoutMillis;
+	}
+
+	/**
+	 * @return the maximum number of concurrent Braintree calls for this tenant, 0 if unbounded
+	 */
+	public int getMaxConnections() {
+		return maxConnections;
+	}
+
+	/**
+	 * @return how long a call waits for one of the {@link #getMaxConnections()} slots before failing (defaults to the connection timeout)
+	 */
+	public int getMaxConnectionsWaitMillis() {
+		return maxConnectionsWaitMillis;
+	}
+
+	/**
+	 * @return the number of consecutive failed Braintree calls opening the tenant circuit breaker, 0 to disable it
+	 */
+	public int getCircuitBreakerFailureThreshold() {
+		return circuitBreakerFailureThreshold;
+	}
+
+	/**
+	 * @return how long the circuit breaker stays open before letting a trial call through
+	 */
+	public int getCircuitBreakerOpenSeconds() {
+		return circuitBreakerOpenSeconds;
+	}
+
+	/**
+	 * @return how many times a Braintree call failing with a transient error is retried, 0 to disable retries
+	 */
+	public int getMaxRetries() {
+		return maxRetries;
+	}
+
+	/**
+	 * @return the backoff before the first retry, doubled on every attempt (the actual delay is picked at random below it)
+	 */
+	public int getRetryBaseDelayMillis() {
+		return retryBaseDelayMillis;
+	}
+
+	/**
+	 * @return the upper bound of the backoff between two retries
+	 */
+	public int getRetryMaxDelayMillis() {
+		return retryMaxDelayMillis;
+	}
+
+	/**
+	 * @return the maximum number of Braintree calls per second of this category for this tenant, 0 if unbounded
+	 */
+	public double getRateLimit(final BraintreeOperation.Category category) {
+		switch (category) {
+			case TRANSACTION:
+				return transactionRateLimit;
+			case SEARCH:
+				return searchRateLimit;
+			default:
+				return vaultRateLimit;
+		}
+	}
+
+	/**
+	 * @return how long a call beyond the {@link #getRateLimit(BraintreeOperation.Category)} waits for its turn before failing (defaults to the connection timeout)
+	 */
+	public int getRateLimitMaxWaitMillis() {
+		return rateLimitMaxWaitMillis;
+	}
+
+	@Nullable
+	public String getProxyHost() {
+		return proxyHost;
+	}
+
+	@Nullable
+	public Integer getProxyPort() {
+		return proxyPort;
+	}
+
+	/**
+	 * @return how often the settlement poller runs, 0 to disable it and refresh the statuses on read instead (global setting)
+	 */
+	public int getSettlementPollingIntervalSeconds() {
+		return settlementPollingIntervalSeconds;
+	}
+
+	/**
+	 * @return false if the settlement poller doesn't run on this node, another node of the cluster polling instead (global setting)
+	 */
+	public boolean isSettlementPollerEnabled() {
+		return settlementPollerEnabled;
+	}
+
+	/**
+	 * @return how far back the settlement poller looks for unsettled transactions (global setting)
+	 */
+	public Period getSettlementPollingLookbackPeriod() {
+		return settlementPollingLookbackPeriod;
+	}
+
+	/**
+	 * @return the number of transactions looked up per Braintree search
+	 */
+	public int getSettlementPollingBatchSize() {
+		return settlementPollingBatchSize;
+	}
+
+	/**
+	 * @return the maximum number of Braintree searches per second the settlement poller issues for this tenant
+	 */
+	public double getSettlementPollingRateLimit() {
+		return settlementPollingRateLimit;
+	}
+
+	/**
+	 * @return the number of accounts whose payment methods are reconciled per Braintree customer search
+	 */
+	public int getReconciliationBatchSize() {
+		return reconciliationBatchSize;
+	}
+
+	/**
+	 * @return how often the expired payment janitor runs, 0 to disable it (global setting)
+	 */
+	public int getExpiredPaymentJanitorIntervalSeconds() {
+		return expiredPaymentJanitorIntervalSeconds;
+	}
+
+	/**
+	 * @return the number of pending transactions the expired payment janitor reads (and cancels) at a time (global setting)
+	 */
+	public int getExpiredPaymentJanitorBatchSize() {
+		return expiredPaymentJanitorBatchSize;
+	}
+
+	/**
+	 * @return whether the transactions canceled by the expired payment janitor are also voided in Braintree
+	 */
+	public boolean isVoidExpiredPayments() {
+		return voidExpiredPayments;
+	}
+
+	/**
+	 * @return how long applied webhook notifications are kept before being purged (global setting)
+	 */
+	public Period getNotificationRetentionPeriod() {
+		return notificationRetentionPeriod;
+	}
+
+	/**
+	 * @return the number of anonymous client tokens generated ahead of time for this tenant, 0 to disable the pool
+	 */
+	public int getClientTokenPoolSize() {
+		return clientTokenPoolSize;
+	}
+
+	/**
+	 * @return how long a pre-generated client token can be handed out
+	 */
+	public int getClientTokenTtlSeconds() {
+		return clientTokenTtlSeconds;
+	}
+
+	/**
+	 * @return whether Braintree is replaced by the in-memory simulator ({@code btEnvironment=simulator})
+	 */
+	public boolean isSimulator() {
+		return simulator;
+	}
+
+	/**
+	 * @return the latency added to each simulated Braintree call
+	 */
+	public long getSimulatorLatencyMillis() {
+		return simulatorLatencyMillis;
+	}
+
+	/**
+	 * @return the maximum random latency added on top of {@link #getSimulatorLatencyMillis()}
+	 */
+	public long getSimulatorLatencyJitterMillis() {
+		return simulatorLatencyJitterMillis;
+	}
+
+	/**
+	 * @return the fraction of simulated sales and credits declined by the processor, between 0 and 1
+	 */
+	public double getSimulatorDeclineRate() {
+		return simulatorDeclineRate;
+	}
+
+	/**
+	 * @return the fraction of simulated Braintree calls failing with a gateway error, between 0 and 1
+	 */
+	public double getSimulatorErrorRate() {
+		return simulatorErrorRate;
+	}
+
+	/**
+	 * @return how long simulated transactions stay submitted for settlement before being settled
+	 */
+	public int getSimulatorSettlementDelaySeconds() {
+		return simulatorSettlementDelaySeconds;
+	}
+
 	public String getChargeDescription() {
 		return chargeDescription;
 	}
@@ -116,37 +429,112 @@ public class BraintreeConfigProperties {
 		return chargeStatementDescriptor;
 	}
 
-	public Period getPendingPaymentExpirationPeriod(@Nullable final String paymentMethod) {
-		if (paymentMethod != null && paymentMethodToExpirationPeriod.get(paymentMethod.toLowerCase()) != null) {
-			return paymentMethodToExpirationPeriod.get(paymentMethod.toLowerCase());
-		} else {
-			return pendingPaymentExpirationPeriod;
-		}
+	public Period getPendingPaymentExpirationPeriod(@Nullable final String paymentInstrumentType) {
+		return getPendingPaymentExpirationPeriod(PaymentInstrumentType.fromBraintreeType(paymentInstrumentType));
+	}
+
+	public Period getPendingPaymentExpirationPeriod(@Nullable final PaymentInstrumentType paymentInstrumentType) {
+		final Period period = paymentInstrumentType == null ? null : paymentInstrumentTypeToExpirationPeriod.get(paymentInstrumentType);
+		return period != null ? period : pendingPaymentExpirationPeriod;
+	}
+
+	/**
+	 * @return the default expiration period and the per payment instrument type overrides
+	 */
+	public List<Period> getPendingPaymentExpirationPeriods() {
+		return ImmutableList.<Period>builder().add(pendingPaymentExpirationPeriod).addAll(paymentInstrumentTypeToExpirationPeriod.values()).build();
 	}
 
-	private Period readPendingExpirationProperty(final Properties properties) {
+	private static Period readPendingExpirationProperty(final Properties properties, final Map<PaymentInstrumentType, Period> paymentInstrumentTypeToExpirationPeriod) {
 		final String pendingExpirationPeriods = properties.getProperty(PROPERTY_PREFIX + "pendingPaymentExpirationPeriod");
-		final Map<String, String> paymentMethodToExpirationPeriodString = new HashMap<String, String>();
-		refillMap(paymentMethodToExpirationPeriodString, pendingExpirationPeriods);
+		final Map<String, String> paymentInstrumentTypeToExpirationPeriodString = splitMap(pendingExpirationPeriods);
 		// No per-payment method override, just a global setting
-		if (pendingExpirationPeriods != null && paymentMethodToExpirationPeriodString.isEmpty()) {
+		if (pendingExpirationPeriods != null && paymentInstrumentTypeToExpirationPeriodString.isEmpty()) {
 			try {
 				return Period.parse(pendingExpirationPeriods);
 			} catch (final IllegalArgumentException e) { /* Ignore */ }
 		}
 
-		// User has defined per-payment method overrides
-		for (final Map.Entry<String, String> entry : paymentMethodToExpirationPeriodString.entrySet()) {
+		// User has defined per-payment method overrides (unknown payment instrument types are ignored)
+		for (final Map.Entry<String, String> entry : paymentInstrumentTypeToExpirationPeriodString.entrySet()) {
+			final PaymentInstrumentType paymentInstrumentType = PaymentInstrumentType.fromBraintreeType(entry.getKey().trim().toLowerCase(Locale.ROOT));
+			if (paymentInstrumentType == null) {
+				continue;
+			}
 			try {
-				paymentMethodToExpirationPeriod.put(entry.getKey().toLowerCase(), Period.parse(entry.getValue()));
+				paymentInstrumentTypeToExpirationPeriod.put(paymentInstrumentType, Period.parse(entry.getValue()));
 			} catch (final IllegalArgumentException e) { /* Ignore */ }
 		}
 
 		return Period.parse(DEFAULT_PENDING_PAYMENT_EXPIRATION_PERIOD);
 	}
 
-	private synchronized void refillMap(final Map<String, String> map, final String stringToSplit) {
-		map.clear();
+	private static int parseInt(@Nullable final String value, final int defaultValue) {
+		if (Strings.isNullOrEmpty(value)) {
+			return defaultValue;
+		}
+		try {
+			return Integer.parseInt(value.trim());
+		} catch (final NumberFormatException e) {
+			return defaultValue;
+		}
+	}
+
+	private static int parseNonNegativeInt(@Nullable final String value, final int defaultValue) {
+		return Math.max(0, parseInt(value, defaultValue));
+	}
+
+	private static int parsePositiveInt(@Nullable final String value, final int defaultValue) {
+		final int parsed = parseInt(value, defaultValue);
+		return parsed > 0 ? parsed : defaultValue;
+	}
+
+	private static double parseRateLimit(@Nullable final String value) {
+		if (Strings.isNullOrEmpty(value)) {
+			return DEFAULT_RATE_LIMIT;
+		}
+		try {
+			return Math.max(0, Double.parseDouble(value.trim()));
+		} catch (final NumberFormatException e) {
+			return DEFAULT_RATE_LIMIT;
+		}
+	}
+
+	private static double parsePositiveDouble(@Nullable final String value, final double defaultValue) {
+		if (Strings.isNullOrEmpty(value)) {
+			return defaultValue;
+		}
+		try {
+			final double parsed = Double.parseDouble(value.trim());
+			if (parsed > 0) {
+				return parsed;
+			}
+		} catch (final NumberFormatException e) { /* Ignore */ }
+		return defaultValue;
+	}
+
+	private static double parseRate(@Nullable final String value) {
+		if (Strings.isNullOrEmpty(value)) {
+			return 0;
+		}
+		try {
+			return Math.min(1, Math.max(0, Double.parseDouble(value.trim())));
+		} catch (final NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	private static Period parsePeriod(@Nullable final String value, final String defaultValue) {
+		if (!Strings.isNullOrEmpty(value)) {
+			try {
+				return Period.parse(value.trim());
+			} catch (final IllegalArgumentException e) { /* Ignore */ }
+		}
+		return Period.parse(defaultValue);
+	}
+
+	private static Map<String, String> splitMap(@Nullable final String stringToSplit) {
+		final Map<String, String> map = new HashMap<String, String>();
 		if (!Strings.isNullOrEmpty(stringToSplit)) {
 			for (final String entry : stringToSplit.split("\\" + ENTRY_DELIMITER)) {
 				final String[] split = entry.split(KEY_VALUE_DELIMITER);
@@ -155,9 +543,18 @@ public class BraintreeConfigProperties {
 				}
 			}
 		}
+		return map;
+	}
+
+	@Nullable
+	private static String withEnvironmentFallback(@Nullable final String value, final String envKey) {
+		if (value == null || value.isEmpty()) {
+			return getClient(envKey, null);
+		}
+		return value;
 	}
 
-	private String getClient(String envKey, String defaultValue) {
+	private static String getClient(String envKey, String defaultValue) {
 		Map<String, String> env = System.getenv();
 
 		String value = env.get(envKey);
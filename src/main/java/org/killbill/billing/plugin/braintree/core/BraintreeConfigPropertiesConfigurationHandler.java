@@ -16,10 +16,25 @@
 
 package org.killbill.billing.plugin.braintree.core;
 
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
 
+import javax.annotation.Nullable;
+
+import com.braintreegateway.BraintreeGateway;
+import com.codahale.metrics.MetricRegistry;
 import org.killbill.billing.osgi.libs.killbill.OSGIKillbillAPI;
 import org.killbill.billing.plugin.api.notification.PluginTenantConfigurableConfigurationHandler;
+import org.killbill.billing.plugin.braintree.client.BraintreeAsyncClient;
+import org.killbill.billing.plugin.braintree.client.BraintreeClient;
+import org.killbill.billing.plugin.braintree.client.BraintreeClientRegistry;
+import org.killbill.billing.plugin.braintree.client.CircuitBreakingBraintreeClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * When per-tenant config changes are made, the plugin automatically gets notified (and prints a log trace)
@@ -40,17 +55,112 @@ import org.killbill.billing.plugin.api.notification.PluginTenantConfigurableConf
  */
 public class BraintreeConfigPropertiesConfigurationHandler extends PluginTenantConfigurableConfigurationHandler<BraintreeConfigProperties> {
 
+    /**
+     * Notified after a configuration change has been applied, e.g. to rebuild or flush per-tenant resources
+     */
+    public interface ConfigurationChangeListener {
+
+        /**
+         * @param kbTenantId the tenant whose configuration changed, null for the global configuration
+         * @param previous   the configuration in effect before the change
+         * @param current    the configuration now in effect
+         */
+        void onConfigurationChange(@Nullable UUID kbTenantId, @Nullable BraintreeConfigProperties previous, BraintreeConfigProperties current);
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(BraintreeConfigPropertiesConfigurationHandler.class);
+
     private final String region;
+    private final BraintreeClientRegistry clientRegistry;
+    private final List<ConfigurationChangeListener> listeners = new CopyOnWriteArrayList<ConfigurationChangeListener>();
 
     public BraintreeConfigPropertiesConfigurationHandler(final String region,
                                      final String pluginName,
                                      final OSGIKillbillAPI osgiKillbillAPI) {
+        this(region, pluginName, osgiKillbillAPI, new MetricRegistry());
+    }
+
+    public BraintreeConfigPropertiesConfigurationHandler(final String region,
+                                     final String pluginName,
+                                     final OSGIKillbillAPI osgiKillbillAPI,
+                                     final MetricRegistry metricRegistry) {
         super(pluginName, osgiKillbillAPI);
         this.region = region;
+        this.clientRegistry = new BraintreeClientRegistry(metricRegistry);
+    }
+
+    public BraintreeClient getBraintreeClient(@Nullable final UUID kbTenantId) {
+        return clientRegistry.getClient(kbTenantId, getConfigurable(kbTenantId));
+    }
+
+    public BraintreeAsyncClient getBraintreeAsyncClient(@Nullable final UUID kbTenantId) {
+        return clientRegistry.getAsyncClient(kbTenantId, getConfigurable(kbTenantId));
+    }
+
+    public Executor getAsyncExecutor() {
+        return clientRegistry.getAsyncExecutor();
+    }
+
+    public BraintreeGateway getBraintreeGateway(@Nullable final UUID kbTenantId) {
+        return clientRegistry.getGateway(kbTenantId, getConfigurable(kbTenantId));
+    }
+
+    /**
+     * @return the state of the tenant circuit breaker, null if disabled
+     */
+    @Nullable
+    public CircuitBreakingBraintreeClient.State getCircuitBreakerState(@Nullable final UUID kbTenantId) {
+        final CircuitBreakingBraintreeClient circuitBreaker = clientRegistry.getCircuitBreaker(kbTenantId, getConfigurable(kbTenantId));
+        return circuitBreaker == null ? null : circuitBreaker.getState();
+    }
+
+    public Map<String, CircuitBreakingBraintreeClient.State> getTrippedCircuitBreakers() {
+        return clientRegistry.getTrippedCircuitBreakers();
+    }
+
+    public MetricRegistry getMetricRegistry() {
+        return clientRegistry.getMetricRegistry();
+    }
+
+    public void close() {
+        clientRegistry.close();
+    }
+
+    public void addConfigurationChangeListener(final ConfigurationChangeListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeConfigurationChangeListener(final ConfigurationChangeListener listener) {
+        listeners.remove(listener);
+    }
+
+    @Override
+    protected void configure(@Nullable final UUID kbTenantId) {
+        final BraintreeConfigProperties previous = getConfigurable(kbTenantId);
+        super.configure(kbTenantId);
+        final BraintreeConfigProperties current = getConfigurable(kbTenantId);
+
+        // Swap in the clients built from the new configuration now, so that payments neither pay for the rebuild nor keep using stale credentials.
+        // A global change applies to the tenants without their own configuration
+        if (kbTenantId == null) {
+            clientRegistry.refreshAll(this::getConfigurable);
+        } else {
+            clientRegistry.refresh(kbTenantId, current);
+        }
+
+        for (final ConfigurationChangeListener listener : listeners) {
+            try {
+                listener.onConfigurationChange(kbTenantId, previous, current);
+            } catch (final RuntimeException e) {
+                logger.warn("Braintree configuration change listener failed for kbTenantId {}", kbTenantId, e);
+            }
+        }
     }
 
     @Override
     protected BraintreeConfigProperties createConfigurable(final Properties properties) {
+        // Parsed once per configuration change: the new immutable snapshot replaces the tenant's previous one in a single map update,
+        // so getConfigurable never observes a partially applied configuration
         return new BraintreeConfigProperties(properties, region);
     }
 }
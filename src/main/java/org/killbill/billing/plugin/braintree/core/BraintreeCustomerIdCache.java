@@ -0,0 +1,72 @@
+/*
+ * Copyright 2021 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.braintree.core;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Caches the kbAccountId to Braintree customer id mapping (stored as the BRAINTREE_CUSTOMER_ID account custom field).
+ *
+ * Only known mappings are cached: a missing custom field is looked up again on the next call. Entries are
+ * written through when the plugin sets the custom field, dropped on custom field bus events (see BraintreeListener)
+ * and expire after a while, to bound staleness when the event is processed by another node.
+ */
+public class BraintreeCustomerIdCache {
+
+    public static final long DEFAULT_MAX_SIZE = 10000;
+    public static final long DEFAULT_EXPIRE_AFTER_WRITE_MINUTES = 10;
+
+    private final Cache<String, String> customerIds;
+
+    public BraintreeCustomerIdCache() {
+        this(DEFAULT_MAX_SIZE, DEFAULT_EXPIRE_AFTER_WRITE_MINUTES);
+    }
+
+    public BraintreeCustomerIdCache(final long maxSize, final long expireAfterWriteMinutes) {
+        this.customerIds = CacheBuilder.newBuilder()
+                                       .maximumSize(maxSize)
+                                       .expireAfterWrite(expireAfterWriteMinutes, TimeUnit.MINUTES)
+                                       .build();
+    }
+
+    @Nullable
+    public String get(@Nullable final UUID kbTenantId, final UUID kbAccountId) {
+        return customerIds.getIfPresent(key(kbTenantId, kbAccountId));
+    }
+
+    public void put(@Nullable final UUID kbTenantId, final UUID kbAccountId, final String braintreeCustomerId) {
+        customerIds.put(key(kbTenantId, kbAccountId), braintreeCustomerId);
+    }
+
+    public void invalidate(@Nullable final UUID kbTenantId, final UUID kbAccountId) {
+        customerIds.invalidate(key(kbTenantId, kbAccountId));
+    }
+
+    public void invalidateAll() {
+        customerIds.invalidateAll();
+    }
+
+    private static String key(@Nullable final UUID kbTenantId, final UUID kbAccountId) {
+        return kbTenantId + "/" + kbAccountId;
+    }
+}
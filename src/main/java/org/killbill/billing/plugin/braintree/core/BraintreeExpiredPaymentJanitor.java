@@ -0,0 +1,194 @@
+/*
+ * Copyright 2021 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.killbill.billing.plugin.braintree.core;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.braintreegateway.Result;
+import com.braintreegateway.Transaction;
+import com.braintreegateway.exceptions.BraintreeException;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.joda.time.DateTime;
+import org.killbill.billing.payment.plugin.api.PaymentPluginStatus;
+import org.killbill.billing.plugin.braintree.api.BraintreePaymentTransactionInfoPlugin;
+import org.killbill.billing.plugin.braintree.client.BraintreeAsyncClient;
+import org.killbill.billing.plugin.braintree.core.resources.ExpiredPaymentPolicy;
+import org.killbill.billing.plugin.braintree.dao.BraintreeDao;
+import org.killbill.billing.plugin.braintree.dao.gen.tables.records.BraintreeResponsesRecord;
+import org.killbill.clock.Clock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Periodically cancels the payments still pending past the expiration period of their payment instrument type
+ * (see {@link BraintreeConfigProperties#getPendingPaymentExpirationPeriod(String)}), so that reads never have to check for expiry.
+ *
+ * Candidates (created before the shortest expiration period of the tenants with pending payments) are looked up in batches
+ * with the bt_transaction_status index, filtered with the tenant's {@link ExpiredPaymentPolicy}
+ * and canceled in bulk. If voidExpiredPayments is set for the tenant, the canceled transactions are voided in Braintree as well.
+ */
+public class BraintreeExpiredPaymentJanitor {
+
+    private static final Logger logger = LoggerFactory.getLogger(BraintreeExpiredPaymentJanitor.class);
+
+    private static final Map<String, Object> EXPIRED_PAYMENT_METADATA = ImmutableMap.<String, Object>of(BraintreePluginProperties.PROPERTY_OVERRIDDEN_TRANSACTION_STATUS,
+                                                                                                       PaymentPluginStatus.CANCELED.toString(),
+                                                                                                       "message",
+                                                                                                       "Payment Expired - Cancelled by Janitor");
+
+    private final BraintreeConfigPropertiesConfigurationHandler braintreeConfigPropertiesConfigurationHandler;
+    private final BraintreeDao dao;
+    private final Clock clock;
+
+    private ScheduledExecutorService scheduler;
+
+    public BraintreeExpiredPaymentJanitor(final BraintreeConfigPropertiesConfigurationHandler braintreeConfigPropertiesConfigurationHandler,
+                                          final BraintreeDao dao,
+                                          final Clock clock) {
+        this.braintreeConfigPropertiesConfigurationHandler = braintreeConfigPropertiesConfigurationHandler;
+        this.dao = dao;
+        this.clock = clock;
+    }
+
+    public synchronized void start() {
+        final int intervalSeconds = braintreeConfigPropertiesConfigurationHandler.getConfigurable(null).getExpiredPaymentJanitorIntervalSeconds();
+        if (intervalSeconds <= 0) {
+            logger.info("Braintree expired payment janitor disabled");
+            return;
+        }
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("braintree-expired-payment-janitor-%d")
+                                                                                         .setDaemon(true)
+                                                                                         .build());
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+                                             @Override
+                                             public void run() {
+                                                 try {
+                                                     sweep();
+                                                 } catch (final Throwable t) {
+                                                     // Never let an exception cancel the schedule
+                                                     logger.warn("Braintree expired payment janitor run failed", t);
+                                                 }
+                                             }
+                                         },
+                                         intervalSeconds,
+                                         intervalSeconds,
+                                         TimeUnit.SECONDS);
+    }
+
+    public synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * Runs a single sweep
+     *
+     * @return the number of payments canceled
+     */
+    public int sweep() throws SQLException, InterruptedException {
+        final List<String> pendingStatuses = BraintreePaymentTransactionInfoPlugin.getPendingStatuses();
+        final int batchSize = braintreeConfigPropertiesConfigurationHandler.getConfigurable(null).getExpiredPaymentJanitorBatchSize();
+
+        // The expiration period depends on the tenant and the payment instrument type: only the payments created before the
+        // shortest one of the tenants with pending payments are looked up, each one is then checked with its tenant's policy
+        final Map<String, ExpiredPaymentPolicy> policyByTenant = new HashMap<String, ExpiredPaymentPolicy>();
+        DateTime createdBefore = null;
+        for (final UUID kbTenantId : dao.getTenantsWithResponses(pendingStatuses)) {
+            final DateTime latestExpiredCreatedDate = getPolicy(policyByTenant, kbTenantId.toString()).getLatestExpiredCreatedDate();
+            if (createdBefore == null || latestExpiredCreatedDate.isAfter(createdBefore)) {
+                createdBefore = latestExpiredCreatedDate;
+            }
+        }
+        if (createdBefore == null) {
+            return 0;
+        }
+
+        int canceled = 0;
+        BraintreeResponsesRecord after = null;
+        List<BraintreeResponsesRecord> candidates;
+        do {
+            candidates = dao.getPendingInitialResponses(pendingStatuses, createdBefore, after, batchSize);
+            if (candidates.isEmpty()) {
+                break;
+            }
+            after = candidates.get(candidates.size() - 1);
+
+            final List<BraintreeResponsesRecord> expired = new ArrayList<BraintreeResponsesRecord>();
+            for (final BraintreeResponsesRecord candidate : candidates) {
+                if (getPolicy(policyByTenant, candidate.getKbTenantId()).isExpired(candidate)) {
+                    expired.add(candidate);
+                }
+            }
+
+            // Responses refreshed by the settlement poller in the meantime are left alone
+            final List<BraintreeResponsesRecord> overridden = dao.overrideResponses(expired, pendingStatuses, EXPIRED_PAYMENT_METADATA);
+            for (final BraintreeResponsesRecord response : overridden) {
+                logger.info("Canceled expired Braintree transaction {} (created {})", response.getBraintreeId(), response.getCreatedDate());
+            }
+            voidInBraintree(overridden);
+            canceled += overridden.size();
+        } while (candidates.size() == batchSize);
+
+        return canceled;
+    }
+
+    private ExpiredPaymentPolicy getPolicy(final Map<String, ExpiredPaymentPolicy> policyByTenant, final String kbTenantId) {
+        ExpiredPaymentPolicy policy = policyByTenant.get(kbTenantId);
+        if (policy == null) {
+            policy = new ExpiredPaymentPolicy(clock, braintreeConfigPropertiesConfigurationHandler.getConfigurable(UUID.fromString(kbTenantId)));
+            policyByTenant.put(kbTenantId, policy);
+        }
+        return policy;
+    }
+
+    private void voidInBraintree(final List<BraintreeResponsesRecord> responses) throws InterruptedException {
+        final Map<BraintreeResponsesRecord, CompletableFuture<Result<Transaction>>> voids = new LinkedHashMap<BraintreeResponsesRecord, CompletableFuture<Result<Transaction>>>();
+        for (final BraintreeResponsesRecord response : responses) {
+            final UUID kbTenantId = UUID.fromString(response.getKbTenantId());
+            if (response.getBraintreeId() != null && braintreeConfigPropertiesConfigurationHandler.getConfigurable(kbTenantId).isVoidExpiredPayments()) {
+                voids.put(response, braintreeConfigPropertiesConfigurationHandler.getBraintreeAsyncClient(kbTenantId).voidTransaction(response.getBraintreeId()));
+            }
+        }
+
+        for (final Map.Entry<BraintreeResponsesRecord, CompletableFuture<Result<Transaction>>> entry : voids.entrySet()) {
+            // The payment stays canceled on our side either way
+            try {
+                final Result<Transaction> result = BraintreeAsyncClient.await(entry.getValue());
+                if (!result.isSuccess()) {
+                    logger.warn("Unable to void expired Braintree transaction {}: {}", entry.getKey().getBraintreeId(), result.getMessage());
+                }
+            } catch (final BraintreeException e) {
+                logger.warn("Unable to void expired Braintree transaction {}", entry.getKey().getBraintreeId(), e);
+            }
+        }
+    }
+}
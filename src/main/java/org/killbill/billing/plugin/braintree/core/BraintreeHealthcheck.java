@@ -16,13 +16,18 @@
 
 package org.killbill.billing.plugin.braintree.core;
 
+import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import javax.annotation.Nullable;
 
 import com.braintreegateway.BraintreeGateway;
-import com.braintreegateway.Environment;
 import org.killbill.billing.osgi.api.Healthcheck;
+import org.killbill.billing.plugin.braintree.client.CircuitBreakingBraintreeClient;
 import org.killbill.billing.tenant.api.Tenant;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -39,23 +44,49 @@ public class BraintreeHealthcheck implements Healthcheck {
 
     public HealthStatus getHealthStatus(@Nullable final Tenant tenant, @Nullable final Map properties) {
         if (tenant == null) {
-            // The plugin is running
-            return HealthStatus.healthy("Braintree OK");
+            // The plugin is running: a tripped circuit breaker only affects its tenant
+            final Map<String, CircuitBreakingBraintreeClient.State> trippedCircuitBreakers = braintreeConfigPropertiesConfigurationHandler.getTrippedCircuitBreakers();
+            if (trippedCircuitBreakers.isEmpty()) {
+                return HealthStatus.healthy("Braintree OK");
+            }
+            return healthStatus(true, "Braintree OK, circuit breaker tripped for " + trippedCircuitBreakers.size() + " tenant(s)", "circuitBreakers", trippedCircuitBreakers);
         } else {
+            final CircuitBreakingBraintreeClient.State circuitBreakerState = braintreeConfigPropertiesConfigurationHandler.getCircuitBreakerState(tenant.getId());
+            if (circuitBreakerState != null && circuitBreakerState != CircuitBreakingBraintreeClient.State.CLOSED) {
+                return healthStatus(false, "Braintree circuit breaker " + circuitBreakerState, "circuitBreaker", circuitBreakerState);
+            }
             // Specifying the tenant lets you also validate the tenant configuration
-            final BraintreeConfigProperties braintreeConfigProperties = braintreeConfigPropertiesConfigurationHandler.getConfigurable(tenant.getId());
-            return pingBraintree(braintreeConfigProperties);
+            return pingBraintree(tenant);
         }
     }
 
-    private HealthStatus pingBraintree(final BraintreeConfigProperties braintreeConfigProperties) {
-        final BraintreeGateway gateway = new BraintreeGateway(
-                Environment.parseEnvironment(braintreeConfigProperties.getBtEnvironment()),
-                braintreeConfigProperties.getBtMerchantId(),
-                braintreeConfigProperties.getBtPublicKey(),
-                braintreeConfigProperties.getBtPrivateKey()
-        );
+    private static HealthStatus healthStatus(final boolean healthy, final String message, final String detailName, final Object detail) {
+        final Map<String, Object> details = new HashMap<String, Object>();
+        details.put("message", message);
+        details.put(detailName, detail);
+        return new HealthStatus(healthy, details);
+    }
+
+    private HealthStatus pingBraintree(final Tenant tenant) {
+        // Off the caller thread, so that a hanging ping cannot block the healthcheck past the connection timeout
+        final long timeoutMillis = braintreeConfigPropertiesConfigurationHandler.getConfigurable(tenant.getId()).getConnectionTimeoutMillis();
+        final CompletableFuture<HealthStatus> ping = CompletableFuture.supplyAsync(() -> pingBraintree(braintreeConfigPropertiesConfigurationHandler.getBraintreeGateway(tenant.getId())),
+                                                                                   braintreeConfigPropertiesConfigurationHandler.getAsyncExecutor());
+        try {
+            return ping.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (final TimeoutException e) {
+            ping.cancel(true);
+            return HealthStatus.unHealthy("Braintree ping timed out after " + timeoutMillis + "ms");
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return HealthStatus.unHealthy("Braintree ping interrupted");
+        } catch (final ExecutionException e) {
+            logger.warn("Healthcheck error", e.getCause());
+            return HealthStatus.unHealthy("Braintree error: " + e.getCause().getMessage());
+        }
+    }
 
+    private static HealthStatus pingBraintree(final BraintreeGateway gateway) {
         try {
             gateway.getConfiguration().getBaseURL();
             return HealthStatus.healthy("Braintree OK");
@@ -16,13 +16,8 @@
 
 package org.killbill.billing.plugin.braintree.core;
 
-import org.killbill.billing.account.api.Account;
-import org.killbill.billing.account.api.AccountApiException;
 import org.killbill.billing.notification.plugin.api.ExtBusEvent;
-import org.killbill.billing.osgi.libs.killbill.OSGIKillbillAPI;
 import org.killbill.billing.osgi.libs.killbill.OSGIKillbillEventDispatcher;
-import org.killbill.billing.plugin.api.PluginTenantContext;
-import org.killbill.billing.util.callcontext.TenantContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -30,30 +25,24 @@ public class BraintreeListener implements OSGIKillbillEventDispatcher.OSGIKillbi
 
     private static final Logger logger = LoggerFactory.getLogger(BraintreeListener.class);
 
-    private final OSGIKillbillAPI osgiKillbillAPI;
+    private final BraintreeCustomerIdCache customerIdCache;
 
-    public BraintreeListener(final OSGIKillbillAPI killbillAPI) {
-        this.osgiKillbillAPI = killbillAPI;
+    public BraintreeListener(final BraintreeCustomerIdCache customerIdCache) {
+        this.customerIdCache = customerIdCache;
     }
 
     public void handleKillbillEvent(final ExtBusEvent killbillEvent) {
-        logger.info("Received event {} for object id {} of type {}",
+        logger.debug("Received event {} for object id {} of type {}",
                     killbillEvent.getEventType(),
                     killbillEvent.getObjectId(),
                     killbillEvent.getObjectType());
 
-        final TenantContext context = new PluginTenantContext(killbillEvent.getAccountId(), killbillEvent.getTenantId());
         switch (killbillEvent.getEventType()) {
-            //
-            // Handle ACCOUNT_CREATION and ACCOUNT_CHANGE only for demo purpose and just print the account
-            //
-            case ACCOUNT_CREATION:
-            case ACCOUNT_CHANGE:
-                try {
-                    final Account account = osgiKillbillAPI.getAccountUserApi().getAccountById(killbillEvent.getAccountId(), context);
-                    logger.info("Account information: " + account);
-                } catch (final AccountApiException e) {
-                    logger.warn("Unable to find account", e);
+            // The BRAINTREE_CUSTOMER_ID mapping may have changed
+            case CUSTOM_FIELD_CREATION:
+            case CUSTOM_FIELD_DELETION:
+                if (killbillEvent.getAccountId() != null) {
+                    customerIdCache.invalidate(killbillEvent.getTenantId(), killbillEvent.getAccountId());
                 }
                 break;
 
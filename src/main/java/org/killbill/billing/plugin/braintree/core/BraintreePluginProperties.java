@@ -25,6 +25,8 @@ import com.braintreegateway.UsBankAccount;
 
 import org.killbill.billing.plugin.braintree.client.BraintreeClient;
 
+import javax.annotation.Nullable;
+
 import java.util.HashMap;
 import java.util.Map;
 
@@ -36,6 +38,51 @@ public abstract class BraintreePluginProperties {
         PAYPAL
     }
 
+    /**
+     * Payment instrument types of Braintree transactions (see {@link com.braintreegateway.PaymentInstrumentType})
+     */
+    public enum PaymentInstrumentType {
+        PAYPAL_ACCOUNT(com.braintreegateway.PaymentInstrumentType.PAYPAL_ACCOUNT),
+        PAYPAL_HERE(com.braintreegateway.PaymentInstrumentType.PAYPAL_HERE),
+        CREDIT_CARD(com.braintreegateway.PaymentInstrumentType.CREDIT_CARD),
+        APPLE_PAY_CARD(com.braintreegateway.PaymentInstrumentType.APPLE_PAY_CARD),
+        ANDROID_PAY_CARD(com.braintreegateway.PaymentInstrumentType.ANDROID_PAY_CARD),
+        AMEX_EXPRESS_CHECKOUT_CARD(com.braintreegateway.PaymentInstrumentType.AMEX_EXPRESS_CHECKOUT_CARD),
+        VENMO_ACCOUNT(com.braintreegateway.PaymentInstrumentType.VENMO_ACCOUNT),
+        VISA_CHECKOUT_CARD(com.braintreegateway.PaymentInstrumentType.VISA_CHECKOUT_CARD),
+        MASTERPASS_CARD(com.braintreegateway.PaymentInstrumentType.MASTERPASS_CARD),
+        US_BANK_ACCOUNT(com.braintreegateway.PaymentInstrumentType.US_BANK_ACCOUNT),
+        SAMSUNG_PAY_CARD(com.braintreegateway.PaymentInstrumentType.SAMSUNG_PAY_CARD),
+        LOCAL_PAYMENT(com.braintreegateway.PaymentInstrumentType.LOCAL_PAYMENT);
+
+        private static final Map<String, PaymentInstrumentType> BY_BRAINTREE_TYPE = new HashMap<String, PaymentInstrumentType>();
+
+        static {
+            for (final PaymentInstrumentType paymentInstrumentType : values()) {
+                BY_BRAINTREE_TYPE.put(paymentInstrumentType.braintreeType, paymentInstrumentType);
+            }
+        }
+
+        private final String braintreeType;
+
+        PaymentInstrumentType(final String braintreeType) {
+            this.braintreeType = braintreeType;
+        }
+
+        public String getBraintreeType() {
+            return braintreeType;
+        }
+
+        /**
+         * @param braintreeType the payment instrument type of a Braintree transaction (e.g. paypal_account)
+         * @return the matching payment instrument type, null if unknown
+         */
+        @Nullable
+        public static PaymentInstrumentType fromBraintreeType(@Nullable final String braintreeType) {
+            return braintreeType == null ? null : BY_BRAINTREE_TYPE.get(braintreeType);
+        }
+    }
+
     public static final String PROPERTY_FALLBACK_VALUE = "NULL";
 
     public static final String PROPERTY_AMOUNT = "amount";
@@ -53,6 +100,13 @@ public abstract class BraintreePluginProperties {
     public static final String PROPERTY_BT_GATEWAY_ERROR_CODE = "bt_gateway_error_code";
     public static final String PROPERTY_BT_FIRST_PAYMENT_REFERENCE_ID = "bt_first_payment_reference_id";
     public static final String PROPERTY_BT_SECOND_PAYMENT_REFERENCE_ID = "bt_second_payment_reference_id";
+    public static final String PROPERTY_BT_DISPUTE_ID = "bt_dispute_id";
+    public static final String PROPERTY_BT_DISPUTE_STATUS = "bt_dispute_status";
+    public static final String PROPERTY_BT_DISPUTE_KIND = "bt_dispute_kind";
+    public static final String PROPERTY_BT_DISBURSEMENT_ID = "bt_disbursement_id";
+    public static final String PROPERTY_BT_DISBURSEMENT_DATE = "bt_disbursement_date";
+    public static final String PROPERTY_BT_SIGNATURE = "bt_signature";
+    public static final String PROPERTY_BT_PAYLOAD = "bt_payload";
 
     public static final String PROPERTY_KB_TRANSACTION_ID = "kb_transaction_id";
     public static final String PROPERTY_KB_PAYMENT_ID = "kb_payment_id";
@@ -60,6 +114,9 @@ public abstract class BraintreePluginProperties {
 
     public static final String PROPERTY_OVERRIDDEN_TRANSACTION_STATUS = "overriddenTransactionStatus";
 
+    // Gateway error code of the transactions not sent to Braintree because the tenant circuit breaker was open
+    public static final String CIRCUIT_OPEN_ERROR_CODE = "CIRCUIT_OPEN";
+
     public static Map<String, Object> toAdditionalDataMap(final Result<Transaction> braintreeResult) {
 
         final Map<String, Object> additionalDataMap = new HashMap<>();
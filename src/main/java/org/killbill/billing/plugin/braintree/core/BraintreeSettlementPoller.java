@@ -0,0 +1,262 @@
+/*
+ * Copyright 2021 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.braintree.core;
+
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.braintreegateway.Transaction;
+import com.braintreegateway.exceptions.BraintreeException;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.joda.time.DateTime;
+import org.killbill.billing.plugin.braintree.api.BraintreePaymentTransactionInfoPlugin;
+import org.killbill.billing.plugin.braintree.client.BraintreeAsyncClient;
+import org.killbill.billing.plugin.braintree.dao.BraintreeDao;
+import org.killbill.billing.plugin.braintree.dao.gen.tables.records.BraintreeResponsesRecord;
+import org.killbill.clock.Clock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Periodically refreshes the Braintree status of the transactions which are not done processing yet
+ * (see {@link BraintreePaymentTransactionInfoPlugin#needsRefresh(String)}), so that reads never have to call Braintree.
+ *
+ * Transactions are looked up in batches with the transaction search API. Tenants are served round-robin, one batch at a time,
+ * and each tenant has its own rate limiter (settlementPollingRateLimit), so a tenant with a large backlog cannot starve the others.
+ * The searches of a round are issued concurrently (see BraintreeAsyncClient), the database updates are applied by the poller thread.
+ * Candidates are loaded one page at a time, so a round never holds more than {@link #PAGE_SIZE} responses in memory.
+ *
+ * Every node running the poller looks the same transactions up: in a cluster, enable it on a single node (settlementPollerEnabled).
+ * Transactions the poller doesn't cover (polling disabled, or created before the lookback period) are refreshed on read instead,
+ * see BraintreePaymentPluginApi#getPaymentInfo.
+ */
+public class BraintreeSettlementPoller {
+
+    private static final Logger logger = LoggerFactory.getLogger(BraintreeSettlementPoller.class);
+
+    // How long to back off when all tenants are rate limited
+    private static final long RATE_LIMITED_SLEEP_MILLIS = 50;
+    // Responses loaded per query
+    static final int PAGE_SIZE = 1000;
+
+    private final BraintreeConfigPropertiesConfigurationHandler braintreeConfigPropertiesConfigurationHandler;
+    private final BraintreeDao dao;
+    private final Clock clock;
+    private final ConcurrentMap<String, RateLimiter> rateLimiters = new ConcurrentHashMap<String, RateLimiter>();
+
+    private ScheduledExecutorService scheduler;
+
+    public BraintreeSettlementPoller(final BraintreeConfigPropertiesConfigurationHandler braintreeConfigPropertiesConfigurationHandler,
+                                     final BraintreeDao dao,
+                                     final Clock clock) {
+        this.braintreeConfigPropertiesConfigurationHandler = braintreeConfigPropertiesConfigurationHandler;
+        this.dao = dao;
+        this.clock = clock;
+    }
+
+    public synchronized void start() {
+        final BraintreeConfigProperties globalConfig = braintreeConfigPropertiesConfigurationHandler.getConfigurable(null);
+        final int intervalSeconds = globalConfig.getSettlementPollingIntervalSeconds();
+        if (intervalSeconds <= 0) {
+            logger.info("Braintree settlement poller disabled, statuses are refreshed on read");
+            return;
+        }
+        if (!globalConfig.isSettlementPollerEnabled()) {
+            logger.info("Braintree settlement poller disabled on this node");
+            return;
+        }
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("braintree-settlement-poller-%d")
+                                                                                         .setDaemon(true)
+                                                                                         .build());
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+                                             @Override
+                                             public void run() {
+                                                 try {
+                                                     poll();
+                                                 } catch (final Throwable t) {
+                                                     // Never let an exception cancel the schedule
+                                                     logger.warn("Braintree settlement poller run failed", t);
+                                                 }
+                                             }
+                                         },
+                                         intervalSeconds,
+                                         intervalSeconds,
+                                         TimeUnit.SECONDS);
+    }
+
+    public synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * Runs a single polling round
+     *
+     * @return the number of responses whose status changed
+     */
+    public int poll() throws SQLException, InterruptedException {
+        final BraintreeConfigProperties globalConfig = braintreeConfigPropertiesConfigurationHandler.getConfigurable(null);
+        final DateTime createdAfter = clock.getUTCNow().minus(globalConfig.getSettlementPollingLookbackPeriod());
+
+        int updated = 0;
+        BraintreeResponsesRecord after = null;
+        List<BraintreeResponsesRecord> candidates;
+        do {
+            // Transactions canceled on our side (e.g. expired) are final and filtered out as well
+            candidates = dao.getResponsesToRefresh(createdAfter, BraintreePaymentTransactionInfoPlugin.getStatusesNeedingRefresh(), after, PAGE_SIZE);
+            if (candidates.isEmpty()) {
+                break;
+            }
+            after = candidates.get(candidates.size() - 1);
+            updated += pollPage(candidates);
+        } while (candidates.size() == PAGE_SIZE);
+
+        return updated;
+    }
+
+    private int pollPage(final List<BraintreeResponsesRecord> candidates) throws SQLException, InterruptedException {
+        // Per-tenant work queues, in creation order
+        final Map<String, Deque<BraintreeResponsesRecord>> responsesByTenant = new LinkedHashMap<String, Deque<BraintreeResponsesRecord>>();
+        for (final BraintreeResponsesRecord candidate : candidates) {
+            Deque<BraintreeResponsesRecord> tenantResponses = responsesByTenant.get(candidate.getKbTenantId());
+            if (tenantResponses == null) {
+                tenantResponses = new ArrayDeque<BraintreeResponsesRecord>();
+                responsesByTenant.put(candidate.getKbTenantId(), tenantResponses);
+            }
+            tenantResponses.add(candidate);
+        }
+
+        int updated = 0;
+        while (!responsesByTenant.isEmpty()) {
+            final List<Lookup> lookups = new ArrayList<Lookup>();
+            final Iterator<Map.Entry<String, Deque<BraintreeResponsesRecord>>> iterator = responsesByTenant.entrySet().iterator();
+            while (iterator.hasNext()) {
+                final Map.Entry<String, Deque<BraintreeResponsesRecord>> tenantResponses = iterator.next();
+                final BraintreeConfigProperties tenantConfig = braintreeConfigPropertiesConfigurationHandler.getConfigurable(UUID.fromString(tenantResponses.getKey()));
+                if (!getRateLimiter(tenantResponses.getKey(), tenantConfig).tryAcquire()) {
+                    continue;
+                }
+
+                final List<BraintreeResponsesRecord> batch = new ArrayList<BraintreeResponsesRecord>();
+                while (batch.size() < tenantConfig.getSettlementPollingBatchSize() && !tenantResponses.getValue().isEmpty()) {
+                    batch.add(tenantResponses.getValue().poll());
+                }
+                if (tenantResponses.getValue().isEmpty()) {
+                    iterator.remove();
+                }
+
+                lookups.add(lookup(UUID.fromString(tenantResponses.getKey()), batch));
+            }
+
+            if (lookups.isEmpty()) {
+                Thread.sleep(RATE_LIMITED_SLEEP_MILLIS);
+            }
+            for (final Lookup lookup : lookups) {
+                updated += refresh(lookup);
+            }
+        }
+
+        return updated;
+    }
+
+    private Lookup lookup(final UUID kbTenantId, final List<BraintreeResponsesRecord> batch) {
+        final List<String> braintreeIds = new ArrayList<String>(batch.size());
+        for (final BraintreeResponsesRecord response : batch) {
+            braintreeIds.add(response.getBraintreeId());
+        }
+        return new Lookup(kbTenantId, batch, braintreeConfigPropertiesConfigurationHandler.getBraintreeAsyncClient(kbTenantId).getTransactionStatuses(braintreeIds));
+    }
+
+    private int refresh(final Lookup lookup) throws SQLException, InterruptedException {
+        final List<BraintreeResponsesRecord> batch = lookup.batch;
+        final Map<String, Transaction.Status> statuses;
+        try {
+            statuses = BraintreeAsyncClient.await(lookup.statuses);
+        } catch (final BraintreeException e) {
+            // Try again at the next round
+            logger.warn("Unable to refresh the status of {} Braintree transactions for kbTenantId {}", batch.size(), lookup.kbTenantId, e);
+            return 0;
+        }
+
+        final Map<BraintreeResponsesRecord, Map<String, Object>> updatedStatuses = getUpdatedStatuses(batch, statuses);
+        dao.updateResponses(updatedStatuses);
+        return updatedStatuses.size();
+    }
+
+    /**
+     * @return the additional data to merge into the responses whose Braintree status changed
+     */
+    public static Map<BraintreeResponsesRecord, Map<String, Object>> getUpdatedStatuses(final Iterable<BraintreeResponsesRecord> responses,
+                                                                                        final Map<String, Transaction.Status> statuses) {
+        final Map<BraintreeResponsesRecord, Map<String, Object>> updatedStatuses = new HashMap<BraintreeResponsesRecord, Map<String, Object>>();
+        for (final BraintreeResponsesRecord response : responses) {
+            final Transaction.Status status = statuses.get(response.getBraintreeId());
+            if (status != null && !status.toString().equals(response.getBtTransactionStatus())) {
+                logger.info("Braintree transaction {} (kbTransactionId {}) is now {}", response.getBraintreeId(), response.getKbPaymentTransactionId(), status);
+                updatedStatuses.put(response, ImmutableMap.<String, Object>of(BraintreePluginProperties.PROPERTY_BT_TRANSACTION_STATUS, status.toString()));
+            }
+        }
+        return updatedStatuses;
+    }
+
+    private RateLimiter getRateLimiter(final String kbTenantId, final BraintreeConfigProperties tenantConfig) {
+        RateLimiter rateLimiter = rateLimiters.get(kbTenantId);
+        if (rateLimiter == null) {
+            rateLimiter = RateLimiter.create(tenantConfig.getSettlementPollingRateLimit());
+            final RateLimiter existing = rateLimiters.putIfAbsent(kbTenantId, rateLimiter);
+            if (existing != null) {
+                rateLimiter = existing;
+            }
+        } else if (rateLimiter.getRate() != tenantConfig.getSettlementPollingRateLimit()) {
+            // The tenant configuration changed
+            rateLimiter.setRate(tenantConfig.getSettlementPollingRateLimit());
+        }
+        return rateLimiter;
+    }
+
+    private static final class Lookup {
+
+        private final UUID kbTenantId;
+        private final List<BraintreeResponsesRecord> batch;
+        private final CompletableFuture<Map<String, Transaction.Status>> statuses;
+
+        private Lookup(final UUID kbTenantId, final List<BraintreeResponsesRecord> batch, final CompletableFuture<Map<String, Transaction.Status>> statuses) {
+            this.kbTenantId = kbTenantId;
+            this.batch = batch;
+            this.statuses = statuses;
+        }
+    }
+}
@@ -0,0 +1,364 @@
+/*
+ * Copyright 2021 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.killbill.billing.plugin.braintree.core;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.Nullable;
+
+import com.braintreegateway.Disbursement;
+import com.braintreegateway.Dispute;
+import com.braintreegateway.WebhookNotification;
+import com.braintreegateway.util.NodeWrapperFactory;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.joda.time.DateTime;
+import org.jooq.types.ULong;
+import org.killbill.billing.plugin.braintree.dao.BraintreeDao;
+import org.killbill.billing.plugin.braintree.dao.gen.tables.records.BraintreeNotificationsRecord;
+import org.killbill.clock.Clock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Ingests Braintree webhooks in two steps, so that Braintree gets its acknowledgement as fast as possible:
+ * <ul>
+ * <li>{@link #ingest(String, String, UUID)} verifies the signature and durably queues the notification in braintree_notifications
+ * (a single insert, duplicates being ignored)</li>
+ * <li>a background thread drains the queue in batches and applies the notifications to braintree_responses,
+ * one JDBC batch per tenant</li>
+ * </ul>
+ * Braintree notifications don't carry an id: the SHA-256 of the payload is used instead, since Braintree re-delivers the same payload
+ * when a notification isn't acknowledged.
+ *
+ * Applied notifications are kept for notificationRetentionPeriod (to detect re-deliveries and for troubleshooting), then purged.
+ */
+public class BraintreeWebhookProcessor {
+
+    private static final Logger logger = LoggerFactory.getLogger(BraintreeWebhookProcessor.class);
+
+    private static final int BATCH_SIZE = 100;
+    // Picks up notifications left over by a previous run (e.g. the node went down before applying them)
+    private static final long SWEEP_INTERVAL_SECONDS = 60;
+    private static final long PURGE_INTERVAL_SECONDS = 3600;
+    private static final int PURGE_BATCH_SIZE = 1000;
+
+    private final BraintreeConfigPropertiesConfigurationHandler braintreeConfigPropertiesConfigurationHandler;
+    private final BraintreeDao dao;
+    private final Clock clock;
+    private final AtomicBoolean drainScheduled = new AtomicBoolean(false);
+
+    private ScheduledExecutorService executor;
+
+    public BraintreeWebhookProcessor(final BraintreeConfigPropertiesConfigurationHandler braintreeConfigPropertiesConfigurationHandler,
+                                     final BraintreeDao dao,
+                                     final Clock clock) {
+        this.braintreeConfigPropertiesConfigurationHandler = braintreeConfigPropertiesConfigurationHandler;
+        this.dao = dao;
+        this.clock = clock;
+    }
+
+    public synchronized void start() {
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("braintree-webhook-processor-%d")
+                                                                                        .setDaemon(true)
+                                                                                        .build());
+        executor.scheduleWithFixedDelay(new Runnable() {
+                                            @Override
+                                            public void run() {
+                                                scheduleDrain();
+                                            }
+                                        },
+                                        0,
+                                        SWEEP_INTERVAL_SECONDS,
+                                        TimeUnit.SECONDS);
+        executor.scheduleWithFixedDelay(new Runnable() {
+                                            @Override
+                                            public void run() {
+                                                try {
+                                                    purge();
+                                                } catch (final Throwable t) {
+                                                    // Never let an exception cancel the schedule
+                                                    logger.warn("Unable to purge Braintree notifications", t);
+                                                }
+                                            }
+                                        },
+                                        PURGE_INTERVAL_SECONDS,
+                                        PURGE_INTERVAL_SECONDS,
+                                        TimeUnit.SECONDS);
+    }
+
+    public synchronized void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    /**
+     * Verifies and queues a notification
+     *
+     * @return true if the notification was queued, false if it had already been received
+     * @throws com.braintreegateway.exceptions.InvalidSignatureException if the signature doesn't match the tenant keys
+     */
+    public boolean ingest(final String signature, final String payload, final UUID kbTenantId) throws SQLException {
+        // Validates the signature
+        final WebhookNotification notification = braintreeConfigPropertiesConfigurationHandler.getBraintreeGateway(kbTenantId)
+                                                                                                .webhookNotification()
+                                                                                                .parse(signature, payload);
+
+        final String notificationId = Hashing.sha256().hashString(payload, StandardCharsets.UTF_8).toString();
+        final boolean queued = dao.addNotification(notificationId,
+                                                   notification.getKind().toString(),
+                                                   getBraintreeId(notification),
+                                                   payload,
+                                                   clock.getUTCNow(),
+                                                   kbTenantId);
+        if (queued) {
+            scheduleDrain();
+        } else {
+            logger.info("Ignoring duplicate Braintree {} notification {}", notification.getKind(), notificationId);
+        }
+        return queued;
+    }
+
+    /**
+     * Applies all pending notifications
+     *
+     * @return the number of notifications processed
+     */
+    public int drain() throws SQLException {
+        int processed = 0;
+        List<BraintreeNotificationsRecord> pending;
+        do {
+            pending = dao.getPendingNotifications(BATCH_SIZE);
+            apply(pending);
+            processed += pending.size();
+        } while (pending.size() == BATCH_SIZE);
+        return processed;
+    }
+
+    /**
+     * Deletes the notifications applied more than notificationRetentionPeriod ago
+     *
+     * @return the number of notifications deleted
+     */
+    public int purge() throws SQLException {
+        final DateTime processedBefore = clock.getUTCNow().minus(braintreeConfigPropertiesConfigurationHandler.getConfigurable(null).getNotificationRetentionPeriod());
+        int purged = 0;
+        int deleted;
+        do {
+            // Small batches, to keep the transactions short
+            deleted = dao.deleteProcessedNotifications(processedBefore, PURGE_BATCH_SIZE);
+            purged += deleted;
+        } while (deleted == PURGE_BATCH_SIZE);
+        if (purged > 0) {
+            logger.info("Purged {} Braintree notifications applied before {}", purged, processedBefore);
+        }
+        return purged;
+    }
+
+    private void scheduleDrain() {
+        // Coalesce wake-ups: a single drain picks up everything queued so far
+        if (!drainScheduled.compareAndSet(false, true)) {
+            return;
+        }
+
+        final ScheduledExecutorService currentExecutor = executor;
+        if (currentExecutor == null) {
+            drainScheduled.set(false);
+            return;
+        }
+
+        try {
+            currentExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    drainScheduled.set(false);
+                    try {
+                        drain();
+                    } catch (final Throwable t) {
+                        // The notifications stay queued until the next sweep
+                        logger.warn("Unable to apply Braintree notifications", t);
+                    }
+                }
+            });
+        } catch (final RejectedExecutionException e) {
+            // Shutting down
+            drainScheduled.set(false);
+        }
+    }
+
+    private void apply(final List<BraintreeNotificationsRecord> notifications) throws SQLException {
+        if (notifications.isEmpty()) {
+            return;
+        }
+
+        // Oldest first, so that later notifications for the same transaction win
+        final Map<String, Map<String, Map<String, Object>>> updatesByTenant = new LinkedHashMap<String, Map<String, Map<String, Object>>>();
+        final List<ULong> recordIds = new ArrayList<ULong>(notifications.size());
+        for (final BraintreeNotificationsRecord record : notifications) {
+            recordIds.add(record.getRecordId());
+
+            final WebhookNotification notification;
+            try {
+                notification = decode(record.getPayload());
+            } catch (final RuntimeException e) {
+                // Already verified at ingestion time: don't let a single bad payload block the queue
+                logger.warn("Unable to decode Braintree notification {}, skipping", record.getNotificationId(), e);
+                continue;
+            }
+
+            Map<String, Map<String, Object>> tenantUpdates = updatesByTenant.get(record.getKbTenantId());
+            if (tenantUpdates == null) {
+                tenantUpdates = new HashMap<String, Map<String, Object>>();
+                updatesByTenant.put(record.getKbTenantId(), tenantUpdates);
+            }
+            for (final Map.Entry<String, Map<String, Object>> update : toAdditionalData(notification).entrySet()) {
+                Map<String, Object> transactionUpdates = tenantUpdates.get(update.getKey());
+                if (transactionUpdates == null) {
+                    transactionUpdates = new HashMap<String, Object>();
+                    tenantUpdates.put(update.getKey(), transactionUpdates);
+                }
+                transactionUpdates.putAll(update.getValue());
+            }
+        }
+
+        for (final Map.Entry<String, Map<String, Map<String, Object>>> tenantUpdates : updatesByTenant.entrySet()) {
+            final int updated = dao.updateResponsesByBraintreeId(tenantUpdates.getValue(), UUID.fromString(tenantUpdates.getKey()));
+            logger.info("Applied Braintree notifications to {} responses for kbTenantId {}", updated, tenantUpdates.getKey());
+        }
+        dao.markNotificationsProcessed(recordIds, clock.getUTCNow());
+    }
+
+    /**
+     * @return the additional data to merge, by Braintree transaction id
+     */
+    private static Map<String, Map<String, Object>> toAdditionalData(final WebhookNotification notification) {
+        final Map<String, Map<String, Object>> additionalDataByTransactionId = new HashMap<String, Map<String, Object>>();
+        switch (notification.getKind()) {
+            case TRANSACTION_SETTLED:
+            case TRANSACTION_SETTLEMENT_DECLINED:
+            case TRANSACTION_DISBURSED:
+                final Map<String, Object> transactionData = new HashMap<String, Object>();
+                transactionData.put(BraintreePluginProperties.PROPERTY_BT_TRANSACTION_STATUS, notification.getTransaction().getStatus().toString());
+                additionalDataByTransactionId.put(notification.getTransaction().getId(), transactionData);
+                break;
+            case DISBURSEMENT:
+            case DISBURSEMENT_EXCEPTION:
+                final Disbursement disbursement = notification.getDisbursement();
+                final Map<String, Object> disbursementData = new HashMap<String, Object>();
+                disbursementData.put(BraintreePluginProperties.PROPERTY_BT_DISBURSEMENT_ID, disbursement.getId());
+                if (disbursement.getDisbursementDate() != null) {
+                    disbursementData.put(BraintreePluginProperties.PROPERTY_BT_DISBURSEMENT_DATE, new DateTime(disbursement.getDisbursementDate().getTimeInMillis()).toString());
+                }
+                if (disbursement.getTransactionIds() != null) {
+                    for (final String transactionId : disbursement.getTransactionIds()) {
+                        additionalDataByTransactionId.put(transactionId, disbursementData);
+                    }
+                }
+                break;
+            case DISPUTE_OPENED:
+            case DISPUTE_LOST:
+            case DISPUTE_WON:
+            case DISPUTE_ACCEPTED:
+            case DISPUTE_DISPUTED:
+            case DISPUTE_EXPIRED:
+                final Dispute dispute = notification.getDispute();
+                if (dispute.getTransaction() != null) {
+                    final Map<String, Object> disputeData = new HashMap<String, Object>();
+                    disputeData.put(BraintreePluginProperties.PROPERTY_BT_DISPUTE_ID, dispute.getId());
+                    disputeData.put(BraintreePluginProperties.PROPERTY_BT_DISPUTE_STATUS, String.valueOf(dispute.getStatus()));
+                    disputeData.put(BraintreePluginProperties.PROPERTY_BT_DISPUTE_KIND, String.valueOf(dispute.getKind()));
+                    additionalDataByTransactionId.put(dispute.getTransaction().getId(), disputeData);
+                }
+                break;
+            default:
+                // Not related to payments (e.g. subscriptions, merchant accounts)
+                break;
+        }
+        return additionalDataByTransactionId;
+    }
+
+    @Nullable
+    private static String getBraintreeId(final WebhookNotification notification) {
+        switch (notification.getKind()) {
+            case TRANSACTION_SETTLED:
+            case TRANSACTION_SETTLEMENT_DECLINED:
+            case TRANSACTION_DISBURSED:
+                return notification.getTransaction().getId();
+            case DISBURSEMENT:
+            case DISBURSEMENT_EXCEPTION:
+                return notification.getDisbursement().getId();
+            case DISPUTE_OPENED:
+            case DISPUTE_LOST:
+            case DISPUTE_WON:
+            case DISPUTE_ACCEPTED:
+            case DISPUTE_DISPUTED:
+            case DISPUTE_EXPIRED:
+                return notification.getDispute().getId();
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Decodes a payload whose signature has already been verified
+     */
+    static WebhookNotification decode(final String payload) {
+        final String xml = new String(Base64.getMimeDecoder().decode(payload), StandardCharsets.UTF_8);
+        return new WebhookNotification(NodeWrapperFactory.instance.create(xml));
+    }
+
+    /**
+     * Parses the application/x-www-form-urlencoded body posted by Braintree (bt_signature and bt_payload)
+     */
+    public static Map<String, String> parseFormBody(@Nullable final String body) {
+        final Map<String, String> parameters = new HashMap<String, String>();
+        if (body == null) {
+            return parameters;
+        }
+
+        for (final String pair : body.split("&")) {
+            final int idx = pair.indexOf('=');
+            if (idx <= 0) {
+                continue;
+            }
+            try {
+                parameters.put(URLDecoder.decode(pair.substring(0, idx), "UTF-8"), URLDecoder.decode(pair.substring(idx + 1), "UTF-8"));
+            } catch (final UnsupportedEncodingException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        return parameters;
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2021 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.braintree.core.resources;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.jooby.MediaType;
+import org.jooby.Result;
+import org.jooby.Results;
+import org.jooby.mvc.GET;
+import org.jooby.mvc.Local;
+import org.jooby.mvc.Path;
+import org.killbill.billing.plugin.braintree.client.BraintreeClientRegistry;
+import org.killbill.billing.plugin.braintree.client.MeteredBraintreeClient;
+import org.killbill.billing.plugin.braintree.dao.BraintreeDao;
+import org.killbill.billing.tenant.api.Tenant;
+import org.killbill.billing.util.entity.Entity;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metered;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.inject.Inject;
+
+/**
+ * Dumps the Braintree call and DAO metrics (see MeteredBraintreeClient and BraintreeDao) as JSON: rates are per second,
+ * latencies are in milliseconds. When called for a tenant, the Braintree call metrics of the other tenants are left out.
+ */
+@Singleton
+@Path("/metrics")
+public class BraintreeMetricsServlet {
+
+    private static final double NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final MetricRegistry metricRegistry;
+
+    @Inject
+    public BraintreeMetricsServlet(final MetricRegistry metricRegistry) {
+        this.metricRegistry = metricRegistry;
+    }
+
+    @GET
+    public Result getMetrics(@Local @Named("killbill_tenant") final Optional<Tenant> tenant) throws JsonProcessingException {
+        final MetricFilter filter;
+        if (tenant.isPresent()) {
+            final String tenantPrefix = MetricRegistry.name(MeteredBraintreeClient.METRIC_PREFIX, BraintreeClientRegistry.metricName(tenant.map(Entity::getId).get())) + ".";
+            filter = (name, metric) -> name.startsWith(tenantPrefix) || name.startsWith(BraintreeDao.METRIC_PREFIX + ".");
+        } else {
+            filter = MetricFilter.ALL;
+        }
+
+        final Map<String, Object> metrics = new TreeMap<String, Object>();
+        for (final Map.Entry<String, Timer> timer : metricRegistry.getTimers(filter).entrySet()) {
+            metrics.put(timer.getKey(), toMap(timer.getValue()));
+        }
+        for (final Map.Entry<String, Meter> meter : metricRegistry.getMeters(filter).entrySet()) {
+            metrics.put(meter.getKey(), toMap(meter.getValue()));
+        }
+        for (final Map.Entry<String, Histogram> histogram : metricRegistry.getHistograms(filter).entrySet()) {
+            metrics.put(histogram.getKey(), toMap(histogram.getValue()));
+        }
+        for (final Map.Entry<String, Counter> counter : metricRegistry.getCounters(filter).entrySet()) {
+            metrics.put(counter.getKey(), toMap(counter.getValue()));
+        }
+
+        return Results.with(objectMapper.writeValueAsString(metrics)).type(MediaType.json);
+    }
+
+    private static Map<String, Object> toMap(final Timer timer) {
+        final Map<String, Object> values = toMap((Metered) timer);
+        final Snapshot snapshot = timer.getSnapshot();
+        values.put("min", snapshot.getMin() / NANOS_PER_MILLI);
+        values.put("mean", snapshot.getMean() / NANOS_PER_MILLI);
+        values.put("p50", snapshot.getMedian() / NANOS_PER_MILLI);
+        values.put("p95", snapshot.get95thPercentile() / NANOS_PER_MILLI);
+        values.put("p99", snapshot.get99thPercentile() / NANOS_PER_MILLI);
+        values.put("max", snapshot.getMax() / NANOS_PER_MILLI);
+        return values;
+    }
+
+    private static Map<String, Object> toMap(final Histogram histogram) {
+        final Map<String, Object> values = new TreeMap<String, Object>();
+        final Snapshot snapshot = histogram.getSnapshot();
+        values.put("count", histogram.getCount());
+        values.put("min", snapshot.getMin());
+        values.put("mean", snapshot.getMean());
+        values.put("p50", snapshot.getMedian());
+        values.put("p95", snapshot.get95thPercentile());
+        values.put("p99", snapshot.get99thPercentile());
+        values.put("max", snapshot.getMax());
+        return values;
+    }
+
+    private static Map<String, Object> toMap(final Counter counter) {
+        final Map<String, Object> values = new TreeMap<String, Object>();
+        values.put("count", counter.getCount());
+        return values;
+    }
+
+    private static Map<String, Object> toMap(final Metered metered) {
+        final Map<String, Object> values = new TreeMap<String, Object>();
+        values.put("count", metered.getCount());
+        values.put("m1_rate", metered.getOneMinuteRate());
+        values.put("m5_rate", metered.getFiveMinuteRate());
+        values.put("m15_rate", metered.getFifteenMinuteRate());
+        values.put("mean_rate", metered.getMeanRate());
+        return values;
+    }
+}
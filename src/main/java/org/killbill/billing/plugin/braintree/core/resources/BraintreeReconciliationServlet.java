@@ -0,0 +1,65 @@
+/*
+ * Copyright 2021 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.braintree.core.resources;
+
+import java.util.Map;
+import java.util.Optional;
+
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.jooby.MediaType;
+import org.jooby.Result;
+import org.jooby.Results;
+import org.jooby.Status;
+import org.jooby.mvc.Local;
+import org.jooby.mvc.POST;
+import org.jooby.mvc.Path;
+import org.killbill.billing.payment.plugin.api.PaymentPluginApiException;
+import org.killbill.billing.plugin.braintree.api.BraintreePaymentPluginApi;
+import org.killbill.billing.tenant.api.Tenant;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.inject.Inject;
+
+/**
+ * Reconciles the payment methods of all the accounts of the tenant with Braintree (see BraintreePaymentPluginApi#reconcilePaymentMethods),
+ * e.g. from a nightly job, and returns the number of accounts and payment methods processed.
+ */
+@Singleton
+@Path("/reconcilePaymentMethods")
+public class BraintreeReconciliationServlet {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final BraintreePaymentPluginApi paymentPluginApi;
+
+    @Inject
+    public BraintreeReconciliationServlet(final BraintreePaymentPluginApi paymentPluginApi) {
+        this.paymentPluginApi = paymentPluginApi;
+    }
+
+    @POST
+    public Result reconcile(@Local @Named("killbill_tenant") final Optional<Tenant> tenant) throws PaymentPluginApiException, JsonProcessingException {
+        if (!tenant.isPresent()) {
+            return Results.with("The Kill Bill tenant (X-Killbill-ApiKey and X-Killbill-ApiSecret headers) is required", Status.BAD_REQUEST);
+        }
+
+        final Map<String, Integer> counts = paymentPluginApi.reconcilePaymentMethods(tenant.get().getId());
+        return Results.with(objectMapper.writeValueAsString(counts)).type(MediaType.json);
+    }
+}
@@ -16,41 +16,64 @@
 
 package org.killbill.billing.plugin.braintree.core.resources;
 
-import com.braintreegateway.BraintreeGateway;
-import com.braintreegateway.Environment;
 import com.google.inject.Inject;
+import org.jooby.Result;
+import org.jooby.Results;
+import org.jooby.Status;
 import org.jooby.mvc.GET;
 import org.jooby.mvc.Local;
 import org.jooby.mvc.Path;
-import org.killbill.billing.plugin.braintree.core.BraintreeConfigProperties;
-import org.killbill.billing.plugin.braintree.core.BraintreeConfigPropertiesConfigurationHandler;
+import org.killbill.billing.plugin.api.PluginTenantContext;
+import org.killbill.billing.plugin.braintree.api.BraintreePaymentPluginApi;
+import org.killbill.billing.plugin.braintree.core.BraintreeClientTokenPool;
 import org.killbill.billing.tenant.api.Tenant;
 import org.killbill.billing.util.entity.Entity;
 
 import javax.inject.Named;
 import javax.inject.Singleton;
 import java.util.Optional;
+import java.util.UUID;
 
+/**
+ * Generates a client token for the Braintree client SDKs. Anonymous tokens come from the tenant pool (see BraintreeClientTokenPool),
+ * tokens scoped to the Braintree customer of an account (kbAccountId query parameter) are generated on demand, once for all the
+ * concurrent requests of the account.
+ */
 @Singleton
 @Path("/clientToken")
 public class BraintreeTokenServlet {
 
-    private final BraintreeConfigPropertiesConfigurationHandler braintreeConfigPropertiesConfigurationHandler;
+    private final BraintreeClientTokenPool clientTokenPool;
+    private final BraintreePaymentPluginApi paymentPluginApi;
 
     @Inject
-    public BraintreeTokenServlet(final BraintreeConfigPropertiesConfigurationHandler braintreeConfigPropertiesConfigurationHandler) {
-        this.braintreeConfigPropertiesConfigurationHandler = braintreeConfigPropertiesConfigurationHandler;
+    public BraintreeTokenServlet(final BraintreeClientTokenPool clientTokenPool,
+                                 final BraintreePaymentPluginApi paymentPluginApi) {
+        this.clientTokenPool = clientTokenPool;
+        this.paymentPluginApi = paymentPluginApi;
     }
 
     @GET
-    public String getToken(@Local @Named("killbill_tenant") final Optional<Tenant> tenant) {
-        final BraintreeConfigProperties config = braintreeConfigPropertiesConfigurationHandler.getConfigurable(tenant.map(Entity::getId).orElse(null));
-        final BraintreeGateway braintreeGateway = new BraintreeGateway(
-                Environment.parseEnvironment(config.getBtEnvironment()),
-                config.getBtMerchantId(),
-                config.getBtPublicKey(),
-                config.getBtPrivateKey()
-        );
-        return braintreeGateway.clientToken().generate();
+    public Result getToken(@Local @Named("killbill_tenant") final Optional<Tenant> tenant,
+                           @Named("kbAccountId") final Optional<String> kbAccountIdString) throws InterruptedException {
+        final UUID kbTenantId = tenant.map(Entity::getId).orElse(null);
+        if (!kbAccountIdString.isPresent()) {
+            return Results.with(clientTokenPool.getClientToken(kbTenantId));
+        }
+
+        if (kbTenantId == null) {
+            return Results.with("The Kill Bill tenant (X-Killbill-ApiKey and X-Killbill-ApiSecret headers) is required", Status.BAD_REQUEST);
+        }
+        final UUID kbAccountId;
+        try {
+            kbAccountId = UUID.fromString(kbAccountIdString.get());
+        } catch (final IllegalArgumentException e) {
+            return Results.with("Invalid kbAccountId " + kbAccountIdString.get(), Status.BAD_REQUEST);
+        }
+        final String braintreeCustomerId = paymentPluginApi.getBraintreeCustomerId(kbAccountId, new PluginTenantContext(kbAccountId, kbTenantId));
+        if (braintreeCustomerId == null) {
+            return Results.with("No Braintree customer for account " + kbAccountId, Status.NOT_FOUND);
+        }
+        return Results.with(clientTokenPool.getCustomerClientToken(kbTenantId, braintreeCustomerId));
     }
 }
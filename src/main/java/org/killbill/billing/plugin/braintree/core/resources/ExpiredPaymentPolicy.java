@@ -16,20 +16,17 @@
 
 package org.killbill.billing.plugin.braintree.core.resources;
 
-import com.google.common.collect.Iterables;
+import java.time.ZoneOffset;
+
 import org.joda.time.DateTime;
-import org.killbill.billing.payment.api.TransactionType;
+import org.joda.time.DateTimeZone;
+import org.joda.time.Period;
 import org.killbill.billing.payment.plugin.api.PaymentPluginStatus;
-import org.killbill.billing.payment.plugin.api.PaymentTransactionInfoPlugin;
 import org.killbill.billing.plugin.braintree.api.BraintreePaymentTransactionInfoPlugin;
 import org.killbill.billing.plugin.braintree.core.BraintreeConfigProperties;
-import org.killbill.billing.plugin.braintree.core.BraintreePluginProperties;
-import org.killbill.billing.plugin.braintree.dao.BraintreeDao;
+import org.killbill.billing.plugin.braintree.dao.gen.tables.records.BraintreeResponsesRecord;
 import org.killbill.clock.Clock;
 
-import java.util.List;
-import java.util.Map;
-
 public class ExpiredPaymentPolicy {
 
     private final Clock clock;
@@ -41,52 +38,39 @@ public class ExpiredPaymentPolicy {
         this.braintreeProperties = braintreeProperties;
     }
 
-    public BraintreePaymentTransactionInfoPlugin isExpired(final List<PaymentTransactionInfoPlugin> paymentTransactions) {
-        if (!containOnlyAuthsOrPurchases(paymentTransactions)) {
-            return null;
-        }
-
-        final BraintreePaymentTransactionInfoPlugin transaction = (BraintreePaymentTransactionInfoPlugin) latestTransaction(paymentTransactions);
-        if (transaction.getCreatedDate() == null) {
-            return null;
-        }
-
-        if (transaction.getStatus() == PaymentPluginStatus.PENDING) {
-            final DateTime expirationDate = expirationDateForInitialTransactionType(transaction);
-            if (clock.getNow(expirationDate.getZone()).isAfter(expirationDate)) {
-                return transaction;
-            }
+    /**
+     * @param response the latest response of a payment made of authorizations and purchases only
+     * @return true if the transaction is still pending past the expiration period of its payment instrument type
+     */
+    public boolean isExpired(final BraintreeResponsesRecord response) {
+        // Transactions overridden by the plugin (e.g. already canceled) are final
+        if (response.getCreatedDate() == null
+            || response.getOverriddenTransactionStatus() != null
+            || BraintreePaymentTransactionInfoPlugin.getPaymentPluginStatus(response.getBtTransactionStatus()) != PaymentPluginStatus.PENDING) {
+            return false;
         }
 
-        return null;
+        final DateTime expirationDate = expirationDateForInitialTransactionType(response);
+        return clock.getNow(expirationDate.getZone()).isAfter(expirationDate);
     }
 
-    private PaymentTransactionInfoPlugin latestTransaction(final List<PaymentTransactionInfoPlugin> paymentTransactions) {
-        return Iterables.getLast(paymentTransactions);
-    }
-
-    private boolean containOnlyAuthsOrPurchases(final List<PaymentTransactionInfoPlugin> transactions) {
-        for (final PaymentTransactionInfoPlugin transaction : transactions) {
-            if (transaction.getTransactionType() != TransactionType.AUTHORIZE &&
-                transaction.getTransactionType() != TransactionType.PURCHASE) {
-                return false;
+    /**
+     * @return the creation date before which a pending transaction may be expired, whatever its payment instrument type
+     */
+    public DateTime getLatestExpiredCreatedDate() {
+        final DateTime now = clock.getUTCNow();
+        DateTime latestExpiredCreatedDate = null;
+        for (final Period period : braintreeProperties.getPendingPaymentExpirationPeriods()) {
+            final DateTime expiredCreatedDate = now.minus(period);
+            if (latestExpiredCreatedDate == null || expiredCreatedDate.isAfter(latestExpiredCreatedDate)) {
+                latestExpiredCreatedDate = expiredCreatedDate;
             }
         }
-        return true;
-    }
-
-    private DateTime expirationDateForInitialTransactionType(final BraintreePaymentTransactionInfoPlugin transaction) {
-        if (transaction.getBraintreeResponsesRecord() == null) {
-            return transaction.getCreatedDate().plus(braintreeProperties.getPendingPaymentExpirationPeriod(null));
-        }
-
-        final Map braintreeResponseAdditionalData = BraintreeDao.mapFromAdditionalDataString(transaction.getBraintreeResponsesRecord().getAdditionalData());
-
-        final String paymentMethod = getPaymentMethod(braintreeResponseAdditionalData);
-        return transaction.getCreatedDate().plus(braintreeProperties.getPendingPaymentExpirationPeriod(paymentMethod));
+        return latestExpiredCreatedDate;
     }
 
-    private String getPaymentMethod(final Map braintreeResponseAdditionalData) {
-        return (String) braintreeResponseAdditionalData.get(BraintreePluginProperties.PROPERTY_BT_PAYMENT_INSTRUMENT_TYPE);
+    private DateTime expirationDateForInitialTransactionType(final BraintreeResponsesRecord response) {
+        final DateTime createdDate = new DateTime(response.getCreatedDate().atZone(ZoneOffset.UTC).toInstant().toEpochMilli(), DateTimeZone.UTC);
+        return createdDate.plus(braintreeProperties.getPendingPaymentExpirationPeriod(response.getBtPaymentInstrumentType()));
     }
-}
\ No newline at end of file
+}
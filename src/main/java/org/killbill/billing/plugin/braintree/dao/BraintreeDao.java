@@ -18,10 +18,16 @@ package org.killbill.billing.plugin.braintree.dao;
 
 import java.io.IOException;
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.UUID;
 
 import javax.annotation.Nullable;
@@ -29,8 +35,25 @@ import javax.sql.DataSource;
 
 import com.braintreegateway.Result;
 import com.braintreegateway.Transaction;
+import com.codahale.metrics.ExponentiallyDecayingReservoir;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.Hashing;
 import org.joda.time.DateTime;
+import org.jooq.Condition;
+import org.jooq.Configuration;
+import org.jooq.DSLContext;
+import org.jooq.Field;
+import org.jooq.Query;
+import org.jooq.Record2;
+import org.jooq.TableField;
+import org.jooq.TransactionalCallable;
+import org.jooq.exception.DataAccessException;
 import org.jooq.impl.DSL;
 import org.killbill.billing.catalog.api.Currency;
 import org.killbill.billing.payment.api.PluginProperty;
@@ -41,22 +64,151 @@ import org.killbill.billing.plugin.braintree.core.BraintreePluginProperties;
 import org.killbill.billing.plugin.dao.payment.PluginPaymentDao;
 
 import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import org.jooq.types.ULong;
 import org.killbill.billing.plugin.braintree.dao.gen.tables.BraintreePaymentMethods;
 import org.killbill.billing.plugin.braintree.dao.gen.tables.BraintreeResponses;
+import org.killbill.billing.plugin.braintree.dao.gen.tables.records.BraintreeNotificationsRecord;
 import org.killbill.billing.plugin.braintree.dao.gen.tables.records.BraintreePaymentMethodsRecord;
 import org.killbill.billing.plugin.braintree.dao.gen.tables.records.BraintreeResponsesRecord;
 
+import static org.killbill.billing.plugin.braintree.dao.gen.tables.BraintreeNotifications.BRAINTREE_NOTIFICATIONS;
 import static org.killbill.billing.plugin.braintree.dao.gen.tables.BraintreePaymentMethods.BRAINTREE_PAYMENT_METHODS;
 import static org.killbill.billing.plugin.braintree.dao.gen.tables.BraintreeResponses.BRAINTREE_RESPONSES;
 
+/**
+ * Besides the queries, records into the MetricRegistry (under {@code braintree.dao}):
+ * <ul>
+ *     <li>the time spent waiting for a connection ({@code connection.acquisition}) and holding it ({@code connection.usage})</li>
+ *     <li>a timer per method taking its own connection (e.g. {@code add_response}), and the number of rows of the bulk ones ({@code <method>.rows})</li>
+ *     <li>the additional_data (de)serialization time and payload length ({@code json.*})</li>
+ * </ul>
+ */
 public class BraintreeDao extends PluginPaymentDao<BraintreeResponsesRecord, BraintreeResponses, BraintreePaymentMethodsRecord, BraintreePaymentMethods> {
 
+    public static final String METRIC_PREFIX = "braintree.dao";
+
+    // Like the ObjectMapper, shared by all instances as the additional data helpers are static
+    private static final Timer JSON_SERIALIZATION_TIMER = new Timer();
+    private static final Timer JSON_DESERIALIZATION_TIMER = new Timer();
+    private static final Histogram JSON_SERIALIZED_LENGTH = new Histogram(new ExponentiallyDecayingReservoir());
+    private static final Histogram JSON_DESERIALIZED_LENGTH = new Histogram(new ExponentiallyDecayingReservoir());
+
+    // Additional data fields also stored in their own column, so that reads don't need to parse the JSON
+    private static final Map<String, TableField<BraintreeResponsesRecord, String>> PROMOTED_FIELDS = ImmutableMap.<String, TableField<BraintreeResponsesRecord, String>>builder()
+            .put(BraintreePluginProperties.PROPERTY_BT_TRANSACTION_STATUS, BRAINTREE_RESPONSES.BT_TRANSACTION_STATUS)
+            .put(BraintreePluginProperties.PROPERTY_BT_PAYMENT_INSTRUMENT_TYPE, BRAINTREE_RESPONSES.BT_PAYMENT_INSTRUMENT_TYPE)
+            .put(BraintreePluginProperties.PROPERTY_BT_GATEWAY_ERROR_MESSAGE, BRAINTREE_RESPONSES.BT_GATEWAY_ERROR_MESSAGE)
+            .put(BraintreePluginProperties.PROPERTY_BT_GATEWAY_ERROR_CODE, BRAINTREE_RESPONSES.BT_GATEWAY_ERROR_CODE)
+            .put(BraintreePluginProperties.PROPERTY_BT_SECOND_PAYMENT_REFERENCE_ID, BRAINTREE_RESPONSES.BT_SECOND_PAYMENT_REFERENCE_ID)
+            .put(BraintreePluginProperties.PROPERTY_OVERRIDDEN_TRANSACTION_STATUS, BRAINTREE_RESPONSES.OVERRIDDEN_TRANSACTION_STATUS)
+            .build();
+
+    private final MetricRegistry metricRegistry;
+    private final Timer connectionUsageTimer;
+
     public BraintreeDao(final DataSource dataSource) throws SQLException {
-        super(BRAINTREE_RESPONSES, BRAINTREE_PAYMENT_METHODS, dataSource);
+        this(dataSource, new MetricRegistry());
+    }
+
+    public BraintreeDao(final DataSource dataSource, final MetricRegistry metricRegistry) throws SQLException {
+        super(BRAINTREE_RESPONSES, BRAINTREE_PAYMENT_METHODS, new MeteredDataSource(dataSource, metricRegistry.timer(MetricRegistry.name(METRIC_PREFIX, "connection", "acquisition"))));
+        this.metricRegistry = metricRegistry;
+        this.connectionUsageTimer = metricRegistry.timer(MetricRegistry.name(METRIC_PREFIX, "connection", "usage"));
+        registerIfAbsent(metricRegistry, MetricRegistry.name(METRIC_PREFIX, "json", "serialization"), JSON_SERIALIZATION_TIMER);
+        registerIfAbsent(metricRegistry, MetricRegistry.name(METRIC_PREFIX, "json", "deserialization"), JSON_DESERIALIZATION_TIMER);
+        registerIfAbsent(metricRegistry, MetricRegistry.name(METRIC_PREFIX, "json", "serialized_length"), JSON_SERIALIZED_LENGTH);
+        registerIfAbsent(metricRegistry, MetricRegistry.name(METRIC_PREFIX, "json", "deserialized_length"), JSON_DESERIALIZED_LENGTH);
         // Save space in the database
         objectMapper.setSerializationInclusion(Include.NON_EMPTY);
     }
 
+    // Unit of work
+
+    /**
+     * Reads and writes of a single payment operation, executed on one connection
+     */
+    public interface UnitOfWork<T> {
+
+        T execute(DSLContext dslContext) throws SQLException;
+    }
+
+    /**
+     * Executes the unit of work on a single connection, in a single transaction
+     */
+    public <T> T inTransaction(final UnitOfWork<T> unitOfWork) throws SQLException {
+        return inTransaction("in_transaction", unitOfWork);
+    }
+
+    private <T> T inTransaction(final String method, final UnitOfWork<T> unitOfWork) throws SQLException {
+        return execute(method,
+                new WithConnectionCallback<T>() {
+                    @Override
+                    public T withConnection(final Connection conn) throws SQLException {
+                        try {
+                            return DSL.using(conn, dialect, settings)
+                                    .transactionResult(new TransactionalCallable<T>() {
+                                        @Override
+                                        public T run(final Configuration configuration) throws SQLException {
+                                            return unitOfWork.execute(DSL.using(configuration));
+                                        }
+                                    });
+                        } catch (final DataAccessException e) {
+                            // jOOQ wraps checked exceptions thrown by the unit of work
+                            if (e.getCause() instanceof SQLException) {
+                                throw (SQLException) e.getCause();
+                            }
+                            throw e;
+                        }
+                    }
+                });
+    }
+
+    private <T> T withDslContext(final String method, final UnitOfWork<T> unitOfWork) throws SQLException {
+        return execute(method,
+                new WithConnectionCallback<T>() {
+                    @Override
+                    public T withConnection(final Connection conn) throws SQLException {
+                        return unitOfWork.execute(DSL.using(conn, dialect, settings));
+                    }
+                });
+    }
+
+    /**
+     * Executes the callback on a new connection, timing the whole method
+     */
+    private <T> T execute(final String method, final WithConnectionCallback<T> callback) throws SQLException {
+        final Timer.Context context = time(method);
+        try {
+            return execute(dataSource.getConnection(), callback);
+        } finally {
+            context.stop();
+        }
+    }
+
+    @Override
+    protected <T> T execute(final Connection connection, final WithConnectionCallback<T> callback) throws SQLException {
+        final Timer.Context context = connectionUsageTimer.time();
+        try {
+            return super.execute(connection, callback);
+        } finally {
+            context.stop();
+        }
+    }
+
+    private Timer.Context time(final String method) {
+        return metricRegistry.timer(MetricRegistry.name(METRIC_PREFIX, method)).time();
+    }
+
+    private void recordRows(final String method, final int rows) {
+        metricRegistry.histogram(MetricRegistry.name(METRIC_PREFIX, method, "rows")).update(rows);
+    }
+
+    private static void registerIfAbsent(final MetricRegistry metricRegistry, final String name, final Metric metric) {
+        if (!metricRegistry.getMetrics().containsKey(name)) {
+            metricRegistry.register(name, metric);
+        }
+    }
+
     // Payment methods
     @Override
     public void addPaymentMethod(final UUID kbAccountId,
@@ -65,7 +217,7 @@ public class BraintreeDao extends PluginPaymentDao<BraintreeResponsesRecord, Bra
                                  final Map<String, String> additionalDataMap,
                                  final DateTime utcNow,
                                  final UUID kbTenantId) throws SQLException {
-        execute(dataSource.getConnection(),
+        execute("add_payment_method",
                 new WithConnectionCallback<BraintreeResponsesRecord>() {
                     @Override
                     public BraintreeResponsesRecord withConnection(final Connection conn) throws SQLException {
@@ -85,7 +237,7 @@ public class BraintreeDao extends PluginPaymentDao<BraintreeResponsesRecord, Bra
                                         kbPaymentMethodId.toString(),
                                         (short) (isDefault? TRUE : FALSE),
                                         (short) FALSE,
-                                        asString(additionalDataMap),
+                                        serialize(additionalDataMap),
                                         toLocalDateTime(utcNow),
                                         toLocalDateTime(utcNow),
                                         kbTenantId.toString()
@@ -102,13 +254,14 @@ public class BraintreeDao extends PluginPaymentDao<BraintreeResponsesRecord, Bra
                                     final String braintreeId,
                                     final DateTime utcNow,
                                     final UUID kbTenantId) throws SQLException {
-        execute(dataSource.getConnection(),
+        execute("update_payment_method",
                 new WithConnectionCallback<BraintreeResponsesRecord>() {
                     @Override
                     public BraintreeResponsesRecord withConnection(final Connection conn) throws SQLException {
                         DSL.using(conn, dialect, settings)
                                 .update(BRAINTREE_PAYMENT_METHODS)
-                                .set(BRAINTREE_PAYMENT_METHODS.ADDITIONAL_DATA, asString(additionalDataMap))
+                                .set(BRAINTREE_PAYMENT_METHODS.ADDITIONAL_DATA, serialize(additionalDataMap))
+                                .set(BRAINTREE_PAYMENT_METHODS.ADDITIONAL_DATA_HASH, hashAdditionalDataMap(additionalDataMap))
                                 .set(BRAINTREE_PAYMENT_METHODS.UPDATED_DATE, toLocalDateTime(utcNow))
                                 .where(BRAINTREE_PAYMENT_METHODS.KB_PAYMENT_METHOD_ID.equal(kbPaymentMethodId.toString()))
                                 .and(BRAINTREE_PAYMENT_METHODS.BRAINTREE_ID.equal(braintreeId))
@@ -119,6 +272,100 @@ public class BraintreeDao extends PluginPaymentDao<BraintreeResponsesRecord, Bra
                 });
     }
 
+    /**
+     * @return the active payment methods of the next accounts of the tenant (at most maxAccounts of them, after afterKbAccountId
+     * if specified), grouped by account, in account id order
+     */
+    public Map<String, List<BraintreePaymentMethodsRecord>> getPaymentMethodsByAccount(final UUID kbTenantId,
+                                                                                       @Nullable final String afterKbAccountId,
+                                                                                       final int maxAccounts) throws SQLException {
+        final Map<String, List<BraintreePaymentMethodsRecord>> paymentMethodsByAccount = withDslContext("get_payment_methods_by_account", new UnitOfWork<Map<String, List<BraintreePaymentMethodsRecord>>>() {
+            @Override
+            public Map<String, List<BraintreePaymentMethodsRecord>> execute(final DSLContext dslContext) {
+                // Keyset pagination, so that later pages are as cheap as the first one
+                final List<String> kbAccountIds = dslContext
+                        .selectDistinct(BRAINTREE_PAYMENT_METHODS.KB_ACCOUNT_ID)
+                        .from(BRAINTREE_PAYMENT_METHODS)
+                        .where(BRAINTREE_PAYMENT_METHODS.KB_ACCOUNT_ID.greaterThan(MoreObjects.firstNonNull(afterKbAccountId, "")))
+                        .and(BRAINTREE_PAYMENT_METHODS.KB_TENANT_ID.equal(kbTenantId.toString()))
+                        .and(BRAINTREE_PAYMENT_METHODS.IS_DELETED.equal((short) FALSE))
+                        .orderBy(BRAINTREE_PAYMENT_METHODS.KB_ACCOUNT_ID.asc())
+                        .limit(maxAccounts)
+                        .fetch(BRAINTREE_PAYMENT_METHODS.KB_ACCOUNT_ID);
+
+                final Map<String, List<BraintreePaymentMethodsRecord>> paymentMethodsByAccount = new LinkedHashMap<String, List<BraintreePaymentMethodsRecord>>();
+                if (kbAccountIds.isEmpty()) {
+                    return paymentMethodsByAccount;
+                }
+                for (final BraintreePaymentMethodsRecord paymentMethod : dslContext
+                        .selectFrom(BRAINTREE_PAYMENT_METHODS)
+                        .where(BRAINTREE_PAYMENT_METHODS.KB_ACCOUNT_ID.in(kbAccountIds))
+                        .and(BRAINTREE_PAYMENT_METHODS.KB_TENANT_ID.equal(kbTenantId.toString()))
+                        .and(BRAINTREE_PAYMENT_METHODS.IS_DELETED.equal((short) FALSE))
+                        .orderBy(BRAINTREE_PAYMENT_METHODS.KB_ACCOUNT_ID.asc(), BRAINTREE_PAYMENT_METHODS.RECORD_ID.asc())
+                        .fetch()) {
+                    paymentMethodsByAccount.computeIfAbsent(paymentMethod.getKbAccountId(), k -> new ArrayList<BraintreePaymentMethodsRecord>()).add(paymentMethod);
+                }
+                return paymentMethodsByAccount;
+            }
+        });
+        recordRows("get_payment_methods_by_account", paymentMethodsByAccount.size());
+        return paymentMethodsByAccount;
+    }
+
+    /**
+     * Replaces the additional data (and its hash) of each payment method, using a single connection and JDBC batch
+     */
+    public void updatePaymentMethods(final Map<BraintreePaymentMethodsRecord, Map<String, Object>> additionalDataByPaymentMethod,
+                                     final DateTime utcNow) throws SQLException {
+        if (additionalDataByPaymentMethod.isEmpty()) {
+            return;
+        }
+
+        inTransaction("update_payment_methods", new UnitOfWork<Void>() {
+            @Override
+            public Void execute(final DSLContext dslContext) {
+                final List<Query> updates = new ArrayList<Query>(additionalDataByPaymentMethod.size());
+                for (final Map.Entry<BraintreePaymentMethodsRecord, Map<String, Object>> entry : additionalDataByPaymentMethod.entrySet()) {
+                    updates.add(dslContext.update(BRAINTREE_PAYMENT_METHODS)
+                                          .set(BRAINTREE_PAYMENT_METHODS.ADDITIONAL_DATA, serialize(entry.getValue()))
+                                          .set(BRAINTREE_PAYMENT_METHODS.ADDITIONAL_DATA_HASH, hashAdditionalDataMap(entry.getValue()))
+                                          .set(BRAINTREE_PAYMENT_METHODS.UPDATED_DATE, toLocalDateTime(utcNow))
+                                          .where(BRAINTREE_PAYMENT_METHODS.RECORD_ID.equal(entry.getKey().getRecordId())));
+                }
+                executeBatch(dslContext, updates);
+                return null;
+            }
+        });
+        recordRows("update_payment_methods", additionalDataByPaymentMethod.size());
+    }
+
+    /**
+     * Marks the payment methods as deleted, in a single statement
+     */
+    public void deletePaymentMethods(final Collection<BraintreePaymentMethodsRecord> paymentMethods, final DateTime utcNow) throws SQLException {
+        if (paymentMethods.isEmpty()) {
+            return;
+        }
+
+        final List<ULong> recordIds = new ArrayList<ULong>(paymentMethods.size());
+        for (final BraintreePaymentMethodsRecord paymentMethod : paymentMethods) {
+            recordIds.add(paymentMethod.getRecordId());
+        }
+        withDslContext("delete_payment_methods", new UnitOfWork<Void>() {
+            @Override
+            public Void execute(final DSLContext dslContext) {
+                dslContext.update(BRAINTREE_PAYMENT_METHODS)
+                          .set(BRAINTREE_PAYMENT_METHODS.IS_DELETED, (short) TRUE)
+                          .set(BRAINTREE_PAYMENT_METHODS.UPDATED_DATE, toLocalDateTime(utcNow))
+                          .where(BRAINTREE_PAYMENT_METHODS.RECORD_ID.in(recordIds))
+                          .execute();
+                return null;
+            }
+        });
+        recordRows("delete_payment_methods", recordIds.size());
+    }
+
     // Responses
 
     public BraintreeResponsesRecord addResponse(final UUID kbAccountId,
@@ -130,38 +377,60 @@ public class BraintreeDao extends PluginPaymentDao<BraintreeResponsesRecord, Bra
                                                 final Result<Transaction> braintreeResult,
                                                 final DateTime utcNow,
                                                 final UUID kbTenantId) throws SQLException {
+        return withDslContext("add_response", new UnitOfWork<BraintreeResponsesRecord>() {
+            @Override
+            public BraintreeResponsesRecord execute(final DSLContext dslContext) {
+                return addResponse(dslContext, kbAccountId, kbPaymentId, kbPaymentTransactionId, transactionType, amount, currency, braintreeResult, utcNow, kbTenantId);
+            }
+        });
+    }
+
+    public BraintreeResponsesRecord addResponse(final DSLContext dslContext,
+                                                final UUID kbAccountId,
+                                                final UUID kbPaymentId,
+                                                final UUID kbPaymentTransactionId,
+                                                final TransactionType transactionType,
+                                                final BigDecimal amount,
+                                                final Currency currency,
+                                                final Result<Transaction> braintreeResult,
+                                                final DateTime utcNow,
+                                                final UUID kbTenantId) {
         final Map<String, Object> additionalDataMap = BraintreePluginProperties.toAdditionalDataMap(braintreeResult);
 
-        return execute(dataSource.getConnection(),
-                new WithConnectionCallback<BraintreeResponsesRecord>() {
-                    @Override
-                    public BraintreeResponsesRecord withConnection(final Connection conn) throws SQLException {
-                        return DSL.using(conn, dialect, settings)
-                                .insertInto(BRAINTREE_RESPONSES,
-                                        BRAINTREE_RESPONSES.KB_ACCOUNT_ID,
-                                        BRAINTREE_RESPONSES.KB_PAYMENT_ID,
-                                        BRAINTREE_RESPONSES.KB_PAYMENT_TRANSACTION_ID,
-                                        BRAINTREE_RESPONSES.TRANSACTION_TYPE,
-                                        BRAINTREE_RESPONSES.AMOUNT,
-                                        BRAINTREE_RESPONSES.CURRENCY,
-                                        BRAINTREE_RESPONSES.BRAINTREE_ID,
-                                        BRAINTREE_RESPONSES.ADDITIONAL_DATA,
-                                        BRAINTREE_RESPONSES.CREATED_DATE,
-                                        BRAINTREE_RESPONSES.KB_TENANT_ID)
-                                .values(kbAccountId.toString(),
-                                        kbPaymentId.toString(),
-                                        kbPaymentTransactionId.toString(),
-                                        transactionType.toString(),
-                                        amount,
-                                        currency == null ? null : currency.name(),
-                                        BraintreeClient.getTransactionInstance(braintreeResult).getId(),
-                                        asString(additionalDataMap),
-                                        toLocalDateTime(utcNow),
-                                        kbTenantId.toString())
-                                .returning()
-                                .fetchOne();
-                    }
-                });
+        return dslContext
+                .insertInto(BRAINTREE_RESPONSES,
+                        BRAINTREE_RESPONSES.KB_ACCOUNT_ID,
+                        BRAINTREE_RESPONSES.KB_PAYMENT_ID,
+                        BRAINTREE_RESPONSES.KB_PAYMENT_TRANSACTION_ID,
+                        BRAINTREE_RESPONSES.TRANSACTION_TYPE,
+                        BRAINTREE_RESPONSES.AMOUNT,
+                        BRAINTREE_RESPONSES.CURRENCY,
+                        BRAINTREE_RESPONSES.BRAINTREE_ID,
+                        BRAINTREE_RESPONSES.BT_TRANSACTION_STATUS,
+                        BRAINTREE_RESPONSES.BT_PAYMENT_INSTRUMENT_TYPE,
+                        BRAINTREE_RESPONSES.BT_GATEWAY_ERROR_MESSAGE,
+                        BRAINTREE_RESPONSES.BT_GATEWAY_ERROR_CODE,
+                        BRAINTREE_RESPONSES.BT_SECOND_PAYMENT_REFERENCE_ID,
+                        BRAINTREE_RESPONSES.ADDITIONAL_DATA,
+                        BRAINTREE_RESPONSES.CREATED_DATE,
+                        BRAINTREE_RESPONSES.KB_TENANT_ID)
+                .values(kbAccountId.toString(),
+                        kbPaymentId.toString(),
+                        kbPaymentTransactionId.toString(),
+                        transactionType.toString(),
+                        amount,
+                        currency == null ? null : currency.name(),
+                        BraintreeClient.getTransactionInstance(braintreeResult).getId(),
+                        toColumnValue(BRAINTREE_RESPONSES.BT_TRANSACTION_STATUS, additionalDataMap.get(BraintreePluginProperties.PROPERTY_BT_TRANSACTION_STATUS)),
+                        toColumnValue(BRAINTREE_RESPONSES.BT_PAYMENT_INSTRUMENT_TYPE, additionalDataMap.get(BraintreePluginProperties.PROPERTY_BT_PAYMENT_INSTRUMENT_TYPE)),
+                        toColumnValue(BRAINTREE_RESPONSES.BT_GATEWAY_ERROR_MESSAGE, additionalDataMap.get(BraintreePluginProperties.PROPERTY_BT_GATEWAY_ERROR_MESSAGE)),
+                        toColumnValue(BRAINTREE_RESPONSES.BT_GATEWAY_ERROR_CODE, additionalDataMap.get(BraintreePluginProperties.PROPERTY_BT_GATEWAY_ERROR_CODE)),
+                        toColumnValue(BRAINTREE_RESPONSES.BT_SECOND_PAYMENT_REFERENCE_ID, additionalDataMap.get(BraintreePluginProperties.PROPERTY_BT_SECOND_PAYMENT_REFERENCE_ID)),
+                        serialize(additionalDataMap),
+                        toLocalDateTime(utcNow),
+                        kbTenantId.toString())
+                .returning()
+                .fetchOne();
     }
 
     public BraintreeResponsesRecord updateResponse(final UUID kbPaymentTransactionId,
@@ -174,97 +443,541 @@ public class BraintreeDao extends PluginPaymentDao<BraintreeResponsesRecord, Bra
     public BraintreeResponsesRecord updateResponse(final UUID kbPaymentTransactionId,
                                                 final Map<String, Object> additionalProperties,
                                                 final UUID kbTenantId) throws SQLException {
-        return execute(dataSource.getConnection(),
-                new WithConnectionCallback<BraintreeResponsesRecord>() {
-                    @Override
-                    public BraintreeResponsesRecord withConnection(final Connection conn) throws SQLException {
-                        final BraintreeResponsesRecord response = DSL.using(conn, dialect, settings)
-                                .selectFrom(BRAINTREE_RESPONSES)
-                                .where(BRAINTREE_RESPONSES.KB_PAYMENT_TRANSACTION_ID.equal(kbPaymentTransactionId.toString()))
-                                .and(BRAINTREE_RESPONSES.KB_TENANT_ID.equal(kbTenantId.toString()))
-                                .orderBy(BRAINTREE_RESPONSES.RECORD_ID.desc())
-                                .limit(1)
-                                .fetchOne();
-
-                        if (response == null) {
-                            return null;
-                        }
+        return inTransaction("update_response", new UnitOfWork<BraintreeResponsesRecord>() {
+            @Override
+            public BraintreeResponsesRecord execute(final DSLContext dslContext) {
+                return updateResponse(dslContext, kbPaymentTransactionId, additionalProperties, kbTenantId);
+            }
+        });
+    }
 
-                        final Map originalData = new HashMap(mapFromAdditionalDataString(response.getAdditionalData()));
-                        originalData.putAll(additionalProperties);
+    /**
+     * Merges the additional properties into the latest response of the transaction
+     *
+     * @return the updated response, null if there is none
+     */
+    public BraintreeResponsesRecord updateResponse(final DSLContext dslContext,
+                                                   final UUID kbPaymentTransactionId,
+                                                   final Map<String, Object> additionalProperties,
+                                                   final UUID kbTenantId) {
+        final ULong recordId = dslContext
+                .select(BRAINTREE_RESPONSES.RECORD_ID)
+                .from(BRAINTREE_RESPONSES)
+                .where(BRAINTREE_RESPONSES.KB_PAYMENT_TRANSACTION_ID.equal(kbPaymentTransactionId.toString()))
+                .and(BRAINTREE_RESPONSES.KB_TENANT_ID.equal(kbTenantId.toString()))
+                .orderBy(BRAINTREE_RESPONSES.RECORD_ID.desc())
+                .limit(1)
+                .fetchOne(BRAINTREE_RESPONSES.RECORD_ID);
+        if (recordId == null) {
+            return null;
+        }
 
-                        DSL.using(conn, dialect, settings)
-                                .update(BRAINTREE_RESPONSES)
-                                .set(BRAINTREE_RESPONSES.ADDITIONAL_DATA, asString(originalData))
-                                .where(BRAINTREE_RESPONSES.RECORD_ID.equal(response.getRecordId()))
-                                .execute();
-                        return response;
-                    }
-                });
+        if (!additionalProperties.isEmpty()) {
+            executeBatch(dslContext, mergeAdditionalData(dslContext, ImmutableMap.<ULong, Map<String, Object>>of(recordId, additionalProperties)));
+        }
+        return dslContext.selectFrom(BRAINTREE_RESPONSES)
+                         .where(BRAINTREE_RESPONSES.RECORD_ID.equal(recordId))
+                         .fetchOne();
     }
 
     public void updateResponse(final BraintreeResponsesRecord braintreeResponsesRecord,
                                final Map additionalMetadata) throws SQLException {
-        final Map additionalDataMap = mapFromAdditionalDataString(braintreeResponsesRecord.getAdditionalData());
-        additionalDataMap.putAll(additionalMetadata);
+        updateResponses(ImmutableMap.<BraintreeResponsesRecord, Map<String, Object>>of(braintreeResponsesRecord, additionalMetadata));
+    }
 
-        execute(dataSource.getConnection(),
+    /**
+     * Merges the additional metadata into each response, using a single connection and JDBC batch
+     */
+    public void updateResponses(final Map<BraintreeResponsesRecord, Map<String, Object>> additionalMetadataByResponse) throws SQLException {
+        if (additionalMetadataByResponse.isEmpty()) {
+            return;
+        }
+
+        final Map<ULong, Map<String, Object>> additionalMetadataByRecordId = new HashMap<ULong, Map<String, Object>>();
+        for (final Map.Entry<BraintreeResponsesRecord, Map<String, Object>> entry : additionalMetadataByResponse.entrySet()) {
+            additionalMetadataByRecordId.put(entry.getKey().getRecordId(), entry.getValue());
+        }
+
+        inTransaction("update_responses", new UnitOfWork<Void>() {
+            @Override
+            public Void execute(final DSLContext dslContext) {
+                executeBatch(dslContext, mergeAdditionalData(dslContext, additionalMetadataByRecordId));
+                return null;
+            }
+        });
+        recordRows("update_responses", additionalMetadataByRecordId.size());
+    }
+
+    /**
+     * @return the next responses (across tenants, after the specified one if any) created after the specified date, with one of
+     * the specified Braintree statuses (or no status) and not overridden, oldest first
+     */
+    public List<BraintreeResponsesRecord> getResponsesToRefresh(final DateTime createdAfter,
+                                                                final Collection<String> braintreeStatuses,
+                                                                @Nullable final BraintreeResponsesRecord after,
+                                                                final int limit) throws SQLException {
+        final List<BraintreeResponsesRecord> responses = withDslContext("get_responses_to_refresh", new UnitOfWork<List<BraintreeResponsesRecord>>() {
+            @Override
+            public List<BraintreeResponsesRecord> execute(final DSLContext dslContext) {
+                // Keyset pagination, like getPendingInitialResponses
+                final Condition afterCondition = after == null ?
+                                                 DSL.trueCondition() :
+                                                 DSL.row(BRAINTREE_RESPONSES.CREATED_DATE, BRAINTREE_RESPONSES.RECORD_ID).greaterThan(after.getCreatedDate(), after.getRecordId());
+                return dslContext.selectFrom(BRAINTREE_RESPONSES)
+                                 .where(BRAINTREE_RESPONSES.BT_TRANSACTION_STATUS.in(braintreeStatuses)
+                                                                                 .or(BRAINTREE_RESPONSES.BT_TRANSACTION_STATUS.isNull()))
+                                 .and(BRAINTREE_RESPONSES.OVERRIDDEN_TRANSACTION_STATUS.isNull())
+                                 .and(BRAINTREE_RESPONSES.CREATED_DATE.greaterOrEqual(toLocalDateTime(createdAfter)))
+                                 .and(afterCondition)
+                                 .orderBy(BRAINTREE_RESPONSES.CREATED_DATE.asc(), BRAINTREE_RESPONSES.RECORD_ID.asc())
+                                 .limit(limit)
+                                 .fetch();
+            }
+        });
+        recordRows("get_responses_to_refresh", responses.size());
+        return responses;
+    }
+
+    /**
+     * @return the tenants with responses in one of the specified Braintree statuses, not overridden
+     */
+    public List<UUID> getTenantsWithResponses(final Collection<String> braintreeStatuses) throws SQLException {
+        final List<UUID> kbTenantIds = withDslContext("get_tenants_with_responses", new UnitOfWork<List<UUID>>() {
+            @Override
+            public List<UUID> execute(final DSLContext dslContext) {
+                final List<UUID> kbTenantIds = new ArrayList<UUID>();
+                for (final String kbTenantId : dslContext.selectDistinct(BRAINTREE_RESPONSES.KB_TENANT_ID)
+                                                         .from(BRAINTREE_RESPONSES)
+                                                         .where(BRAINTREE_RESPONSES.BT_TRANSACTION_STATUS.in(braintreeStatuses))
+                                                         .and(BRAINTREE_RESPONSES.OVERRIDDEN_TRANSACTION_STATUS.isNull())
+                                                         .fetch(BRAINTREE_RESPONSES.KB_TENANT_ID)) {
+                    kbTenantIds.add(UUID.fromString(kbTenantId));
+                }
+                return kbTenantIds;
+            }
+        });
+        recordRows("get_tenants_with_responses", kbTenantIds.size());
+        return kbTenantIds;
+    }
+
+    /**
+     * @return the next responses (across tenants, after the specified one if any) with one of the specified Braintree statuses,
+     * not overridden and created before the specified date, which are the latest response of a payment made of authorizations
+     * and purchases only, oldest first
+     */
+    public List<BraintreeResponsesRecord> getPendingInitialResponses(final Collection<String> braintreeStatuses,
+                                                                     final DateTime createdBefore,
+                                                                     @Nullable final BraintreeResponsesRecord after,
+                                                                     final int limit) throws SQLException {
+        final List<String> initialTransactionTypes = ImmutableList.<String>of(TransactionType.AUTHORIZE.toString(), TransactionType.PURCHASE.toString());
+        final BraintreeResponses otherResponses = BRAINTREE_RESPONSES.as("other_responses");
+        final List<BraintreeResponsesRecord> responses = withDslContext("get_pending_initial_responses", new UnitOfWork<List<BraintreeResponsesRecord>>() {
+            @Override
+            public List<BraintreeResponsesRecord> execute(final DSLContext dslContext) {
+                // Keyset pagination in the order of the bt_transaction_status index, which serves both the filter and the sort.
+                // The other responses of the payment are looked up with the kb_payment_id one
+                final Condition afterCondition = after == null ?
+                                                 DSL.trueCondition() :
+                                                 DSL.row(BRAINTREE_RESPONSES.CREATED_DATE, BRAINTREE_RESPONSES.RECORD_ID).greaterThan(after.getCreatedDate(), after.getRecordId());
+                return dslContext.selectFrom(BRAINTREE_RESPONSES)
+                                 .where(BRAINTREE_RESPONSES.BT_TRANSACTION_STATUS.in(braintreeStatuses))
+                                 .and(BRAINTREE_RESPONSES.CREATED_DATE.lessThan(toLocalDateTime(createdBefore)))
+                                 .and(afterCondition)
+                                 .and(BRAINTREE_RESPONSES.OVERRIDDEN_TRANSACTION_STATUS.isNull())
+                                 .and(BRAINTREE_RESPONSES.TRANSACTION_TYPE.in(initialTransactionTypes))
+                                 .andNotExists(DSL.selectOne()
+                                                  .from(otherResponses)
+                                                  .where(otherResponses.KB_PAYMENT_ID.equal(BRAINTREE_RESPONSES.KB_PAYMENT_ID))
+                                                  .and(otherResponses.KB_TENANT_ID.equal(BRAINTREE_RESPONSES.KB_TENANT_ID))
+                                                  .and(otherResponses.RECORD_ID.greaterThan(BRAINTREE_RESPONSES.RECORD_ID)
+                                                                               .or(otherResponses.TRANSACTION_TYPE.notIn(initialTransactionTypes))))
+                                 .orderBy(BRAINTREE_RESPONSES.CREATED_DATE.asc(), BRAINTREE_RESPONSES.RECORD_ID.asc())
+                                 .limit(limit)
+                                 .fetch();
+            }
+        });
+        recordRows("get_pending_initial_responses", responses.size());
+        return responses;
+    }
+
+    /**
+     * Merges the additional metadata into the responses which are still in one of the specified Braintree statuses and not
+     * overridden (e.g. not refreshed by the settlement poller in the meantime), in a single transaction and JDBC batch
+     *
+     * @return the responses updated
+     */
+    public List<BraintreeResponsesRecord> overrideResponses(final Collection<BraintreeResponsesRecord> responses,
+                                                            final Collection<String> braintreeStatuses,
+                                                            final Map<String, Object> additionalMetadata) throws SQLException {
+        if (responses.isEmpty()) {
+            return ImmutableList.<BraintreeResponsesRecord>of();
+        }
+
+        final Map<ULong, BraintreeResponsesRecord> responsesByRecordId = new LinkedHashMap<ULong, BraintreeResponsesRecord>();
+        for (final BraintreeResponsesRecord response : responses) {
+            responsesByRecordId.put(response.getRecordId(), response);
+        }
+        final List<BraintreeResponsesRecord> overridden = inTransaction("override_responses", new UnitOfWork<List<BraintreeResponsesRecord>>() {
+            @Override
+            public List<BraintreeResponsesRecord> execute(final DSLContext dslContext) {
+                final Map<ULong, Map<String, Object>> additionalMetadataByRecordId = new LinkedHashMap<ULong, Map<String, Object>>();
+                for (final ULong recordId : dslContext.select(BRAINTREE_RESPONSES.RECORD_ID)
+                                                      .from(BRAINTREE_RESPONSES)
+                                                      .where(BRAINTREE_RESPONSES.RECORD_ID.in(responsesByRecordId.keySet()))
+                                                      .and(BRAINTREE_RESPONSES.BT_TRANSACTION_STATUS.in(braintreeStatuses))
+                                                      .and(BRAINTREE_RESPONSES.OVERRIDDEN_TRANSACTION_STATUS.isNull())
+                                                      .forUpdate()
+                                                      .fetch(BRAINTREE_RESPONSES.RECORD_ID)) {
+                    additionalMetadataByRecordId.put(recordId, additionalMetadata);
+                }
+                executeBatch(dslContext, mergeAdditionalData(dslContext, additionalMetadataByRecordId));
+
+                final List<BraintreeResponsesRecord> overridden = new ArrayList<BraintreeResponsesRecord>(additionalMetadataByRecordId.size());
+                for (final ULong recordId : additionalMetadataByRecordId.keySet()) {
+                    overridden.add(responsesByRecordId.get(recordId));
+                }
+                return overridden;
+            }
+        });
+        recordRows("override_responses", overridden.size());
+        return overridden;
+    }
+
+    /**
+     * Merges the additional metadata into every response matching the Braintree id (e.g. both the authorization
+     * and the capture of a transaction), using a single connection and JDBC batch
+     *
+     * @return the number of responses updated
+     */
+    public int updateResponsesByBraintreeId(final Map<String, Map<String, Object>> additionalMetadataByBraintreeId,
+                                            final UUID kbTenantId) throws SQLException {
+        if (additionalMetadataByBraintreeId.isEmpty()) {
+            return 0;
+        }
+
+        final int updated = inTransaction("update_responses_by_braintree_id", new UnitOfWork<Integer>() {
+            @Override
+            public Integer execute(final DSLContext dslContext) {
+                final Map<ULong, Map<String, Object>> additionalMetadataByRecordId = new HashMap<ULong, Map<String, Object>>();
+                for (final Record2<ULong, String> response : dslContext
+                        .select(BRAINTREE_RESPONSES.RECORD_ID, BRAINTREE_RESPONSES.BRAINTREE_ID)
+                        .from(BRAINTREE_RESPONSES)
+                        .where(BRAINTREE_RESPONSES.BRAINTREE_ID.in(additionalMetadataByBraintreeId.keySet()))
+                        .and(BRAINTREE_RESPONSES.KB_TENANT_ID.equal(kbTenantId.toString()))
+                        .fetch()) {
+                    additionalMetadataByRecordId.put(response.value1(), additionalMetadataByBraintreeId.get(response.value2()));
+                }
+                if (additionalMetadataByRecordId.isEmpty()) {
+                    return 0;
+                }
+
+                executeBatch(dslContext, mergeAdditionalData(dslContext, additionalMetadataByRecordId));
+                return additionalMetadataByRecordId.size();
+            }
+        });
+        recordRows("update_responses_by_braintree_id", updated);
+        return updated;
+    }
+
+    private static void executeBatch(final DSLContext dslContext, final List<Query> queries) {
+        if (!queries.isEmpty()) {
+            dslContext.batch(queries).execute();
+        }
+    }
+
+    /**
+     * Builds the statements merging the additional metadata into the additional_data of each response: top-level keys are
+     * replaced (nested values are not merged) and a null value removes the key, on every database. The rows are locked
+     * and merged in memory: callers must run the statements in the same transaction.
+     */
+    private List<Query> mergeAdditionalData(final DSLContext dslContext, final Map<ULong, Map<String, Object>> additionalMetadataByRecordId) {
+        final List<Query> updates = new ArrayList<Query>(additionalMetadataByRecordId.size());
+        for (final Record2<ULong, String> response : dslContext
+                .select(BRAINTREE_RESPONSES.RECORD_ID, BRAINTREE_RESPONSES.ADDITIONAL_DATA)
+                .from(BRAINTREE_RESPONSES)
+                .where(BRAINTREE_RESPONSES.RECORD_ID.in(additionalMetadataByRecordId.keySet()))
+                .forUpdate()
+                .fetch()) {
+            final Map<String, Object> additionalMetadata = additionalMetadataByRecordId.get(response.value1());
+            final Map<String, Object> additionalDataMap = new HashMap<String, Object>(mapFromAdditionalDataString(response.value2()));
+            for (final Map.Entry<String, Object> entry : additionalMetadata.entrySet()) {
+                if (entry.getValue() == null) {
+                    additionalDataMap.remove(entry.getKey());
+                } else {
+                    additionalDataMap.put(entry.getKey(), entry.getValue());
+                }
+            }
+            updates.add(dslContext.update(BRAINTREE_RESPONSES)
+                                  .set(BRAINTREE_RESPONSES.ADDITIONAL_DATA, serialize(additionalDataMap))
+                                  .set(toColumnValues(additionalMetadata))
+                                  .where(BRAINTREE_RESPONSES.RECORD_ID.equal(response.value1())));
+        }
+        return updates;
+    }
+
+    // Notifications
+
+    /**
+     * @return true if the notification was queued, false if it had already been received
+     */
+    public boolean addNotification(final String notificationId,
+                                   final String kind,
+                                   @Nullable final String braintreeId,
+                                   final String payload,
+                                   final DateTime utcNow,
+                                   final UUID kbTenantId) throws SQLException {
+        return execute("add_notification",
+                new WithConnectionCallback<Boolean>() {
+                    @Override
+                    public Boolean withConnection(final Connection conn) throws SQLException {
+                        return DSL.using(conn, dialect, settings)
+                                .insertInto(BRAINTREE_NOTIFICATIONS,
+                                        BRAINTREE_NOTIFICATIONS.NOTIFICATION_ID,
+                                        BRAINTREE_NOTIFICATIONS.KIND,
+                                        BRAINTREE_NOTIFICATIONS.BRAINTREE_ID,
+                                        BRAINTREE_NOTIFICATIONS.PAYLOAD,
+                                        BRAINTREE_NOTIFICATIONS.PROCESSED,
+                                        BRAINTREE_NOTIFICATIONS.CREATED_DATE,
+                                        BRAINTREE_NOTIFICATIONS.KB_TENANT_ID)
+                                .values(notificationId,
+                                        kind,
+                                        braintreeId,
+                                        payload,
+                                        (short) FALSE,
+                                        toLocalDateTime(utcNow),
+                                        kbTenantId.toString())
+                                .onDuplicateKeyIgnore()
+                                .execute() > 0;
+                    }
+                });
+    }
+
+    /**
+     * @return the oldest notifications (across tenants) not yet applied
+     */
+    public List<BraintreeNotificationsRecord> getPendingNotifications(final int limit) throws SQLException {
+        final List<BraintreeNotificationsRecord> notifications = execute("get_pending_notifications",
+                new WithConnectionCallback<List<BraintreeNotificationsRecord>>() {
+                    @Override
+                    public List<BraintreeNotificationsRecord> withConnection(final Connection conn) throws SQLException {
+                        return DSL.using(conn, dialect, settings)
+                                .selectFrom(BRAINTREE_NOTIFICATIONS)
+                                .where(BRAINTREE_NOTIFICATIONS.PROCESSED.equal((short) FALSE))
+                                .orderBy(BRAINTREE_NOTIFICATIONS.RECORD_ID.asc())
+                                .limit(limit)
+                                .fetch();
+                    }
+                });
+        recordRows("get_pending_notifications", notifications.size());
+        return notifications;
+    }
+
+    public void markNotificationsProcessed(final Collection<ULong> recordIds, final DateTime utcNow) throws SQLException {
+        if (recordIds.isEmpty()) {
+            return;
+        }
+
+        execute("mark_notifications_processed",
                 new WithConnectionCallback<Void>() {
                     @Override
                     public Void withConnection(final Connection conn) throws SQLException {
                         DSL.using(conn, dialect, settings)
-                                .update(BRAINTREE_RESPONSES)
-                                .set(BRAINTREE_RESPONSES.ADDITIONAL_DATA, asString(additionalDataMap))
-                                .where(BRAINTREE_RESPONSES.RECORD_ID.equal(braintreeResponsesRecord.getRecordId()))
+                                .update(BRAINTREE_NOTIFICATIONS)
+                                .set(BRAINTREE_NOTIFICATIONS.PROCESSED, (short) TRUE)
+                                .set(BRAINTREE_NOTIFICATIONS.PROCESSED_DATE, toLocalDateTime(utcNow))
+                                .where(BRAINTREE_NOTIFICATIONS.RECORD_ID.in(recordIds))
                                 .execute();
                         return null;
                     }
                 });
     }
 
+    /**
+     * Deletes the oldest notifications (across tenants) applied before the specified date
+     *
+     * @return the number of notifications deleted
+     */
+    public int deleteProcessedNotifications(final DateTime processedBefore, final int limit) throws SQLException {
+        final int deleted = withDslContext("delete_processed_notifications", new UnitOfWork<Integer>() {
+            @Override
+            public Integer execute(final DSLContext dslContext) {
+                // Two statements, as MySQL doesn't support limit in subqueries. The ids are read with the processed index
+                final List<ULong> recordIds = dslContext.select(BRAINTREE_NOTIFICATIONS.RECORD_ID)
+                                                        .from(BRAINTREE_NOTIFICATIONS)
+                                                        .where(BRAINTREE_NOTIFICATIONS.PROCESSED.equal((short) TRUE))
+                                                        .and(BRAINTREE_NOTIFICATIONS.PROCESSED_DATE.lessThan(toLocalDateTime(processedBefore)))
+                                                        .orderBy(BRAINTREE_NOTIFICATIONS.RECORD_ID.asc())
+                                                        .limit(limit)
+                                                        .fetch(BRAINTREE_NOTIFICATIONS.RECORD_ID);
+                if (recordIds.isEmpty()) {
+                    return 0;
+                }
+                return dslContext.deleteFrom(BRAINTREE_NOTIFICATIONS)
+                                 .where(BRAINTREE_NOTIFICATIONS.RECORD_ID.in(recordIds))
+                                 .execute();
+            }
+        });
+        recordRows("delete_processed_notifications", deleted);
+        return deleted;
+    }
+
+    @Override
+    public void deletePaymentMethod(final UUID kbPaymentMethodId, final DateTime utcNow, final UUID kbTenantId) throws SQLException {
+        final Timer.Context context = time("delete_payment_method");
+        try {
+            super.deletePaymentMethod(kbPaymentMethodId, utcNow, kbTenantId);
+        } finally {
+            context.stop();
+        }
+    }
+
+    @Override
+    public List<BraintreePaymentMethodsRecord> getPaymentMethods(final UUID kbAccountId, final UUID kbTenantId) throws SQLException {
+        final List<BraintreePaymentMethodsRecord> paymentMethods;
+        final Timer.Context context = time("get_payment_methods");
+        try {
+            paymentMethods = super.getPaymentMethods(kbAccountId, kbTenantId);
+        } finally {
+            context.stop();
+        }
+        recordRows("get_payment_methods", paymentMethods.size());
+        return paymentMethods;
+    }
+
+    @Override
+    public List<BraintreeResponsesRecord> getResponses(final UUID kbPaymentId, final UUID kbTenantId) throws SQLException {
+        final List<BraintreeResponsesRecord> responses;
+        final Timer.Context context = time("get_responses");
+        try {
+            responses = super.getResponses(kbPaymentId, kbTenantId);
+        } finally {
+            context.stop();
+        }
+        recordRows("get_responses", responses.size());
+        return responses;
+    }
+
+    @Override
+    public BraintreePaymentMethodsRecord getPaymentMethod(final UUID kbPaymentMethodId, final UUID kbTenantId) throws SQLException {
+        return withDslContext("get_payment_method", new UnitOfWork<BraintreePaymentMethodsRecord>() {
+            @Override
+            public BraintreePaymentMethodsRecord execute(final DSLContext dslContext) {
+                return getPaymentMethod(dslContext, kbPaymentMethodId, kbTenantId);
+            }
+        });
+    }
+
+    public BraintreePaymentMethodsRecord getPaymentMethod(final DSLContext dslContext, final UUID kbPaymentMethodId, final UUID kbTenantId) {
+        return dslContext
+                .selectFrom(BRAINTREE_PAYMENT_METHODS)
+                .where(BRAINTREE_PAYMENT_METHODS.KB_PAYMENT_METHOD_ID.equal(kbPaymentMethodId.toString()))
+                .and(BRAINTREE_PAYMENT_METHODS.IS_DELETED.equal((short) FALSE))
+                .and(BRAINTREE_PAYMENT_METHODS.KB_TENANT_ID.equal(kbTenantId.toString()))
+                .orderBy(BRAINTREE_PAYMENT_METHODS.RECORD_ID.desc())
+                .limit(1)
+                .fetchOne();
+    }
+
     @Override
     public BraintreeResponsesRecord getSuccessfulAuthorizationResponse(final UUID kbPaymentId, final UUID kbTenantId) throws SQLException {
-        return execute(dataSource.getConnection(),
-                new WithConnectionCallback<BraintreeResponsesRecord>() {
-                    @Override
-                    public BraintreeResponsesRecord withConnection(final Connection conn) throws SQLException {
-                        return DSL.using(conn, dialect, settings)
-                                .selectFrom(responsesTable)
-                                .where(DSL.field(responsesTable.getName() + "." + KB_PAYMENT_ID).equal(kbPaymentId.toString()))
-                                .and(
-                                        DSL.field(responsesTable.getName() + "." + TRANSACTION_TYPE).equal(TransactionType.AUTHORIZE.toString())
-                                                .or(DSL.field(responsesTable.getName() + "." + TRANSACTION_TYPE).equal(TransactionType.PURCHASE.toString()))
-                                )
-                                .and(DSL.field(responsesTable.getName() + "." + KB_TENANT_ID).equal(kbTenantId.toString()))
-                                .orderBy(DSL.field(responsesTable.getName() + "." + RECORD_ID).desc())
-                                .limit(1)
-                                .fetchOne();
-                    }
-                });
+        return withDslContext("get_successful_authorization_response", new UnitOfWork<BraintreeResponsesRecord>() {
+            @Override
+            public BraintreeResponsesRecord execute(final DSLContext dslContext) {
+                return getSuccessfulAuthorizationResponse(dslContext, kbPaymentId, kbTenantId);
+            }
+        });
     }
 
+    public BraintreeResponsesRecord getSuccessfulAuthorizationResponse(final DSLContext dslContext, final UUID kbPaymentId, final UUID kbTenantId) {
+        return dslContext
+                .selectFrom(responsesTable)
+                .where(DSL.field(responsesTable.getName() + "." + KB_PAYMENT_ID).equal(kbPaymentId.toString()))
+                .and(
+                        DSL.field(responsesTable.getName() + "." + TRANSACTION_TYPE).equal(TransactionType.AUTHORIZE.toString())
+                                .or(DSL.field(responsesTable.getName() + "." + TRANSACTION_TYPE).equal(TransactionType.PURCHASE.toString()))
+                )
+                .and(DSL.field(responsesTable.getName() + "." + KB_TENANT_ID).equal(kbTenantId.toString()))
+                .orderBy(DSL.field(responsesTable.getName() + "." + RECORD_ID).desc())
+                .limit(1)
+                .fetchOne();
+    }
+
+
+    /**
+     * @return the values of the additional data fields promoted to their own braintree_responses column
+     */
+    private static Map<Field<?>, Object> toColumnValues(final Map<String, Object> additionalMetadata) {
+        final Map<Field<?>, Object> columnValues = new HashMap<Field<?>, Object>();
+        for (final Map.Entry<String, TableField<BraintreeResponsesRecord, String>> promotedField : PROMOTED_FIELDS.entrySet()) {
+            if (additionalMetadata.containsKey(promotedField.getKey())) {
+                columnValues.put(promotedField.getValue(), toColumnValue(promotedField.getValue(), additionalMetadata.get(promotedField.getKey())));
+            }
+        }
+        return columnValues;
+    }
+
+    private static String toColumnValue(final TableField<BraintreeResponsesRecord, String> column, @Nullable final Object value) {
+        if (value == null) {
+            return null;
+        }
+        final String string = value.toString();
+        final int maxLength = column.getDataType().length();
+        return maxLength > 0 && string.length() > maxLength ? string.substring(0, maxLength) : string;
+    }
+
+    private String serialize(@Nullable final Map additionalDataMap) {
+        final String additionalData;
+        final Timer.Context context = JSON_SERIALIZATION_TIMER.time();
+        try {
+            additionalData = asString(additionalDataMap);
+        } finally {
+            context.stop();
+        }
+        if (additionalData != null) {
+            JSON_SERIALIZED_LENGTH.update(additionalData.length());
+        }
+        return additionalData;
+    }
 
     public static Map mapFromAdditionalDataString(@Nullable final String additionalData) {
         if (additionalData == null) {
             return ImmutableMap.of();
         }
 
+        JSON_DESERIALIZED_LENGTH.update(additionalData.length());
+        final Timer.Context context = JSON_DESERIALIZATION_TIMER.time();
         try {
             return objectMapper.readValue(additionalData, Map.class);
         } catch (final IOException e) {
             throw new RuntimeException(e);
+        } finally {
+            context.stop();
         }
     }
 
+    /**
+     * @return the SHA-256 of the additional data, independent of the map iteration order, to detect payment methods
+     * which didn't change in Braintree (see additional_data_hash)
+     */
+    public static String hashAdditionalDataMap(@Nullable final Map<String, Object> additionalData) {
+        final String serialized = stringFromAdditionalDataMap(additionalData == null ? null : new TreeMap<String, Object>(additionalData));
+        return Hashing.sha256().hashString(MoreObjects.firstNonNull(serialized, ""), StandardCharsets.UTF_8).toString();
+    }
+
     public static String stringFromAdditionalDataMap(@Nullable final Map<String, Object> additionalData) {
         if (additionalData == null || additionalData.isEmpty()) {
             return null;
         }
 
+        final Timer.Context context = JSON_SERIALIZATION_TIMER.time();
         try {
-            return objectMapper.writeValueAsString(additionalData);
+            final String serialized = objectMapper.writeValueAsString(additionalData);
+            JSON_SERIALIZED_LENGTH.update(serialized.length());
+            return serialized;
         } catch (final IOException e) {
             throw new RuntimeException(e);
+        } finally {
+            context.stop();
         }
     }
 
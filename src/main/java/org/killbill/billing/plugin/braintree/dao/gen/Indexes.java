@@ -20,6 +20,7 @@ package org.killbill.billing.plugin.braintree.dao.gen;
 import org.jooq.Index;
 import org.jooq.OrderField;
 import org.jooq.impl.Internal;
+import org.killbill.billing.plugin.braintree.dao.gen.tables.BraintreeNotifications;
 import org.killbill.billing.plugin.braintree.dao.gen.tables.BraintreePaymentMethods;
 import org.killbill.billing.plugin.braintree.dao.gen.tables.BraintreeResponses;
 
@@ -34,19 +35,25 @@ public class Indexes {
     // INDEX definitions
     // -------------------------------------------------------------------------
 
+    public static final Index BRAINTREE_NOTIFICATIONS_BRAINTREE_NOTIFICATIONS_PROCESSED = Indexes0.BRAINTREE_NOTIFICATIONS_BRAINTREE_NOTIFICATIONS_PROCESSED;
     public static final Index BRAINTREE_PAYMENT_METHODS_BRAINTREE_PAYMENT_METHODS_BRAINTREE_ID = Indexes0.BRAINTREE_PAYMENT_METHODS_BRAINTREE_PAYMENT_METHODS_BRAINTREE_ID;
-    public static final Index BRAINTREE_RESPONSES_BRAINTREE_RESPONSES_BRAINTREE_ID = Indexes0.BRAINTREE_RESPONSES_BRAINTREE_RESPONSES_BRAINTREE_ID;
-    public static final Index BRAINTREE_RESPONSES_BRAINTREE_RESPONSES_KB_PAYMENT_ID = Indexes0.BRAINTREE_RESPONSES_BRAINTREE_RESPONSES_KB_PAYMENT_ID;
-    public static final Index BRAINTREE_RESPONSES_BRAINTREE_RESPONSES_KB_PAYMENT_TRANSACTION_ID = Indexes0.BRAINTREE_RESPONSES_BRAINTREE_RESPONSES_KB_PAYMENT_TRANSACTION_ID;
+    public static final Index BRAINTREE_PAYMENT_METHODS_BRAINTREE_PAYMENT_METHODS_KB_ACCOUNT_ID_KB_TENANT_ID = Indexes0.BRAINTREE_PAYMENT_METHODS_BRAINTREE_PAYMENT_METHODS_KB_ACCOUNT_ID_KB_TENANT_ID;
+    public static final Index BRAINTREE_RESPONSES_BRAINTREE_RESPONSES_BRAINTREE_ID_KB_TENANT_ID = Indexes0.BRAINTREE_RESPONSES_BRAINTREE_RESPONSES_BRAINTREE_ID_KB_TENANT_ID;
+    public static final Index BRAINTREE_RESPONSES_BRAINTREE_RESPONSES_BT_TRANSACTION_STATUS = Indexes0.BRAINTREE_RESPONSES_BRAINTREE_RESPONSES_BT_TRANSACTION_STATUS;
+    public static final Index BRAINTREE_RESPONSES_BRAINTREE_RESPONSES_KB_PAYMENT_ID_KB_TENANT_ID = Indexes0.BRAINTREE_RESPONSES_BRAINTREE_RESPONSES_KB_PAYMENT_ID_KB_TENANT_ID;
+    public static final Index BRAINTREE_RESPONSES_BRAINTREE_RESPONSES_KB_PAYMENT_TRANSACTION_ID_KB_TENANT_ID = Indexes0.BRAINTREE_RESPONSES_BRAINTREE_RESPONSES_KB_PAYMENT_TRANSACTION_ID_KB_TENANT_ID;
 
     // -------------------------------------------------------------------------
     // [#1459] distribute members to avoid static initialisers > 64kb
     // -------------------------------------------------------------------------
 
     private static class Indexes0 {
+        public static Index BRAINTREE_NOTIFICATIONS_BRAINTREE_NOTIFICATIONS_PROCESSED = Internal.createIndex("braintree_notifications_processed", BraintreeNotifications.BRAINTREE_NOTIFICATIONS, new OrderField[] { BraintreeNotifications.BRAINTREE_NOTIFICATIONS.PROCESSED, BraintreeNotifications.BRAINTREE_NOTIFICATIONS.RECORD_ID }, false);
         public static Index BRAINTREE_PAYMENT_METHODS_BRAINTREE_PAYMENT_METHODS_BRAINTREE_ID = Internal.createIndex("braintree_payment_methods_braintree_id", BraintreePaymentMethods.BRAINTREE_PAYMENT_METHODS, new OrderField[] { BraintreePaymentMethods.BRAINTREE_PAYMENT_METHODS.BRAINTREE_ID }, false);
-        public static Index BRAINTREE_RESPONSES_BRAINTREE_RESPONSES_BRAINTREE_ID = Internal.createIndex("braintree_responses_braintree_id", BraintreeResponses.BRAINTREE_RESPONSES, new OrderField[] { BraintreeResponses.BRAINTREE_RESPONSES.BRAINTREE_ID }, false);
-        public static Index BRAINTREE_RESPONSES_BRAINTREE_RESPONSES_KB_PAYMENT_ID = Internal.createIndex("braintree_responses_kb_payment_id", BraintreeResponses.BRAINTREE_RESPONSES, new OrderField[] { BraintreeResponses.BRAINTREE_RESPONSES.KB_PAYMENT_ID }, false);
-        public static Index BRAINTREE_RESPONSES_BRAINTREE_RESPONSES_KB_PAYMENT_TRANSACTION_ID = Internal.createIndex("braintree_responses_kb_payment_transaction_id", BraintreeResponses.BRAINTREE_RESPONSES, new OrderField[] { BraintreeResponses.BRAINTREE_RESPONSES.KB_PAYMENT_TRANSACTION_ID }, false);
+        public static Index BRAINTREE_PAYMENT_METHODS_BRAINTREE_PAYMENT_METHODS_KB_ACCOUNT_ID_KB_TENANT_ID = Internal.createIndex("braintree_payment_methods_kb_account_id_kb_tenant_id", BraintreePaymentMethods.BRAINTREE_PAYMENT_METHODS, new OrderField[] { BraintreePaymentMethods.BRAINTREE_PAYMENT_METHODS.KB_ACCOUNT_ID, BraintreePaymentMethods.BRAINTREE_PAYMENT_METHODS.KB_TENANT_ID, BraintreePaymentMethods.BRAINTREE_PAYMENT_METHODS.IS_DELETED }, false);
+        public static Index BRAINTREE_RESPONSES_BRAINTREE_RESPONSES_BRAINTREE_ID_KB_TENANT_ID = Internal.createIndex("braintree_responses_braintree_id_kb_tenant_id", BraintreeResponses.BRAINTREE_RESPONSES, new OrderField[] { BraintreeResponses.BRAINTREE_RESPONSES.BRAINTREE_ID, BraintreeResponses.BRAINTREE_RESPONSES.KB_TENANT_ID }, false);
+        public static Index BRAINTREE_RESPONSES_BRAINTREE_RESPONSES_BT_TRANSACTION_STATUS = Internal.createIndex("braintree_responses_bt_transaction_status", BraintreeResponses.BRAINTREE_RESPONSES, new OrderField[] { BraintreeResponses.BRAINTREE_RESPONSES.BT_TRANSACTION_STATUS, BraintreeResponses.BRAINTREE_RESPONSES.CREATED_DATE }, false);
+        public static Index BRAINTREE_RESPONSES_BRAINTREE_RESPONSES_KB_PAYMENT_ID_KB_TENANT_ID = Internal.createIndex("braintree_responses_kb_payment_id_kb_tenant_id", BraintreeResponses.BRAINTREE_RESPONSES, new OrderField[] { BraintreeResponses.BRAINTREE_RESPONSES.KB_PAYMENT_ID, BraintreeResponses.BRAINTREE_RESPONSES.KB_TENANT_ID, BraintreeResponses.BRAINTREE_RESPONSES.TRANSACTION_TYPE }, false);
+        public static Index BRAINTREE_RESPONSES_BRAINTREE_RESPONSES_KB_PAYMENT_TRANSACTION_ID_KB_TENANT_ID = Internal.createIndex("braintree_responses_kb_payment_transaction_id_kb_tenant_id", BraintreeResponses.BRAINTREE_RESPONSES, new OrderField[] { BraintreeResponses.BRAINTREE_RESPONSES.KB_PAYMENT_TRANSACTION_ID, BraintreeResponses.BRAINTREE_RESPONSES.KB_TENANT_ID }, false);
     }
 }
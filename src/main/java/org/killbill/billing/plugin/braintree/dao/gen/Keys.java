@@ -22,8 +22,10 @@ import org.jooq.TableField;
 import org.jooq.UniqueKey;
 import org.jooq.impl.Internal;
 import org.jooq.types.ULong;
+import org.killbill.billing.plugin.braintree.dao.gen.tables.BraintreeNotifications;
 import org.killbill.billing.plugin.braintree.dao.gen.tables.BraintreePaymentMethods;
 import org.killbill.billing.plugin.braintree.dao.gen.tables.BraintreeResponses;
+import org.killbill.billing.plugin.braintree.dao.gen.tables.records.BraintreeNotificationsRecord;
 import org.killbill.billing.plugin.braintree.dao.gen.tables.records.BraintreePaymentMethodsRecord;
 import org.killbill.billing.plugin.braintree.dao.gen.tables.records.BraintreeResponsesRecord;
 
@@ -39,6 +41,7 @@ public class Keys {
     // IDENTITY definitions
     // -------------------------------------------------------------------------
 
+    public static final Identity<BraintreeNotificationsRecord, ULong> IDENTITY_BRAINTREE_NOTIFICATIONS = Identities0.IDENTITY_BRAINTREE_NOTIFICATIONS;
     public static final Identity<BraintreePaymentMethodsRecord, ULong> IDENTITY_BRAINTREE_PAYMENT_METHODS = Identities0.IDENTITY_BRAINTREE_PAYMENT_METHODS;
     public static final Identity<BraintreeResponsesRecord, ULong> IDENTITY_BRAINTREE_RESPONSES = Identities0.IDENTITY_BRAINTREE_RESPONSES;
 
@@ -46,6 +49,9 @@ public class Keys {
     // UNIQUE and PRIMARY KEY definitions
     // -------------------------------------------------------------------------
 
+    public static final UniqueKey<BraintreeNotificationsRecord> KEY_BRAINTREE_NOTIFICATIONS_PRIMARY = UniqueKeys0.KEY_BRAINTREE_NOTIFICATIONS_PRIMARY;
+    public static final UniqueKey<BraintreeNotificationsRecord> KEY_BRAINTREE_NOTIFICATIONS_RECORD_ID = UniqueKeys0.KEY_BRAINTREE_NOTIFICATIONS_RECORD_ID;
+    public static final UniqueKey<BraintreeNotificationsRecord> KEY_BRAINTREE_NOTIFICATIONS_BRAINTREE_NOTIFICATIONS_NOTIFICATION_ID = UniqueKeys0.KEY_BRAINTREE_NOTIFICATIONS_BRAINTREE_NOTIFICATIONS_NOTIFICATION_ID;
     public static final UniqueKey<BraintreePaymentMethodsRecord> KEY_BRAINTREE_PAYMENT_METHODS_PRIMARY = UniqueKeys0.KEY_BRAINTREE_PAYMENT_METHODS_PRIMARY;
     public static final UniqueKey<BraintreePaymentMethodsRecord> KEY_BRAINTREE_PAYMENT_METHODS_RECORD_ID = UniqueKeys0.KEY_BRAINTREE_PAYMENT_METHODS_RECORD_ID;
     public static final UniqueKey<BraintreePaymentMethodsRecord> KEY_BRAINTREE_PAYMENT_METHODS_BRAINTREE_PAYMENT_METHODS_KB_PAYMENT_ID = UniqueKeys0.KEY_BRAINTREE_PAYMENT_METHODS_BRAINTREE_PAYMENT_METHODS_KB_PAYMENT_ID;
@@ -62,11 +68,15 @@ public class Keys {
     // -------------------------------------------------------------------------
 
     private static class Identities0 {
+        public static Identity<BraintreeNotificationsRecord, ULong> IDENTITY_BRAINTREE_NOTIFICATIONS = Internal.createIdentity(BraintreeNotifications.BRAINTREE_NOTIFICATIONS, BraintreeNotifications.BRAINTREE_NOTIFICATIONS.RECORD_ID);
         public static Identity<BraintreePaymentMethodsRecord, ULong> IDENTITY_BRAINTREE_PAYMENT_METHODS = Internal.createIdentity(BraintreePaymentMethods.BRAINTREE_PAYMENT_METHODS, BraintreePaymentMethods.BRAINTREE_PAYMENT_METHODS.RECORD_ID);
         public static Identity<BraintreeResponsesRecord, ULong> IDENTITY_BRAINTREE_RESPONSES = Internal.createIdentity(BraintreeResponses.BRAINTREE_RESPONSES, BraintreeResponses.BRAINTREE_RESPONSES.RECORD_ID);
     }
 
     private static class UniqueKeys0 {
+        public static final UniqueKey<BraintreeNotificationsRecord> KEY_BRAINTREE_NOTIFICATIONS_PRIMARY = Internal.createUniqueKey(BraintreeNotifications.BRAINTREE_NOTIFICATIONS, "KEY_braintree_notifications_PRIMARY", new TableField[] { BraintreeNotifications.BRAINTREE_NOTIFICATIONS.RECORD_ID }, true);
+        public static final UniqueKey<BraintreeNotificationsRecord> KEY_BRAINTREE_NOTIFICATIONS_RECORD_ID = Internal.createUniqueKey(BraintreeNotifications.BRAINTREE_NOTIFICATIONS, "KEY_braintree_notifications_record_id", new TableField[] { BraintreeNotifications.BRAINTREE_NOTIFICATIONS.RECORD_ID }, true);
+        public static final UniqueKey<BraintreeNotificationsRecord> KEY_BRAINTREE_NOTIFICATIONS_BRAINTREE_NOTIFICATIONS_NOTIFICATION_ID = Internal.createUniqueKey(BraintreeNotifications.BRAINTREE_NOTIFICATIONS, "KEY_braintree_notifications_braintree_notifications_notification_id", new TableField[] { BraintreeNotifications.BRAINTREE_NOTIFICATIONS.NOTIFICATION_ID, BraintreeNotifications.BRAINTREE_NOTIFICATIONS.KB_TENANT_ID }, true);
         public static final UniqueKey<BraintreePaymentMethodsRecord> KEY_BRAINTREE_PAYMENT_METHODS_PRIMARY = Internal.createUniqueKey(BraintreePaymentMethods.BRAINTREE_PAYMENT_METHODS, "KEY_braintree_payment_methods_PRIMARY", new TableField[] { BraintreePaymentMethods.BRAINTREE_PAYMENT_METHODS.RECORD_ID }, true);
         public static final UniqueKey<BraintreePaymentMethodsRecord> KEY_BRAINTREE_PAYMENT_METHODS_RECORD_ID = Internal.createUniqueKey(BraintreePaymentMethods.BRAINTREE_PAYMENT_METHODS, "KEY_braintree_payment_methods_record_id", new TableField[] { BraintreePaymentMethods.BRAINTREE_PAYMENT_METHODS.RECORD_ID }, true);
         public static final UniqueKey<BraintreePaymentMethodsRecord> KEY_BRAINTREE_PAYMENT_METHODS_BRAINTREE_PAYMENT_METHODS_KB_PAYMENT_ID = Internal.createUniqueKey(BraintreePaymentMethods.BRAINTREE_PAYMENT_METHODS, "KEY_braintree_payment_methods_braintree_payment_methods_kb_payment_id", new TableField[] { BraintreePaymentMethods.BRAINTREE_PAYMENT_METHODS.KB_PAYMENT_METHOD_ID }, true);
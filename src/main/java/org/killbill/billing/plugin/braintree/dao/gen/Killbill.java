@@ -23,6 +23,7 @@ import java.util.List;
 import org.jooq.Catalog;
 import org.jooq.Table;
 import org.jooq.impl.SchemaImpl;
+import org.killbill.billing.plugin.braintree.dao.gen.tables.BraintreeNotifications;
 import org.killbill.billing.plugin.braintree.dao.gen.tables.BraintreePaymentMethods;
 import org.killbill.billing.plugin.braintree.dao.gen.tables.BraintreeResponses;
 
@@ -40,6 +41,11 @@ public class Killbill extends SchemaImpl {
      */
     public static final Killbill KILLBILL = new Killbill();
 
+    /**
+     * The table <code>killbill.braintree_notifications</code>.
+     */
+    public final BraintreeNotifications BRAINTREE_NOTIFICATIONS = BraintreeNotifications.BRAINTREE_NOTIFICATIONS;
+
     /**
      * The table <code>killbill.braintree_payment_methods</code>.
      */
@@ -66,6 +72,7 @@ public class Killbill extends SchemaImpl {
     @Override
     public final List<Table<?>> getTables() {
         return Arrays.<Table<?>>asList(
+            BraintreeNotifications.BRAINTREE_NOTIFICATIONS,
             BraintreePaymentMethods.BRAINTREE_PAYMENT_METHODS,
             BraintreeResponses.BRAINTREE_RESPONSES);
     }
@@ -17,6 +17,7 @@
 package org.killbill.billing.plugin.braintree.dao.gen;
 
 
+import org.killbill.billing.plugin.braintree.dao.gen.tables.BraintreeNotifications;
 import org.killbill.billing.plugin.braintree.dao.gen.tables.BraintreePaymentMethods;
 import org.killbill.billing.plugin.braintree.dao.gen.tables.BraintreeResponses;
 
@@ -27,6 +28,11 @@ import org.killbill.billing.plugin.braintree.dao.gen.tables.BraintreeResponses;
 @SuppressWarnings({ "all", "unchecked", "rawtypes" })
 public class Tables {
 
+    /**
+     * The table <code>killbill.braintree_notifications</code>.
+     */
+    public static final BraintreeNotifications BRAINTREE_NOTIFICATIONS = BraintreeNotifications.BRAINTREE_NOTIFICATIONS;
+
     /**
      * The table <code>killbill.braintree_payment_methods</code>.
      */
@@ -27,7 +27,7 @@ import org.jooq.Identity;
 import org.jooq.Index;
 import org.jooq.Name;
 import org.jooq.Record;
-import org.jooq.Row10;
+import org.jooq.Row11;
 import org.jooq.Schema;
 import org.jooq.Table;
 import org.jooq.TableField;
@@ -98,6 +98,11 @@ public class BraintreePaymentMethods extends TableImpl<BraintreePaymentMethodsRe
      */
     public final TableField<BraintreePaymentMethodsRecord, String> ADDITIONAL_DATA = createField(DSL.name("additional_data"), org.jooq.impl.SQLDataType.CLOB.defaultValue(org.jooq.impl.DSL.inline("NULL", org.jooq.impl.SQLDataType.CLOB)), this, "");
 
+    /**
+     * The column <code>killbill.braintree_payment_methods.additional_data_hash</code>.
+     */
+    public final TableField<BraintreePaymentMethodsRecord, String> ADDITIONAL_DATA_HASH = createField(DSL.name("additional_data_hash"), org.jooq.impl.SQLDataType.CHAR(64).defaultValue(org.jooq.impl.DSL.inline("NULL", org.jooq.impl.SQLDataType.CHAR)), this, "");
+
     /**
      * The column <code>killbill.braintree_payment_methods.created_date</code>.
      */
@@ -153,7 +158,7 @@ public class BraintreePaymentMethods extends TableImpl<BraintreePaymentMethodsRe
 
     @Override
     public List<Index> getIndexes() {
-        return Arrays.<Index>asList(Indexes.BRAINTREE_PAYMENT_METHODS_BRAINTREE_PAYMENT_METHODS_BRAINTREE_ID);
+        return Arrays.<Index>asList(Indexes.BRAINTREE_PAYMENT_METHODS_BRAINTREE_PAYMENT_METHODS_BRAINTREE_ID, Indexes.BRAINTREE_PAYMENT_METHODS_BRAINTREE_PAYMENT_METHODS_KB_ACCOUNT_ID_KB_TENANT_ID);
     }
 
     @Override
@@ -198,11 +203,11 @@ public class BraintreePaymentMethods extends TableImpl<BraintreePaymentMethodsRe
     }
 
     // -------------------------------------------------------------------------
-    // Row10 type methods
+    // Row11 type methods
     // -------------------------------------------------------------------------
 
     @Override
-    public Row10<ULong, String, String, String, Short, Short, String, LocalDateTime, LocalDateTime, String> fieldsRow() {
-        return (Row10) super.fieldsRow();
+    public Row11<ULong, String, String, String, Short, Short, String, String, LocalDateTime, LocalDateTime, String> fieldsRow() {
+        return (Row11) super.fieldsRow();
     }
 }
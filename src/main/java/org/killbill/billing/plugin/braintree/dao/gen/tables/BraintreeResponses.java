@@ -28,7 +28,7 @@ import org.jooq.Identity;
 import org.jooq.Index;
 import org.jooq.Name;
 import org.jooq.Record;
-import org.jooq.Row11;
+import org.jooq.Row17;
 import org.jooq.Schema;
 import org.jooq.Table;
 import org.jooq.TableField;
@@ -104,6 +104,36 @@ public class BraintreeResponses extends TableImpl<BraintreeResponsesRecord> {
      */
     public final TableField<BraintreeResponsesRecord, String> BRAINTREE_ID = createField(DSL.name("braintree_id"), org.jooq.impl.SQLDataType.VARCHAR(255).nullable(false), this, "");
 
+    /**
+     * The column <code>killbill.braintree_responses.bt_transaction_status</code>.
+     */
+    public final TableField<BraintreeResponsesRecord, String> BT_TRANSACTION_STATUS = createField(DSL.name("bt_transaction_status"), org.jooq.impl.SQLDataType.VARCHAR(32).defaultValue(org.jooq.impl.DSL.inline("NULL", org.jooq.impl.SQLDataType.VARCHAR)), this, "");
+
+    /**
+     * The column <code>killbill.braintree_responses.bt_payment_instrument_type</code>.
+     */
+    public final TableField<BraintreeResponsesRecord, String> BT_PAYMENT_INSTRUMENT_TYPE = createField(DSL.name("bt_payment_instrument_type"), org.jooq.impl.SQLDataType.VARCHAR(64).defaultValue(org.jooq.impl.DSL.inline("NULL", org.jooq.impl.SQLDataType.VARCHAR)), this, "");
+
+    /**
+     * The column <code>killbill.braintree_responses.bt_gateway_error_message</code>.
+     */
+    public final TableField<BraintreeResponsesRecord, String> BT_GATEWAY_ERROR_MESSAGE = createField(DSL.name("bt_gateway_error_message"), org.jooq.impl.SQLDataType.VARCHAR(1024).defaultValue(org.jooq.impl.DSL.inline("NULL", org.jooq.impl.SQLDataType.VARCHAR)), this, "");
+
+    /**
+     * The column <code>killbill.braintree_responses.bt_gateway_error_code</code>.
+     */
+    public final TableField<BraintreeResponsesRecord, String> BT_GATEWAY_ERROR_CODE = createField(DSL.name("bt_gateway_error_code"), org.jooq.impl.SQLDataType.VARCHAR(64).defaultValue(org.jooq.impl.DSL.inline("NULL", org.jooq.impl.SQLDataType.VARCHAR)), this, "");
+
+    /**
+     * The column <code>killbill.braintree_responses.bt_second_payment_reference_id</code>.
+     */
+    public final TableField<BraintreeResponsesRecord, String> BT_SECOND_PAYMENT_REFERENCE_ID = createField(DSL.name("bt_second_payment_reference_id"), org.jooq.impl.SQLDataType.VARCHAR(255).defaultValue(org.jooq.impl.DSL.inline("NULL", org.jooq.impl.SQLDataType.VARCHAR)), this, "");
+
+    /**
+     * The column <code>killbill.braintree_responses.overridden_transaction_status</code>.
+     */
+    public final TableField<BraintreeResponsesRecord, String> OVERRIDDEN_TRANSACTION_STATUS = createField(DSL.name("overridden_transaction_status"), org.jooq.impl.SQLDataType.VARCHAR(32).defaultValue(org.jooq.impl.DSL.inline("NULL", org.jooq.impl.SQLDataType.VARCHAR)), this, "");
+
     /**
      * The column <code>killbill.braintree_responses.additional_data</code>.
      */
@@ -159,7 +189,7 @@ public class BraintreeResponses extends TableImpl<BraintreeResponsesRecord> {
 
     @Override
     public List<Index> getIndexes() {
-        return Arrays.<Index>asList(Indexes.BRAINTREE_RESPONSES_BRAINTREE_RESPONSES_BRAINTREE_ID, Indexes.BRAINTREE_RESPONSES_BRAINTREE_RESPONSES_KB_PAYMENT_ID, Indexes.BRAINTREE_RESPONSES_BRAINTREE_RESPONSES_KB_PAYMENT_TRANSACTION_ID);
+        return Arrays.<Index>asList(Indexes.BRAINTREE_RESPONSES_BRAINTREE_RESPONSES_BRAINTREE_ID_KB_TENANT_ID, Indexes.BRAINTREE_RESPONSES_BRAINTREE_RESPONSES_BT_TRANSACTION_STATUS, Indexes.BRAINTREE_RESPONSES_BRAINTREE_RESPONSES_KB_PAYMENT_ID_KB_TENANT_ID, Indexes.BRAINTREE_RESPONSES_BRAINTREE_RESPONSES_KB_PAYMENT_TRANSACTION_ID_KB_TENANT_ID);
     }
 
     @Override
@@ -204,11 +234,11 @@ public class BraintreeResponses extends TableImpl<BraintreeResponsesRecord> {
     }
 
     // -------------------------------------------------------------------------
-    // Row11 type methods
+    // Row17 type methods
     // -------------------------------------------------------------------------
 
     @Override
-    public Row11<ULong, String, String, String, String, BigDecimal, String, String, String, LocalDateTime, String> fieldsRow() {
-        return (Row11) super.fieldsRow();
+    public Row17<ULong, String, String, String, String, BigDecimal, String, String, String, String, String, String, String, String, String, LocalDateTime, String> fieldsRow() {
+        return (Row17) super.fieldsRow();
     }
 }
@@ -21,8 +21,8 @@ import java.time.LocalDateTime;
 
 import org.jooq.Field;
 import org.jooq.Record1;
-import org.jooq.Record10;
-import org.jooq.Row10;
+import org.jooq.Record11;
+import org.jooq.Row11;
 import org.jooq.impl.UpdatableRecordImpl;
 import org.jooq.types.ULong;
 import org.killbill.billing.plugin.braintree.dao.gen.tables.BraintreePaymentMethods;
@@ -32,7 +32,7 @@ import org.killbill.billing.plugin.braintree.dao.gen.tables.BraintreePaymentMeth
  * This class is generated by jOOQ.
  */
 @SuppressWarnings({ "all", "unchecked", "rawtypes" })
-public class BraintreePaymentMethodsRecord extends UpdatableRecordImpl<BraintreePaymentMethodsRecord> implements Record10<ULong, String, String, String, Short, Short, String, LocalDateTime, LocalDateTime, String> {
+public class BraintreePaymentMethodsRecord extends UpdatableRecordImpl<BraintreePaymentMethodsRecord> implements Record11<ULong, String, String, String, Short, Short, String, String, LocalDateTime, LocalDateTime, String> {
 
     private static final long serialVersionUID = -2040246654;
 
@@ -134,46 +134,60 @@ public class BraintreePaymentMethodsRecord extends UpdatableRecordImpl<Braintree
         return (String) get(6);
     }
 
+    /**
+     * Setter for <code>killbill.braintree_payment_methods.additional_data_hash</code>.
+     */
+    public void setAdditionalDataHash(String value) {
+        set(7, value);
+    }
+
+    /**
+     * Getter for <code>killbill.braintree_payment_methods.additional_data_hash</code>.
+     */
+    public String getAdditionalDataHash() {
+        return (String) get(7);
+    }
+
     /**
      * Setter for <code>killbill.braintree_payment_methods.created_date</code>.
      */
     public void setCreatedDate(LocalDateTime value) {
-        set(7, value);
+        set(8, value);
     }
 
     /**
      * Getter for <code>killbill.braintree_payment_methods.created_date</code>.
      */
     public LocalDateTime getCreatedDate() {
-        return (LocalDateTime) get(7);
+        return (LocalDateTime) get(8);
     }
 
     /**
      * Setter for <code>killbill.braintree_payment_methods.updated_date</code>.
      */
     public void setUpdatedDate(LocalDateTime value) {
-        set(8, value);
+        set(9, value);
     }
 
     /**
      * Getter for <code>killbill.braintree_payment_methods.updated_date</code>.
      */
     public LocalDateTime getUpdatedDate() {
-        return (LocalDateTime) get(8);
+        return (LocalDateTime) get(9);
     }
 
     /**
      * Setter for <code>killbill.braintree_payment_methods.kb_tenant_id</code>.
      */
     public void setKbTenantId(String value) {
-        set(9, value);
+        set(10, value);
     }
 
     /**
      * Getter for <code>killbill.braintree_payment_methods.kb_tenant_id</code>.
      */
     public String getKbTenantId() {
-        return (String) get(9);
+        return (String) get(10);
     }
 
     // -------------------------------------------------------------------------
@@ -186,17 +200,17 @@ public class BraintreePaymentMethodsRecord extends UpdatableRecordImpl<Braintree
     }
 
     // -------------------------------------------------------------------------
-    // Record10 type implementation
+    // Record11 type implementation
     // -------------------------------------------------------------------------
 
     @Override
-    public Row10<ULong, String, String, String, Short, Short, String, LocalDateTime, LocalDateTime, String> fieldsRow() {
-        return (Row10) super.fieldsRow();
+    public Row11<ULong, String, String, String, Short, Short, String, String, LocalDateTime, LocalDateTime, String> fieldsRow() {
+        return (Row11) super.fieldsRow();
     }
 
     @Override
-    public Row10<ULong, String, String, String, Short, Short, String, LocalDateTime, LocalDateTime, String> valuesRow() {
-        return (Row10) super.valuesRow();
+    public Row11<ULong, String, String, String, Short, Short, String, String, LocalDateTime, LocalDateTime, String> valuesRow() {
+        return (Row11) super.valuesRow();
     }
 
     @Override
@@ -235,17 +249,22 @@ public class BraintreePaymentMethodsRecord extends UpdatableRecordImpl<Braintree
     }
 
     @Override
-    public Field<LocalDateTime> field8() {
-        return BraintreePaymentMethods.BRAINTREE_PAYMENT_METHODS.CREATED_DATE;
+    public Field<String> field8() {
+        return BraintreePaymentMethods.BRAINTREE_PAYMENT_METHODS.ADDITIONAL_DATA_HASH;
     }
 
     @Override
     public Field<LocalDateTime> field9() {
+        return BraintreePaymentMethods.BRAINTREE_PAYMENT_METHODS.CREATED_DATE;
+    }
+
+    @Override
+    public Field<LocalDateTime> field10() {
         return BraintreePaymentMethods.BRAINTREE_PAYMENT_METHODS.UPDATED_DATE;
     }
 
     @Override
-    public Field<String> field10() {
+    public Field<String> field11() {
         return BraintreePaymentMethods.BRAINTREE_PAYMENT_METHODS.KB_TENANT_ID;
     }
 
@@ -285,17 +304,22 @@ public class BraintreePaymentMethodsRecord extends UpdatableRecordImpl<Braintree
     }
 
     @Override
-    public LocalDateTime component8() {
-        return getCreatedDate();
+    public String component8() {
+        return getAdditionalDataHash();
     }
 
     @Override
     public LocalDateTime component9() {
+        return getCreatedDate();
+    }
+
+    @Override
+    public LocalDateTime component10() {
         return getUpdatedDate();
     }
 
     @Override
-    public String component10() {
+    public String component11() {
         return getKbTenantId();
     }
 
@@ -335,17 +359,22 @@ public class BraintreePaymentMethodsRecord extends UpdatableRecordImpl<Braintree
     }
 
     @Override
-    public LocalDateTime value8() {
-        return getCreatedDate();
+    public String value8() {
+        return getAdditionalDataHash();
     }
 
     @Override
     public LocalDateTime value9() {
+        return getCreatedDate();
+    }
+
+    @Override
+    public LocalDateTime value10() {
         return getUpdatedDate();
     }
 
     @Override
-    public String value10() {
+    public String value11() {
         return getKbTenantId();
     }
 
@@ -392,25 +421,31 @@ public class BraintreePaymentMethodsRecord extends UpdatableRecordImpl<Braintree
     }
 
     @Override
-    public BraintreePaymentMethodsRecord value8(LocalDateTime value) {
-        setCreatedDate(value);
+    public BraintreePaymentMethodsRecord value8(String value) {
+        setAdditionalDataHash(value);
         return this;
     }
 
     @Override
     public BraintreePaymentMethodsRecord value9(LocalDateTime value) {
+        setCreatedDate(value);
+        return this;
+    }
+
+    @Override
+    public BraintreePaymentMethodsRecord value10(LocalDateTime value) {
         setUpdatedDate(value);
         return this;
     }
 
     @Override
-    public BraintreePaymentMethodsRecord value10(String value) {
+    public BraintreePaymentMethodsRecord value11(String value) {
         setKbTenantId(value);
         return this;
     }
 
     @Override
-    public BraintreePaymentMethodsRecord values(ULong value1, String value2, String value3, String value4, Short value5, Short value6, String value7, LocalDateTime value8, LocalDateTime value9, String value10) {
+    public BraintreePaymentMethodsRecord values(ULong value1, String value2, String value3, String value4, Short value5, Short value6, String value7, String value8, LocalDateTime value9, LocalDateTime value10, String value11) {
         value1(value1);
         value2(value2);
         value3(value3);
@@ -421,6 +456,7 @@ public class BraintreePaymentMethodsRecord extends UpdatableRecordImpl<Braintree
         value8(value8);
         value9(value9);
         value10(value10);
+        value11(value11);
         return this;
     }
 
@@ -438,7 +474,7 @@ public class BraintreePaymentMethodsRecord extends UpdatableRecordImpl<Braintree
     /**
      * Create a detached, initialised BraintreePaymentMethodsRecord
      */
-    public BraintreePaymentMethodsRecord(ULong recordId, String kbAccountId, String kbPaymentMethodId, String braintreeId, Short isDefault, Short isDeleted, String additionalData, LocalDateTime createdDate, LocalDateTime updatedDate, String kbTenantId) {
+    public BraintreePaymentMethodsRecord(ULong recordId, String kbAccountId, String kbPaymentMethodId, String braintreeId, Short isDefault, Short isDeleted, String additionalData, String additionalDataHash, LocalDateTime createdDate, LocalDateTime updatedDate, String kbTenantId) {
         super(BraintreePaymentMethods.BRAINTREE_PAYMENT_METHODS);
 
         set(0, recordId);
@@ -448,8 +484,9 @@ public class BraintreePaymentMethodsRecord extends UpdatableRecordImpl<Braintree
         set(4, isDefault);
         set(5, isDeleted);
         set(6, additionalData);
-        set(7, createdDate);
-        set(8, updatedDate);
-        set(9, kbTenantId);
+        set(7, additionalDataHash);
+        set(8, createdDate);
+        set(9, updatedDate);
+        set(10, kbTenantId);
     }
 }
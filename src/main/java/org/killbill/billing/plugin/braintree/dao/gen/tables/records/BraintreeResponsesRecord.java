@@ -22,8 +22,8 @@ import java.time.LocalDateTime;
 
 import org.jooq.Field;
 import org.jooq.Record1;
-import org.jooq.Record11;
-import org.jooq.Row11;
+import org.jooq.Record17;
+import org.jooq.Row17;
 import org.jooq.impl.UpdatableRecordImpl;
 import org.jooq.types.ULong;
 import org.killbill.billing.plugin.braintree.dao.gen.tables.BraintreeResponses;
@@ -33,7 +33,7 @@ import org.killbill.billing.plugin.braintree.dao.gen.tables.BraintreeResponses;
  * This class is generated by jOOQ.
  */
 @SuppressWarnings({ "all", "unchecked", "rawtypes" })
-public class BraintreeResponsesRecord extends UpdatableRecordImpl<BraintreeResponsesRecord> implements Record11<ULong, String, String, String, String, BigDecimal, String, String, String, LocalDateTime, String> {
+public class BraintreeResponsesRecord extends UpdatableRecordImpl<BraintreeResponsesRecord> implements Record17<ULong, String, String, String, String, BigDecimal, String, String, String, String, String, String, String, String, String, LocalDateTime, String> {
 
     private static final long serialVersionUID = 1915510161;
 
@@ -149,46 +149,130 @@ public class BraintreeResponsesRecord extends UpdatableRecordImpl<BraintreeRespo
         return (String) get(7);
     }
 
+    /**
+     * Setter for <code>killbill.braintree_responses.bt_transaction_status</code>.
+     */
+    public void setBtTransactionStatus(String value) {
+        set(8, value);
+    }
+
+    /**
+     * Getter for <code>killbill.braintree_responses.bt_transaction_status</code>.
+     */
+    public String getBtTransactionStatus() {
+        return (String) get(8);
+    }
+
+    /**
+     * Setter for <code>killbill.braintree_responses.bt_payment_instrument_type</code>.
+     */
+    public void setBtPaymentInstrumentType(String value) {
+        set(9, value);
+    }
+
+    /**
+     * Getter for <code>killbill.braintree_responses.bt_payment_instrument_type</code>.
+     */
+    public String getBtPaymentInstrumentType() {
+        return (String) get(9);
+    }
+
+    /**
+     * Setter for <code>killbill.braintree_responses.bt_gateway_error_message</code>.
+     */
+    public void setBtGatewayErrorMessage(String value) {
+        set(10, value);
+    }
+
+    /**
+     * Getter for <code>killbill.braintree_responses.bt_gateway_error_message</code>.
+     */
+    public String getBtGatewayErrorMessage() {
+        return (String) get(10);
+    }
+
+    /**
+     * Setter for <code>killbill.braintree_responses.bt_gateway_error_code</code>.
+     */
+    public void setBtGatewayErrorCode(String value) {
+        set(11, value);
+    }
+
+    /**
+     * Getter for <code>killbill.braintree_responses.bt_gateway_error_code</code>.
+     */
+    public String getBtGatewayErrorCode() {
+        return (String) get(11);
+    }
+
+    /**
+     * Setter for <code>killbill.braintree_responses.bt_second_payment_reference_id</code>.
+     */
+    public void setBtSecondPaymentReferenceId(String value) {
+        set(12, value);
+    }
+
+    /**
+     * Getter for <code>killbill.braintree_responses.bt_second_payment_reference_id</code>.
+     */
+    public String getBtSecondPaymentReferenceId() {
+        return (String) get(12);
+    }
+
+    /**
+     * Setter for <code>killbill.braintree_responses.overridden_transaction_status</code>.
+     */
+    public void setOverriddenTransactionStatus(String value) {
+        set(13, value);
+    }
+
+    /**
+     * Getter for <code>killbill.braintree_responses.overridden_transaction_status</code>.
+     */
+    public String getOverriddenTransactionStatus() {
+        return (String) get(13);
+    }
+
     /**
      * Setter for <code>killbill.braintree_responses.additional_data</code>.
      */
     public void setAdditionalData(String value) {
-        set(8, value);
+        set(14, value);
     }
 
     /**
      * Getter for <code>killbill.braintree_responses.additional_data</code>.
      */
     public String getAdditionalData() {
-        return (String) get(8);
+        return (String) get(14);
     }
 
     /**
      * Setter for <code>killbill.braintree_responses.created_date</code>.
      */
     public void setCreatedDate(LocalDateTime value) {
-        set(9, value);
+        set(15, value);
     }
 
     /**
      * Getter for <code>killbill.braintree_responses.created_date</code>.
      */
     public LocalDateTime getCreatedDate() {
-        return (LocalDateTime) get(9);
+        return (LocalDateTime) get(15);
     }
 
     /**
      * Setter for <code>killbill.braintree_responses.kb_tenant_id</code>.
      */
     public void setKbTenantId(String value) {
-        set(10, value);
+        set(16, value);
     }
 
     /**
      * Getter for <code>killbill.braintree_responses.kb_tenant_id</code>.
      */
     public String getKbTenantId() {
-        return (String) get(10);
+        return (String) get(16);
     }
 
     // -------------------------------------------------------------------------
@@ -201,17 +285,17 @@ public class BraintreeResponsesRecord extends UpdatableRecordImpl<BraintreeRespo
     }
 
     // -------------------------------------------------------------------------
-    // Record11 type implementation
+    // Record17 type implementation
     // -------------------------------------------------------------------------
 
     @Override
-    public Row11<ULong, String, String, String, String, BigDecimal, String, String, String, LocalDateTime, String> fieldsRow() {
-        return (Row11) super.fieldsRow();
+    public Row17<ULong, String, String, String, String, BigDecimal, String, String, String, String, String, String, String, String, String, LocalDateTime, String> fieldsRow() {
+        return (Row17) super.fieldsRow();
     }
 
     @Override
-    public Row11<ULong, String, String, String, String, BigDecimal, String, String, String, LocalDateTime, String> valuesRow() {
-        return (Row11) super.valuesRow();
+    public Row17<ULong, String, String, String, String, BigDecimal, String, String, String, String, String, String, String, String, String, LocalDateTime, String> valuesRow() {
+        return (Row17) super.valuesRow();
     }
 
     @Override
@@ -256,16 +340,46 @@ public class BraintreeResponsesRecord extends UpdatableRecordImpl<BraintreeRespo
 
     @Override
     public Field<String> field9() {
+        return BraintreeResponses.BRAINTREE_RESPONSES.BT_TRANSACTION_STATUS;
+    }
+
+    @Override
+    public Field<String> field10() {
+        return BraintreeResponses.BRAINTREE_RESPONSES.BT_PAYMENT_INSTRUMENT_TYPE;
+    }
+
+    @Override
+    public Field<String> field11() {
+        return BraintreeResponses.BRAINTREE_RESPONSES.BT_GATEWAY_ERROR_MESSAGE;
+    }
+
+    @Override
+    public Field<String> field12() {
+        return BraintreeResponses.BRAINTREE_RESPONSES.BT_GATEWAY_ERROR_CODE;
+    }
+
+    @Override
+    public Field<String> field13() {
+        return BraintreeResponses.BRAINTREE_RESPONSES.BT_SECOND_PAYMENT_REFERENCE_ID;
+    }
+
+    @Override
+    public Field<String> field14() {
+        return BraintreeResponses.BRAINTREE_RESPONSES.OVERRIDDEN_TRANSACTION_STATUS;
+    }
+
+    @Override
+    public Field<String> field15() {
         return BraintreeResponses.BRAINTREE_RESPONSES.ADDITIONAL_DATA;
     }
 
     @Override
-    public Field<LocalDateTime> field10() {
+    public Field<LocalDateTime> field16() {
         return BraintreeResponses.BRAINTREE_RESPONSES.CREATED_DATE;
     }
 
     @Override
-    public Field<String> field11() {
+    public Field<String> field17() {
         return BraintreeResponses.BRAINTREE_RESPONSES.KB_TENANT_ID;
     }
 
@@ -311,16 +425,46 @@ public class BraintreeResponsesRecord extends UpdatableRecordImpl<BraintreeRespo
 
     @Override
     public String component9() {
+        return getBtTransactionStatus();
+    }
+
+    @Override
+    public String component10() {
+        return getBtPaymentInstrumentType();
+    }
+
+    @Override
+    public String component11() {
+        return getBtGatewayErrorMessage();
+    }
+
+    @Override
+    public String component12() {
+        return getBtGatewayErrorCode();
+    }
+
+    @Override
+    public String component13() {
+        return getBtSecondPaymentReferenceId();
+    }
+
+    @Override
+    public String component14() {
+        return getOverriddenTransactionStatus();
+    }
+
+    @Override
+    public String component15() {
         return getAdditionalData();
     }
 
     @Override
-    public LocalDateTime component10() {
+    public LocalDateTime component16() {
         return getCreatedDate();
     }
 
     @Override
-    public String component11() {
+    public String component17() {
         return getKbTenantId();
     }
 
@@ -366,16 +510,46 @@ public class BraintreeResponsesRecord extends UpdatableRecordImpl<BraintreeRespo
 
     @Override
     public String value9() {
+        return getBtTransactionStatus();
+    }
+
+    @Override
+    public String value10() {
+        return getBtPaymentInstrumentType();
+    }
+
+    @Override
+    public String value11() {
+        return getBtGatewayErrorMessage();
+    }
+
+    @Override
+    public String value12() {
+        return getBtGatewayErrorCode();
+    }
+
+    @Override
+    public String value13() {
+        return getBtSecondPaymentReferenceId();
+    }
+
+    @Override
+    public String value14() {
+        return getOverriddenTransactionStatus();
+    }
+
+    @Override
+    public String value15() {
         return getAdditionalData();
     }
 
     @Override
-    public LocalDateTime value10() {
+    public LocalDateTime value16() {
         return getCreatedDate();
     }
 
     @Override
-    public String value11() {
+    public String value17() {
         return getKbTenantId();
     }
 
@@ -429,24 +603,60 @@ public class BraintreeResponsesRecord extends UpdatableRecordImpl<BraintreeRespo
 
     @Override
     public BraintreeResponsesRecord value9(String value) {
+        setBtTransactionStatus(value);
+        return this;
+    }
+
+    @Override
+    public BraintreeResponsesRecord value10(String value) {
+        setBtPaymentInstrumentType(value);
+        return this;
+    }
+
+    @Override
+    public BraintreeResponsesRecord value11(String value) {
+        setBtGatewayErrorMessage(value);
+        return this;
+    }
+
+    @Override
+    public BraintreeResponsesRecord value12(String value) {
+        setBtGatewayErrorCode(value);
+        return this;
+    }
+
+    @Override
+    public BraintreeResponsesRecord value13(String value) {
+        setBtSecondPaymentReferenceId(value);
+        return this;
+    }
+
+    @Override
+    public BraintreeResponsesRecord value14(String value) {
+        setOverriddenTransactionStatus(value);
+        return this;
+    }
+
+    @Override
+    public BraintreeResponsesRecord value15(String value) {
         setAdditionalData(value);
         return this;
     }
 
     @Override
-    public BraintreeResponsesRecord value10(LocalDateTime value) {
+    public BraintreeResponsesRecord value16(LocalDateTime value) {
         setCreatedDate(value);
         return this;
     }
 
     @Override
-    public BraintreeResponsesRecord value11(String value) {
+    public BraintreeResponsesRecord value17(String value) {
         setKbTenantId(value);
         return this;
     }
 
     @Override
-    public BraintreeResponsesRecord values(ULong value1, String value2, String value3, String value4, String value5, BigDecimal value6, String value7, String value8, String value9, LocalDateTime value10, String value11) {
+    public BraintreeResponsesRecord values(ULong value1, String value2, String value3, String value4, String value5, BigDecimal value6, String value7, String value8, String value9, String value10, String value11, String value12, String value13, String value14, String value15, LocalDateTime value16, String value17) {
         value1(value1);
         value2(value2);
         value3(value3);
@@ -458,6 +668,12 @@ public class BraintreeResponsesRecord extends UpdatableRecordImpl<BraintreeRespo
         value9(value9);
         value10(value10);
         value11(value11);
+        value12(value12);
+        value13(value13);
+        value14(value14);
+        value15(value15);
+        value16(value16);
+        value17(value17);
         return this;
     }
 
@@ -475,7 +691,7 @@ public class BraintreeResponsesRecord extends UpdatableRecordImpl<BraintreeRespo
     /**
      * Create a detached, initialised BraintreeResponsesRecord
      */
-    public BraintreeResponsesRecord(ULong recordId, String kbAccountId, String kbPaymentId, String kbPaymentTransactionId, String transactionType, BigDecimal amount, String currency, String braintreeId, String additionalData, LocalDateTime createdDate, String kbTenantId) {
+    public BraintreeResponsesRecord(ULong recordId, String kbAccountId, String kbPaymentId, String kbPaymentTransactionId, String transactionType, BigDecimal amount, String currency, String braintreeId, String btTransactionStatus, String btPaymentInstrumentType, String btGatewayErrorMessage, String btGatewayErrorCode, String btSecondPaymentReferenceId, String overriddenTransactionStatus, String additionalData, LocalDateTime createdDate, String kbTenantId) {
         super(BraintreeResponses.BRAINTREE_RESPONSES);
 
         set(0, recordId);
@@ -486,8 +702,14 @@ public class BraintreeResponsesRecord extends UpdatableRecordImpl<BraintreeRespo
         set(5, amount);
         set(6, currency);
         set(7, braintreeId);
-        set(8, additionalData);
-        set(9, createdDate);
-        set(10, kbTenantId);
+        set(8, btTransactionStatus);
+        set(9, btPaymentInstrumentType);
+        set(10, btGatewayErrorMessage);
+        set(11, btGatewayErrorCode);
+        set(12, btSecondPaymentReferenceId);
+        set(13, overriddenTransactionStatus);
+        set(14, additionalData);
+        set(15, createdDate);
+        set(16, kbTenantId);
     }
 }
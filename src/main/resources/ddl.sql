@@ -26,14 +26,21 @@ create table braintree_responses (
 , amount numeric(15,9)
 , currency char(3)
 , braintree_id varchar(255) not null
+, bt_transaction_status varchar(32) default null
+, bt_payment_instrument_type varchar(64) default null
+, bt_gateway_error_message varchar(1024) default null
+, bt_gateway_error_code varchar(64) default null
+, bt_second_payment_reference_id varchar(255) default null
+, overridden_transaction_status varchar(32) default null
 , additional_data longtext default null
 , created_date datetime not null
 , kb_tenant_id char(36) not null
 , primary key(record_id)
 ) /*! CHARACTER SET utf8 COLLATE utf8_bin */;
-create index braintree_responses_kb_payment_id on braintree_responses(kb_payment_id);
-create index braintree_responses_kb_payment_transaction_id on braintree_responses(kb_payment_transaction_id);
-create index braintree_responses_braintree_id on braintree_responses(braintree_id);
+create index braintree_responses_kb_payment_id_kb_tenant_id on braintree_responses(kb_payment_id, kb_tenant_id, transaction_type);
+create index braintree_responses_kb_payment_transaction_id_kb_tenant_id on braintree_responses(kb_payment_transaction_id, kb_tenant_id);
+create index braintree_responses_braintree_id_kb_tenant_id on braintree_responses(braintree_id, kb_tenant_id);
+create index braintree_responses_bt_transaction_status on braintree_responses(bt_transaction_status, created_date);
 
 create table braintree_payment_methods (
   record_id serial
@@ -43,6 +50,7 @@ create table braintree_payment_methods (
 , is_default smallint not null default 0
 , is_deleted smallint not null default 0
 , additional_data longtext default null
+, additional_data_hash char(64) default null
 , created_date datetime not null
 , updated_date datetime not null
 , kb_tenant_id char(36) not null
@@ -50,3 +58,19 @@ create table braintree_payment_methods (
 ) /*! CHARACTER SET utf8 COLLATE utf8_bin */;
 create unique index braintree_payment_methods_kb_payment_id on braintree_payment_methods(kb_payment_method_id);
 create index braintree_payment_methods_braintree_id on braintree_payment_methods(braintree_id);
+create index braintree_payment_methods_kb_account_id_kb_tenant_id on braintree_payment_methods(kb_account_id, kb_tenant_id, is_deleted);
+
+create table braintree_notifications (
+  record_id serial
+, notification_id char(64) not null
+, kind varchar(64) not null
+, braintree_id varchar(255) default null
+, payload longtext not null
+, processed smallint not null default 0
+, created_date datetime not null
+, processed_date datetime default null
+, kb_tenant_id char(36) not null
+, primary key(record_id)
+) /*! CHARACTER SET utf8 COLLATE utf8_bin */;
+create unique index braintree_notifications_notification_id on braintree_notifications(notification_id, kb_tenant_id);
+create index braintree_notifications_processed on braintree_notifications(processed, record_id);
@@ -0,0 +1,25 @@
+/*
+ * Copyright 2020-2020 Equinix, Inc
+ * Copyright 2014-2020 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+create index braintree_responses_kb_payment_id_kb_tenant_id on braintree_responses(kb_payment_id, kb_tenant_id, transaction_type);
+create index braintree_responses_kb_payment_transaction_id_kb_tenant_id on braintree_responses(kb_payment_transaction_id, kb_tenant_id);
+create index braintree_responses_braintree_id_kb_tenant_id on braintree_responses(braintree_id, kb_tenant_id);
+create index braintree_payment_methods_kb_account_id_kb_tenant_id on braintree_payment_methods(kb_account_id, kb_tenant_id, is_deleted);
+
+drop index braintree_responses_kb_payment_id;
+drop index braintree_responses_kb_payment_transaction_id;
+drop index braintree_responses_braintree_id;
@@ -0,0 +1,34 @@
+/*
+ * Copyright 2020-2020 Equinix, Inc
+ * Copyright 2014-2020 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+alter table braintree_responses add column bt_transaction_status varchar(32) default null;
+alter table braintree_responses add column bt_payment_instrument_type varchar(64) default null;
+alter table braintree_responses add column bt_gateway_error_message varchar(1024) default null;
+alter table braintree_responses add column bt_gateway_error_code varchar(64) default null;
+alter table braintree_responses add column bt_second_payment_reference_id varchar(255) default null;
+alter table braintree_responses add column overridden_transaction_status varchar(32) default null;
+
+update braintree_responses set
+  bt_transaction_status = cast(additional_data as jsonb) ->> 'bt_transaction_status'
+, bt_payment_instrument_type = cast(additional_data as jsonb) ->> 'bt_payment_instrument_type'
+, bt_gateway_error_message = left(cast(additional_data as jsonb) ->> 'bt_gateway_error_message', 1024)
+, bt_gateway_error_code = cast(additional_data as jsonb) ->> 'bt_gateway_error_code'
+, bt_second_payment_reference_id = cast(additional_data as jsonb) ->> 'bt_second_payment_reference_id'
+, overridden_transaction_status = cast(additional_data as jsonb) ->> 'overriddenTransactionStatus'
+where additional_data is not null;
+
+create index braintree_responses_bt_transaction_status on braintree_responses(bt_transaction_status, created_date);
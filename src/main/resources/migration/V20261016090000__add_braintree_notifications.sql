@@ -0,0 +1,31 @@
+/*
+ * Copyright 2020-2020 Equinix, Inc
+ * Copyright 2014-2020 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+create table braintree_notifications (
+  record_id serial
+, notification_id char(64) not null
+, kind varchar(64) not null
+, braintree_id varchar(255) default null
+, payload longtext not null
+, processed smallint not null default 0
+, created_date datetime not null
+, processed_date datetime default null
+, kb_tenant_id char(36) not null
+, primary key(record_id)
+) /*! CHARACTER SET utf8 COLLATE utf8_bin */;
+create unique index braintree_notifications_notification_id on braintree_notifications(notification_id, kb_tenant_id);
+create index braintree_notifications_processed on braintree_notifications(processed, record_id);
@@ -0,0 +1,34 @@
+/*
+ * Copyright 2020-2020 Equinix, Inc
+ * Copyright 2014-2020 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+alter table braintree_responses add column bt_transaction_status varchar(32) default null after braintree_id;
+alter table braintree_responses add column bt_payment_instrument_type varchar(64) default null after bt_transaction_status;
+alter table braintree_responses add column bt_gateway_error_message varchar(1024) default null after bt_payment_instrument_type;
+alter table braintree_responses add column bt_gateway_error_code varchar(64) default null after bt_gateway_error_message;
+alter table braintree_responses add column bt_second_payment_reference_id varchar(255) default null after bt_gateway_error_code;
+alter table braintree_responses add column overridden_transaction_status varchar(32) default null after bt_second_payment_reference_id;
+
+update braintree_responses set
+  bt_transaction_status = nullif(json_unquote(json_extract(additional_data, '$.bt_transaction_status')), 'null')
+, bt_payment_instrument_type = nullif(json_unquote(json_extract(additional_data, '$.bt_payment_instrument_type')), 'null')
+, bt_gateway_error_message = left(nullif(json_unquote(json_extract(additional_data, '$.bt_gateway_error_message')), 'null'), 1024)
+, bt_gateway_error_code = nullif(json_unquote(json_extract(additional_data, '$.bt_gateway_error_code')), 'null')
+, bt_second_payment_reference_id = nullif(json_unquote(json_extract(additional_data, '$.bt_second_payment_reference_id')), 'null')
+, overridden_transaction_status = nullif(json_unquote(json_extract(additional_data, '$.overriddenTransactionStatus')), 'null')
+where additional_data is not null;
+
+create index braintree_responses_bt_transaction_status on braintree_responses(bt_transaction_status, created_date);
@@ -58,6 +58,10 @@ public class EmbeddedDbHelper {
         return new BraintreeDao(embeddedDB.getDataSource());
     }
 
+    public EmbeddedDB getEmbeddedDB() {
+        return embeddedDB;
+    }
+
     public void resetDB() throws Exception {
         embeddedDB.cleanupAllTables();
     }
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2021 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.braintree;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+
+import com.braintreegateway.Result;
+import com.braintreegateway.Transaction;
+import com.braintreegateway.exceptions.BraintreeException;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableList;
+import org.killbill.billing.plugin.braintree.client.BraintreeAsyncClient;
+import org.killbill.billing.plugin.braintree.client.BraintreeAsyncClientImpl;
+import org.killbill.billing.plugin.braintree.client.BraintreeClientRegistry;
+import org.killbill.billing.plugin.braintree.client.BraintreeOperation;
+import org.killbill.billing.plugin.braintree.client.BraintreeSimulatorClient;
+import org.killbill.billing.plugin.braintree.client.MeteredBraintreeClient;
+import org.killbill.billing.plugin.braintree.core.BraintreeConfigProperties;
+import org.killbill.billing.plugin.braintree.core.BraintreePluginProperties.PaymentMethodType;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.Test;
+
+public class TestBraintreeAsyncClient {
+
+    private final ExecutorService executor = BraintreeAsyncClientImpl.newExecutor(8);
+
+    @AfterClass(groups = "slow")
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test(groups = "slow")
+    public void testFuturesCompleteWithTheResults() throws InterruptedException {
+        final BraintreeAsyncClient client = new BraintreeAsyncClientImpl(new BraintreeSimulatorClient(new BraintreeSimulatorClient.Store(), 0, 0, 0, 0, 0), executor);
+
+        final String token = UUID.randomUUID().toString();
+        Assert.assertTrue(BraintreeAsyncClient.await(client.createPaymentMethod("customer", token, "fake-valid-nonce", PaymentMethodType.CARD)).isSuccess());
+        final Result<Transaction> sale = BraintreeAsyncClient.await(client.saleTransactionWithPaymentMethodToken(UUID.randomUUID().toString(), BigDecimal.TEN, token, false));
+        Assert.assertTrue(sale.isSuccess());
+
+        final Map<String, Transaction.Status> statuses = BraintreeAsyncClient.await(client.getTransactionStatuses(ImmutableList.of(sale.getTarget().getId())));
+        Assert.assertEquals(statuses.get(sale.getTarget().getId()), Transaction.Status.AUTHORIZED);
+    }
+
+    @Test(groups = "slow")
+    public void testFailuresAreRethrownAsIs() throws InterruptedException {
+        final BraintreeAsyncClient client = new BraintreeAsyncClientImpl(new BraintreeSimulatorClient(new BraintreeSimulatorClient.Store(), 0, 0, 0, 1, 0), executor);
+
+        try {
+            BraintreeAsyncClient.await(client.getPaymentMethods("customer"));
+            Assert.fail();
+        } catch (final BraintreeException e) {
+            // Expected
+        }
+    }
+
+    @Test(groups = "slow")
+    public void testCallsOverlap() throws InterruptedException {
+        final BraintreeAsyncClient client = new BraintreeAsyncClientImpl(new BraintreeSimulatorClient(new BraintreeSimulatorClient.Store(), 200, 0, 0, 0, 0), executor);
+
+        final long startNanos = System.nanoTime();
+        final List<CompletableFuture<Map<String, Transaction.Status>>> lookups = new ArrayList<CompletableFuture<Map<String, Transaction.Status>>>();
+        for (int i = 0; i < 4; i++) {
+            lookups.add(client.getTransactionStatuses(ImmutableList.of(UUID.randomUUID().toString())));
+        }
+        for (final CompletableFuture<Map<String, Transaction.Status>> lookup : lookups) {
+            Assert.assertTrue(BraintreeAsyncClient.await(lookup).isEmpty());
+        }
+        // 4 sequential calls would take at least 800ms
+        Assert.assertTrue(System.nanoTime() - startNanos < 700 * 1000 * 1000L);
+    }
+
+    @Test(groups = "slow")
+    public void testRegistryAsyncClientsAreMetered() throws InterruptedException {
+        final MetricRegistry metricRegistry = new MetricRegistry();
+        final BraintreeClientRegistry registry = new BraintreeClientRegistry(metricRegistry);
+        try {
+            final Properties properties = new Properties();
+            properties.put("org.killbill.billing.plugin.braintree.btEnvironment", "simulator");
+            final BraintreeConfigProperties config = new BraintreeConfigProperties(properties, "");
+            final UUID kbTenantId = UUID.randomUUID();
+
+            Assert.assertSame(registry.getAsyncClient(kbTenantId, config), registry.getAsyncClient(kbTenantId, config));
+            Assert.assertTrue(BraintreeAsyncClient.await(registry.getAsyncClient(kbTenantId, config).getTransactionStatuses(ImmutableList.of(UUID.randomUUID().toString()))).isEmpty());
+            Assert.assertEquals(metricRegistry.timer(MeteredBraintreeClient.operationName(BraintreeClientRegistry.metricName(kbTenantId), BraintreeOperation.SEARCH_TRANSACTIONS)).getCount(), 1);
+        } finally {
+            registry.close();
+        }
+    }
+}
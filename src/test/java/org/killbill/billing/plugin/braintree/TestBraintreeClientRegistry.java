@@ -0,0 +1,111 @@
+/*
+ * Copyright 2021 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.braintree;
+
+import java.util.Properties;
+import java.util.UUID;
+
+import com.braintreegateway.BraintreeGateway;
+import org.killbill.billing.plugin.braintree.client.BraintreeClient;
+import org.killbill.billing.plugin.braintree.client.BraintreeClientRegistry;
+import org.killbill.billing.plugin.braintree.core.BraintreeConfigProperties;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestBraintreeClientRegistry {
+
+    @Test(groups = "slow")
+    public void testGatewayIsReusedUntilConfigurationChanges() {
+        final BraintreeClientRegistry registry = new BraintreeClientRegistry();
+        final UUID kbTenantId = UUID.randomUUID();
+        final BraintreeConfigProperties config = buildConfig();
+
+        Assert.assertSame(registry.getGateway(kbTenantId, config), registry.getGateway(kbTenantId, config));
+        Assert.assertSame(registry.getClient(kbTenantId, config), registry.getClient(kbTenantId, config));
+        Assert.assertSame(registry.getGateway(null, config), registry.getGateway(null, config));
+        Assert.assertNotSame(registry.getGateway(kbTenantId, config), registry.getGateway(null, config));
+
+        // A reloaded configuration with new credentials yields a fresh gateway
+        final BraintreeConfigProperties newConfig = buildConfig("newPrivateKey", "Kill Bill charge");
+        Assert.assertNotSame(registry.getGateway(kbTenantId, newConfig), registry.getGateway(null, config));
+        Assert.assertEquals(registry.getGateway(kbTenantId, newConfig).getConfiguration().getPrivateKey(), "newPrivateKey");
+    }
+
+    @Test(groups = "slow")
+    public void testUnrelatedConfigurationChangeKeepsGateway() {
+        final BraintreeClientRegistry registry = new BraintreeClientRegistry();
+        final UUID kbTenantId = UUID.randomUUID();
+        final BraintreeConfigProperties config = buildConfig();
+        final BraintreeGateway gateway = registry.getGateway(kbTenantId, config);
+        final BraintreeClient client = registry.getClient(kbTenantId, config);
+
+        registry.refresh(kbTenantId, buildConfig("privateKey", "New description"));
+        Assert.assertSame(registry.getGateway(kbTenantId, buildConfig()), gateway);
+        Assert.assertSame(registry.getClient(kbTenantId, buildConfig()), client);
+    }
+
+    @Test(groups = "slow")
+    public void testRefreshSwapsCredentials() {
+        final BraintreeClientRegistry registry = new BraintreeClientRegistry();
+        final UUID kbTenantId = UUID.randomUUID();
+        final BraintreeConfigProperties config = buildConfig();
+        final BraintreeClient client = registry.getClient(kbTenantId, config);
+
+        // Tenants the registry doesn't know about aren't built eagerly
+        registry.refresh(UUID.randomUUID(), config);
+        Assert.assertEquals(registry.size(), 1);
+
+        final BraintreeConfigProperties newConfig = buildConfig("newPrivateKey", "Kill Bill charge");
+        registry.refresh(kbTenantId, newConfig);
+        final BraintreeGateway gateway = registry.getGateway(kbTenantId, newConfig);
+        Assert.assertEquals(gateway.getConfiguration().getPrivateKey(), "newPrivateKey");
+        Assert.assertNotSame(registry.getClient(kbTenantId, newConfig), client);
+
+        // A caller still holding the previous configuration gets the new clients, and doesn't swap the old ones back
+        Assert.assertSame(registry.getGateway(kbTenantId, config), gateway);
+        Assert.assertSame(registry.getGateway(kbTenantId, newConfig), gateway);
+
+        registry.refreshAll(tenantId -> buildConfig("rotatedPrivateKey", "Kill Bill charge"));
+        Assert.assertEquals(registry.getGateway(kbTenantId, newConfig).getConfiguration().getPrivateKey(), "rotatedPrivateKey");
+    }
+
+    @Test(groups = "slow")
+    public void testRegistryIsBounded() {
+        final BraintreeClientRegistry registry = new BraintreeClientRegistry(2, 60);
+        final BraintreeConfigProperties config = buildConfig();
+        for (int i = 0; i < 10; i++) {
+            registry.getClient(UUID.randomUUID(), config);
+        }
+        Assert.assertTrue(registry.size() <= 2);
+
+        registry.invalidateAll();
+        Assert.assertEquals(registry.size(), 0);
+    }
+
+    private static BraintreeConfigProperties buildConfig() {
+        return buildConfig("privateKey", "Kill Bill charge");
+    }
+
+    private static BraintreeConfigProperties buildConfig(final String privateKey, final String chargeDescription) {
+        final Properties properties = new Properties();
+        properties.put("org.killbill.billing.plugin.braintree.btMerchantId", "merchantId");
+        properties.put("org.killbill.billing.plugin.braintree.btPublicKey", "publicKey");
+        properties.put("org.killbill.billing.plugin.braintree.btPrivateKey", privateKey);
+        properties.put("org.killbill.billing.plugin.braintree.chargeDescription", chargeDescription);
+        return new BraintreeConfigProperties(properties, "");
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright 2021 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.killbill.billing.plugin.braintree;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.killbill.billing.osgi.libs.killbill.OSGIKillbillAPI;
+import org.killbill.billing.plugin.braintree.client.MeteredBraintreeClient;
+import org.killbill.billing.plugin.braintree.core.BraintreeActivator;
+import org.killbill.billing.plugin.braintree.core.BraintreeClientTokenPool;
+import org.killbill.billing.plugin.braintree.core.BraintreeConfigProperties;
+import org.killbill.billing.plugin.braintree.core.BraintreeConfigPropertiesConfigurationHandler;
+import org.killbill.billing.plugin.braintree.core.BraintreePluginProperties.PaymentMethodType;
+import org.killbill.clock.ClockMock;
+import org.mockito.Mockito;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.braintreegateway.exceptions.BraintreeException;
+import com.codahale.metrics.MetricRegistry;
+
+public class TestBraintreeClientTokenPool {
+
+    private static final String HIT = MetricRegistry.name(MeteredBraintreeClient.METRIC_PREFIX, "default", "client_token_pool", "hit");
+    private static final String MISS = MetricRegistry.name(MeteredBraintreeClient.METRIC_PREFIX, "default", "client_token_pool", "miss");
+    private static final String COALESCED = MetricRegistry.name(MeteredBraintreeClient.METRIC_PREFIX, "default", "client_token_pool", "coalesced");
+
+    @Test(groups = "slow")
+    public void testPoolIsRefilledInTheBackground() throws Exception {
+        final BraintreeConfigPropertiesConfigurationHandler handler = buildHandler("3");
+        final BraintreeClientTokenPool pool = new BraintreeClientTokenPool(handler, new ClockMock());
+
+        // Nothing pooled yet: generated on the spot
+        Assert.assertNotNull(pool.getClientToken(null));
+        Assert.assertEquals(handler.getMetricRegistry().meter(MISS).getCount(), 1);
+        awaitSize(pool, 3);
+
+        final String token = pool.getClientToken(null);
+        Assert.assertNotNull(token);
+        Assert.assertEquals(handler.getMetricRegistry().meter(HIT).getCount(), 1);
+        // Tokens are handed out once
+        awaitSize(pool, 3);
+        Assert.assertNotEquals(pool.getClientToken(null), token);
+        Assert.assertEquals(handler.getMetricRegistry().meter(HIT).getCount(), 2);
+    }
+
+    @Test(groups = "slow")
+    public void testExpiredTokensAreDiscarded() throws Exception {
+        final BraintreeConfigPropertiesConfigurationHandler handler = buildHandler("3");
+        final ClockMock clock = new ClockMock();
+        final BraintreeClientTokenPool pool = new BraintreeClientTokenPool(handler, clock);
+        pool.getClientToken(null);
+        awaitSize(pool, 3);
+
+        clock.addDeltaFromReality(901 * 1000L);
+        Assert.assertNotNull(pool.getClientToken(null));
+        Assert.assertEquals(handler.getMetricRegistry().meter(HIT).getCount(), 0);
+        Assert.assertEquals(handler.getMetricRegistry().meter(MISS).getCount(), 2);
+    }
+
+    @Test(groups = "slow")
+    public void testConfigurationChangeDropsPool() throws Exception {
+        final BraintreeConfigPropertiesConfigurationHandler handler = buildHandler("3");
+        final BraintreeClientTokenPool pool = new BraintreeClientTokenPool(handler, new ClockMock());
+        pool.getClientToken(null);
+        awaitSize(pool, 3);
+
+        pool.onConfigurationChange(null, handler.getConfigurable(null), handler.getConfigurable(null));
+        Assert.assertEquals(pool.size(null), 0);
+    }
+
+    @Test(groups = "slow")
+    public void testPoolDisabled() throws Exception {
+        final BraintreeConfigPropertiesConfigurationHandler handler = buildHandler("0");
+        final BraintreeClientTokenPool pool = new BraintreeClientTokenPool(handler, new ClockMock());
+
+        Assert.assertNotNull(pool.getClientToken(null));
+        Thread.sleep(100);
+        Assert.assertEquals(pool.size(null), 0);
+        Assert.assertEquals(handler.getMetricRegistry().meter(MISS).getCount(), 0);
+    }
+
+    @Test(groups = "slow")
+    public void testConcurrentCustomerRequestsAreCoalesced() throws Exception {
+        final int nbThreads = 8;
+        final Properties properties = new Properties();
+        properties.put("org.killbill.billing.plugin.braintree.simulatorLatencyMillis", "500");
+        final BraintreeConfigPropertiesConfigurationHandler handler = buildHandler("0", properties);
+        final BraintreeClientTokenPool pool = new BraintreeClientTokenPool(handler, new ClockMock());
+        final String token = UUID.randomUUID().toString();
+        handler.getBraintreeClient(null).createPaymentMethod("customer", token, "fake-valid-nonce-" + token, PaymentMethodType.CARD);
+
+        final ExecutorService executor = Executors.newFixedThreadPool(nbThreads);
+        try {
+            final CountDownLatch start = new CountDownLatch(1);
+            final List<Future<String>> clientTokens = new ArrayList<Future<String>>();
+            for (int i = 0; i < nbThreads; i++) {
+                clientTokens.add(executor.submit(() -> {
+                    start.await();
+                    return pool.getCustomerClientToken(null, "customer");
+                }));
+            }
+            start.countDown();
+
+            final Set<String> distinctClientTokens = new HashSet<String>();
+            for (final Future<String> clientToken : clientTokens) {
+                distinctClientTokens.add(clientToken.get());
+            }
+            // One call to Braintree for the burst
+            Assert.assertEquals(distinctClientTokens.size(), 1);
+            Assert.assertEquals(handler.getMetricRegistry().meter(COALESCED).getCount(), nbThreads - 1);
+
+            // Nothing is cached once the call completes
+            Assert.assertFalse(distinctClientTokens.contains(pool.getCustomerClientToken(null, "customer")));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test(groups = "slow")
+    public void testTokenForUnknownCustomer() {
+        final BraintreeConfigPropertiesConfigurationHandler handler = buildHandler("0");
+        try {
+            handler.getBraintreeClient(null).generateClientToken("unknown");
+            Assert.fail();
+        } catch (final BraintreeException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
+    }
+
+    private static void awaitSize(final BraintreeClientTokenPool pool, final int size) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (pool.size(null) < size && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(pool.size(null), size);
+    }
+
+    private static BraintreeConfigPropertiesConfigurationHandler buildHandler(final String clientTokenPoolSize) {
+        return buildHandler(clientTokenPoolSize, new Properties());
+    }
+
+    private static BraintreeConfigPropertiesConfigurationHandler buildHandler(final String clientTokenPoolSize, final Properties properties) {
+        properties.put("org.killbill.billing.plugin.braintree.btEnvironment", "simulator");
+        properties.put("org.killbill.billing.plugin.braintree.clientTokenPoolSize", clientTokenPoolSize);
+        final BraintreeConfigPropertiesConfigurationHandler handler = new BraintreeConfigPropertiesConfigurationHandler("", BraintreeActivator.PLUGIN_NAME, Mockito.mock(OSGIKillbillAPI.class));
+        handler.setDefaultConfigurable(new BraintreeConfigProperties(properties, ""));
+        return handler;
+    }
+}
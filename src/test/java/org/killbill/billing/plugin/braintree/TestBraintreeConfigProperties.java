@@ -0,0 +1,80 @@
+/*
+ * Copyright 2021 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.killbill.billing.plugin.braintree;
+
+import java.util.Properties;
+
+import org.joda.time.Period;
+import org.killbill.billing.plugin.braintree.client.BraintreeOperation;
+import org.killbill.billing.plugin.braintree.core.BraintreeConfigProperties;
+import org.killbill.billing.plugin.braintree.core.BraintreePluginProperties.PaymentInstrumentType;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestBraintreeConfigProperties {
+
+    private static final String PROPERTY_PREFIX = "org.killbill.billing.plugin.braintree.";
+
+    @Test(groups = "slow")
+    public void testPendingPaymentExpirationPeriodPerPaymentInstrumentType() {
+        final Properties properties = new Properties();
+        properties.put(PROPERTY_PREFIX + "pendingPaymentExpirationPeriod", "PAYPAL_ACCOUNT#P7d|credit_card#P1d|unknown#P2d|us_bank_account#invalid");
+        final BraintreeConfigProperties config = new BraintreeConfigProperties(properties, "");
+
+        Assert.assertEquals(config.getPendingPaymentExpirationPeriod(PaymentInstrumentType.PAYPAL_ACCOUNT), Period.days(7));
+        Assert.assertEquals(config.getPendingPaymentExpirationPeriod("paypal_account"), Period.days(7));
+        Assert.assertEquals(config.getPendingPaymentExpirationPeriod(PaymentInstrumentType.CREDIT_CARD), Period.days(1));
+        // Unknown and invalid entries fall back to the default period
+        Assert.assertEquals(config.getPendingPaymentExpirationPeriod(PaymentInstrumentType.US_BANK_ACCOUNT), Period.days(3));
+        Assert.assertEquals(config.getPendingPaymentExpirationPeriod("unknown"), Period.days(3));
+        Assert.assertEquals(config.getPendingPaymentExpirationPeriod((String) null), Period.days(3));
+    }
+
+    @Test(groups = "slow")
+    public void testGlobalPendingPaymentExpirationPeriod() {
+        final Properties properties = new Properties();
+        properties.put(PROPERTY_PREFIX + "pendingPaymentExpirationPeriod", "P5d");
+        final BraintreeConfigProperties config = new BraintreeConfigProperties(properties, "");
+
+        Assert.assertEquals(config.getPendingPaymentExpirationPeriod(PaymentInstrumentType.PAYPAL_ACCOUNT), Period.days(5));
+        Assert.assertEquals(config.getPendingPaymentExpirationPeriod((PaymentInstrumentType) null), Period.days(5));
+    }
+
+    @Test(groups = "slow")
+    public void testInvalidValuesFallBackToDefaults() {
+        final Properties properties = new Properties();
+        properties.put(PROPERTY_PREFIX + "connectionTimeout", "abc");
+        properties.put(PROPERTY_PREFIX + "maxRetries", "-1");
+        properties.put(PROPERTY_PREFIX + "searchRateLimit", "2.5");
+        properties.put(PROPERTY_PREFIX + "vaultRateLimit", "abc");
+        properties.put(PROPERTY_PREFIX + "settlementPollingBatchSize", "0");
+        properties.put(PROPERTY_PREFIX + "settlementPollingLookbackPeriod", "abc");
+        properties.put(PROPERTY_PREFIX + "proxyPort", "abc");
+        final BraintreeConfigProperties config = new BraintreeConfigProperties(properties, "");
+
+        Assert.assertEquals(config.getConnectionTimeoutMillis(), 30000);
+        // Defaults to the connection timeout
+        Assert.assertEquals(config.getMaxConnectionsWaitMillis(), 30000);
+        Assert.assertEquals(config.getMaxRetries(), 0);
+        Assert.assertEquals(config.getRateLimit(BraintreeOperation.Category.SEARCH), 2.5);
+        Assert.assertEquals(config.getRateLimit(BraintreeOperation.Category.VAULT), 0.0);
+        Assert.assertEquals(config.getSettlementPollingBatchSize(), 50);
+        Assert.assertEquals(config.getSettlementPollingLookbackPeriod(), Period.days(14));
+        Assert.assertNull(config.getProxyPort());
+    }
+}
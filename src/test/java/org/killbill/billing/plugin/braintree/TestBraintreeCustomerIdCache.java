@@ -0,0 +1,182 @@
+/*
+ * Copyright 2021 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.killbill.billing.plugin.braintree;
+
+import java.math.BigDecimal;
+import java.util.Properties;
+import java.util.UUID;
+
+import org.killbill.billing.ObjectType;
+import org.killbill.billing.notification.plugin.api.ExtBusEvent;
+import org.killbill.billing.notification.plugin.api.ExtBusEventType;
+import org.killbill.billing.osgi.libs.killbill.OSGIConfigPropertiesService;
+import org.killbill.billing.payment.api.Payment;
+import org.killbill.billing.payment.api.PaymentTransaction;
+import org.killbill.billing.payment.api.PluginProperty;
+import org.killbill.billing.payment.api.TransactionType;
+import org.killbill.billing.payment.plugin.api.PaymentPluginStatus;
+import org.killbill.billing.payment.plugin.api.PaymentTransactionInfoPlugin;
+import org.killbill.billing.plugin.TestUtils;
+import org.killbill.billing.plugin.api.core.PluginCustomField;
+import org.killbill.billing.plugin.braintree.api.BraintreePaymentMethodPlugin;
+import org.killbill.billing.plugin.braintree.api.BraintreePaymentPluginApi;
+import org.killbill.billing.plugin.braintree.core.BraintreeConfigProperties;
+import org.killbill.billing.plugin.braintree.core.BraintreeCustomerIdCache;
+import org.killbill.billing.plugin.braintree.core.BraintreeListener;
+import org.killbill.billing.plugin.braintree.core.BraintreePluginProperties;
+import org.killbill.billing.util.callcontext.CallContext;
+import org.killbill.billing.util.callcontext.TenantContext;
+import org.mockito.Mockito;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ImmutableList;
+
+public class TestBraintreeCustomerIdCache extends TestBase {
+
+    private static final String BRAINTREE_CUSTOMER_ID = "customer";
+
+    private BraintreeCustomerIdCache customerIdCache;
+
+    @BeforeMethod(groups = "slow")
+    public void setUpSimulator() throws Exception {
+        final Properties properties = new Properties();
+        properties.put("org.killbill.billing.plugin.braintree.btEnvironment", "simulator");
+        braintreeConfigPropertiesConfigurationHandler.setDefaultConfigurable(new BraintreeConfigProperties(properties, ""));
+
+        customerIdCache = new BraintreeCustomerIdCache();
+        braintreePaymentPluginApi = new BraintreePaymentPluginApi(braintreeConfigPropertiesConfigurationHandler,
+                                                                  killbillApi,
+                                                                  Mockito.mock(OSGIConfigPropertiesService.class),
+                                                                  clock,
+                                                                  dao,
+                                                                  customerIdCache);
+        TestUtils.updateOSGIKillbillAPI(killbillApi, braintreePaymentPluginApi);
+    }
+
+    @Test(groups = "slow")
+    public void testAddPaymentMethodWritesThrough() throws Exception {
+        addPaymentMethod(BRAINTREE_CUSTOMER_ID);
+        // One lookup to check the account isn't mapped yet, then the new mapping is written through
+        verifyCustomFieldLookups(1);
+        Mockito.verify(customFieldUserApi, Mockito.times(1)).addCustomFields(Mockito.anyList(), Mockito.any(CallContext.class));
+        Assert.assertEquals(customerIdCache.get(context.getTenantId(), account.getId()), BRAINTREE_CUSTOMER_ID);
+
+        addPaymentMethod(BRAINTREE_CUSTOMER_ID);
+        verifyCustomFieldLookups(1);
+        Mockito.verify(customFieldUserApi, Mockito.times(1)).addCustomFields(Mockito.anyList(), Mockito.any(CallContext.class));
+    }
+
+    @Test(groups = "slow")
+    public void testPurchaseLooksUpCustomerIdAtMostOnce() throws Exception {
+        // Mapping created by another node: the cache is cold
+        mapAccount(BRAINTREE_CUSTOMER_ID);
+        addPaymentMethod(null);
+        verifyCustomFieldLookups(1);
+
+        Mockito.clearInvocations(customFieldUserApi);
+        customerIdCache.invalidateAll();
+        Assert.assertEquals(purchase().getStatus(), PaymentPluginStatus.PROCESSED);
+        verifyCustomFieldLookups(1);
+
+        Assert.assertEquals(purchase().getStatus(), PaymentPluginStatus.PROCESSED);
+        addPaymentMethod(null);
+        verifyCustomFieldLookups(1);
+    }
+
+    @Test(groups = "slow")
+    public void testCustomFieldEventsInvalidateCache() throws Exception {
+        final BraintreeListener listener = new BraintreeListener(customerIdCache);
+        mapAccount(BRAINTREE_CUSTOMER_ID);
+        Assert.assertEquals(braintreePaymentPluginApi.getBraintreeCustomerId(account.getId(), context), BRAINTREE_CUSTOMER_ID);
+        Assert.assertEquals(braintreePaymentPluginApi.getBraintreeCustomerId(account.getId(), context), BRAINTREE_CUSTOMER_ID);
+        verifyCustomFieldLookups(1);
+
+        // Unrelated events, or events for another tenant, leave the mapping alone
+        listener.handleKillbillEvent(buildEvent(ExtBusEventType.ACCOUNT_CHANGE, context.getTenantId()));
+        listener.handleKillbillEvent(buildEvent(ExtBusEventType.CUSTOM_FIELD_DELETION, UUID.randomUUID()));
+        Assert.assertEquals(customerIdCache.get(context.getTenantId(), account.getId()), BRAINTREE_CUSTOMER_ID);
+
+        listener.handleKillbillEvent(buildEvent(ExtBusEventType.CUSTOM_FIELD_DELETION, context.getTenantId()));
+        Assert.assertNull(customerIdCache.get(context.getTenantId(), account.getId()));
+
+        // The next read goes back to Kill Bill and sees the new mapping
+        mapAccount("other-customer");
+        Assert.assertEquals(braintreePaymentPluginApi.getBraintreeCustomerId(account.getId(), context), "other-customer");
+        verifyCustomFieldLookups(2);
+
+        listener.handleKillbillEvent(buildEvent(ExtBusEventType.CUSTOM_FIELD_CREATION, context.getTenantId()));
+        Assert.assertNull(customerIdCache.get(context.getTenantId(), account.getId()));
+    }
+
+    private UUID addPaymentMethod(final String braintreeCustomerId) throws Exception {
+        final UUID kbPaymentMethodId = UUID.randomUUID();
+        final ImmutableList.Builder<PluginProperty> properties = ImmutableList.<PluginProperty>builder()
+                .add(new PluginProperty(BraintreePluginProperties.PROPERTY_BT_NONCE, "fake-valid-nonce-" + kbPaymentMethodId, false));
+        if (braintreeCustomerId != null) {
+            properties.add(new PluginProperty(BraintreePluginProperties.PROPERTY_BT_CUSTOMER_ID, braintreeCustomerId, false));
+        }
+        braintreePaymentPluginApi.addPaymentMethod(account.getId(),
+                                                   kbPaymentMethodId,
+                                                   new BraintreePaymentMethodPlugin(kbPaymentMethodId, kbPaymentMethodId.toString(), true, ImmutableList.of()),
+                                                   true,
+                                                   properties.build(),
+                                                   context);
+        return kbPaymentMethodId;
+    }
+
+    private PaymentTransactionInfoPlugin purchase() throws Exception {
+        // One-time payment: the payment method isn't vaulted by the plugin, so the nonce is charged on behalf of the Braintree customer of the account
+        final UUID kbPaymentMethodId = UUID.randomUUID();
+        final Payment payment = TestUtils.buildPayment(account.getId(), kbPaymentMethodId, account.getCurrency(), killbillApi);
+        final PaymentTransaction purchaseTransaction = TestUtils.buildPaymentTransaction(payment, TransactionType.PURCHASE, BigDecimal.TEN, payment.getCurrency());
+        return braintreePaymentPluginApi.purchasePayment(account.getId(),
+                                                         payment.getId(),
+                                                         purchaseTransaction.getId(),
+                                                         kbPaymentMethodId,
+                                                         purchaseTransaction.getAmount(),
+                                                         purchaseTransaction.getCurrency(),
+                                                         ImmutableList.of(new PluginProperty(BraintreePluginProperties.PROPERTY_BT_NONCE, "fake-valid-nonce-" + UUID.randomUUID(), false)),
+                                                         context);
+    }
+
+    private void mapAccount(final String braintreeCustomerId) {
+        final PluginCustomField customField = new PluginCustomField(account.getId(),
+                                                                    ObjectType.ACCOUNT,
+                                                                    BraintreePluginProperties.MAGIC_FIELD_BT_CUSTOMER_ID,
+                                                                    braintreeCustomerId,
+                                                                    clock.getUTCNow());
+        Mockito.when(customFieldUserApi.getCustomFieldsForAccountType(Mockito.eq(account.getId()), Mockito.eq(ObjectType.ACCOUNT), Mockito.any(TenantContext.class)))
+               .thenReturn(ImmutableList.of(customField));
+    }
+
+    private void verifyCustomFieldLookups(final int times) {
+        Mockito.verify(customFieldUserApi, Mockito.times(times)).getCustomFieldsForAccountType(Mockito.eq(account.getId()), Mockito.eq(ObjectType.ACCOUNT), Mockito.any(TenantContext.class));
+    }
+
+    private ExtBusEvent buildEvent(final ExtBusEventType eventType, final UUID kbTenantId) {
+        final ExtBusEvent event = Mockito.mock(ExtBusEvent.class);
+        Mockito.when(event.getEventType()).thenReturn(eventType);
+        Mockito.when(event.getObjectType()).thenReturn(ObjectType.CUSTOM_FIELD);
+        Mockito.when(event.getObjectId()).thenReturn(UUID.randomUUID());
+        Mockito.when(event.getAccountId()).thenReturn(account.getId());
+        Mockito.when(event.getTenantId()).thenReturn(kbTenantId);
+        return event;
+    }
+}
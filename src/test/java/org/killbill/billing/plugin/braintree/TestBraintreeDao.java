@@ -0,0 +1,138 @@
+/*
+ * Copyright 2021 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.killbill.billing.plugin.braintree;
+
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.joda.time.DateTime;
+import org.jooq.types.ULong;
+import org.killbill.billing.catalog.api.Currency;
+import org.killbill.billing.payment.api.TransactionType;
+import org.killbill.billing.plugin.braintree.client.BraintreeClient;
+import org.killbill.billing.plugin.braintree.client.BraintreeSimulatorClient;
+import org.killbill.billing.plugin.braintree.core.BraintreePluginProperties;
+import org.killbill.billing.plugin.braintree.core.BraintreePluginProperties.PaymentMethodType;
+import org.killbill.billing.plugin.braintree.core.BraintreeWebhookProcessor;
+import org.killbill.billing.plugin.braintree.dao.BraintreeDao;
+import org.killbill.billing.plugin.braintree.dao.gen.tables.records.BraintreeNotificationsRecord;
+import org.killbill.billing.plugin.braintree.dao.gen.tables.records.BraintreeResponsesRecord;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.braintreegateway.Result;
+import com.braintreegateway.Transaction;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+public class TestBraintreeDao extends TestBase {
+
+    @Test(groups = "slow")
+    public void testPurgeProcessedNotifications() throws Exception {
+        final UUID kbTenantId = UUID.randomUUID();
+        final DateTime utcNow = clock.getUTCNow();
+        for (int i = 0; i < 4; i++) {
+            Assert.assertTrue(dao.addNotification(UUID.randomUUID().toString().replace("-", ""), "TRANSACTION_SETTLED", UUID.randomUUID().toString(), "payload", utcNow.minusDays(60), kbTenantId));
+        }
+        final List<BraintreeNotificationsRecord> notifications = dao.getPendingNotifications(10);
+        Assert.assertEquals(notifications.size(), 4);
+        // Two applied past the default retention period (P30d), one recently, one still pending
+        dao.markNotificationsProcessed(ImmutableList.<ULong>of(notifications.get(0).getRecordId(), notifications.get(1).getRecordId()), utcNow.minusDays(40));
+        dao.markNotificationsProcessed(ImmutableList.<ULong>of(notifications.get(2).getRecordId()), utcNow.minusDays(1));
+
+        final BraintreeWebhookProcessor webhookProcessor = new BraintreeWebhookProcessor(braintreeConfigPropertiesConfigurationHandler, dao, clock);
+        Assert.assertEquals(webhookProcessor.purge(), 2);
+        Assert.assertEquals(webhookProcessor.purge(), 0);
+        Assert.assertEquals(dao.getPendingNotifications(10).size(), 1);
+        Assert.assertEquals(dao.getPendingNotifications(10).get(0).getRecordId(), notifications.get(3).getRecordId());
+
+        Assert.assertEquals(dao.deleteProcessedNotifications(utcNow, 10), 1);
+    }
+
+    @Test(groups = "slow")
+    public void testMergeAdditionalData() throws Exception {
+        final BraintreeClient client = new BraintreeSimulatorClient(new BraintreeSimulatorClient.Store(), 0, 0, 0, 0, 0);
+        final String token = UUID.randomUUID().toString();
+        Assert.assertTrue(client.createPaymentMethod("customer", token, "fake-valid-nonce", PaymentMethodType.CARD).isSuccess());
+        final Result<Transaction> result = client.saleTransactionWithPaymentMethodToken(UUID.randomUUID().toString(), BigDecimal.TEN, token, false);
+
+        final UUID kbAccountId = UUID.randomUUID();
+        final UUID kbPaymentId = UUID.randomUUID();
+        final UUID kbTenantId = UUID.randomUUID();
+        final DateTime utcNow = clock.getUTCNow();
+        final BraintreeResponsesRecord authorization = dao.addResponse(kbAccountId, kbPaymentId, UUID.randomUUID(), TransactionType.AUTHORIZE, BigDecimal.TEN, Currency.USD, result, utcNow, kbTenantId);
+        dao.addResponse(kbAccountId, kbPaymentId, UUID.randomUUID(), TransactionType.CAPTURE, BigDecimal.TEN, Currency.USD, result, utcNow, kbTenantId);
+        final Map initialAdditionalData = BraintreeDao.mapFromAdditionalDataString(authorization.getAdditionalData());
+        Assert.assertNotNull(initialAdditionalData.get(BraintreePluginProperties.PROPERTY_BT_TRANSACTION_STATUS));
+
+        // Top-level keys are replaced, the other ones are kept, promoted fields are updated
+        dao.updateResponses(ImmutableMap.<BraintreeResponsesRecord, Map<String, Object>>of(authorization,
+                                                                                            ImmutableMap.<String, Object>of(BraintreePluginProperties.PROPERTY_BT_TRANSACTION_STATUS, "SETTLING",
+                                                                                                                            "settlementBatchId", "batch-1",
+                                                                                                                            "nested", ImmutableMap.<String, Object>of("a", "1"))));
+        BraintreeResponsesRecord updated = getResponse(kbPaymentId, kbTenantId, TransactionType.AUTHORIZE);
+        Map additionalData = BraintreeDao.mapFromAdditionalDataString(updated.getAdditionalData());
+        Assert.assertEquals(updated.getBtTransactionStatus(), "SETTLING");
+        Assert.assertEquals(additionalData.get(BraintreePluginProperties.PROPERTY_BT_TRANSACTION_STATUS), "SETTLING");
+        Assert.assertEquals(additionalData.get("settlementBatchId"), "batch-1");
+        Assert.assertEquals(additionalData.get("nested"), ImmutableMap.<String, Object>of("a", "1"));
+        Assert.assertEquals(additionalData.size(), initialAdditionalData.size() + 2);
+        // Not the capture
+        Assert.assertEquals(getResponse(kbPaymentId, kbTenantId, TransactionType.CAPTURE).getBtTransactionStatus(), authorization.getBtTransactionStatus());
+
+        // Both responses are updated, nested values are replaced (not merged) and null values remove the key
+        final Map<String, Object> additionalMetadata = new HashMap<String, Object>();
+        additionalMetadata.put("settlementBatchId", null);
+        additionalMetadata.put("nested", ImmutableMap.<String, Object>of("b", "2"));
+        Assert.assertEquals(dao.updateResponsesByBraintreeId(ImmutableMap.<String, Map<String, Object>>of(authorization.getBraintreeId(), additionalMetadata), kbTenantId), 2);
+        Assert.assertEquals(dao.updateResponsesByBraintreeId(ImmutableMap.<String, Map<String, Object>>of(authorization.getBraintreeId(), additionalMetadata), UUID.randomUUID()), 0);
+
+        updated = getResponse(kbPaymentId, kbTenantId, TransactionType.AUTHORIZE);
+        additionalData = BraintreeDao.mapFromAdditionalDataString(updated.getAdditionalData());
+        Assert.assertEquals(updated.getBtTransactionStatus(), "SETTLING");
+        Assert.assertFalse(additionalData.containsKey("settlementBatchId"));
+        Assert.assertEquals(additionalData.get("nested"), ImmutableMap.<String, Object>of("b", "2"));
+        Assert.assertEquals(additionalData.size(), initialAdditionalData.size() + 1);
+
+        final BraintreeResponsesRecord capture = getResponse(kbPaymentId, kbTenantId, TransactionType.CAPTURE);
+        additionalData = BraintreeDao.mapFromAdditionalDataString(capture.getAdditionalData());
+        Assert.assertFalse(additionalData.containsKey("settlementBatchId"));
+        Assert.assertEquals(additionalData.get("nested"), ImmutableMap.<String, Object>of("b", "2"));
+        Assert.assertEquals(additionalData.size(), initialAdditionalData.size() + 1);
+
+        // Clearing a promoted field clears its column too
+        dao.updateResponses(ImmutableMap.<BraintreeResponsesRecord, Map<String, Object>>of(capture,
+                                                                                            Collections.<String, Object>singletonMap(BraintreePluginProperties.PROPERTY_BT_TRANSACTION_STATUS, null)));
+        updated = getResponse(kbPaymentId, kbTenantId, TransactionType.CAPTURE);
+        Assert.assertNull(updated.getBtTransactionStatus());
+        Assert.assertFalse(BraintreeDao.mapFromAdditionalDataString(updated.getAdditionalData()).containsKey(BraintreePluginProperties.PROPERTY_BT_TRANSACTION_STATUS));
+    }
+
+    private BraintreeResponsesRecord getResponse(final UUID kbPaymentId, final UUID kbTenantId, final TransactionType transactionType) throws Exception {
+        for (final BraintreeResponsesRecord response : dao.getResponses(kbPaymentId, kbTenantId)) {
+            if (transactionType.toString().equals(response.getTransactionType())) {
+                return response;
+            }
+        }
+        return null;
+    }
+}
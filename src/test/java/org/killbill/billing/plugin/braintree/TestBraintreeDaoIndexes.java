@@ -0,0 +1,250 @@
+/*
+ * Copyright 2021 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.killbill.billing.plugin.braintree;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+
+import javax.sql.DataSource;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.killbill.billing.plugin.braintree.dao.BraintreeDao;
+import org.killbill.commons.embeddeddb.EmbeddedDB;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * Query plan regression tests: the statements run by the DAO lookups must keep hitting the tenant-aware indexes from ddl.sql
+ */
+public class TestBraintreeDaoIndexes extends TestBase {
+
+    private static final int NB_ROWS = 50;
+
+    private final String kbTenantId = UUID.randomUUID().toString();
+    private final String kbAccountId = UUID.randomUUID().toString();
+    private final String kbPaymentId = UUID.randomUUID().toString();
+    private final String kbPaymentTransactionId = UUID.randomUUID().toString();
+    private final String braintreeId = UUID.randomUUID().toString();
+
+    @BeforeMethod(groups = "slow")
+    public void setUpRows() throws Exception {
+        try (final Connection connection = getEmbeddedDB().getDataSource().getConnection();
+             final Statement statement = connection.createStatement()) {
+            for (int i = 0; i < NB_ROWS; i++) {
+                // The rows we look up, among others from other tenants
+                final boolean target = i == NB_ROWS / 2;
+                statement.executeUpdate("insert into braintree_responses (kb_account_id, kb_payment_id, kb_payment_transaction_id, transaction_type, braintree_id, created_date, kb_tenant_id) values (" +
+                                        quote(target ? kbAccountId : UUID.randomUUID().toString()) + ", " +
+                                        quote(target ? kbPaymentId : UUID.randomUUID().toString()) + ", " +
+                                        quote(target ? kbPaymentTransactionId : UUID.randomUUID().toString()) + ", " +
+                                        "'AUTHORIZE', " +
+                                        quote(target ? braintreeId : UUID.randomUUID().toString()) + ", " +
+                                        "'2026-10-16 00:00:00', " +
+                                        quote(target ? kbTenantId : UUID.randomUUID().toString()) + ")");
+                statement.executeUpdate("insert into braintree_payment_methods (kb_account_id, kb_payment_method_id, braintree_id, created_date, updated_date, kb_tenant_id) values (" +
+                                        quote(target ? kbAccountId : UUID.randomUUID().toString()) + ", " +
+                                        quote(UUID.randomUUID().toString()) + ", " +
+                                        quote(UUID.randomUUID().toString()) + ", " +
+                                        "'2026-10-16 00:00:00', '2026-10-16 00:00:00', " +
+                                        quote(target ? kbTenantId : UUID.randomUUID().toString()) + ")");
+            }
+        }
+    }
+
+    @Test(groups = "slow")
+    public void testGetSuccessfulAuthorizationResponse() throws Exception {
+        final List<RecordedStatement> statements = new ArrayList<RecordedStatement>();
+        newRecordingDao(statements).getSuccessfulAuthorizationResponse(UUID.fromString(kbPaymentId), UUID.fromString(kbTenantId));
+        assertUsesIndex(statements, "braintree_responses_kb_payment_id_kb_tenant_id");
+    }
+
+    @Test(groups = "slow")
+    public void testUpdateResponse() throws Exception {
+        final List<RecordedStatement> statements = new ArrayList<RecordedStatement>();
+        newRecordingDao(statements).updateResponse(UUID.fromString(kbPaymentTransactionId), ImmutableMap.<String, Object>of(), UUID.fromString(kbTenantId));
+        assertUsesIndex(statements, "braintree_responses_kb_payment_transaction_id_kb_tenant_id");
+    }
+
+    @Test(groups = "slow")
+    public void testUpdateResponsesByBraintreeId() throws Exception {
+        final List<RecordedStatement> statements = new ArrayList<RecordedStatement>();
+        newRecordingDao(statements).updateResponsesByBraintreeId(ImmutableMap.<String, Map<String, Object>>of(braintreeId, ImmutableMap.<String, Object>of("key", "value")), UUID.fromString(kbTenantId));
+        assertUsesIndex(statements, "braintree_responses_braintree_id_kb_tenant_id");
+    }
+
+    @Test(groups = "slow")
+    public void testGetPendingInitialResponses() throws Exception {
+        final List<RecordedStatement> statements = new ArrayList<RecordedStatement>();
+        newRecordingDao(statements).getPendingInitialResponses(ImmutableList.<String>of("SETTLEMENT_PENDING", "SUBMITTED_FOR_SETTLEMENT"),
+                                                               new DateTime(2026, 10, 17, 0, 0, DateTimeZone.UTC),
+                                                               null,
+                                                               100);
+        assertUsesIndex(statements, "braintree_responses_bt_transaction_status");
+    }
+
+    @Test(groups = "slow")
+    public void testGetTenantsWithResponses() throws Exception {
+        final List<RecordedStatement> statements = new ArrayList<RecordedStatement>();
+        newRecordingDao(statements).getTenantsWithResponses(ImmutableList.<String>of("SETTLEMENT_PENDING"));
+        assertUsesIndex(statements, "braintree_responses_bt_transaction_status");
+    }
+
+    @Test(groups = "slow")
+    public void testGetPaymentMethods() throws Exception {
+        final List<RecordedStatement> statements = new ArrayList<RecordedStatement>();
+        newRecordingDao(statements).getPaymentMethods(UUID.fromString(kbAccountId), UUID.fromString(kbTenantId));
+        assertUsesIndex(statements, "braintree_payment_methods_kb_account_id_kb_tenant_id");
+    }
+
+    /**
+     * Checks the plan of the first select run by the DAO call, with the same bind values
+     */
+    private void assertUsesIndex(final List<RecordedStatement> statements, final String indexName) throws SQLException, IOException, ReflectiveOperationException {
+        RecordedStatement select = null;
+        for (final RecordedStatement statement : statements) {
+            if (statement.sql.trim().toLowerCase(Locale.ROOT).startsWith("select")) {
+                select = statement;
+                break;
+            }
+        }
+        Assert.assertNotNull(select, "No select run, statements were: " + statements);
+
+        final String plan = explain(select);
+        Assert.assertTrue(plan.contains(indexName), "Expected " + indexName + " to be used by " + select.sql + ", plan was: " + plan);
+    }
+
+    private String explain(final RecordedStatement recordedStatement) throws SQLException, IOException, ReflectiveOperationException {
+        final StringBuilder plan = new StringBuilder();
+        try (final Connection connection = getEmbeddedDB().getDataSource().getConnection()) {
+            if (getEmbeddedDB().getDBEngine() == EmbeddedDB.DBEngine.POSTGRESQL) {
+                // The tables are too small for the planner to bother otherwise
+                try (final Statement statement = connection.createStatement()) {
+                    statement.execute("set enable_seqscan = off");
+                }
+            }
+            try (final PreparedStatement statement = connection.prepareStatement("explain " + recordedStatement.sql)) {
+                for (int i = 0; i < recordedStatement.setters.size(); i++) {
+                    recordedStatement.setters.get(i).invoke(statement, recordedStatement.parameters.get(i));
+                }
+                try (final ResultSet resultSet = statement.executeQuery()) {
+                    final int nbColumns = resultSet.getMetaData().getColumnCount();
+                    while (resultSet.next()) {
+                        for (int i = 1; i <= nbColumns; i++) {
+                            plan.append(resultSet.getString(i)).append(' ');
+                        }
+                        plan.append('\n');
+                    }
+                }
+            }
+        }
+        return plan.toString().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * @return a DAO recording the statements it prepares, and their bind values
+     */
+    private static BraintreeDao newRecordingDao(final List<RecordedStatement> statements) throws SQLException, IOException {
+        final DataSource dataSource = getEmbeddedDB().getDataSource();
+        final DataSource recordingDataSource = (DataSource) Proxy.newProxyInstance(DataSource.class.getClassLoader(), new Class<?>[]{DataSource.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+                final Object result = invokeUnwrapped(dataSource, method, args);
+                if (!"getConnection".equals(method.getName())) {
+                    return result;
+                }
+
+                final Connection connection = (Connection) result;
+                return Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+                        final Object result = invokeUnwrapped(connection, method, args);
+                        if (!"prepareStatement".equals(method.getName())) {
+                            return result;
+                        }
+
+                        final PreparedStatement preparedStatement = (PreparedStatement) result;
+                        final RecordedStatement recordedStatement = new RecordedStatement((String) args[0]);
+                        statements.add(recordedStatement);
+                        return Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(), new Class<?>[]{PreparedStatement.class}, new InvocationHandler() {
+                            @Override
+                            public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+                                // Bind values, e.g. setString(int, String), as opposed to setFetchSize(int)
+                                if (method.getName().startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer) {
+                                    recordedStatement.setters.add(method);
+                                    recordedStatement.parameters.add(args);
+                                }
+                                return invokeUnwrapped(preparedStatement, method, args);
+                            }
+                        });
+                    }
+                });
+            }
+        });
+        return new BraintreeDao(recordingDataSource);
+    }
+
+    private static Object invokeUnwrapped(final Object target, final Method method, final Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (final InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static final class RecordedStatement {
+
+        private final String sql;
+        private final List<Method> setters = new ArrayList<Method>();
+        private final List<Object[]> parameters = new ArrayList<Object[]>();
+
+        private RecordedStatement(final String sql) {
+            this.sql = sql;
+        }
+
+        @Override
+        public String toString() {
+            return sql;
+        }
+    }
+
+    private static EmbeddedDB getEmbeddedDB() {
+        return EmbeddedDbHelper.instance().getEmbeddedDB();
+    }
+
+    private static String quote(final String value) {
+        return "'" + value + "'";
+    }
+}
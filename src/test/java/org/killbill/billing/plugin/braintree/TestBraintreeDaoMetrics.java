@@ -0,0 +1,70 @@
+/*
+ * Copyright 2021 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.braintree;
+
+import java.math.BigDecimal;
+import java.util.UUID;
+
+import com.braintreegateway.Result;
+import com.braintreegateway.Transaction;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableMap;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.killbill.billing.catalog.api.Currency;
+import org.killbill.billing.payment.api.TransactionType;
+import org.killbill.billing.plugin.braintree.client.BraintreeClient;
+import org.killbill.billing.plugin.braintree.client.BraintreeSimulatorClient;
+import org.killbill.billing.plugin.braintree.core.BraintreePluginProperties.PaymentMethodType;
+import org.killbill.billing.plugin.braintree.dao.BraintreeDao;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestBraintreeDaoMetrics extends TestBase {
+
+    @Test(groups = "slow")
+    public void testMetrics() throws Exception {
+        final MetricRegistry metricRegistry = new MetricRegistry();
+        final BraintreeDao meteredDao = new BraintreeDao(EmbeddedDbHelper.instance().getEmbeddedDB().getDataSource(), metricRegistry);
+        final long connectionsBefore = metricRegistry.timer(MetricRegistry.name(BraintreeDao.METRIC_PREFIX, "connection", "acquisition")).getCount();
+
+        final BraintreeClient client = new BraintreeSimulatorClient(new BraintreeSimulatorClient.Store(), 0, 0, 0, 0, 0);
+        final String token = UUID.randomUUID().toString();
+        Assert.assertTrue(client.createPaymentMethod("customer", token, "fake-valid-nonce", PaymentMethodType.CARD).isSuccess());
+        final Result<Transaction> result = client.saleTransactionWithPaymentMethodToken(UUID.randomUUID().toString(), BigDecimal.TEN, token, false);
+
+        final UUID kbAccountId = UUID.randomUUID();
+        final UUID kbPaymentId = UUID.randomUUID();
+        final UUID kbTenantId = UUID.randomUUID();
+        final DateTime utcNow = new DateTime(DateTimeZone.UTC);
+        meteredDao.addPaymentMethod(kbAccountId, UUID.randomUUID(), true, ImmutableMap.<String, String>of("token", token), utcNow, kbTenantId);
+        meteredDao.addResponse(kbAccountId, kbPaymentId, UUID.randomUUID(), TransactionType.AUTHORIZE, BigDecimal.TEN, Currency.USD, result, utcNow, kbTenantId);
+        Assert.assertEquals(meteredDao.getResponses(kbPaymentId, kbTenantId).size(), 1);
+        Assert.assertEquals(meteredDao.getPaymentMethods(kbAccountId, kbTenantId).size(), 1);
+
+        Assert.assertEquals(metricRegistry.timer(MetricRegistry.name(BraintreeDao.METRIC_PREFIX, "connection", "acquisition")).getCount() - connectionsBefore, 4);
+        Assert.assertTrue(metricRegistry.timer(MetricRegistry.name(BraintreeDao.METRIC_PREFIX, "connection", "usage")).getCount() >= 4);
+        Assert.assertEquals(metricRegistry.timer(MetricRegistry.name(BraintreeDao.METRIC_PREFIX, "add_payment_method")).getCount(), 1);
+        Assert.assertEquals(metricRegistry.timer(MetricRegistry.name(BraintreeDao.METRIC_PREFIX, "add_response")).getCount(), 1);
+        Assert.assertEquals(metricRegistry.timer(MetricRegistry.name(BraintreeDao.METRIC_PREFIX, "get_responses")).getCount(), 1);
+        Assert.assertEquals(metricRegistry.histogram(MetricRegistry.name(BraintreeDao.METRIC_PREFIX, "get_payment_methods", "rows")).getSnapshot().getMax(), 1);
+
+        // Shared across instances
+        Assert.assertTrue(metricRegistry.getTimers().get(MetricRegistry.name(BraintreeDao.METRIC_PREFIX, "json", "serialization")).getCount() >= 2);
+        Assert.assertTrue(metricRegistry.getHistograms().get(MetricRegistry.name(BraintreeDao.METRIC_PREFIX, "json", "serialized_length")).getSnapshot().getMax() > 0);
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright 2021 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.killbill.billing.plugin.braintree;
+
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+import org.joda.time.DateTime;
+import org.killbill.billing.catalog.api.Currency;
+import org.killbill.billing.payment.api.TransactionType;
+import org.killbill.billing.payment.plugin.api.PaymentPluginStatus;
+import org.killbill.billing.plugin.braintree.client.BraintreeClient;
+import org.killbill.billing.plugin.braintree.core.BraintreeConfigProperties;
+import org.killbill.billing.plugin.braintree.core.BraintreeExpiredPaymentJanitor;
+import org.killbill.billing.plugin.braintree.core.BraintreePluginProperties;
+import org.killbill.billing.plugin.braintree.core.BraintreePluginProperties.PaymentMethodType;
+import org.killbill.billing.plugin.braintree.core.resources.ExpiredPaymentPolicy;
+import org.killbill.billing.plugin.braintree.dao.BraintreeDao;
+import org.killbill.billing.plugin.braintree.dao.gen.tables.records.BraintreeResponsesRecord;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.braintreegateway.PaymentInstrumentType;
+import com.braintreegateway.Transaction;
+import com.google.common.collect.ImmutableMap;
+
+public class TestBraintreeExpiredPaymentJanitor extends TestBase {
+
+    // Credit cards expire after a day, PayPal after a week, the others after 3 days (default)
+    private static final String EXPIRATION_PERIODS = "credit_card#P1d|paypal_account#P7d";
+
+    private UUID kbTenantId;
+    private String token;
+
+    @BeforeMethod(groups = "slow")
+    public void setUpSimulator() throws Exception {
+        configure(false);
+        kbTenantId = context.getTenantId();
+        token = UUID.randomUUID().toString();
+        Assert.assertTrue(getBraintreeClient().createPaymentMethod("customer", token, "fake-valid-nonce", PaymentMethodType.CARD).isSuccess());
+    }
+
+    @Test(groups = "slow")
+    public void testLatestExpiredCreatedDate() {
+        final ExpiredPaymentPolicy policy = new ExpiredPaymentPolicy(clock, braintreeConfigPropertiesConfigurationHandler.getConfigurable(kbTenantId));
+        // The shortest period
+        final DateTime before = clock.getUTCNow().minusDays(1);
+        final DateTime latestExpiredCreatedDate = policy.getLatestExpiredCreatedDate();
+        Assert.assertFalse(latestExpiredCreatedDate.isBefore(before));
+        Assert.assertFalse(latestExpiredCreatedDate.isAfter(clock.getUTCNow().minusDays(1)));
+    }
+
+    @Test(groups = "slow")
+    public void testSweepCancelsExpiredPaymentsPerInstrumentType() throws Exception {
+        final DateTime now = clock.getUTCNow();
+        final BraintreeResponsesRecord expiredCard = addPendingResponse(null, TransactionType.AUTHORIZE, PaymentInstrumentType.CREDIT_CARD, now.minusDays(2));
+        final BraintreeResponsesRecord card = addPendingResponse(null, TransactionType.PURCHASE, PaymentInstrumentType.CREDIT_CARD, now.minusHours(12));
+        final BraintreeResponsesRecord expiredPaypal = addPendingResponse(null, TransactionType.PURCHASE, PaymentInstrumentType.PAYPAL_ACCOUNT, now.minusDays(8));
+        final BraintreeResponsesRecord paypal = addPendingResponse(null, TransactionType.PURCHASE, PaymentInstrumentType.PAYPAL_ACCOUNT, now.minusDays(2));
+        final BraintreeResponsesRecord expiredBankAccount = addPendingResponse(null, TransactionType.PURCHASE, PaymentInstrumentType.US_BANK_ACCOUNT, now.minusDays(4));
+        final BraintreeResponsesRecord bankAccount = addPendingResponse(null, TransactionType.PURCHASE, PaymentInstrumentType.US_BANK_ACCOUNT, now.minusDays(2));
+
+        final BraintreeExpiredPaymentJanitor janitor = new BraintreeExpiredPaymentJanitor(braintreeConfigPropertiesConfigurationHandler, dao, clock);
+        Assert.assertEquals(janitor.sweep(), 3);
+        assertCanceled(expiredCard);
+        assertCanceled(expiredPaypal);
+        assertCanceled(expiredBankAccount);
+        assertPending(card);
+        assertPending(paypal);
+        assertPending(bankAccount);
+
+        // voidExpiredPayments isn't set
+        Assert.assertEquals(getBraintreeClient().getTransactionStatus(expiredCard.getBraintreeId()), Transaction.Status.AUTHORIZED);
+
+        Assert.assertEquals(janitor.sweep(), 0);
+        // Until the next ones expire
+        clock.addDeltaFromReality(TimeUnit.DAYS.toMillis(1));
+        Assert.assertEquals(janitor.sweep(), 1);
+        assertCanceled(card);
+    }
+
+    @Test(groups = "slow")
+    public void testSweepLeavesOverriddenAndFollowedUpPaymentsAlone() throws Exception {
+        final DateTime now = clock.getUTCNow();
+        final BraintreeResponsesRecord overridden = addPendingResponse(null, TransactionType.AUTHORIZE, PaymentInstrumentType.CREDIT_CARD, now.minusDays(5));
+        dao.updateResponse(overridden, ImmutableMap.<String, Object>of(BraintreePluginProperties.PROPERTY_OVERRIDDEN_TRANSACTION_STATUS, PaymentPluginStatus.PROCESSED.toString()));
+        // Authorization already captured
+        final BraintreeResponsesRecord captured = addPendingResponse(null, TransactionType.AUTHORIZE, PaymentInstrumentType.CREDIT_CARD, now.minusDays(5));
+        addPendingResponse(UUID.fromString(captured.getKbPaymentId()), TransactionType.CAPTURE, PaymentInstrumentType.CREDIT_CARD, now.minusDays(4));
+
+        Assert.assertEquals(new BraintreeExpiredPaymentJanitor(braintreeConfigPropertiesConfigurationHandler, dao, clock).sweep(), 0);
+        Assert.assertEquals(getResponse(overridden).getOverriddenTransactionStatus(), PaymentPluginStatus.PROCESSED.toString());
+        Assert.assertNull(BraintreeDao.mapFromAdditionalDataString(getResponse(overridden).getAdditionalData()).get("message"));
+        assertPending(captured);
+    }
+
+    @Test(groups = "slow")
+    public void testSweepLeavesRefreshedPaymentsAlone() throws Exception {
+        final DateTime now = clock.getUTCNow();
+        final BraintreeResponsesRecord refreshed = addPendingResponse(null, TransactionType.PURCHASE, PaymentInstrumentType.CREDIT_CARD, now.minusDays(3));
+        final BraintreeResponsesRecord expired = addPendingResponse(null, TransactionType.PURCHASE, PaymentInstrumentType.CREDIT_CARD, now.minusDays(2));
+
+        // The settlement poller refreshes one of the candidates while the janitor checks them
+        final BraintreeDao refreshingDao = new BraintreeDao(EmbeddedDbHelper.instance().getEmbeddedDB().getDataSource()) {
+            @Override
+            public List<BraintreeResponsesRecord> getPendingInitialResponses(final Collection<String> braintreeStatuses,
+                                                                             final DateTime createdBefore,
+                                                                             @Nullable final BraintreeResponsesRecord after,
+                                                                             final int limit) throws SQLException {
+                final List<BraintreeResponsesRecord> candidates = super.getPendingInitialResponses(braintreeStatuses, createdBefore, after, limit);
+                dao.updateResponse(refreshed, ImmutableMap.<String, Object>of(BraintreePluginProperties.PROPERTY_BT_TRANSACTION_STATUS, Transaction.Status.SETTLED.toString()));
+                return candidates;
+            }
+        };
+
+        Assert.assertEquals(new BraintreeExpiredPaymentJanitor(braintreeConfigPropertiesConfigurationHandler, refreshingDao, clock).sweep(), 1);
+        assertCanceled(expired);
+        Assert.assertNull(getResponse(refreshed).getOverriddenTransactionStatus());
+        Assert.assertEquals(getResponse(refreshed).getBtTransactionStatus(), Transaction.Status.SETTLED.toString());
+    }
+
+    @Test(groups = "slow")
+    public void testSweepVoidsExpiredPayments() throws Exception {
+        configure(true);
+        final DateTime now = clock.getUTCNow();
+        final BraintreeResponsesRecord expired = addPendingResponse(null, TransactionType.AUTHORIZE, PaymentInstrumentType.CREDIT_CARD, now.minusDays(2));
+        final BraintreeResponsesRecord pending = addPendingResponse(null, TransactionType.AUTHORIZE, PaymentInstrumentType.CREDIT_CARD, now.minusHours(12));
+
+        Assert.assertEquals(new BraintreeExpiredPaymentJanitor(braintreeConfigPropertiesConfigurationHandler, dao, clock).sweep(), 1);
+        assertCanceled(expired);
+        Assert.assertEquals(getBraintreeClient().getTransactionStatus(expired.getBraintreeId()), Transaction.Status.VOIDED);
+        Assert.assertEquals(getBraintreeClient().getTransactionStatus(pending.getBraintreeId()), Transaction.Status.AUTHORIZED);
+    }
+
+    private void configure(final boolean voidExpiredPayments) {
+        final Properties properties = new Properties();
+        properties.put("org.killbill.billing.plugin.braintree.btEnvironment", "simulator");
+        properties.put("org.killbill.billing.plugin.braintree.pendingPaymentExpirationPeriod", EXPIRATION_PERIODS);
+        properties.put("org.killbill.billing.plugin.braintree.voidExpiredPayments", String.valueOf(voidExpiredPayments));
+        braintreeConfigPropertiesConfigurationHandler.setDefaultConfigurable(new BraintreeConfigProperties(properties, ""));
+    }
+
+    private BraintreeClient getBraintreeClient() {
+        return braintreeConfigPropertiesConfigurationHandler.getBraintreeClient(kbTenantId);
+    }
+
+    /**
+     * Records a sale made in the simulator, still pending settlement
+     */
+    private BraintreeResponsesRecord addPendingResponse(@Nullable final UUID kbPaymentId,
+                                                        final TransactionType transactionType,
+                                                        final String paymentInstrumentType,
+                                                        final DateTime createdDate) throws SQLException {
+        final BraintreeResponsesRecord response = dao.addResponse(account.getId(),
+                                                                  kbPaymentId == null ? UUID.randomUUID() : kbPaymentId,
+                                                                  UUID.randomUUID(),
+                                                                  transactionType,
+                                                                  BigDecimal.TEN,
+                                                                  Currency.USD,
+                                                                  getBraintreeClient().saleTransactionWithPaymentMethodToken(UUID.randomUUID().toString(), BigDecimal.TEN, token, false),
+                                                                  createdDate,
+                                                                  kbTenantId);
+        final Map<String, Object> pending = ImmutableMap.<String, Object>of(BraintreePluginProperties.PROPERTY_BT_TRANSACTION_STATUS, Transaction.Status.SETTLEMENT_PENDING.toString(),
+                                                                            BraintreePluginProperties.PROPERTY_BT_PAYMENT_INSTRUMENT_TYPE, paymentInstrumentType);
+        dao.updateResponse(response, pending);
+        return getResponse(response);
+    }
+
+    private BraintreeResponsesRecord getResponse(final BraintreeResponsesRecord response) throws SQLException {
+        for (final BraintreeResponsesRecord current : dao.getResponses(UUID.fromString(response.getKbPaymentId()), kbTenantId)) {
+            if (current.getRecordId().equals(response.getRecordId())) {
+                return current;
+            }
+        }
+        return null;
+    }
+
+    private void assertCanceled(final BraintreeResponsesRecord response) throws SQLException {
+        final BraintreeResponsesRecord current = getResponse(response);
+        Assert.assertEquals(current.getOverriddenTransactionStatus(), PaymentPluginStatus.CANCELED.toString());
+        Assert.assertEquals(BraintreeDao.mapFromAdditionalDataString(current.getAdditionalData()).get("message"), "Payment Expired - Cancelled by Janitor");
+    }
+
+    private void assertPending(final BraintreeResponsesRecord response) throws SQLException {
+        final BraintreeResponsesRecord current = getResponse(response);
+        Assert.assertNull(current.getOverriddenTransactionStatus());
+        Assert.assertEquals(current.getBtTransactionStatus(), Transaction.Status.SETTLEMENT_PENDING.toString());
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2021 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.killbill.billing.plugin.braintree;
+
+import java.math.BigDecimal;
+import java.util.Properties;
+import java.util.UUID;
+
+import org.killbill.billing.osgi.libs.killbill.OSGIConfigPropertiesService;
+import org.killbill.billing.payment.api.Payment;
+import org.killbill.billing.payment.api.PaymentTransaction;
+import org.killbill.billing.payment.api.PluginProperty;
+import org.killbill.billing.payment.api.TransactionType;
+import org.killbill.billing.payment.plugin.api.PaymentPluginStatus;
+import org.killbill.billing.payment.plugin.api.PaymentTransactionInfoPlugin;
+import org.killbill.billing.plugin.TestUtils;
+import org.killbill.billing.plugin.braintree.api.BraintreePaymentMethodPlugin;
+import org.killbill.billing.plugin.braintree.api.BraintreePaymentPluginApi;
+import org.killbill.billing.plugin.braintree.core.BraintreeConfigProperties;
+import org.killbill.billing.plugin.braintree.core.BraintreeCustomerIdCache;
+import org.killbill.billing.plugin.braintree.core.BraintreePluginProperties;
+import org.mockito.Mockito;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ImmutableList;
+
+public class TestBraintreeInitialTransaction extends TestBase {
+
+    // Declined by the simulator: a transaction only goes through if the nonce isn't the one charged
+    private static final String DECLINED_NONCE_PREFIX = "fake-processor-declined-";
+
+    @BeforeMethod(groups = "slow")
+    public void setUpSimulator() throws Exception {
+        final Properties properties = new Properties();
+        properties.put("org.killbill.billing.plugin.braintree.btEnvironment", "simulator");
+        braintreeConfigPropertiesConfigurationHandler.setDefaultConfigurable(new BraintreeConfigProperties(properties, ""));
+
+        braintreePaymentPluginApi = new BraintreePaymentPluginApi(braintreeConfigPropertiesConfigurationHandler,
+                                                                  killbillApi,
+                                                                  Mockito.mock(OSGIConfigPropertiesService.class),
+                                                                  clock,
+                                                                  dao,
+                                                                  new BraintreeCustomerIdCache());
+        TestUtils.updateOSGIKillbillAPI(killbillApi, braintreePaymentPluginApi);
+    }
+
+    @Test(groups = "slow")
+    public void testVaultedPaymentMethodIsChargedByToken() throws Exception {
+        final UUID kbPaymentMethodId = UUID.randomUUID();
+        braintreePaymentPluginApi.addPaymentMethod(account.getId(),
+                                                   kbPaymentMethodId,
+                                                   new BraintreePaymentMethodPlugin(kbPaymentMethodId, kbPaymentMethodId.toString(), true, ImmutableList.of()),
+                                                   true,
+                                                   ImmutableList.of(new PluginProperty(BraintreePluginProperties.PROPERTY_BT_NONCE, "fake-valid-nonce-" + kbPaymentMethodId, false),
+                                                                    new PluginProperty(BraintreePluginProperties.PROPERTY_BT_CUSTOMER_ID, "customer", false)),
+                                                   context);
+
+        // The nonce of the payment call is ignored
+        Assert.assertEquals(execute(TransactionType.PURCHASE, kbPaymentMethodId).getStatus(), PaymentPluginStatus.PROCESSED);
+        Assert.assertEquals(execute(TransactionType.CREDIT, kbPaymentMethodId).getStatus(), PaymentPluginStatus.PROCESSED);
+    }
+
+    @Test(groups = "slow")
+    public void testUnvaultedPaymentMethodIsChargedByNonce() throws Exception {
+        Assert.assertEquals(execute(TransactionType.PURCHASE, UUID.randomUUID()).getStatus(), PaymentPluginStatus.ERROR);
+        Assert.assertEquals(execute(TransactionType.CREDIT, UUID.randomUUID()).getStatus(), PaymentPluginStatus.ERROR);
+    }
+
+    private PaymentTransactionInfoPlugin execute(final TransactionType transactionType, final UUID kbPaymentMethodId) throws Exception {
+        final Payment payment = TestUtils.buildPayment(account.getId(), kbPaymentMethodId, account.getCurrency(), killbillApi);
+        final PaymentTransaction paymentTransaction = TestUtils.buildPaymentTransaction(payment, transactionType, BigDecimal.TEN, payment.getCurrency());
+        final ImmutableList<PluginProperty> properties = ImmutableList.of(new PluginProperty(BraintreePluginProperties.PROPERTY_BT_NONCE, DECLINED_NONCE_PREFIX + UUID.randomUUID(), false));
+        if (transactionType == TransactionType.CREDIT) {
+            return braintreePaymentPluginApi.creditPayment(account.getId(),
+                                                           payment.getId(),
+                                                           paymentTransaction.getId(),
+                                                           kbPaymentMethodId,
+                                                           paymentTransaction.getAmount(),
+                                                           paymentTransaction.getCurrency(),
+                                                           properties,
+                                                           context);
+        }
+        return braintreePaymentPluginApi.purchasePayment(account.getId(),
+                                                         payment.getId(),
+                                                         paymentTransaction.getId(),
+                                                         kbPaymentMethodId,
+                                                         paymentTransaction.getAmount(),
+                                                         paymentTransaction.getCurrency(),
+                                                         properties,
+                                                         context);
+    }
+}
@@ -19,25 +19,35 @@ package org.killbill.billing.plugin.braintree;
 import com.braintreegateway.Customer;
 import com.braintreegateway.CustomerRequest;
 import com.braintreegateway.Result;
+import com.braintreegateway.WebhookNotification;
 import com.braintreegateway.exceptions.BraintreeException;
 import com.google.common.collect.ImmutableList;
 import org.killbill.billing.ObjectType;
 import org.killbill.billing.payment.api.*;
+import org.killbill.billing.payment.plugin.api.GatewayNotification;
 import org.killbill.billing.payment.plugin.api.PaymentMethodInfoPlugin;
 import org.killbill.billing.payment.plugin.api.PaymentPluginApiException;
 import org.killbill.billing.payment.plugin.api.PaymentPluginStatus;
 import org.killbill.billing.payment.plugin.api.PaymentTransactionInfoPlugin;
 import org.killbill.billing.plugin.TestUtils;
+import org.killbill.billing.plugin.api.PluginProperties;
 import org.killbill.billing.plugin.api.core.PluginCustomField;
 import org.killbill.billing.plugin.braintree.api.BraintreePaymentMethodPlugin;
 import org.killbill.billing.plugin.braintree.core.BraintreePluginProperties;
+import org.killbill.billing.plugin.braintree.core.BraintreeSettlementPoller;
+import org.killbill.billing.plugin.braintree.core.BraintreeWebhookProcessor;
+import org.killbill.billing.plugin.braintree.dao.gen.tables.records.BraintreePaymentMethodsRecord;
 import org.killbill.billing.plugin.braintree.core.BraintreePluginProperties.PaymentMethodType;
 import org.killbill.billing.util.callcontext.TenantContext;
 import org.mockito.Mockito;
 import org.testng.annotations.Test;
 
 import java.math.BigDecimal;
+import java.net.URLEncoder;
+import java.sql.SQLException;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 import static org.testng.Assert.*;
@@ -89,6 +99,33 @@ public class TestBraintreePaymentPluginApi extends TestBase {
         assertEquals(syncPaymentMethods(kbAccountId).size(), 0);
     }
 
+    @Test(groups = "integration", enabled = true)
+    public void testReconcilePaymentMethods() throws PaymentPluginApiException, SQLException {
+        UUID kbAccountId = account.getId();
+        Customer customer = createBraintreeCustomer(kbAccountId);
+        PaymentMethodPlugin keptPaymentMethod = addPaymentMethodToCustomer(customer, PaymentMethodType.CARD);
+        PaymentMethodPlugin deletedPaymentMethod = addPaymentMethodToCustomer(customer, PaymentMethodType.PAYPAL);
+        //Delete payment method directly in Braintree
+        braintreeClient.deletePaymentMethod(deletedPaymentMethod.getExternalPaymentMethodId());
+
+        //Other tests may have left accounts behind in the tenant
+        Map<String, Integer> counts = braintreePaymentPluginApi.reconcilePaymentMethods(context.getTenantId());
+        assertTrue(counts.get("accounts") >= 1);
+        assertTrue(counts.get("updated") >= 1);
+        assertTrue(counts.get("deleted") >= 1);
+
+        List<PaymentMethodInfoPlugin> paymentMethods = braintreePaymentPluginApi.getPaymentMethods(kbAccountId, false, ImmutableList.of(), context);
+        assertEquals(paymentMethods.size(), 1);
+        assertEquals(paymentMethods.get(0).getPaymentMethodId(), keptPaymentMethod.getKbPaymentMethodId());
+
+        //Nothing changed in Braintree since the last reconciliation, the row is left alone
+        BraintreePaymentMethodsRecord keptRecord = dao.getPaymentMethod(keptPaymentMethod.getKbPaymentMethodId(), context.getTenantId());
+        assertNotNull(keptRecord.getAdditionalDataHash());
+        counts = braintreePaymentPluginApi.reconcilePaymentMethods(context.getTenantId());
+        assertTrue(counts.get("unchanged") >= 1);
+        assertEquals(dao.getPaymentMethod(keptPaymentMethod.getKbPaymentMethodId(), context.getTenantId()).getUpdatedDate(), keptRecord.getUpdatedDate());
+    }
+
     @Test(groups = "integration", enabled = true)
     public void testSuccessfulPurchase() throws PaymentPluginApiException, PaymentApiException {
         UUID kbAccountId = account.getId();
@@ -266,6 +303,78 @@ public class TestBraintreePaymentPluginApi extends TestBase {
         assertEquals(payments.get(2).getKbPaymentId(), payment.getId());
     }
 
+    @Test(groups = "integration", enabled = true)
+    public void testSettlementPollerRefreshesStatus() throws Exception {
+        UUID kbAccountId = account.getId();
+        Customer customer = createBraintreeCustomer(kbAccountId);
+        PaymentMethodPlugin paymentMethodPlugin  = addPaymentMethodToCustomer(customer, PaymentMethodType.CARD);
+
+        final Payment payment = TestUtils.buildPayment(kbAccountId, paymentMethodPlugin.getKbPaymentMethodId(), account.getCurrency(), killbillApi);
+        final PaymentTransaction authorizationTransaction = TestUtils.buildPaymentTransaction(payment, TransactionType.AUTHORIZE, BigDecimal.TEN, payment.getCurrency());
+        final PaymentTransactionInfoPlugin authorizationInfoPlugin = braintreePaymentPluginApi.authorizePayment(kbAccountId,
+                payment.getId(),
+                authorizationTransaction.getId(),
+                paymentMethodPlugin.getKbPaymentMethodId(),
+                authorizationTransaction.getAmount(),
+                authorizationTransaction.getCurrency(),
+                ImmutableList.of(),
+                context);
+        TestUtils.updatePaymentTransaction(authorizationTransaction, authorizationInfoPlugin);
+
+        // Void the transaction behind Kill Bill's back: reads don't see it until the poller runs
+        braintreeGateway.transaction().voidTransaction(authorizationInfoPlugin.getFirstPaymentReferenceId());
+        List<PaymentTransactionInfoPlugin> payments = braintreePaymentPluginApi.getPaymentInfo(kbAccountId, payment.getId(), ImmutableList.of(), context);
+        assertEquals(PluginProperties.findPluginPropertyValue(BraintreePluginProperties.PROPERTY_BT_TRANSACTION_STATUS, payments.get(0).getProperties()), "AUTHORIZED");
+
+        final BraintreeSettlementPoller settlementPoller = new BraintreeSettlementPoller(braintreeConfigPropertiesConfigurationHandler, dao, clock);
+        assertEquals(settlementPoller.poll(), 1);
+        payments = braintreePaymentPluginApi.getPaymentInfo(kbAccountId, payment.getId(), ImmutableList.of(), context);
+        assertEquals(PluginProperties.findPluginPropertyValue(BraintreePluginProperties.PROPERTY_BT_TRANSACTION_STATUS, payments.get(0).getProperties()), "VOIDED");
+
+        // Nothing left to refresh
+        assertEquals(settlementPoller.poll(), 0);
+    }
+
+    @Test(groups = "integration", enabled = true)
+    public void testWebhookNotification() throws Exception {
+        UUID kbAccountId = account.getId();
+        Customer customer = createBraintreeCustomer(kbAccountId);
+        PaymentMethodPlugin paymentMethodPlugin  = addPaymentMethodToCustomer(customer, PaymentMethodType.CARD);
+
+        final Payment payment = TestUtils.buildPayment(kbAccountId, paymentMethodPlugin.getKbPaymentMethodId(), account.getCurrency(), killbillApi);
+        final PaymentTransaction purchaseTransaction = TestUtils.buildPaymentTransaction(payment, TransactionType.PURCHASE, BigDecimal.TEN, payment.getCurrency());
+        final PaymentTransactionInfoPlugin purchaseInfoPlugin = braintreePaymentPluginApi.purchasePayment(kbAccountId,
+                payment.getId(),
+                purchaseTransaction.getId(),
+                paymentMethodPlugin.getKbPaymentMethodId(),
+                purchaseTransaction.getAmount(),
+                purchaseTransaction.getCurrency(),
+                ImmutableList.of(),
+                context);
+        TestUtils.updatePaymentTransaction(purchaseTransaction, purchaseInfoPlugin);
+
+        final HashMap<String, String> sample = braintreeGateway.webhookTesting().sampleNotification(WebhookNotification.Kind.TRANSACTION_SETTLED,
+                                                                                                     purchaseInfoPlugin.getFirstPaymentReferenceId());
+        final String body = "bt_signature=" + URLEncoder.encode(sample.get("bt_signature"), "UTF-8") + "&bt_payload=" + URLEncoder.encode(sample.get("bt_payload"), "UTF-8");
+
+        GatewayNotification gatewayNotification = braintreePaymentPluginApi.processNotification(body, ImmutableList.of(), context);
+        assertEquals(gatewayNotification.getStatus(), 200);
+        // Re-deliveries are acknowledged but not queued again
+        gatewayNotification = braintreePaymentPluginApi.processNotification(body, ImmutableList.of(), context);
+        assertEquals(gatewayNotification.getStatus(), 200);
+
+        gatewayNotification = braintreePaymentPluginApi.processNotification("bt_signature=invalid&bt_payload=" + URLEncoder.encode(sample.get("bt_payload"), "UTF-8"), ImmutableList.of(), context);
+        assertEquals(gatewayNotification.getStatus(), 400);
+
+        final BraintreeWebhookProcessor webhookProcessor = new BraintreeWebhookProcessor(braintreeConfigPropertiesConfigurationHandler, dao, clock);
+        assertEquals(webhookProcessor.drain(), 1);
+        final List<PaymentTransactionInfoPlugin> payments = braintreePaymentPluginApi.getPaymentInfo(kbAccountId, payment.getId(), ImmutableList.of(), context);
+        assertEquals(PluginProperties.findPluginPropertyValue(BraintreePluginProperties.PROPERTY_BT_TRANSACTION_STATUS, payments.get(0).getProperties()), "SETTLED");
+
+        // Nothing left to apply
+        assertEquals(webhookProcessor.drain(), 0);
+    }
+
     private void verifyPaymentTransactionInfoPlugin(final Payment payment,
                                                     final PaymentTransaction paymentTransaction,
                                                     final PaymentTransactionInfoPlugin paymentTransactionInfoPlugin,
@@ -0,0 +1,199 @@
+/*
+ * Copyright 2021 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.braintree;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
+
+import com.braintreegateway.CreditCard;
+import com.braintreegateway.PayPalAccount;
+import com.braintreegateway.PaymentMethod;
+import com.braintreegateway.Result;
+import com.braintreegateway.Transaction;
+import com.braintreegateway.exceptions.BraintreeException;
+import com.braintreegateway.exceptions.NotFoundException;
+import com.braintreegateway.exceptions.ServiceUnavailableException;
+import com.google.common.collect.ImmutableList;
+import org.killbill.billing.plugin.braintree.client.BraintreeClient;
+import org.killbill.billing.plugin.braintree.client.BraintreeClientRegistry;
+import org.killbill.billing.plugin.braintree.client.BraintreeSimulatorClient;
+import org.killbill.billing.plugin.braintree.client.MeteredBraintreeClient;
+import org.killbill.billing.plugin.braintree.core.BraintreeConfigProperties;
+import org.killbill.billing.plugin.braintree.core.BraintreePluginProperties;
+import org.killbill.billing.plugin.braintree.core.BraintreePluginProperties.PaymentMethodType;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestBraintreeSimulatorClient {
+
+    private static final String CUSTOMER_ID = "simulator-customer";
+
+    @Test(groups = "slow")
+    public void testTransactionLifecycle() {
+        final BraintreeClient client = new BraintreeSimulatorClient(new BraintreeSimulatorClient.Store(), 0, 0, 0, 0, 0);
+        final String token = createCard(client);
+
+        final Result<Transaction> authorization = client.saleTransactionWithPaymentMethodToken(UUID.randomUUID().toString(), new BigDecimal("100.00"), token, false);
+        Assert.assertTrue(authorization.isSuccess());
+        Assert.assertEquals(authorization.getTarget().getStatus(), Transaction.Status.AUTHORIZED);
+        Assert.assertEquals(authorization.getTarget().getCreditCard().getToken(), token);
+        Assert.assertEquals(authorization.getTarget().getCustomer().getId(), CUSTOMER_ID);
+        final String transactionId = authorization.getTarget().getId();
+
+        // Partial capture
+        final Result<Transaction> capture = client.submitTransactionForSettlement(transactionId, new BigDecimal("80.00"));
+        Assert.assertTrue(capture.isSuccess());
+        Assert.assertEquals(capture.getTarget().getStatus(), Transaction.Status.SUBMITTED_FOR_SETTLEMENT);
+        Assert.assertEquals(capture.getTarget().getAmount().compareTo(new BigDecimal("80.00")), 0);
+        Assert.assertFalse(client.submitTransactionForSettlement(transactionId, new BigDecimal("80.00")).isSuccess());
+
+        // No settlement delay: settled on the next read
+        Assert.assertEquals(client.getTransactionStatus(transactionId), Transaction.Status.SETTLED);
+        Assert.assertEquals(client.getTransactionStatuses(ImmutableList.of(transactionId, "unknown")).size(), 1);
+
+        final Result<Transaction> refund = client.refundTransaction(transactionId, new BigDecimal("50.00"));
+        Assert.assertTrue(refund.isSuccess());
+        Assert.assertEquals(refund.getTarget().getType(), Transaction.Type.CREDIT);
+        Assert.assertEquals(refund.getTarget().getRefundedTransactionId(), transactionId);
+        Assert.assertFalse(client.refundTransaction(transactionId, new BigDecimal("50.00")).isSuccess());
+        Assert.assertTrue(client.refundTransaction(transactionId, new BigDecimal("30.00")).isSuccess());
+
+        Assert.assertFalse(client.voidTransaction(transactionId).isSuccess());
+    }
+
+    @Test(groups = "slow")
+    public void testVoidBeforeSettlement() {
+        final BraintreeClient client = new BraintreeSimulatorClient(new BraintreeSimulatorClient.Store(), 0, 0, 0, 0, 3600 * 1000L);
+        final String token = createCard(client);
+
+        final String authorizationId = client.saleTransactionWithPaymentMethodToken(UUID.randomUUID().toString(), BigDecimal.TEN, token, false).getTarget().getId();
+        Assert.assertEquals(client.voidTransaction(authorizationId).getTarget().getStatus(), Transaction.Status.VOIDED);
+        Assert.assertFalse(client.submitTransactionForSettlement(authorizationId, BigDecimal.TEN).isSuccess());
+
+        // Not settled yet: a full refund is a void, a partial one is rejected
+        final String purchaseId = client.saleTransactionWithPaymentMethodToken(UUID.randomUUID().toString(), BigDecimal.TEN, token, true).getTarget().getId();
+        Assert.assertEquals(client.getTransactionStatus(purchaseId), Transaction.Status.SUBMITTED_FOR_SETTLEMENT);
+        try {
+            client.refundTransaction(purchaseId, BigDecimal.ONE);
+            Assert.fail();
+        } catch (final BraintreeException e) {
+            Assert.assertEquals(client.getTransactionStatus(purchaseId), Transaction.Status.SUBMITTED_FOR_SETTLEMENT);
+        }
+        Assert.assertEquals(client.refundTransaction(purchaseId, BigDecimal.TEN).getTarget().getStatus(), Transaction.Status.VOIDED);
+    }
+
+    @Test(groups = "slow")
+    public void testDeclines() {
+        final BraintreeClient client = new BraintreeSimulatorClient(new BraintreeSimulatorClient.Store(), 0, 0, 0, 0, 0);
+        final String token = createCard(client);
+
+        final Result<Transaction> declined = client.saleTransactionWithPaymentMethodToken(UUID.randomUUID().toString(), new BigDecimal("2001.00"), token, true);
+        Assert.assertFalse(declined.isSuccess());
+        Assert.assertEquals(declined.getTransaction().getStatus(), Transaction.Status.PROCESSOR_DECLINED);
+        Assert.assertEquals(declined.getTransaction().getProcessorResponseCode(), "2001");
+        Assert.assertEquals(BraintreePluginProperties.toAdditionalDataMap(declined).get(BraintreePluginProperties.PROPERTY_BT_GATEWAY_ERROR_CODE), "2001");
+
+        final Result<Transaction> failed = client.saleTransactionWithPaymentMethodToken(UUID.randomUUID().toString(), new BigDecimal("3000.00"), token, true);
+        Assert.assertEquals(failed.getTransaction().getStatus(), Transaction.Status.FAILED);
+
+        final Result<Transaction> declinedNonce = client.saleTransaction(UUID.randomUUID().toString(), BigDecimal.TEN, CUSTOMER_ID, "fake-processor-declined-visa-nonce", true);
+        Assert.assertEquals(declinedNonce.getTransaction().getStatus(), Transaction.Status.PROCESSOR_DECLINED);
+
+        Assert.assertFalse(client.saleTransactionWithPaymentMethodToken(UUID.randomUUID().toString(), BigDecimal.TEN, "unknown", true).isSuccess());
+
+        final BraintreeClient alwaysDeclining = new BraintreeSimulatorClient(new BraintreeSimulatorClient.Store(), 0, 0, 1, 0, 0);
+        Assert.assertEquals(alwaysDeclining.saleTransaction(UUID.randomUUID().toString(), BigDecimal.TEN, null, "fake-valid-nonce", true).getTransaction().getStatus(), Transaction.Status.PROCESSOR_DECLINED);
+    }
+
+    @Test(groups = "slow")
+    public void testVault() {
+        final BraintreeClient client = new BraintreeSimulatorClient(new BraintreeSimulatorClient.Store(), 0, 0, 0, 0, 0);
+        final String cardToken = createCard(client);
+        final Result<? extends PaymentMethod> paypal = client.createPaymentMethod(CUSTOMER_ID, UUID.randomUUID().toString(), "fake-paypal-billing-agreement-nonce", PaymentMethodType.PAYPAL);
+        Assert.assertTrue(paypal.getTarget() instanceof PayPalAccount);
+        Assert.assertFalse(paypal.getTarget().isDefault());
+
+        List<? extends PaymentMethod> paymentMethods = client.getPaymentMethods(CUSTOMER_ID);
+        Assert.assertEquals(paymentMethods.size(), 2);
+
+        // Nonces are single use
+        Assert.assertFalse(client.createPaymentMethod(CUSTOMER_ID, UUID.randomUUID().toString(), "fake-paypal-billing-agreement-nonce", PaymentMethodType.PAYPAL).isSuccess());
+        final String nonce = client.createNonceFromPaymentMethodToken(cardToken);
+        Assert.assertTrue(client.saleTransaction(UUID.randomUUID().toString(), BigDecimal.TEN, null, nonce, true).isSuccess());
+        Assert.assertFalse(client.saleTransaction(UUID.randomUUID().toString(), BigDecimal.TEN, null, nonce, true).isSuccess());
+        Assert.assertNull(client.createNonceFromPaymentMethodToken("unknown"));
+
+        final String newToken = UUID.randomUUID().toString();
+        Assert.assertEquals(client.updatePaymentMethod(cardToken, newToken, CUSTOMER_ID).getTarget().getToken(), newToken);
+        Assert.assertTrue(client.deletePaymentMethod(newToken).isSuccess());
+        paymentMethods = client.getPaymentMethods(CUSTOMER_ID);
+        Assert.assertEquals(paymentMethods.size(), 1);
+        Assert.assertEquals(paymentMethods.get(0).getToken(), paypal.getTarget().getToken());
+
+        try {
+            client.getPaymentMethods("unknown");
+            Assert.fail();
+        } catch (final BraintreeException e) {
+            Assert.assertTrue(e.getCause() instanceof NotFoundException);
+        }
+    }
+
+    @Test(groups = "slow")
+    public void testErrorInjection() {
+        final BraintreeClient client = new BraintreeSimulatorClient(new BraintreeSimulatorClient.Store(), 0, 0, 0, 1, 0);
+        try {
+            client.saleTransaction(UUID.randomUUID().toString(), BigDecimal.TEN, null, "fake-valid-nonce", true);
+            Assert.fail();
+        } catch (final BraintreeException e) {
+            Assert.assertTrue(e.getCause() instanceof ServiceUnavailableException);
+        }
+    }
+
+    @Test(groups = "slow")
+    public void testRegistryKeepsSimulatedAccountAcrossReloads() {
+        final BraintreeClientRegistry registry = new BraintreeClientRegistry();
+        final UUID kbTenantId = UUID.randomUUID();
+
+        final BraintreeClient client = registry.getClient(kbTenantId, buildSimulatorConfig());
+        Assert.assertTrue(client instanceof MeteredBraintreeClient);
+        final String token = createCard(client);
+
+        final BraintreeClient reloadedClient = registry.getClient(kbTenantId, buildSimulatorConfig());
+        Assert.assertNotSame(reloadedClient, client);
+        Assert.assertTrue(reloadedClient.saleTransactionWithPaymentMethodToken(UUID.randomUUID().toString(), BigDecimal.TEN, token, true).isSuccess());
+
+        // Tenants don't share their simulated account
+        Assert.assertFalse(registry.getClient(UUID.randomUUID(), buildSimulatorConfig()).saleTransactionWithPaymentMethodToken(UUID.randomUUID().toString(), BigDecimal.TEN, token, true).isSuccess());
+    }
+
+    private static String createCard(final BraintreeClient client) {
+        final String token = UUID.randomUUID().toString();
+        final Result<? extends PaymentMethod> result = client.createPaymentMethod(CUSTOMER_ID, token, "fake-valid-nonce-" + token, PaymentMethodType.CARD);
+        Assert.assertTrue(result.isSuccess());
+        Assert.assertTrue(result.getTarget() instanceof CreditCard);
+        Assert.assertEquals(result.getTarget().getToken(), token);
+        return token;
+    }
+
+    private static BraintreeConfigProperties buildSimulatorConfig() {
+        final Properties properties = new Properties();
+        properties.put("org.killbill.billing.plugin.braintree.btEnvironment", BraintreeSimulatorClient.ENVIRONMENT);
+        return new BraintreeConfigProperties(properties, "");
+    }
+}
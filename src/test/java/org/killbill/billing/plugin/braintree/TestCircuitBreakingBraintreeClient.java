@@ -0,0 +1,204 @@
+/*
+ * Copyright 2021 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.braintree;
+
+import java.math.BigDecimal;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.braintreegateway.Result;
+import com.braintreegateway.Transaction;
+import com.braintreegateway.exceptions.BraintreeException;
+import com.braintreegateway.exceptions.NotFoundException;
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.killbill.billing.plugin.braintree.client.BraintreeCircuitOpenException;
+import org.killbill.billing.plugin.braintree.client.BraintreeClient;
+import org.killbill.billing.plugin.braintree.client.BraintreeClientRegistry;
+import org.killbill.billing.plugin.braintree.client.BraintreeConcurrencyLimitException;
+import org.killbill.billing.plugin.braintree.client.BraintreeSimulatorClient;
+import org.killbill.billing.plugin.braintree.client.CircuitBreakingBraintreeClient;
+import org.killbill.billing.plugin.braintree.client.CircuitBreakingBraintreeClient.State;
+import org.killbill.billing.plugin.braintree.client.ConcurrencyLimitedBraintreeClient;
+import org.killbill.billing.plugin.braintree.core.BraintreeConfigProperties;
+import org.killbill.billing.plugin.braintree.core.BraintreePluginProperties.PaymentMethodType;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestCircuitBreakingBraintreeClient {
+
+    private static final int FAILURE_THRESHOLD = 3;
+    private static final long OPEN_MILLIS = 30000;
+
+    private final AtomicLong nanos = new AtomicLong();
+    private final Ticker ticker = new Ticker() {
+        @Override
+        public long read() {
+            return nanos.get();
+        }
+    };
+
+    @Test(groups = "slow")
+    public void testOpensAndRecovers() {
+        final BraintreeSimulatorClient.Store store = new BraintreeSimulatorClient.Store();
+        final CircuitBreakingBraintreeClient failingClient = new CircuitBreakingBraintreeClient(new BraintreeSimulatorClient(store, 0, 0, 0, 1, 0), FAILURE_THRESHOLD, OPEN_MILLIS, ticker);
+
+        for (int i = 0; i < FAILURE_THRESHOLD; i++) {
+            Assert.assertEquals(failingClient.getState(), State.CLOSED);
+            assertFails(failingClient, BraintreeException.class);
+        }
+        Assert.assertEquals(failingClient.getState(), State.OPEN);
+        Assert.assertEquals(failingClient.getConsecutiveFailures(), FAILURE_THRESHOLD);
+        assertFails(failingClient, BraintreeCircuitOpenException.class);
+
+        // The trial call fails: open again
+        nanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(OPEN_MILLIS));
+        Assert.assertEquals(failingClient.getState(), State.HALF_OPEN);
+        assertFails(failingClient, BraintreeException.class);
+        Assert.assertEquals(failingClient.getState(), State.OPEN);
+        assertFails(failingClient, BraintreeCircuitOpenException.class);
+    }
+
+    @Test(groups = "slow")
+    public void testTrialCallClosesBreaker() {
+        final BraintreeSimulatorClient.Store store = new BraintreeSimulatorClient.Store();
+        final BraintreeClient healthyClient = new BraintreeSimulatorClient(store, 0, 0, 0, 0, 0);
+        final AtomicLong failures = new AtomicLong(FAILURE_THRESHOLD);
+        final CircuitBreakingBraintreeClient client = new CircuitBreakingBraintreeClient(new BraintreeSimulatorClient(store, 0, 0, 0, 1, 0) {
+            @Override
+            public String createNonceFromPaymentMethodToken(final String braintreePaymentMethodToken) {
+                // Fails FAILURE_THRESHOLD times, then recovers
+                return failures.getAndDecrement() > 0 ? super.createNonceFromPaymentMethodToken(braintreePaymentMethodToken) : healthyClient.createNonceFromPaymentMethodToken(braintreePaymentMethodToken);
+            }
+        }, FAILURE_THRESHOLD, OPEN_MILLIS, ticker);
+
+        final String token = UUID.randomUUID().toString();
+        Assert.assertTrue(healthyClient.createPaymentMethod("customer", token, "fake-valid-nonce", PaymentMethodType.CARD).isSuccess());
+        for (int i = 0; i < FAILURE_THRESHOLD; i++) {
+            assertFails(client, BraintreeException.class);
+        }
+        Assert.assertEquals(client.getState(), State.OPEN);
+
+        nanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(OPEN_MILLIS));
+        Assert.assertNotNull(client.createNonceFromPaymentMethodToken(token));
+        Assert.assertEquals(client.getState(), State.CLOSED);
+        Assert.assertEquals(client.getConsecutiveFailures(), 0);
+    }
+
+    @Test(groups = "slow")
+    public void testClientErrorsDontOpenBreaker() {
+        final CircuitBreakingBraintreeClient client = new CircuitBreakingBraintreeClient(new BraintreeSimulatorClient(new BraintreeSimulatorClient.Store(), 0, 0, 0, 0, 0) {
+            @Override
+            public Result<Transaction> refundTransaction(final String braintreeTransactionId, final BigDecimal amount) {
+                // Business error raised by BraintreeClientImpl, without any cause
+                throw new BraintreeException("Cannot refund transaction that has not yet begun settlement, and partial voids are not supported.");
+            }
+        }, 1, OPEN_MILLIS, ticker);
+
+        // Unknown transaction
+        try {
+            client.getTransactionStatus(UUID.randomUUID().toString());
+            Assert.fail();
+        } catch (final BraintreeException e) {
+            Assert.assertTrue(e.getCause() instanceof NotFoundException);
+        }
+        // Declines are regular responses
+        Assert.assertFalse(client.saleTransactionWithPaymentMethodToken(UUID.randomUUID().toString(), BigDecimal.TEN, UUID.randomUUID().toString(), true).isSuccess());
+        Assert.assertEquals(client.getState(), State.CLOSED);
+        for (int i = 0; i < 2; i++) {
+            try {
+                client.refundTransaction(UUID.randomUUID().toString(), BigDecimal.TEN);
+                Assert.fail();
+            } catch (final BraintreeException e) {
+                Assert.assertEquals(e.getClass(), BraintreeException.class);
+                Assert.assertNull(e.getCause());
+            }
+        }
+        Assert.assertEquals(client.getState(), State.CLOSED);
+        Assert.assertEquals(client.getConsecutiveFailures(), 0);
+    }
+
+    @Test(groups = "slow")
+    public void testSaturatedConnectionsOpenBreaker() throws Exception {
+        final CountDownLatch callStarted = new CountDownLatch(1);
+        final CountDownLatch releaseCall = new CountDownLatch(1);
+        final BraintreeClient limitedClient = new ConcurrencyLimitedBraintreeClient(new BraintreeSimulatorClient(new BraintreeSimulatorClient.Store(), 0, 0, 0, 0, 0) {
+            @Override
+            public String createNonceFromPaymentMethodToken(final String braintreePaymentMethodToken) {
+                callStarted.countDown();
+                Uninterruptibles.awaitUninterruptibly(releaseCall);
+                throw new BraintreeException("Could not create Braintree nonce from payment method token " + braintreePaymentMethodToken);
+            }
+        }, 1, 0);
+        final CircuitBreakingBraintreeClient client = new CircuitBreakingBraintreeClient(limitedClient, 1, OPEN_MILLIS, ticker);
+
+        // Holds the only connection
+        final Thread blockedCall = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    limitedClient.createNonceFromPaymentMethodToken(UUID.randomUUID().toString());
+                } catch (final BraintreeException ignored) {
+                }
+            }
+        });
+        blockedCall.start();
+        Assert.assertTrue(callStarted.await(10, TimeUnit.SECONDS));
+
+        try {
+            assertFails(client, BraintreeConcurrencyLimitException.class);
+            Assert.assertEquals(client.getState(), State.OPEN);
+        } finally {
+            releaseCall.countDown();
+            blockedCall.join();
+        }
+    }
+
+    @Test(groups = "slow")
+    public void testRegistryReportsTrippedBreakers() {
+        final Properties properties = new Properties();
+        properties.put("org.killbill.billing.plugin.braintree.btEnvironment", BraintreeSimulatorClient.ENVIRONMENT);
+        properties.put("org.killbill.billing.plugin.braintree.simulatorErrorRate", "1");
+        properties.put("org.killbill.billing.plugin.braintree.circuitBreakerFailureThreshold", String.valueOf(FAILURE_THRESHOLD));
+        // One failure per call
+        properties.put("org.killbill.billing.plugin.braintree.maxRetries", "0");
+        final BraintreeConfigProperties config = new BraintreeConfigProperties(properties, "");
+        final BraintreeClientRegistry registry = new BraintreeClientRegistry();
+        final UUID kbTenantId = UUID.randomUUID();
+
+        final BraintreeClient client = registry.getClient(kbTenantId, config);
+        for (int i = 0; i < FAILURE_THRESHOLD; i++) {
+            assertFails(client, BraintreeException.class);
+        }
+        assertFails(client, BraintreeCircuitOpenException.class);
+        Assert.assertEquals(registry.getCircuitBreaker(kbTenantId, config).getState(), State.OPEN);
+        Assert.assertEquals(registry.getTrippedCircuitBreakers().get(kbTenantId.toString()), State.OPEN);
+        Assert.assertEquals(registry.getCircuitBreaker(UUID.randomUUID(), config).getState(), State.CLOSED);
+    }
+
+    private static void assertFails(final BraintreeClient client, final Class<? extends BraintreeException> exceptionClass) {
+        try {
+            client.createNonceFromPaymentMethodToken(UUID.randomUUID().toString());
+            Assert.fail();
+        } catch (final BraintreeException e) {
+            Assert.assertEquals(e.getClass(), exceptionClass);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2021 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.braintree;
+
+import java.math.BigDecimal;
+import java.util.UUID;
+
+import com.braintreegateway.PaymentMethod;
+import com.braintreegateway.Result;
+import com.braintreegateway.exceptions.BraintreeException;
+import com.codahale.metrics.MetricRegistry;
+import org.killbill.billing.plugin.braintree.client.BraintreeClient;
+import org.killbill.billing.plugin.braintree.client.BraintreeOperation;
+import org.killbill.billing.plugin.braintree.client.BraintreeSimulatorClient;
+import org.killbill.billing.plugin.braintree.client.MeteredBraintreeClient;
+import org.killbill.billing.plugin.braintree.client.MeteredBraintreeClient.Outcome;
+import org.killbill.billing.plugin.braintree.core.BraintreePluginProperties.PaymentMethodType;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestMeteredBraintreeClient {
+
+    private static final String TENANT = "tenant";
+
+    @Test(groups = "slow")
+    public void testOutcomes() {
+        final MetricRegistry metricRegistry = new MetricRegistry();
+        final BraintreeClient client = new MeteredBraintreeClient(new BraintreeSimulatorClient(new BraintreeSimulatorClient.Store(), 0, 0, 0, 0, 0), metricRegistry, TENANT);
+
+        final String token = UUID.randomUUID().toString();
+        final Result<? extends PaymentMethod> paymentMethod = client.createPaymentMethod("customer", token, "fake-valid-nonce", PaymentMethodType.CARD);
+        Assert.assertTrue(paymentMethod.isSuccess());
+
+        Assert.assertTrue(client.saleTransactionWithPaymentMethodToken(UUID.randomUUID().toString(), BigDecimal.TEN, token, false).isSuccess());
+        Assert.assertFalse(client.saleTransactionWithPaymentMethodToken(UUID.randomUUID().toString(), new BigDecimal("2001.00"), token, false).isSuccess());
+        Assert.assertFalse(client.saleTransactionWithPaymentMethodToken(UUID.randomUUID().toString(), new BigDecimal("3000.00"), token, false).isSuccess());
+        // Unknown payment method
+        Assert.assertFalse(client.saleTransactionWithPaymentMethodToken(UUID.randomUUID().toString(), BigDecimal.TEN, UUID.randomUUID().toString(), false).isSuccess());
+
+        final String sale = MeteredBraintreeClient.operationName(TENANT, BraintreeOperation.SALE);
+        Assert.assertEquals(metricRegistry.timer(sale).getCount(), 4);
+        Assert.assertEquals(count(metricRegistry, sale, Outcome.SUCCESS), 1);
+        Assert.assertEquals(count(metricRegistry, sale, Outcome.PROCESSOR_DECLINED), 1);
+        Assert.assertEquals(count(metricRegistry, sale, Outcome.FAILED), 1);
+        Assert.assertEquals(count(metricRegistry, sale, Outcome.VALIDATION_ERROR), 1);
+        Assert.assertEquals(count(metricRegistry, MeteredBraintreeClient.operationName(TENANT, BraintreeOperation.CREATE_PAYMENT_METHOD), Outcome.SUCCESS), 1);
+    }
+
+    @Test(groups = "slow")
+    public void testExceptions() {
+        final MetricRegistry metricRegistry = new MetricRegistry();
+        final BraintreeClient client = new MeteredBraintreeClient(new BraintreeSimulatorClient(new BraintreeSimulatorClient.Store(), 0, 0, 0, 1, 0), metricRegistry, TENANT);
+
+        try {
+            client.getPaymentMethods("customer");
+            Assert.fail();
+        } catch (final BraintreeException e) {
+            final String operation = MeteredBraintreeClient.operationName(TENANT, BraintreeOperation.GET_PAYMENT_METHODS);
+            Assert.assertEquals(metricRegistry.timer(operation).getCount(), 1);
+            Assert.assertEquals(count(metricRegistry, operation, Outcome.EXCEPTION), 1);
+            Assert.assertEquals(count(metricRegistry, operation, Outcome.SUCCESS), 0);
+        }
+    }
+
+    private static long count(final MetricRegistry metricRegistry, final String operation, final Outcome outcome) {
+        return metricRegistry.meter(MetricRegistry.name(operation, outcome.metricName())).getCount();
+    }
+}
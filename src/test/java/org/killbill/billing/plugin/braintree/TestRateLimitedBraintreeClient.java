@@ -0,0 +1,94 @@
+/*
+ * Copyright 2021 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.braintree;
+
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.UUID;
+
+import com.braintreegateway.exceptions.BraintreeException;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.killbill.billing.plugin.braintree.client.BraintreeClient;
+import org.killbill.billing.plugin.braintree.client.BraintreeOperation.Category;
+import org.killbill.billing.plugin.braintree.client.BraintreeSimulatorClient;
+import org.killbill.billing.plugin.braintree.client.RateLimitedBraintreeClient;
+import org.killbill.billing.plugin.braintree.core.BraintreePluginProperties.PaymentMethodType;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestRateLimitedBraintreeClient {
+
+    private static final String TENANT = "test";
+
+    private final MetricRegistry metricRegistry = new MetricRegistry();
+
+    @Test(groups = "slow")
+    public void testExcessCallsWaitForTheirTurn() {
+        final BraintreeClient client = rateLimited(ImmutableMap.<Category, Double>of(Category.SEARCH, 20.0), 5000);
+
+        for (int i = 0; i < 5; i++) {
+            Assert.assertTrue(client.getTransactionStatuses(ImmutableList.of(UUID.randomUUID().toString())).isEmpty());
+        }
+
+        final String metricName = RateLimitedBraintreeClient.metricName(TENANT, Category.SEARCH);
+        Assert.assertEquals(metricRegistry.timer(MetricRegistry.name(metricName, "wait")).getCount(), 5);
+        // The calls were paced (50ms apart), not run back to back
+        Assert.assertTrue(metricRegistry.timer(MetricRegistry.name(metricName, "wait")).getSnapshot().getMax() > 0);
+        Assert.assertEquals(metricRegistry.counter(MetricRegistry.name(metricName, "waiting")).getCount(), 0);
+        Assert.assertEquals(metricRegistry.meter(MetricRegistry.name(metricName, "rejected")).getCount(), 0);
+    }
+
+    @Test(groups = "slow")
+    public void testCallsFailIfTheirTurnIsTooFarAway() {
+        final BraintreeClient client = rateLimited(ImmutableMap.<Category, Double>of(Category.SEARCH, 0.1), 100);
+
+        client.getTransactionStatuses(ImmutableList.of(UUID.randomUUID().toString()));
+        try {
+            client.getTransactionStatuses(ImmutableList.of(UUID.randomUUID().toString()));
+            Assert.fail();
+        } catch (final BraintreeException e) {
+            Assert.assertEquals(metricRegistry.meter(MetricRegistry.name(RateLimitedBraintreeClient.metricName(TENANT, Category.SEARCH), "rejected")).getCount(), 1);
+        }
+    }
+
+    @Test(groups = "slow")
+    public void testCategoriesHaveTheirOwnBudget() {
+        final BraintreeClient client = rateLimited(ImmutableMap.<Category, Double>of(Category.TRANSACTION, 0.1, Category.VAULT, 0.1), 0);
+
+        final String token = UUID.randomUUID().toString();
+        Assert.assertTrue(client.createPaymentMethod("customer", token, "fake-valid-nonce", PaymentMethodType.CARD).isSuccess());
+        Assert.assertTrue(client.saleTransactionWithPaymentMethodToken(UUID.randomUUID().toString(), BigDecimal.TEN, token, true).isSuccess());
+        // Unbounded
+        for (int i = 0; i < 10; i++) {
+            Assert.assertEquals(client.getPaymentMethods("customer").size(), 1);
+        }
+
+        try {
+            client.saleTransactionWithPaymentMethodToken(UUID.randomUUID().toString(), BigDecimal.TEN, token, true);
+            Assert.fail();
+        } catch (final BraintreeException e) {
+            Assert.assertEquals(metricRegistry.meter(MetricRegistry.name(RateLimitedBraintreeClient.metricName(TENANT, Category.TRANSACTION), "rejected")).getCount(), 1);
+            Assert.assertEquals(metricRegistry.meter(MetricRegistry.name(RateLimitedBraintreeClient.metricName(TENANT, Category.VAULT), "rejected")).getCount(), 0);
+        }
+    }
+
+    private BraintreeClient rateLimited(final Map<Category, Double> rateLimits, final long maxWaitMillis) {
+        return new RateLimitedBraintreeClient(new BraintreeSimulatorClient(new BraintreeSimulatorClient.Store(), 0, 0, 0, 0, 0), rateLimits, maxWaitMillis, metricRegistry, TENANT);
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright 2021 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.braintree;
+
+import java.math.BigDecimal;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.braintreegateway.Result;
+import com.braintreegateway.Transaction;
+import com.braintreegateway.exceptions.BraintreeException;
+import com.braintreegateway.exceptions.TimeoutException;
+import com.codahale.metrics.MetricRegistry;
+import org.killbill.billing.plugin.braintree.client.BraintreeClient;
+import org.killbill.billing.plugin.braintree.client.BraintreeOperation;
+import org.killbill.billing.plugin.braintree.client.BraintreeSimulatorClient;
+import org.killbill.billing.plugin.braintree.client.MeteredBraintreeClient;
+import org.killbill.billing.plugin.braintree.client.RetryingBraintreeClient;
+import org.killbill.billing.plugin.braintree.core.BraintreePluginProperties.PaymentMethodType;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestRetryingBraintreeClient {
+
+    private static final String TENANT = "test";
+    private static final int MAX_RETRIES = 2;
+
+    private final MetricRegistry metricRegistry = new MetricRegistry();
+
+    @Test(groups = "slow")
+    public void testRetriesCallsRejectedBeforeReachingBraintree() {
+        final BraintreeSimulatorClient.Store store = new BraintreeSimulatorClient.Store();
+        final BraintreeClient healthyClient = new BraintreeSimulatorClient(store, 0, 0, 0, 0, 0);
+        final AtomicInteger failures = new AtomicInteger(MAX_RETRIES);
+        // 503 on the first calls
+        final BraintreeClient client = retrying(new BraintreeSimulatorClient(store, 0, 0, 0, 1, 0) {
+            @Override
+            public Result<Transaction> voidTransaction(final String braintreeTransactionId) {
+                return failures.getAndDecrement() > 0 ? super.voidTransaction(braintreeTransactionId) : healthyClient.voidTransaction(braintreeTransactionId);
+            }
+        });
+
+        final String token = createPaymentMethod(healthyClient);
+        final Transaction sale = healthyClient.saleTransactionWithPaymentMethodToken(UUID.randomUUID().toString(), BigDecimal.TEN, token, false).getTarget();
+
+        Assert.assertTrue(client.voidTransaction(sale.getId()).isSuccess());
+        Assert.assertEquals(healthyClient.getTransactionStatus(sale.getId()), Transaction.Status.VOIDED);
+        Assert.assertEquals(retries(BraintreeOperation.VOID), MAX_RETRIES);
+    }
+
+    @Test(groups = "slow")
+    public void testGivesUpAfterMaxRetries() {
+        final AtomicInteger calls = new AtomicInteger();
+        final BraintreeClient client = retrying(new BraintreeSimulatorClient(new BraintreeSimulatorClient.Store(), 0, 0, 0, 1, 0) {
+            @Override
+            public Transaction.Status getTransactionStatus(final String braintreeTransactionId) {
+                calls.incrementAndGet();
+                return super.getTransactionStatus(braintreeTransactionId);
+            }
+        });
+
+        try {
+            client.getTransactionStatus(UUID.randomUUID().toString());
+            Assert.fail();
+        } catch (final BraintreeException e) {
+            Assert.assertEquals(calls.get(), MAX_RETRIES + 1);
+        }
+    }
+
+    @Test(groups = "slow")
+    public void testDoesNotRetryAmbiguousFailures() {
+        final AtomicInteger calls = new AtomicInteger();
+        final BraintreeClient client = retrying(new BraintreeSimulatorClient(new BraintreeSimulatorClient.Store(), 0, 0, 0, 0, 0) {
+            @Override
+            public Result<Transaction> refundTransaction(final String braintreeTransactionId, final BigDecimal amount) {
+                calls.incrementAndGet();
+                // The refund may have been processed: retrying it could refund twice
+                throw new BraintreeException("Could not refund transaction " + braintreeTransactionId, new TimeoutException("Read timed out", new SocketTimeoutException()));
+            }
+        });
+
+        try {
+            client.refundTransaction(UUID.randomUUID().toString(), BigDecimal.TEN);
+            Assert.fail();
+        } catch (final BraintreeException e) {
+            Assert.assertEquals(calls.get(), 1);
+            Assert.assertEquals(retries(BraintreeOperation.REFUND), 0);
+        }
+    }
+
+    @Test(groups = "slow")
+    public void testSaleIsNotSubmittedTwice() {
+        final BraintreeSimulatorClient.Store store = new BraintreeSimulatorClient.Store();
+        final AtomicInteger sales = new AtomicInteger();
+        final AtomicReference<String> processedTransactionId = new AtomicReference<String>();
+        final BraintreeSimulatorClient simulatorClient = new BraintreeSimulatorClient(store, 0, 0, 0, 0, 0) {
+            @Override
+            public Result<Transaction> saleTransactionWithPaymentMethodToken(final String orderId, final BigDecimal amount, final String braintreePaymentMethodToken, final boolean submitForSettlement) {
+                sales.incrementAndGet();
+                // Processed by Braintree, but the response is lost
+                processedTransactionId.set(super.saleTransactionWithPaymentMethodToken(orderId, amount, braintreePaymentMethodToken, submitForSettlement).getTarget().getId());
+                throw new BraintreeException("Could not complete sale transaction with payment method " + braintreePaymentMethodToken, new TimeoutException("Read timed out", new SocketTimeoutException()));
+            }
+        };
+        final BraintreeClient client = retrying(simulatorClient);
+
+        final String token = createPaymentMethod(simulatorClient);
+        final String orderId = UUID.randomUUID().toString();
+        final Result<Transaction> result = client.saleTransactionWithPaymentMethodToken(orderId, BigDecimal.TEN, token, false);
+
+        Assert.assertEquals(sales.get(), 1);
+        Assert.assertEquals(BraintreeClient.getTransactionInstance(result).getId(), processedTransactionId.get());
+        Assert.assertEquals(BraintreeClient.getTransactionInstance(result).getStatus(), Transaction.Status.AUTHORIZED);
+        Assert.assertEquals(retries(BraintreeOperation.SALE), 1);
+    }
+
+    @Test(groups = "slow")
+    public void testSaleIsResubmittedIfBraintreeDidNotProcessIt() {
+        final BraintreeSimulatorClient.Store store = new BraintreeSimulatorClient.Store();
+        final AtomicInteger sales = new AtomicInteger();
+        final BraintreeSimulatorClient simulatorClient = new BraintreeSimulatorClient(store, 0, 0, 0, 0, 0) {
+            @Override
+            public Result<Transaction> saleTransactionWithPaymentMethodToken(final String orderId, final BigDecimal amount, final String braintreePaymentMethodToken, final boolean submitForSettlement) {
+                if (sales.incrementAndGet() == 1) {
+                    // Connection refused: Braintree never got the request
+                    throw new BraintreeException("Could not complete sale transaction with payment method " + braintreePaymentMethodToken, new ConnectException("Connection refused"));
+                }
+                return super.saleTransactionWithPaymentMethodToken(orderId, amount, braintreePaymentMethodToken, submitForSettlement);
+            }
+        };
+        final BraintreeClient client = retrying(simulatorClient);
+
+        final String token = createPaymentMethod(simulatorClient);
+        final String orderId = UUID.randomUUID().toString();
+        final Result<Transaction> result = client.saleTransactionWithPaymentMethodToken(orderId, BigDecimal.TEN, token, true);
+
+        Assert.assertTrue(result.isSuccess());
+        Assert.assertEquals(sales.get(), 2);
+        Assert.assertEquals(simulatorClient.findSaleTransactionByOrderId(orderId).getId(), result.getTarget().getId());
+    }
+
+    @Test(groups = "slow")
+    public void testSaleIsNotResubmittedIfLookupFindsNothing() {
+        final BraintreeSimulatorClient.Store store = new BraintreeSimulatorClient.Store();
+        final AtomicInteger sales = new AtomicInteger();
+        final AtomicInteger lookups = new AtomicInteger();
+        final BraintreeSimulatorClient simulatorClient = new BraintreeSimulatorClient(store, 0, 0, 0, 0, 0) {
+            @Override
+            public Result<Transaction> saleTransactionWithPaymentMethodToken(final String orderId, final BigDecimal amount, final String braintreePaymentMethodToken, final boolean submitForSettlement) {
+                sales.incrementAndGet();
+                throw new BraintreeException("Could not complete sale transaction with payment method " + braintreePaymentMethodToken, new TimeoutException("Read timed out", new SocketTimeoutException()));
+            }
+
+            @Override
+            public Transaction findSaleTransactionByOrderId(final String orderId) {
+                lookups.incrementAndGet();
+                // The sale may have been processed, but isn't searchable yet
+                return null;
+            }
+        };
+        final BraintreeClient client = retrying(simulatorClient);
+
+        final String token = createPaymentMethod(simulatorClient);
+        try {
+            client.saleTransactionWithPaymentMethodToken(UUID.randomUUID().toString(), BigDecimal.TEN, token, true);
+            Assert.fail();
+        } catch (final BraintreeException e) {
+            Assert.assertTrue(e.getCause() instanceof TimeoutException);
+        }
+        Assert.assertEquals(sales.get(), 1);
+        Assert.assertEquals(lookups.get(), 1);
+    }
+
+    private BraintreeClient retrying(final BraintreeClient delegate) {
+        // No backoff, to keep the test fast
+        return new RetryingBraintreeClient(delegate, MAX_RETRIES, 0, 0, metricRegistry, TENANT);
+    }
+
+    private long retries(final BraintreeOperation operation) {
+        return metricRegistry.meter(MetricRegistry.name(MeteredBraintreeClient.operationName(TENANT, operation), "retries")).getCount();
+    }
+
+    private static String createPaymentMethod(final BraintreeClient client) {
+        final String token = UUID.randomUUID().toString();
+        Assert.assertTrue(client.createPaymentMethod("customer", token, "fake-valid-nonce", PaymentMethodType.CARD).isSuccess());
+        return token;
+    }
+}